@@ -22,7 +22,9 @@ import org.apache.karaf.cave.deployer.DeployerService;
 import org.apache.karaf.cave.deployer.FeaturesRepository;
 import org.apache.karaf.features.internal.model.*;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositoryCache;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryCache;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
@@ -79,6 +81,9 @@ public class DeployerServiceImpl implements DeployerService {
 
     private final static String CONFIG_PID = "org.apache.karaf.cave.deployer";
 
+    private RepositorySystem repositorySystem;
+    private final RepositoryCache repositoryCache = new DefaultRepositoryCache();
+
     @Override
     public void registerConnection(Connection connection) throws Exception {
         Configuration configuration = configurationAdmin.getConfiguration(CONFIG_PID);
@@ -381,15 +386,26 @@ public class DeployerServiceImpl implements DeployerService {
         uploadArtifact(groupId, artifactId, version, extension, null, artifactFile, repositoryUrl);
     }
 
-    protected void uploadArtifact(String groupId, String artifactId, String version, String extension, String classifier, File artifactFile, String repositoryUrl) throws Exception {
-        DefaultServiceLocator defaultServiceLocator = MavenRepositorySystemUtils.newServiceLocator();
-        defaultServiceLocator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
-        defaultServiceLocator.addService(TransporterFactory.class, FileTransporterFactory.class);
-        defaultServiceLocator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+    /**
+     * Get the repository system, shared by all uploads.
+     */
+    private synchronized RepositorySystem repositorySystem() {
+        if (repositorySystem == null) {
+            DefaultServiceLocator defaultServiceLocator = MavenRepositorySystemUtils.newServiceLocator();
+            defaultServiceLocator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+            defaultServiceLocator.addService(TransporterFactory.class, FileTransporterFactory.class);
+            defaultServiceLocator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+            repositorySystem = defaultServiceLocator.getService(RepositorySystem.class);
+        }
+        return repositorySystem;
+    }
 
-        RepositorySystem repositorySystem = defaultServiceLocator.getService(RepositorySystem.class);
+    protected void uploadArtifact(String groupId, String artifactId, String version, String extension, String classifier, File artifactFile, String repositoryUrl) throws Exception {
+        RepositorySystem repositorySystem = repositorySystem();
 
         DefaultRepositorySystemSession repositorySystemSession = MavenRepositorySystemUtils.newSession();
+        // the HTTP transport state (keep-alive connections pool) is kept in the cache, shared by all uploads
+        repositorySystemSession.setCache(repositoryCache);
         LocalRepository localRepository = new LocalRepository(System.getProperty("user.home") + "/.m2/repository");
         LocalRepositoryManager localRepositoryManager = repositorySystem.newLocalRepositoryManager(repositorySystemSession, localRepository);
         repositorySystemSession.setLocalRepositoryManager(localRepositoryManager);
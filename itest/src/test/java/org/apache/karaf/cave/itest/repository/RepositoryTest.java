@@ -28,10 +28,17 @@ import org.ops4j.pax.exam.karaf.options.KarafDistributionOption;
 import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
 import org.ops4j.pax.exam.spi.reactors.PerMethod;
 
+import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.stream.Stream;
 
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
 @RunWith(PaxExam.class)
 @ExamReactorStrategy(PerMethod.class)
 public class RepositoryTest extends KarafTestSupport {
@@ -39,7 +46,9 @@ public class RepositoryTest extends KarafTestSupport {
     @Configuration
     public Option[] config() {
         Option[] options = new Option[]{
-                KarafDistributionOption.editConfigurationFilePut("etc/system.properties", "cave.version", System.getProperty("cave.version"))
+                KarafDistributionOption.editConfigurationFilePut("etc/system.properties", "cave.version", System.getProperty("cave.version")),
+                // the resolvers are created on first request only
+                KarafDistributionOption.editConfigurationFilePut("etc/org.apache.karaf.cave.repository.cfg", "resolver.warmup", "false")
         };
         return Stream.of(super.config(), options).flatMap(Stream::of).toArray(Option[]::new);
     }
@@ -147,6 +156,47 @@ public class RepositoryTest extends KarafTestSupport {
         System.out.println(repositoryList);
     }
 
+    @Test(timeout = 300000L)
+    public void startupTest() throws Exception {
+        installCaveRepository();
+        // a local proxied repository, the test doesn't depend on the network
+        Path proxied = Files.createTempDirectory("cave-proxied");
+        Path jar = Files.createDirectories(proxied.resolve("org/foo/bar/1.0")).resolve("bar-1.0.jar");
+        Files.write(jar, "bar".getBytes(StandardCharsets.UTF_8));
+        String proxy = proxied.toUri().toString() + "\\@id=Local";
+        int count = 100;
+        for (int i = 0; i < count; i++) {
+            executeCommand("cave:repository-create -p " + proxy + " STARTUP" + i);
+        }
+        String bundleId = executeCommand("bundle:id org.apache.karaf.cave.repository.service").trim();
+        executeCommand("bundle:stop " + bundleId, new RolePrincipal("admin"));
+        executeCommand("bundle:start " + bundleId, new RolePrincipal("admin"));
+        String httpList = executeCommand("http:list");
+        for (int i = 0; i < 600 && !httpList.contains("/cave/repository/STARTUP" + (count - 1)); i++) {
+            Thread.sleep(100);
+            httpList = executeCommand("http:list");
+        }
+        assertContains("/cave/repository/STARTUP" + (count - 1), httpList);
+
+        // the repositories are served without any resolver, created on the first proxied request
+        Assert.assertEquals(0L, transportStatus("activePools"));
+        URL url = new URL("http://localhost:" + getHttpPort() + "/cave/repository/STARTUP0/org/foo/bar/1.0/bar-1.0.jar");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals(3, connection.getContentLength());
+        Assert.assertTrue(transportStatus("activePools") > 0);
+
+        for (int i = 0; i < count; i++) {
+            executeCommand("cave:repository-remove STARTUP" + i);
+        }
+    }
+
+    private long transportStatus(String name) throws Exception {
+        TabularData transport = (TabularData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName("org.apache.karaf.cave:type=repository"), "Transport");
+        return (Long) transport.get(new Object[]{ name }).get("value");
+    }
+
     private void installCaveRepository() throws Exception {
         executeCommand("feature:repo-add cave " + System.getProperty("cave.version"));
         executeCommand("feature:install cave-repository", new RolePrincipal("admin"));
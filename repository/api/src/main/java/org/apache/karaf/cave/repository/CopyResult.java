@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository;
+
+/**
+ * Statistics of a repository storage copy.
+ */
+public class CopyResult {
+
+    private long filesCopied;
+    private long filesLinked;
+    private long filesSkipped;
+    private long bytesTransferred;
+    private long duration;
+
+    /**
+     * Get the number of files actually copied to the destination repository.
+     *
+     * @return the number of copied files.
+     */
+    public long getFilesCopied() {
+        return filesCopied;
+    }
+
+    /**
+     * Set the number of files actually copied to the destination repository.
+     *
+     * @param filesCopied the number of copied files.
+     */
+    public void setFilesCopied(long filesCopied) {
+        this.filesCopied = filesCopied;
+    }
+
+    /**
+     * Get the number of files hard linked in the destination repository.
+     *
+     * @return the number of linked files.
+     */
+    public long getFilesLinked() {
+        return filesLinked;
+    }
+
+    /**
+     * Set the number of files hard linked in the destination repository.
+     *
+     * @param filesLinked the number of linked files.
+     */
+    public void setFilesLinked(long filesLinked) {
+        this.filesLinked = filesLinked;
+    }
+
+    /**
+     * Get the number of files skipped as already up to date in the destination repository.
+     *
+     * @return the number of skipped files.
+     */
+    public long getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    /**
+     * Set the number of files skipped as already up to date in the destination repository.
+     *
+     * @param filesSkipped the number of skipped files.
+     */
+    public void setFilesSkipped(long filesSkipped) {
+        this.filesSkipped = filesSkipped;
+    }
+
+    /**
+     * Get the number of bytes written in the destination repository.
+     *
+     * @return the number of transferred bytes.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * Set the number of bytes written in the destination repository.
+     *
+     * @param bytesTransferred the number of transferred bytes.
+     */
+    public void setBytesTransferred(long bytesTransferred) {
+        this.bytesTransferred = bytesTransferred;
+    }
+
+    /**
+     * Get the copy duration.
+     *
+     * @return the copy duration in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Set the copy duration.
+     *
+     * @param duration the copy duration in milliseconds.
+     */
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        return filesCopied + " file(s) copied, " + filesLinked + " file(s) linked, " + filesSkipped + " file(s) up to date, "
+                + bytesTransferred + " byte(s) transferred in " + duration + " ms";
+    }
+
+}
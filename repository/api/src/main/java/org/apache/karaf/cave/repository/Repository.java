@@ -32,6 +32,10 @@ public class Repository {
     private String scheduling;
     private String schedulingAction;
     private int poolSize;
+    private long quota;
+    private long metadataTtl;
+    private boolean offline;
+    private String members;
 
     /**
      * Get repository name.
@@ -235,4 +239,79 @@ public class Repository {
     public void setPoolSize(int poolSize) {
         this.poolSize = poolSize;
     }
+
+    /**
+     * Get the storage quota of the repository, enforced by evicting the least recently used artifacts.
+     *
+     * @return the quota in bytes, 0 for unlimited.
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * Set the storage quota of the repository.
+     *
+     * @param quota the quota in bytes, 0 for unlimited.
+     */
+    public void setQuota(long quota) {
+        this.quota = quota;
+    }
+
+    /**
+     * Get the time to live of the metadata cached from the proxied repositories. The stale metadata are served while
+     * being refreshed in background.
+     *
+     * @return the TTL in seconds, 0 to always resolve the metadata from the proxied repositories.
+     */
+    public long getMetadataTtl() {
+        return metadataTtl;
+    }
+
+    /**
+     * Set the time to live of the metadata cached from the proxied repositories.
+     *
+     * @param metadataTtl the TTL in seconds, 0 to always resolve the metadata from the proxied repositories.
+     */
+    public void setMetadataTtl(long metadataTtl) {
+        this.metadataTtl = metadataTtl;
+    }
+
+    /**
+     * Check if the repository is offline: the proxied repositories are not contacted, only the stored artifacts and
+     * cached metadata are served.
+     *
+     * @return true if the repository is offline, false else.
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Set the repository offline mode.
+     *
+     * @param offline true to serve only the stored artifacts and cached metadata, false else.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Get the members of a group repository.
+     *
+     * @return the comma separated names of the member repositories (in lookup order), {@code null} if the repository
+     * is not a group.
+     */
+    public String getMembers() {
+        return members;
+    }
+
+    /**
+     * Set the members of a group repository.
+     *
+     * @param members the comma separated names of the member repositories, in lookup order.
+     */
+    public void setMembers(String members) {
+        this.members = members;
+    }
 }
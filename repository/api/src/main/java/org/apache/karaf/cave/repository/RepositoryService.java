@@ -17,6 +17,8 @@
 package org.apache.karaf.cave.repository;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Manage Cave repositories.
@@ -97,11 +99,106 @@ public interface RepositoryService {
 
     /**
      * Purge the storage of an existing repository.
+     * The storage is emptied immediately, the disk space is reclaimed in background.
      *
      * @param name the repository name.
      */
     void purge(String name) throws Exception;
 
+    /**
+     * Get the status of the background storage reclaim (purged repositories and deleted artifacts are first moved to a
+     * trash folder, then deleted in background).
+     *
+     * @return the number of pending trash entries ({@code pendingEntries}), deleted files ({@code deletedFiles}) and reclaimed bytes ({@code reclaimedBytes}),
+     * and the blob store status when the deduplicated storage is enabled ({@code blobs}, {@code blobBytes}, {@code sharedBytes},
+     * {@code reclaimedBlobs} and {@code reclaimedBlobBytes}).
+     */
+    Map<String, Long> reclaimStatus();
+
+    /**
+     * Get the status of the HTTP connections pools used to reach the proxied repositories. A pool is shared by all the
+     * repositories (and upstreams) using the same Maven resolver configuration.
+     *
+     * @return the number of pools ({@code pools}), pools with open connections ({@code activePools}), repositories and
+     * upstreams using them ({@code poolUsers}), pools closed after the idle timeout ({@code evictedPools}), and the
+     * connections limits per host ({@code maxPerRoute}) and per pool ({@code maxTotal}).
+     */
+    Map<String, Long> transportStatus();
+
+    /**
+     * Deduplicate the artifacts of a repository: the artifacts are moved to the content-addressable blob store shared by
+     * the repositories, and the repository paths become links to the blobs.
+     * The deduplicated storage has to be enabled ({@code storage.dedup} configuration).
+     *
+     * @param name the repository name.
+     * @return the number of scanned files ({@code files}), stored files ({@code storedFiles}), files replaced by a link
+     * to an existing blob ({@code deduplicatedFiles}) and the corresponding saved bytes ({@code deduplicatedBytes}).
+     */
+    Map<String, Long> dedup(String name) throws Exception;
+
+    /**
+     * Evict the least recently/frequently used artifacts of a proxy repository until its storage is under the quota.
+     * The evicted artifacts are moved to the trash and the space is reclaimed in background.
+     *
+     * @param name the repository name.
+     * @return the quota ({@code quota}), the storage size after eviction ({@code size}), the number of evicted
+     * artifact folders ({@code evictedFolders}) and evicted bytes ({@code evictedBytes}).
+     */
+    Map<String, Long> evict(String name) throws Exception;
+
+    /**
+     * Get the request metrics of a repository: bytes in/out ({@code bytes.in}, {@code bytes.out}), in-flight requests
+     * ({@code requests.inflight}), coalesced requests ({@code requests.coalesced}, {@code requests.waiting}) and the
+     * latencies in microseconds by request kind (for instance {@code get.artifact.hit.count}, {@code get.artifact.hit.sum},
+     * {@code get.artifact.hit.max}, {@code get.artifact.hit.p50}, {@code get.artifact.hit.p99}).
+     *
+     * @param name the repository name.
+     * @return the metric values by name.
+     */
+    Map<String, Long> metrics(String name) throws Exception;
+
+    /**
+     * Get the most requested artifacts of a repository. The request counts are estimated (with a bounded memory) and
+     * periodically decayed, to follow the traffic changes.
+     *
+     * @param name the repository name.
+     * @param count the maximum number of artifacts.
+     * @return the estimated request counts by artifact path, the most requested first.
+     */
+    Map<String, Long> top(String name, int count) throws Exception;
+
+    /**
+     * Get the health of the upstreams (proxied repositories) of a repository, with their circuit breaker state.
+     *
+     * @param name the repository name.
+     * @return the upstream health (breaker {@code state}, {@code failureRate} in percent, {@code latency} moving average
+     * in milliseconds, number of {@code trips} and {@code retryIn} seconds when open) by upstream id, empty if the
+     * upstreams are not tracked.
+     */
+    Map<String, Map<String, String>> upstreams(String name) throws Exception;
+
+    /**
+     * Get the levels of the rate limiting token buckets, per authenticated user ({@code user:<name>}), client address
+     * ({@code ip:<address>}) and repository ({@code repository:<name>}).
+     *
+     * @return the number of {@code requests} and {@code bytes} available (negative when in debt) by bucket, empty if
+     * the rate limiting is disabled.
+     */
+    Map<String, Map<String, Long>> rateLimits();
+
+    /**
+     * Get the status of the in-memory index of a hosted repository storage (paths trie and Bloom filter), used to
+     * reject the requests for missing artifacts and to serve the directory listings.
+     * The index has to be enabled ({@code storage.index} configuration).
+     *
+     * @param name the repository name.
+     * @param rebuild true to build the index again (in background) from the repository storage.
+     * @return the index state ({@code ready}), the number of indexed {@code files} and {@code directories}, the
+     * estimated memory footprint in bytes of the trie ({@code trieBytes}) and of the Bloom filter ({@code bloomBytes}),
+     * and the lookup counters ({@code lookups}, {@code bloomRejected}, {@code trieMisses}).
+     */
+    Map<String, Long> index(String name, boolean rebuild) throws Exception;
+
     /**
      * Change the location of an existing repository.
      *
@@ -146,6 +243,61 @@ public interface RepositoryService {
      */
     void changeScheduling(String name, String scheduling, String schedulingAction) throws Exception;
 
+    /**
+     * Remove the old timestamped builds of the SNAPSHOT artifacts of a repository, updating the version metadata.
+     * The removed files are reclaimed in background.
+     *
+     * @param name the repository name.
+     * @param keep the number of last builds to keep for each SNAPSHOT version (at least one).
+     * @param maxAge the age in seconds under which the builds are kept, 0 to keep only the last builds.
+     * @return the number of SNAPSHOT versions ({@code snapshots}), the number of kept builds ({@code keptBuilds}), the
+     * number of removed builds ({@code removedBuilds}), files ({@code removedFiles}) and bytes ({@code removedBytes}).
+     */
+    Map<String, Long> cleanupSnapshots(String name, int keep, long maxAge) throws Exception;
+
+    /**
+     * Change the repository storage quota. The quota of the proxy repositories is enforced in background.
+     *
+     * @param name the repository name.
+     * @param quota the quota in bytes, 0 for unlimited.
+     */
+    void changeQuota(String name, long quota) throws Exception;
+
+    /**
+     * Change the time to live of the metadata cached from the proxied repositories.
+     *
+     * @param name the repository name.
+     * @param ttl the TTL in seconds, 0 to always resolve the metadata from the proxied repositories.
+     */
+    void changeMetadataTtl(String name, long ttl) throws Exception;
+
+    /**
+     * Create a group repository, exposing the member repositories behind a single URL. The artifacts are looked up in
+     * the members in order, and the {@code maven-metadata.xml} of all the members are merged.
+     *
+     * @param name the group repository name.
+     * @param members the comma separated names of the member repositories (not groups), in lookup order.
+     * @return the {@link Repository} created.
+     */
+    Repository createGroup(String name, String members) throws Exception;
+
+    /**
+     * Change the members of a group repository.
+     *
+     * @param name the group repository name.
+     * @param members the comma separated names of the member repositories (not groups), in lookup order.
+     */
+    void changeMembers(String name, String members) throws Exception;
+
+    /**
+     * Change the offline mode of a proxy repository. When offline, the proxied repositories are not contacted, only
+     * the stored artifacts and cached metadata are served.
+     *
+     * @param name the repository name.
+     * @param offline true to put the repository offline, false to put it back online.
+     */
+    void changeOffline(String name, boolean offline) throws Exception;
+
     /**
      * Copy storage of a repository into another repository.
      *
@@ -154,6 +306,18 @@ public interface RepositoryService {
      */
     void copy(String sourceRepository, String destinationRepository) throws Exception;
 
+    /**
+     * Incrementally copy storage of a repository into another repository.
+     * Files already present in the destination with the same size and modification time (or the same checksum) are skipped,
+     * other files are transferred in parallel.
+     *
+     * @param sourceRepository the source repository name.
+     * @param destinationRepository the destination repository name.
+     * @param mode the transfer mode: {@code copy} (default) or {@code link} to create hard links when both repositories share the same filesystem.
+     * @return the {@link CopyResult} statistics.
+     */
+    CopyResult copy(String sourceRepository, String destinationRepository, String mode) throws Exception;
+
     /**
      * Get the list of existing repositories.
      *
@@ -190,6 +354,26 @@ public interface RepositoryService {
      */
     void addArtifact(String url, String groupId, String artifactId, String version, String type, String classifier, String name) throws Exception;
 
+    /**
+     * Add several artifacts in the repository identified by the given name.
+     * The artifacts are downloaded in parallel and installed in a single batch.
+     *
+     * @param urls the artifact URLs.
+     * @param name the repository name.
+     */
+    void addArtifacts(List<String> urls, String name) throws Exception;
+
+    /**
+     * Warm up a repository: resolve artifacts through the repository (and so its proxied repositories) in parallel.
+     *
+     * @param name the repository name.
+     * @param sources the Maven coordinates ({@code mvn:groupId/artifactId/version[/type[/classifier]]} or
+     *                {@code groupId:artifactId:version[:type[:classifier]]}), features XML or KAR (all referenced or
+     *                contained artifacts are resolved).
+     * @return the {@link WarmResult} statistics.
+     */
+    WarmResult warm(String name, List<String> sources) throws Exception;
+
     /**
      * Delete an artifact in the given repository.
      *
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistics of a repository warm up.
+ */
+public class WarmResult {
+
+    private long artifactsResolved;
+    private long bytesResolved;
+    private List<String> failures = new ArrayList<>();
+    private long duration;
+
+    /**
+     * Get the number of artifacts resolved through the repository.
+     *
+     * @return the number of resolved artifacts.
+     */
+    public long getArtifactsResolved() {
+        return artifactsResolved;
+    }
+
+    /**
+     * Set the number of artifacts resolved through the repository.
+     *
+     * @param artifactsResolved the number of resolved artifacts.
+     */
+    public void setArtifactsResolved(long artifactsResolved) {
+        this.artifactsResolved = artifactsResolved;
+    }
+
+    /**
+     * Get the size of the resolved artifacts.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesResolved() {
+        return bytesResolved;
+    }
+
+    /**
+     * Set the size of the resolved artifacts.
+     *
+     * @param bytesResolved the number of bytes.
+     */
+    public void setBytesResolved(long bytesResolved) {
+        this.bytesResolved = bytesResolved;
+    }
+
+    /**
+     * Get the artifacts (mvn URLs) which can't be resolved.
+     *
+     * @return the list of failed artifacts.
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Set the artifacts (mvn URLs) which can't be resolved.
+     *
+     * @param failures the list of failed artifacts.
+     */
+    public void setFailures(List<String> failures) {
+        this.failures = failures;
+    }
+
+    /**
+     * Get the warm up duration.
+     *
+     * @return the warm up duration in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Set the warm up duration.
+     *
+     * @param duration the warm up duration in milliseconds.
+     */
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        return artifactsResolved + " artifact(s) resolved (" + bytesResolved + " byte(s)), " + failures.size()
+                + " failure(s) in " + duration + " ms";
+    }
+
+}
@@ -16,21 +16,42 @@
  */
 package org.apache.karaf.cave.repository.service;
 
+import org.apache.karaf.cave.repository.CopyResult;
 import org.apache.karaf.cave.repository.Repository;
 import org.apache.karaf.cave.repository.RepositoryService;
+import org.apache.karaf.cave.repository.WarmResult;
 import org.apache.karaf.cave.repository.service.bundlerepository.BundleRepository;
 import org.apache.karaf.cave.repository.service.bundlerepository.ResourceBuilder;
 import org.apache.karaf.cave.repository.service.bundlerepository.ResourceImpl;
 import org.apache.karaf.cave.repository.service.bundlerepository.ResourceUtils;
+import org.apache.karaf.cave.repository.service.maven.ArtifactUpload;
 import org.apache.karaf.cave.repository.service.maven.ConsoleRepositoryListener;
 import org.apache.karaf.cave.repository.service.maven.ConsoleTransferListener;
+import org.apache.karaf.cave.repository.service.maven.DirectoryListing;
+import org.apache.karaf.cave.repository.service.maven.GroupServlet;
+import org.apache.karaf.cave.repository.service.maven.MavenResolverProvider;
 import org.apache.karaf.cave.repository.service.maven.MavenServlet;
+import org.apache.karaf.cave.repository.service.maven.MetadataCache;
+import org.apache.karaf.cave.repository.service.maven.PathIndex;
+import org.apache.karaf.cave.repository.service.maven.RateLimiter;
+import org.apache.karaf.cave.repository.service.maven.SnapshotCleaner;
+import org.apache.karaf.cave.repository.service.maven.ThreadFactory;
+import org.apache.karaf.cave.repository.service.maven.UpstreamHealth;
+import org.apache.karaf.cave.repository.service.maven.UpstreamLookup;
+import org.apache.karaf.cave.repository.service.maven.Warmer;
+import org.apache.karaf.cave.repository.service.metrics.HeavyHitters;
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
 import org.apache.karaf.cave.repository.service.scheduler.RepositoryJob;
+import org.apache.karaf.cave.repository.service.storage.AccessTracker;
+import org.apache.karaf.cave.repository.service.storage.BlobStore;
+import org.apache.karaf.cave.repository.service.storage.StorageEvictor;
+import org.apache.karaf.cave.repository.service.storage.StorageReaper;
 import org.apache.karaf.scheduler.ScheduleOptions;
 import org.apache.karaf.scheduler.Scheduler;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
@@ -43,7 +64,6 @@ import org.eclipse.aether.spi.connector.transport.TransporterFactory;
 import org.eclipse.aether.transport.file.FileTransporterFactory;
 import org.eclipse.aether.transport.http.HttpTransporterFactory;
 import org.ops4j.pax.url.mvn.MavenResolver;
-import org.ops4j.pax.url.mvn.MavenResolvers;
 import org.osgi.framework.BundleException;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Resource;
@@ -53,6 +73,8 @@ import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.http.HttpService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.DatatypeConverter;
 import javax.xml.stream.XMLStreamException;
@@ -68,27 +90,41 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
@@ -114,11 +150,56 @@ public class RepositoryServiceImpl implements RepositoryService {
 
     private final static Pattern mvnPattern = Pattern.compile("mvn:([^/ ]+)/([^/ ]+)/([^/ ]*)(/([^/ ]+)(/([^/ ]+))?)?");
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryServiceImpl.class);
+
     private static final String STORAGE_FILE = "repositories.db";
+    // separates the repository name and the upstream id in the resolver provider owners
+    private static final String UPSTREAM_SEPARATOR = "@upstream:";
+    private static final String POPULAR_FILE = "popular.db";
+
+    private static final String COPY_MODE = "copy";
+    private static final String LINK_MODE = "link";
 
     private File baseStorage;
     private final Map<String, Repository> repositories = new ConcurrentHashMap<>();
     private String httpContext;
+    private ThreadPoolExecutor executor;
+    private StorageReaper reaper;
+    private StorageEvictor evictor;
+    private SnapshotCleaner snapshotCleaner;
+    private BlobStore blobStore;
+    private ScheduledThreadPoolExecutor evictionScheduler;
+    private final Map<String, AccessTracker> accessTrackers = new ConcurrentHashMap<>();
+    private final Map<String, MetadataCache> metadataCaches = new ConcurrentHashMap<>();
+    private long metadataTtl;
+    private UpstreamLookup.Mode lookupMode;
+    private long hedgeDelay;
+    private double breakerThreshold;
+    private int breakerMinRequests;
+    private long breakerOpenDuration;
+    private final Map<String, UpstreamLookup> upstreamLookups = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, UpstreamHealth>> upstreamHealths = new ConcurrentHashMap<>();
+    private DirectoryListing listing;
+    private boolean indexEnabled;
+    private double indexFpp;
+    private final Map<String, PathIndex> pathIndexes = new ConcurrentHashMap<>();
+    // servlets of the registered repositories, used by the group repositories to look up their members in process
+    private final Map<String, MavenServlet> servlets = new ConcurrentHashMap<>();
+    private final Map<String, RepositoryMetrics> metrics = new ConcurrentHashMap<>();
+    // null if no rate is limited
+    private RateLimiter rateLimiter;
+    private int popularSize;
+    private int prefetchConcurrency;
+    private long popularDecayPeriod;
+    private final Map<Hashtable<String, String>, MavenResolverProvider> resolverProviders = new HashMap<>();
+    private final Map<String, MavenResolverProvider> repositoryResolverProviders = new HashMap<>();
+    private int httpMaxPerRoute;
+    private int httpMaxTotal;
+    private boolean httpKeepAlive;
+    private long httpIdleTimeout;
+    private final AtomicLong resolverEvictions = new AtomicLong();
+    private RepositorySystem repositorySystem;
+    private final Map<String, DefaultRepositorySystemSession> repositorySystemSessions = new HashMap<>();
 
     @Activate
     public void activate(ComponentContext componentContext) throws Exception {
@@ -131,20 +212,122 @@ public class RepositoryServiceImpl implements RepositoryService {
     protected void activate(Dictionary<String, Object> properties) throws Exception {
         baseStorage = new File((properties.get("storage.location") != null) ? properties.get("storage.location").toString() : System.getProperty("karaf.data") + File.separator + "cave" + File.separator + "repository");
         httpContext = (properties.get("http.context") != null) ? properties.get("http.context").toString() : "/cave/repository";
+        int workers = (properties.get("worker.pool.size") != null) ? Integer.parseInt(properties.get("worker.pool.size").toString()) : Runtime.getRuntime().availableProcessors() * 2;
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory("CaveRepositoryWorker"));
+        executor.allowCoreThreadTimeOut(true);
+        reaper = new StorageReaper((properties.get("storage.reaper.rate") != null) ? Integer.parseInt(properties.get("storage.reaper.rate").toString()) : 1000);
+        reaper.start();
+        if ((properties.get("storage.dedup") != null) && Boolean.parseBoolean(properties.get("storage.dedup").toString())) {
+            if (BlobStore.isSupported()) {
+                blobStore = new BlobStore(new File(baseStorage, BlobStore.BLOBS_FOLDER).toPath().toAbsolutePath());
+                reaper.setBlobStore(blobStore);
+            } else {
+                LOGGER.warn("Deduplicated storage is not supported on this platform (hard links count required)");
+            }
+        }
+        evictor = new StorageEvictor(reaper);
+        snapshotCleaner = new SnapshotCleaner(reaper, (properties.get("snapshot.cleanup.rate") != null) ? Integer.parseInt(properties.get("snapshot.cleanup.rate").toString()) : 1000);
+        long evictionPeriod = (properties.get("storage.eviction.period") != null) ? Long.parseLong(properties.get("storage.eviction.period").toString()) : 300;
+        listing = new DirectoryListing((properties.get("listing.cache.size") != null) ? Integer.parseInt(properties.get("listing.cache.size").toString()) : 256);
+        indexEnabled = (properties.get("storage.index") != null) && Boolean.parseBoolean(properties.get("storage.index").toString());
+        indexFpp = (properties.get("storage.index.fpp") != null) ? Double.parseDouble(properties.get("storage.index.fpp").toString()) : 0.01;
+        popularSize = (properties.get("popular.size") != null) ? Integer.parseInt(properties.get("popular.size").toString()) : 100;
+        popularDecayPeriod = TimeUnit.MINUTES.toMillis((properties.get("popular.decay.period") != null) ? Long.parseLong(properties.get("popular.decay.period").toString()) : 60);
+        boolean prefetch = (properties.get("proxy.prefetch") != null) && Boolean.parseBoolean(properties.get("proxy.prefetch").toString());
+        prefetchConcurrency = prefetch ? ((properties.get("proxy.prefetch.concurrency") != null) ? Integer.parseInt(properties.get("proxy.prefetch.concurrency").toString()) : 4) : 0;
+        metadataTtl = (properties.get("proxy.metadata.ttl") != null) ? Long.parseLong(properties.get("proxy.metadata.ttl").toString()) : 60;
+        lookupMode = (properties.get("proxy.lookup") != null) ? UpstreamLookup.Mode.parse(properties.get("proxy.lookup").toString()) : UpstreamLookup.Mode.SEQUENTIAL;
+        hedgeDelay = (properties.get("proxy.lookup.hedge.delay") != null) ? Long.parseLong(properties.get("proxy.lookup.hedge.delay").toString()) : 100;
+        breakerThreshold = ((properties.get("proxy.breaker.threshold") != null) ? Integer.parseInt(properties.get("proxy.breaker.threshold").toString()) : 50) / 100.0;
+        breakerMinRequests = (properties.get("proxy.breaker.min.requests") != null) ? Integer.parseInt(properties.get("proxy.breaker.min.requests").toString()) : 5;
+        breakerOpenDuration = TimeUnit.SECONDS.toMillis((properties.get("proxy.breaker.open.duration") != null) ? Long.parseLong(properties.get("proxy.breaker.open.duration").toString()) : 30);
+        httpMaxPerRoute = (properties.get("http.pool.max.per.route") != null) ? Integer.parseInt(properties.get("http.pool.max.per.route").toString()) : 20;
+        httpMaxTotal = (properties.get("http.pool.max.total") != null) ? Integer.parseInt(properties.get("http.pool.max.total").toString()) : 40;
+        httpKeepAlive = (properties.get("http.keep.alive") == null) || Boolean.parseBoolean(properties.get("http.keep.alive").toString());
+        httpIdleTimeout = TimeUnit.SECONDS.toMillis((properties.get("http.pool.idle.timeout") != null) ? Long.parseLong(properties.get("http.pool.idle.timeout").toString()) : 600);
+        RateLimiter limiter = new RateLimiter(qosLimit(properties, "user"), qosLimit(properties, "ip"), qosLimit(properties, "repository"),
+                TimeUnit.SECONDS.toMillis((properties.get("qos.burst") != null) ? Long.parseLong(properties.get("qos.burst").toString()) : 1));
+        rateLimiter = limiter.isUnlimited() ? null : limiter;
+        boolean warmup = (properties.get("resolver.warmup") == null) || Boolean.parseBoolean(properties.get("resolver.warmup").toString());
+        long start = System.currentTimeMillis();
         // load repositories db to populate the map and register the servlet
+        // the Maven resolvers are created on first request or warmed up in background
         load();
         for (Repository repository : repositories.values()) {
             registerMavenServlet(repository);
+            if (repository.getLocation() != null && !repository.getLocation().isEmpty()) {
+                reaper.recover(Paths.get(repository.getLocation()));
+            }
+        }
+        loadPopular();
+        if (warmup) {
+            warmupResolvers();
         }
+        if (evictionPeriod > 0 || httpIdleTimeout > 0) {
+            evictionScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory("CaveStorageEvictor"));
+        }
+        if (evictionPeriod > 0) {
+            evictionScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    enforceQuotas();
+                }
+            }, evictionPeriod, evictionPeriod, TimeUnit.SECONDS);
+        }
+        if (httpIdleTimeout > 0) {
+            evictionScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdleResolvers();
+                }
+            }, httpIdleTimeout / 2, httpIdleTimeout / 2, TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info("Cave repository service activated with {} repositories in {} ms", repositories.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Get the {@code qos.<scope>.requests} (per second) and {@code qos.<scope>.bytes} (per second) limits.
+     */
+    private static RateLimiter.Limit qosLimit(Dictionary<String, Object> properties, String scope) {
+        Object requests = properties.get("qos." + scope + ".requests");
+        Object bytes = properties.get("qos." + scope + ".bytes");
+        return new RateLimiter.Limit((requests != null) ? Double.parseDouble(requests.toString()) : 0, (bytes != null) ? Double.parseDouble(bytes.toString()) : 0);
     }
 
     @Deactivate
     public void deactivate(ComponentContext componentContext) throws Exception {
-        Dictionary<String, Object> properties = componentContext.getProperties();
+        deactivate();
+    }
+
+    /**
+     * Only visible for testing purpose
+     */
+    protected void deactivate() throws Exception {
         // unregister repository servlets
         for (Repository repository : repositories.values()) {
             unregisterMavenServlet(repository);
         }
+        try {
+            savePopular();
+        } catch (Exception e) {
+            LOGGER.warn("Can't save the popular artifacts", e);
+        }
+        if (evictionScheduler != null) {
+            evictionScheduler.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (reaper != null) {
+            reaper.stop();
+        }
+        synchronized (resolverProviders) {
+            for (MavenResolverProvider resolverProvider : resolverProviders.values()) {
+                resolverProvider.close();
+            }
+            resolverProviders.clear();
+            repositoryResolverProviders.clear();
+        }
     }
 
     @Override
@@ -198,6 +381,7 @@ public class RepositoryServiceImpl implements RepositoryService {
         repository.setPoolSize(poolSize);
         repository.setScheduling(scheduling);
         repository.setSchedulingAction(schedulingAction);
+        repository.setMetadataTtl(metadataTtl);
         repositories.put(name, repository);
         // register the repository servlet
         registerMavenServlet(repository);
@@ -208,12 +392,106 @@ public class RepositoryServiceImpl implements RepositoryService {
         return repository;
     }
 
+    @Override
+    public Repository createGroup(String name, String members) throws Exception {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Repository name is mandatory");
+        }
+        if (repositories.get(name) != null) {
+            throw new IllegalArgumentException("Repository " + name + " already exists");
+        }
+        List<String> names = members(members);
+        checkMembers(name, names);
+        Repository repository = new Repository();
+        repository.setName(name);
+        repository.setUrl(httpContext + "/" + name);
+        repository.setRealm("karaf");
+        repository.setPoolSize(8);
+        repository.setMetadataTtl(metadataTtl);
+        repository.setMembers(join(names));
+        repositories.put(name, repository);
+        registerMavenServlet(repository);
+        save();
+        return repository;
+    }
+
+    @Override
+    public void changeMembers(String name, String members) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        Repository repository = repositories.get(name);
+        if (!isGroup(repository)) {
+            throw new IllegalStateException("Repository " + name + " is not a group");
+        }
+        List<String> names = members(members);
+        checkMembers(name, names);
+        unregisterMavenServlet(repository);
+        repository.setMembers(join(names));
+        registerMavenServlet(repository);
+        repositories.put(name, repository);
+        save();
+    }
+
+    /**
+     * Parse the comma separated names of the members of a group repository.
+     */
+    private static List<String> members(String members) {
+        List<String> names = new ArrayList<>();
+        if (members != null) {
+            for (String member : members.split(",")) {
+                if (!member.trim().isEmpty() && !names.contains(member.trim())) {
+                    names.add(member.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String join(List<String> names) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append(",");
+            }
+            builder.append(name);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Check that the members of a group repository are existing repositories, and not groups.
+     */
+    private void checkMembers(String name, List<String> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("Group repository " + name + " needs at least one member");
+        }
+        for (String member : members) {
+            if (member.equals(name)) {
+                throw new IllegalArgumentException("Group repository " + name + " can't be a member of itself");
+            }
+            if (repositories.get(member) == null) {
+                throw new IllegalArgumentException("Repository " + member + " doesn't exist");
+            }
+            if (isGroup(repositories.get(member))) {
+                throw new IllegalArgumentException("Repository " + member + " is a group, it can't be a member of group " + name);
+            }
+        }
+    }
+
+    private static boolean isGroup(Repository repository) {
+        return repository.getMembers() != null && !repository.getMembers().isEmpty();
+    }
+
     @Override
     public void changeLocation(String name, String location) throws Exception {
         if (repositories.get(name) == null) {
             throw new IllegalArgumentException("Repository " + name + " doesn't exist");
         }
         Repository repository = repositories.get(name);
+        if (isGroup(repository)) {
+            throw new IllegalStateException("Repository " + name + " is a group, it has no location");
+        }
         if (repository.getLocation() != null && !repository.getLocation().isEmpty()) {
             if (!Files.exists(Paths.get(location))) {
                 Files.createDirectories(Paths.get(location));
@@ -254,6 +532,9 @@ public class RepositoryServiceImpl implements RepositoryService {
             throw new IllegalArgumentException("Repository " + name + " doesn't exist");
         }
         Repository repository = repositories.get(name);
+        if (isGroup(repository)) {
+            throw new IllegalStateException("Repository " + name + " is a group, it can't proxy repositories");
+        }
         unregisterMavenServlet(repository);
         repository.setProxy(proxy);
         repository.setMirror(mirror);
@@ -291,14 +572,77 @@ public class RepositoryServiceImpl implements RepositoryService {
         save();
     }
 
+    @Override
+    public void changeQuota(String name, long quota) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        if (quota < 0) {
+            throw new IllegalArgumentException("Quota can't be negative");
+        }
+        Repository repository = repositories.get(name);
+        repository.setQuota(quota);
+        repositories.put(name, repository);
+        save();
+    }
+
+    @Override
+    public void changeMetadataTtl(String name, long ttl) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Metadata TTL can't be negative");
+        }
+        Repository repository = repositories.get(name);
+        repository.setMetadataTtl(ttl);
+        if (isGroup(repository)) {
+            MavenServlet servlet = servlets.get(name);
+            if (servlet instanceof GroupServlet) {
+                ((GroupServlet) servlet).setTtl(TimeUnit.SECONDS.toMillis(ttl));
+            }
+        } else {
+            metadataCache(repository).setTtl(TimeUnit.SECONDS.toMillis(ttl));
+        }
+        repositories.put(name, repository);
+        save();
+    }
+
+    @Override
+    public void changeOffline(String name, boolean offline) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        Repository repository = repositories.get(name);
+        if (offline && (repository.getProxy() == null || repository.getProxy().isEmpty())) {
+            throw new IllegalStateException("Repository " + name + " is not a proxy, it can't be offline");
+        }
+        repository.setOffline(offline);
+        metadataCache(repository).setOffline(offline);
+        repositories.put(name, repository);
+        save();
+        LOGGER.info("Repository {} is {}", name, offline ? "offline" : "online");
+    }
+
     @Override
     public void copy(String sourceRepositoryName, String destinationRepositoryName) throws Exception {
+        copy(sourceRepositoryName, destinationRepositoryName, COPY_MODE);
+    }
+
+    @Override
+    public CopyResult copy(String sourceRepositoryName, String destinationRepositoryName, String mode) throws Exception {
         if (repositories.get(sourceRepositoryName) == null) {
             throw new IllegalArgumentException("Repository " + sourceRepositoryName + " doesn't exist");
         }
         if (repositories.get(destinationRepositoryName) == null) {
             throw new IllegalArgumentException("Repository " + destinationRepositoryName + " doesn't exist");
         }
+        if (mode == null || mode.isEmpty()) {
+            mode = COPY_MODE;
+        }
+        if (!mode.equalsIgnoreCase(COPY_MODE) && !mode.equalsIgnoreCase(LINK_MODE)) {
+            throw new IllegalArgumentException("Unknown copy mode " + mode + " (valid modes are " + COPY_MODE + ", " + LINK_MODE + ")");
+        }
         Repository sourceRepository = repositories.get(sourceRepositoryName);
         Repository destinationRepository = repositories.get(destinationRepositoryName);
         if (sourceRepository.getLocation() == null || sourceRepository.getLocation().isEmpty()) {
@@ -307,11 +651,30 @@ public class RepositoryServiceImpl implements RepositoryService {
         if (destinationRepository.getLocation() == null || destinationRepository.getLocation().isEmpty()) {
             throw new IllegalStateException("Destination repository " + destinationRepositoryName + " location is not defined");
         }
+        long start = System.currentTimeMillis();
         final Path source = Paths.get(sourceRepository.getLocation());
         final Path target = Paths.get(destinationRepository.getLocation());
-        Files.walkFileTree(source, new FileVisitor<Path>() {
+        Files.createDirectories(target);
+        boolean link = mode.equalsIgnoreCase(LINK_MODE);
+        if (link && !Files.getFileStore(source).equals(Files.getFileStore(target))) {
+            LOGGER.warn("Repositories {} and {} don't share the same filesystem, falling back to copy", sourceRepositoryName, destinationRepositoryName);
+            link = false;
+        }
+        final boolean hardLink = link;
+        final AtomicLong copied = new AtomicLong();
+        final AtomicLong linked = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final List<Future<?>> transfers = new ArrayList<>();
+        final List<Path> directories = new ArrayList<>();
+        final List<Path> transferred = Collections.synchronizedList(new ArrayList<Path>());
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // the Cave folders (metadata cache, compressed variants, blobs, trash...) are not repository content
+                if (!dir.equals(source) && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
                 Path newDir = target.resolve(source.relativize(dir));
                 try {
                     Files.copy(dir, newDir, StandardCopyOption.COPY_ATTRIBUTES);
@@ -320,12 +683,39 @@ public class RepositoryServiceImpl implements RepositoryService {
                 } catch (IOException ioe) {
                     return FileVisitResult.SKIP_SUBTREE;
                 }
+                directories.add(dir);
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                // hidden files are staging files of uploads in progress
+                if (file.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.CONTINUE;
+                }
+                final Path targetFile = target.resolve(source.relativize(file));
+                transfers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (isUpToDate(file, attrs, targetFile)) {
+                            skipped.incrementAndGet();
+                            return null;
+                        }
+                        transferred.add(targetFile);
+                        if (blobStore != null && share(file, targetFile)) {
+                            linked.incrementAndGet();
+                        } else if (hardLink && BlobStore.isStorable(file)) {
+                            // only the immutable artifacts are linked, the metadata and checksums are rewritten in place
+                            link(file, targetFile);
+                            linked.incrementAndGet();
+                        } else {
+                            Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                            copied.incrementAndGet();
+                            bytes.addAndGet(attrs.size());
+                        }
+                        return null;
+                    }
+                }));
                 return FileVisitResult.CONTINUE;
             }
 
@@ -333,49 +723,406 @@ public class RepositoryServiceImpl implements RepositoryService {
             public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
                 return FileVisitResult.CONTINUE;
             }
+        });
+        try {
+            for (Future<?> transfer : transfers) {
+                transfer.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> transfer : transfers) {
+                transfer.cancel(false);
+            }
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+        // restore directories modification time once all files are there, deepest first
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Path dir = directories.get(i);
+            Files.setLastModifiedTime(target.resolve(source.relativize(dir)), Files.getLastModifiedTime(dir));
+        }
+        CopyResult result = new CopyResult();
+        result.setFilesCopied(copied.get());
+        result.setFilesLinked(linked.get());
+        result.setFilesSkipped(skipped.get());
+        result.setBytesTransferred(bytes.get());
+        result.setDuration(System.currentTimeMillis() - start);
+        invalidate(destinationRepository, transferred);
+        LOGGER.info("Repository {} copied to {}: {}", sourceRepositoryName, destinationRepositoryName, result);
+        return result;
+    }
 
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                if (exc == null) {
-                    Path newDir = target.resolve(source.relativize(dir));
-                    FileTime time = Files.getLastModifiedTime(dir);
-                    Files.setLastModifiedTime(newDir, time);
+    /**
+     * Check if a target file is identical to the source file, comparing size and modification time, or checksum sidecars.
+     */
+    private static boolean isUpToDate(Path source, BasicFileAttributes sourceAttributes, Path target) throws IOException {
+        if (!Files.exists(target)) {
+            return false;
+        }
+        BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+        if (targetAttributes.size() != sourceAttributes.size()) {
+            return false;
+        }
+        if (targetAttributes.lastModifiedTime().equals(sourceAttributes.lastModifiedTime())) {
+            return true;
+        }
+        String sourceChecksum = readChecksum(source.resolveSibling(source.getFileName() + ".sha1"));
+        return sourceChecksum != null && sourceChecksum.equals(readChecksum(target.resolveSibling(target.getFileName() + ".sha1")));
+    }
+
+    private static String readChecksum(Path checksum) throws IOException {
+        if (!Files.isRegularFile(checksum)) {
+            return null;
+        }
+        String content = new String(Files.readAllBytes(checksum), StandardCharsets.UTF_8).trim();
+        if (content.isEmpty()) {
+            return null;
+        }
+        return content.split("\\s+")[0].toLowerCase();
+    }
+
+    /**
+     * Store a file in the blob store and link the target to the same blob.
+     *
+     * @return true if the target is linked to the blob, false else (not an artifact or on another file system).
+     */
+    private boolean share(Path file, Path target) {
+        try {
+            if (blobStore.store(file) == BlobStore.Result.SKIPPED) {
+                return false;
+            }
+            link(file, target);
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Can't share {} with {}", file, target, e);
+            return false;
+        }
+    }
+
+    /**
+     * Hard link the target to a file, replacing the target atomically (the clients never see the target missing).
+     */
+    private static void link(Path file, Path target) throws IOException {
+        Path link = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        Files.createLink(link, file);
+        try {
+            Files.move(link, target, ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(link);
+            throw e;
+        }
+    }
+
+    @Override
+    public void remove(String name) throws Exception {
+        remove(name, false);
+    }
+
+    @Override
+    public void remove(String name, boolean storageCleanup) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        for (Repository group : repositories.values()) {
+            if (isGroup(group) && members(group.getMembers()).contains(name)) {
+                throw new IllegalStateException("Repository " + name + " is a member of group " + group.getName());
+            }
+        }
+        Repository repository = repositories.get(name);
+        // cleanup storage
+        if (storageCleanup && repository.getLocation() != null && !repository.getLocation().isEmpty()) {
+            purge(repository, false);
+        }
+        // unregister repository servlet
+        unregisterMavenServlet(repository);
+        releaseResolverProvider(repository.getName());
+        // unschedule
+        unscheduleRepository(repository);
+        // remove the repository from the map and update repositories DB
+        repositories.remove(name);
+        metrics.remove(name);
+        if (rateLimiter != null) {
+            rateLimiter.remove(name);
+        }
+        accessTrackers.remove(name);
+        metadataCaches.remove(name);
+        upstreamHealths.remove(name);
+        pathIndexes.remove(name);
+        synchronized (repositorySystemSessions) {
+            repositorySystemSessions.remove(name);
+        }
+        save();
+    }
+
+    @Override
+    public void purge(String name) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        purge(repositories.get(name), true);
+    }
+
+    @Override
+    public Map<String, Long> reclaimStatus() {
+        Map<String, Long> status = reaper.status();
+        if (blobStore != null) {
+            status.putAll(blobStore.status());
+        }
+        return status;
+    }
+
+    @Override
+    public Map<String, Long> transportStatus() {
+        Map<String, Long> status = new LinkedHashMap<>();
+        synchronized (resolverProviders) {
+            long active = 0;
+            for (MavenResolverProvider resolverProvider : resolverProviders.values()) {
+                if (resolverProvider.isCreated()) {
+                    active++;
                 }
-                return FileVisitResult.CONTINUE;
             }
-        });
+            status.put("pools", (long) resolverProviders.size());
+            status.put("activePools", active);
+            status.put("poolUsers", (long) repositoryResolverProviders.size());
+        }
+        status.put("evictedPools", resolverEvictions.get());
+        status.put("maxPerRoute", (long) httpMaxPerRoute);
+        status.put("maxTotal", (long) httpMaxTotal);
+        return status;
+    }
+
+    @Override
+    public Map<String, Long> dedup(String name) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        Repository repository = repositories.get(name);
+        if (repository.getLocation() == null || repository.getLocation().isEmpty()) {
+            throw new IllegalStateException("Repository " + name + " location is not defined");
+        }
+        if (blobStore == null) {
+            throw new IllegalStateException("Deduplicated storage is not enabled");
+        }
+        long start = System.currentTimeMillis();
+        final Path location = Paths.get(repository.getLocation());
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong stored = new AtomicLong();
+        final AtomicLong deduplicated = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final List<Future<?>> tasks = new ArrayList<>();
+        if (Files.isDirectory(location)) {
+            Files.walkFileTree(location, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    return dir.getFileName().toString().startsWith(".") && !dir.equals(location) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    if (!BlobStore.isStorable(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    files.incrementAndGet();
+                    tasks.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            BlobStore.Result result = blobStore.store(file);
+                            if (result == BlobStore.Result.DEDUPLICATED) {
+                                deduplicated.incrementAndGet();
+                                bytes.addAndGet(attrs.size());
+                            } else if (result == BlobStore.Result.STORED) {
+                                stored.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    }));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                LOGGER.debug("Can't deduplicate artifact in repository {}", name, e.getCause());
+            }
+        }
+        blobStore.collect();
+        LOGGER.info("Deduplicated repository {}: {} files, {} replaced by links ({} bytes saved) in {} ms", name, files.get(), deduplicated.get(), bytes.get(), System.currentTimeMillis() - start);
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("files", files.get());
+        result.put("storedFiles", stored.get());
+        result.put("deduplicatedFiles", deduplicated.get());
+        result.put("deduplicatedBytes", bytes.get());
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> evict(String name) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        Repository repository = repositories.get(name);
+        if (repository.getLocation() == null || repository.getLocation().isEmpty()) {
+            throw new IllegalStateException("Repository " + name + " location is not defined");
+        }
+        if (repository.getProxy() == null || repository.getProxy().isEmpty()) {
+            throw new IllegalStateException("Repository " + name + " is not a proxy, its artifacts can't be evicted");
+        }
+        Path location = Paths.get(repository.getLocation());
+        AccessTracker tracker = accessTracker(repository);
+        Map<String, Long> status;
+        List<Path> evicted = new ArrayList<>();
+        synchronized (tracker) {
+            status = evictor.evict(location, repository.getQuota(), tracker, evicted);
+        }
+        if (status.get("evictedFolders") > 0) {
+            for (Path folder : evicted) {
+                invalidate(repository, folder);
+            }
+            LOGGER.info("Evicted {} artifact folders ({} bytes) from repository {}", status.get("evictedFolders"), status.get("evictedBytes"), name);
+        }
+        return status;
+    }
+
+    @Override
+    public Map<String, Long> cleanupSnapshots(String name, int keep, long maxAge) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        Repository repository = repositories.get(name);
+        if (repository.getLocation() == null || repository.getLocation().isEmpty()) {
+            throw new IllegalStateException("Repository " + name + " location is not defined");
+        }
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Maximum age can't be negative");
+        }
+        long start = System.currentTimeMillis();
+        Path location = Paths.get(repository.getLocation());
+        List<Path> cleaned = Collections.synchronizedList(new ArrayList<Path>());
+        Map<String, Long> result = snapshotCleaner.cleanup(location, keep, TimeUnit.SECONDS.toMillis(maxAge), executor, cleaned);
+        for (Path folder : cleaned) {
+            invalidate(repository, folder);
+        }
+        LOGGER.info("Cleaned up {} SNAPSHOT versions of repository {}: {} builds removed ({} files, {} bytes) in {} ms", result.get("snapshots"), name,
+                result.get("removedBuilds"), result.get("removedFiles"), result.get("removedBytes"), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Evict the artifacts of the proxy repositories exceeding their quota.
+     */
+    private void enforceQuotas() {
+        for (Repository repository : repositories.values()) {
+            if (repository.getQuota() > 0 && repository.getProxy() != null && !repository.getProxy().isEmpty()
+                    && repository.getLocation() != null && !repository.getLocation().isEmpty()) {
+                try {
+                    evict(repository.getName());
+                } catch (Exception e) {
+                    LOGGER.warn("Can't evict artifacts from repository {}", repository.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the access tracker of a repository, kept as long as the repository exists.
+     */
+    private AccessTracker accessTracker(Repository repository) {
+        AccessTracker tracker = accessTrackers.get(repository.getName());
+        if (tracker == null) {
+            accessTrackers.putIfAbsent(repository.getName(), new AccessTracker());
+            tracker = accessTrackers.get(repository.getName());
+        }
+        return tracker;
+    }
+
+    /**
+     * Get the metadata cache of a proxy repository, stored in the repository location (or in the base storage for the
+     * repositories without location).
+     */
+    private MetadataCache metadataCache(Repository repository) {
+        MetadataCache cache = metadataCaches.get(repository.getName());
+        if (cache == null) {
+            Path folder = (repository.getLocation() != null && !repository.getLocation().isEmpty())
+                    ? Paths.get(repository.getLocation(), MetadataCache.CACHE_FOLDER)
+                    : new File(baseStorage, MetadataCache.CACHE_FOLDER).toPath().resolve(repository.getName());
+            cache = new MetadataCache(folder);
+            cache.setTtl(TimeUnit.SECONDS.toMillis(repository.getMetadataTtl()));
+            cache.setOffline(repository.isOffline());
+            metadataCaches.putIfAbsent(repository.getName(), cache);
+            cache = metadataCaches.get(repository.getName());
+        }
+        return cache;
+    }
+
+    @Override
+    public Map<String, Long> metrics(String name) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        return metrics(repositories.get(name)).snapshot();
     }
 
     @Override
-    public void remove(String name) throws Exception {
-        remove(name, false);
+    public Map<String, Long> top(String name, int count) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        return metrics(repositories.get(name)).getPopular().top(count);
     }
 
     @Override
-    public void remove(String name, boolean storageCleanup) throws Exception {
+    public Map<String, Map<String, Long>> rateLimits() {
+        if (rateLimiter == null) {
+            return new LinkedHashMap<>();
+        }
+        return rateLimiter.levels();
+    }
+
+    @Override
+    public Map<String, Map<String, String>> upstreams(String name) throws Exception {
         if (repositories.get(name) == null) {
             throw new IllegalArgumentException("Repository " + name + " doesn't exist");
         }
-        Repository repository = repositories.get(name);
-        // cleanup storage
-        if (storageCleanup && repository.getLocation() != null && !repository.getLocation().isEmpty()) {
-            purge(repository);
+        Map<String, Map<String, String>> upstreams = new LinkedHashMap<>();
+        UpstreamLookup lookup = upstreamLookups.get(name);
+        if (lookup != null) {
+            for (UpstreamLookup.Upstream upstream : lookup.getUpstreams()) {
+                upstreams.put(upstream.getId(), upstream.getHealth().status());
+            }
         }
-        // unregister repository servlet
-        unregisterMavenServlet(repository);
-        // unschedule
-        unscheduleRepository(repository);
-        // remove the repository from the map and update repositories DB
-        repositories.remove(name);
-        save();
+        return upstreams;
     }
 
     @Override
-    public void purge(String name) throws Exception {
+    public Map<String, Long> index(String name, boolean rebuild) throws Exception {
         if (repositories.get(name) == null) {
             throw new IllegalArgumentException("Repository " + name + " doesn't exist");
         }
-        purge(repositories.get(name));
+        PathIndex index = pathIndexes.get(name);
+        if (index == null) {
+            throw new IllegalStateException("Repository " + name + " is not indexed");
+        }
+        if (rebuild) {
+            index.rebuild();
+        }
+        return index.status();
+    }
+
+    /**
+     * Get the metrics of a repository, kept as long as the repository exists (even if the servlet is registered again).
+     */
+    private RepositoryMetrics metrics(Repository repository) {
+        RepositoryMetrics repositoryMetrics = metrics.get(repository.getName());
+        if (repositoryMetrics == null) {
+            metrics.putIfAbsent(repository.getName(), new RepositoryMetrics(popularSize, popularDecayPeriod));
+            repositoryMetrics = metrics.get(repository.getName());
+        }
+        return repositoryMetrics;
     }
 
     @Override
@@ -390,6 +1137,122 @@ public class RepositoryServiceImpl implements RepositoryService {
 
     @Override
     public void addArtifact(String artifactUrl, String name) throws Exception {
+        Map<String, String> mavenCoordinates = parseArtifactUrl(artifactUrl);
+        addArtifact(artifactUrl, mavenCoordinates.get("groupId"), mavenCoordinates.get("artifactId"), mavenCoordinates.get("version"), mavenCoordinates.get("extension"), mavenCoordinates.get("classifier"), name);
+    }
+
+    @Override
+    public void addArtifact(String artifactUrl, String groupId, String artifactId, String version, String type, String classifier, String name) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        if (artifactUrl == null) {
+            throw new IllegalArgumentException("Artifact URL can't be null");
+        }
+
+        if (repositories.get(name).getLocation() == null || repositories.get(name).getLocation().isEmpty()) {
+            throw new IllegalStateException("Repository " + name + " location is not defined");
+        }
+
+        Artifact artifact = downloadArtifact(artifactUrl, groupId, artifactId, version, type, classifier);
+        try {
+            InstallRequest installRequest = new InstallRequest();
+            installRequest.addArtifact(artifact);
+            install(repositories.get(name), installRequest);
+        } finally {
+            artifact.getFile().delete();
+            listing.invalidate(Paths.get(repositories.get(name).getLocation()));
+        }
+    }
+
+    @Override
+    public void addArtifacts(List<String> artifactUrls, String name) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        if (artifactUrls == null) {
+            throw new IllegalArgumentException("Artifact URLs can't be null");
+        }
+        if (repositories.get(name).getLocation() == null || repositories.get(name).getLocation().isEmpty()) {
+            throw new IllegalStateException("Repository " + name + " location is not defined");
+        }
+        // download all artifacts in parallel
+        Map<String, Future<Artifact>> downloads = new LinkedHashMap<>();
+        for (final String artifactUrl : artifactUrls) {
+            final Map<String, String> mavenCoordinates = parseArtifactUrl(artifactUrl);
+            downloads.put(artifactUrl, executor.submit(new Callable<Artifact>() {
+                @Override
+                public Artifact call() throws Exception {
+                    return downloadArtifact(artifactUrl, mavenCoordinates.get("groupId"), mavenCoordinates.get("artifactId"), mavenCoordinates.get("version"), mavenCoordinates.get("extension"), mavenCoordinates.get("classifier"));
+                }
+            }));
+        }
+        List<String> failures = new ArrayList<>();
+        InstallRequest installRequest = new InstallRequest();
+        for (Map.Entry<String, Future<Artifact>> download : downloads.entrySet()) {
+            try {
+                installRequest.addArtifact(download.getValue().get());
+            } catch (ExecutionException e) {
+                LOGGER.warn("Can't download artifact {}", download.getKey(), e.getCause());
+                failures.add(download.getKey());
+            }
+        }
+        // install all downloaded artifacts with a single session
+        try {
+            if (!installRequest.getArtifacts().isEmpty()) {
+                install(repositories.get(name), installRequest);
+            }
+        } finally {
+            for (Artifact artifact : installRequest.getArtifacts()) {
+                artifact.getFile().delete();
+            }
+            listing.invalidate(Paths.get(repositories.get(name).getLocation()));
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Can't add artifacts " + failures + " in repository " + name);
+        }
+    }
+
+    @Override
+    public WarmResult warm(String name, List<String> sources) throws Exception {
+        if (repositories.get(name) == null) {
+            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+        }
+        if (sources == null || sources.isEmpty()) {
+            throw new IllegalArgumentException("Warm up sources can't be empty");
+        }
+        MavenResolverProvider resolverProvider;
+        synchronized (resolverProviders) {
+            resolverProvider = repositoryResolverProviders.get(name);
+        }
+        if (resolverProvider == null) {
+            throw new IllegalStateException("Repository " + name + " Maven resolver is not available");
+        }
+        Repository repository = repositories.get(name);
+        List<Path> resolved = new ArrayList<>();
+        MavenResolver resolver = resolverProvider.acquire();
+        try {
+            WarmResult result = new Warmer(resolver, executor).warm(sources, resolved);
+            LOGGER.info("Repository {} warmed up: {}", name, result);
+            return result;
+        } finally {
+            resolverProvider.release();
+            if (repository.getLocation() != null && !repository.getLocation().isEmpty()) {
+                invalidate(repository, resolved);
+            }
+        }
+    }
+
+    /**
+     * Extract Maven coordinates from an artifact URL (mvn URL or any URL).
+     *
+     * @param artifactUrl the artifact URL.
+     * @return the Maven coordinates.
+     */
+    private static Map<String, String> parseArtifactUrl(String artifactUrl) {
+        if (artifactUrl == null) {
+            throw new IllegalArgumentException("Artifact URL can't be null");
+        }
         Map<String, String> mavenCoordinates = new HashMap<>();
         if (isMavenUrl(artifactUrl)) {
             mavenCoordinates = parseMvnUrl(artifactUrl);
@@ -413,50 +1276,164 @@ public class RepositoryServiceImpl implements RepositoryService {
                 }
             }
         }
-        addArtifact(artifactUrl, mavenCoordinates.get("groupId"), mavenCoordinates.get("artifactId"), mavenCoordinates.get("version"), mavenCoordinates.get("extension"), mavenCoordinates.get("classifier"), name);
+        return mavenCoordinates;
     }
 
-    @Override
-    public void addArtifact(String artifactUrl, String groupId, String artifactId, String version, String type, String classifier, String name) throws Exception {
-        if (repositories.get(name) == null) {
-            throw new IllegalArgumentException("Repository " + name + " doesn't exist");
+    /**
+     * Invalidate the cached directory listings and update the index of a repository after a change in its storage.
+     *
+     * @param repository the repository.
+     * @param path the changed file or directory.
+     */
+    private void invalidate(Repository repository, Path path) {
+        listing.invalidate(path);
+        PathIndex index = pathIndexes.get(repository.getName());
+        if (index != null) {
+            index.refresh(path);
         }
-        if (artifactUrl == null) {
-            throw new IllegalArgumentException("Artifact URL can't be null");
+    }
+
+    /**
+     * Invalidate the listings and update the index of a repository after a change on several files (the index is
+     * updated once per folder, with the files of the folder).
+     *
+     * @param repository the repository.
+     * @param files the changed files.
+     */
+    private void invalidate(Repository repository, Collection<Path> files) {
+        Map<Path, Path> folders = new LinkedHashMap<>();
+        for (Path file : files) {
+            folders.put(file.getParent(), file);
+        }
+        for (Path file : folders.values()) {
+            invalidate(repository, file);
         }
+    }
 
-        if (repositories.get(name).getLocation() == null || repositories.get(name).getLocation().isEmpty()) {
-            throw new IllegalStateException("Repository " + name + " location is not defined");
+    /**
+     * Install artifacts in a repository storage.
+     * <p>
+     * The installer writes the files in place, so the existing files are first unlinked from the blob store or from
+     * the repositories they are linked with (link mode copy), under the folder locks, and the installed files are
+     * stored in the blob store (if any) afterwards.
+     */
+    private void install(Repository repository, InstallRequest installRequest) throws Exception {
+        RepositorySystemSession session = repositorySystemSession(repository);
+        List<Path> paths = new ArrayList<>();
+        if (repository.getProxy() != null && !repository.getProxy().isEmpty()) {
+            for (Artifact artifact : installRequest.getArtifacts()) {
+                metadataCache(repository).invalidate(session.getLocalRepositoryManager().getPathForLocalArtifact(artifact));
+            }
+        }
+        // serialize with the uploads and SNAPSHOT cleanups of the artifacts folders (metadata updates)
+        Set<Path> folders = new HashSet<>();
+        for (Artifact artifact : installRequest.getArtifacts()) {
+            Path path = Paths.get(repository.getLocation(), session.getLocalRepositoryManager().getPathForLocalArtifact(artifact));
+            paths.add(path);
+            folders.add(path.getParent());
+            folders.add(path.getParent().getParent());
+        }
+        List<Lock> locks = ArtifactUpload.locks(folders);
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        try {
+            if (BlobStore.isSupported()) {
+                for (Path path : paths) {
+                    BlobStore.unshare(path);
+                }
+            }
+            repositorySystem().install(session, installRequest);
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+        if (blobStore != null) {
+            for (Path path : paths) {
+                try {
+                    blobStore.store(path);
+                } catch (IOException e) {
+                    LOGGER.debug("Can't store {} in the blob store", path, e);
+                }
+            }
+        }
+        // the version folders, and the updated metadata of the artifact folders
+        Set<Path> changed = new LinkedHashSet<>(paths);
+        for (Path path : paths) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path.getParent().getParent(), "maven-metadata*.xml")) {
+                for (Path metadata : stream) {
+                    changed.add(metadata);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Can't list the metadata of {}", path, e);
+            }
         }
+        invalidate(repository, changed);
+    }
 
+    /**
+     * Download an artifact in a temporary file.
+     *
+     * @return the {@link Artifact} with the downloaded file.
+     */
+    private static Artifact downloadArtifact(String artifactUrl, String groupId, String artifactId, String version, String type, String classifier) throws Exception {
         File artifactFile = File.createTempFile(artifactId, type);
-        try (FileOutputStream os = new FileOutputStream(artifactFile)) {
-            copyStream(new URI(artifactUrl).toURL().openStream(), os);
+        try (InputStream is = new URI(artifactUrl).toURL().openStream();
+             FileOutputStream os = new FileOutputStream(artifactFile)) {
+            copyStream(is, os);
             os.flush();
+        } catch (Exception e) {
+            artifactFile.delete();
+            throw e;
         }
-
-        DefaultServiceLocator defaultServiceLocator = MavenRepositorySystemUtils.newServiceLocator();
-        defaultServiceLocator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
-        defaultServiceLocator.addService(TransporterFactory.class, FileTransporterFactory.class);
-        defaultServiceLocator.addService(TransporterFactory.class, HttpTransporterFactory.class);
-        RepositorySystem repositorySystem = defaultServiceLocator.getService(RepositorySystem.class);
-        DefaultRepositorySystemSession repositorySystemSession = MavenRepositorySystemUtils.newSession();
-        LocalRepository localRepository = new LocalRepository(repositories.get(name).getLocation());
-        LocalRepositoryManager localRepositoryManager = repositorySystem.newLocalRepositoryManager(repositorySystemSession, localRepository);
-        repositorySystemSession.setLocalRepositoryManager(localRepositoryManager);
-        repositorySystemSession.setTransferListener(new ConsoleTransferListener(System.out));
-        repositorySystemSession.setRepositoryListener(new ConsoleRepositoryListener(System.out));
         Artifact artifact;
         if (classifier != null) {
             artifact = new DefaultArtifact(groupId, artifactId, classifier, type, version);
         } else {
             artifact = new DefaultArtifact(groupId, artifactId, type, version);
         }
-        artifact = artifact.setFile(artifactFile);
+        return artifact.setFile(artifactFile);
+    }
+
+    /**
+     * Get the repository system, shared by all repositories.
+     *
+     * @return the {@link RepositorySystem}.
+     */
+    private synchronized RepositorySystem repositorySystem() {
+        if (repositorySystem == null) {
+            DefaultServiceLocator defaultServiceLocator = MavenRepositorySystemUtils.newServiceLocator();
+            defaultServiceLocator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+            defaultServiceLocator.addService(TransporterFactory.class, FileTransporterFactory.class);
+            defaultServiceLocator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+            repositorySystem = defaultServiceLocator.getService(RepositorySystem.class);
+        }
+        return repositorySystem;
+    }
 
-        InstallRequest installRequest = new InstallRequest();
-        installRequest.addArtifact(artifact);
-        repositorySystem.install(repositorySystemSession, installRequest);
+    /**
+     * Get the repository system session for a repository, cached as long as the repository location doesn't change.
+     *
+     * @param repository the {@link Repository}.
+     * @return the {@link RepositorySystemSession} using the repository location as local repository.
+     */
+    private RepositorySystemSession repositorySystemSession(Repository repository) {
+        synchronized (repositorySystemSessions) {
+            DefaultRepositorySystemSession repositorySystemSession = repositorySystemSessions.get(repository.getName());
+            if (repositorySystemSession == null
+                    || !repositorySystemSession.getLocalRepository().getBasedir().equals(new File(repository.getLocation()))) {
+                repositorySystemSession = MavenRepositorySystemUtils.newSession();
+                LocalRepository localRepository = new LocalRepository(repository.getLocation());
+                LocalRepositoryManager localRepositoryManager = repositorySystem().newLocalRepositoryManager(repositorySystemSession, localRepository);
+                repositorySystemSession.setLocalRepositoryManager(localRepositoryManager);
+                repositorySystemSession.setTransferListener(new ConsoleTransferListener(System.out));
+                repositorySystemSession.setRepositoryListener(new ConsoleRepositoryListener(System.out));
+                repositorySystemSession.setReadOnly();
+                repositorySystemSessions.put(repository.getName(), repositorySystemSession);
+            }
+            return repositorySystemSession;
+        }
     }
 
     /**
@@ -525,25 +1502,8 @@ public class RepositoryServiceImpl implements RepositoryService {
             // the artifact location is relative to the repository storage
             path = Paths.get(repositories.get(name).getLocation() + "/" + artifactUrl);
         }
-        if (Files.exists(path)) {
-            if (Files.isDirectory(path)) {
-                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        Files.delete(file);
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    @Override
-                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                        Files.delete(dir);
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-            } else {
-                Files.delete(path);
-            }
-        }
+        reaper.delete(path, Paths.get(repositories.get(name).getLocation()));
+        invalidate(repositories.get(name), path);
     }
 
     /**
@@ -586,25 +1546,8 @@ public class RepositoryServiceImpl implements RepositoryService {
         coordinates.put("classifier", classifier);
         if (repositories.get(name).getLocation() != null) {
             Path path = Paths.get(repositories.get(name).getLocation()).resolve(Paths.get(convertMvnCoordinatesToPath(coordinates)));
-            if (Files.exists(path)) {
-                if (Files.isDirectory(path)) {
-                    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                        @Override
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                            Files.delete(file);
-                            return FileVisitResult.CONTINUE;
-                        }
-
-                        @Override
-                        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                            Files.delete(dir);
-                            return FileVisitResult.CONTINUE;
-                        }
-                    });
-                } else {
-                    Files.delete(path);
-                }
-            }
+            reaper.delete(path, Paths.get(repositories.get(name).getLocation()));
+            invalidate(repositories.get(name), path);
         }
     }
 
@@ -625,6 +1568,7 @@ public class RepositoryServiceImpl implements RepositoryService {
             List<Resource> resources = new ArrayList<>();
             updateBundleRepositoryDescriptor(new File(repositories.get(name).getLocation()), resources, repositories.get(name).getLocation());
             addResources(bundleRepository, resources);
+            invalidate(repositories.get(name), bundleRepositoryXmlPath);
         }
     }
 
@@ -782,27 +1726,23 @@ public class RepositoryServiceImpl implements RepositoryService {
 
     /**
      * Delete (purge) a repository location.
+     * The location is moved to the trash and the space is reclaimed in background.
      *
      * @param repository the {@link Repository} to purge.
+     * @param recreate true to recreate an empty repository location, false else.
      */
-    private void purge(Repository repository) throws Exception {
+    private void purge(Repository repository, boolean recreate) throws Exception {
         if (repository.getLocation() == null || repository.getLocation().isEmpty()) {
             throw new IllegalStateException("Repository " + repository.getName() + " location is not defined");
         }
-        if (Files.isDirectory(Paths.get(repository.getLocation()))) {
-            Files.walkFileTree(Paths.get(repository.getLocation()), new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
-                    Files.delete(file);
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException ioe) throws IOException {
-                    Files.delete(dir);
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+        Path location = Paths.get(repository.getLocation());
+        if (Files.isDirectory(location)) {
+            reaper.delete(location, location);
+            accessTracker(repository).clear();
+            if (recreate) {
+                Files.createDirectories(location);
+            }
+            invalidate(repository, location);
         }
     }
 
@@ -825,6 +1765,10 @@ public class RepositoryServiceImpl implements RepositoryService {
             storage.setProperty("item." + i + ".downloadRole", (repository.getDownloadRole() != null) ? repository.getDownloadRole() : "");
             storage.setProperty("item." + i + ".uploadRole", (repository.getUploadRole() != null) ? repository.getUploadRole() : "");
             storage.setProperty("item." + i + ".poolSize", Integer.toString(repository.getPoolSize()));
+            storage.setProperty("item." + i + ".quota", Long.toString(repository.getQuota()));
+            storage.setProperty("item." + i + ".metadataTtl", Long.toString(repository.getMetadataTtl()));
+            storage.setProperty("item." + i + ".offline", (repository.isOffline()) ? "true" : "false");
+            storage.setProperty("item." + i + ".members", (repository.getMembers() != null) ? repository.getMembers() : "");
             i++;
         }
         saveStorage(storage, new File(baseStorage, STORAGE_FILE), "Cave Repositories DB");
@@ -852,6 +1796,10 @@ public class RepositoryServiceImpl implements RepositoryService {
             String downloadRole = (storage.getProperty("item." + i + ".downloadRole").isEmpty()) ? null : storage.getProperty("item." + i + ".downloadRole");
             String uploadRole = (storage.getProperty("item." + i + ".uploadRole").isEmpty()) ? null : storage.getProperty("item." + i + ".uploadRole");
             int poolSize = Integer.parseInt(storage.getProperty("item." + i + ".poolSize"));
+            long quota = (storage.getProperty("item." + i + ".quota") != null) ? Long.parseLong(storage.getProperty("item." + i + ".quota")) : 0;
+            long ttl = (storage.getProperty("item." + i + ".metadataTtl") != null) ? Long.parseLong(storage.getProperty("item." + i + ".metadataTtl")) : metadataTtl;
+            boolean offline = Boolean.parseBoolean(storage.getProperty("item." + i + ".offline"));
+            String members = (storage.getProperty("item." + i + ".members") == null || storage.getProperty("item." + i + ".members").isEmpty()) ? null : storage.getProperty("item." + i + ".members");
             Repository repository = new Repository();
             repository.setName(name);
             repository.setLocation(location);
@@ -862,10 +1810,55 @@ public class RepositoryServiceImpl implements RepositoryService {
             repository.setDownloadRole(downloadRole);
             repository.setUploadRole(uploadRole);
             repository.setPoolSize(poolSize);
+            repository.setQuota(quota);
+            repository.setMetadataTtl(ttl);
+            repository.setOffline(offline);
+            repository.setMembers(members);
             repositories.put(name, repository);
         }
     }
 
+    /**
+     * Save the most requested paths of the repositories, used to warm up the tracking after a restart (or on a new node).
+     * <p>
+     * Only visible for testing purpose.
+     */
+    protected void savePopular() throws Exception {
+        Properties storage = new Properties();
+        for (Repository repository : repositories.values()) {
+            Map<String, Long> top = metrics(repository).getPopular().top(popularSize);
+            storage.setProperty(repository.getName() + ".count", Integer.toString(top.size()));
+            int i = 0;
+            for (Map.Entry<String, Long> entry : top.entrySet()) {
+                storage.setProperty(repository.getName() + ".item." + i + ".path", entry.getKey());
+                storage.setProperty(repository.getName() + ".item." + i + ".count", Long.toString(entry.getValue()));
+                i++;
+            }
+        }
+        saveStorage(storage, new File(baseStorage, POPULAR_FILE), "Cave Popular Artifacts");
+    }
+
+    /**
+     * Load the most requested paths of the repositories.
+     */
+    private void loadPopular() throws Exception {
+        Properties storage = loadStorage(new File(baseStorage, POPULAR_FILE));
+        for (Repository repository : repositories.values()) {
+            String count = storage.getProperty(repository.getName() + ".count");
+            if (count == null) {
+                continue;
+            }
+            HeavyHitters popular = metrics(repository).getPopular();
+            for (int i = 0; i < Integer.parseInt(count); i++) {
+                String path = storage.getProperty(repository.getName() + ".item." + i + ".path");
+                String value = storage.getProperty(repository.getName() + ".item." + i + ".count");
+                if (path != null && value != null) {
+                    popular.record(path, Long.parseLong(value));
+                }
+            }
+        }
+    }
+
     /**
      * Write the repositories DB.
      *
@@ -905,10 +1898,23 @@ public class RepositoryServiceImpl implements RepositoryService {
      * @param repository the {@link Repository} to publish.
      */
     private void registerMavenServlet(Repository repository) throws Exception {
+        if (isGroup(repository)) {
+            GroupServlet groupServlet = new GroupServlet(servlets, members(repository.getMembers()), TimeUnit.SECONDS.toMillis(repository.getMetadataTtl()),
+                    metrics(repository), accessTracker(repository), repository.getName(), repository.getPoolSize(), repository.getRealm(), repository.getDownloadRole());
+            groupServlet.setRateLimiter(rateLimiter);
+            servlets.put(repository.getName(), groupServlet);
+            httpService.registerServlet(repository.getUrl(), groupServlet, null, null);
+            return;
+        }
         Hashtable<String, String> mavenResolverConfig = new Hashtable<>();
         mavenResolverConfig.put("defaultRepositories", "file:" + repository.getLocation() + "@id=" + repository.getName() + "@snapshots@releases");
         mavenResolverConfig.put("defaultLocalRepoAsRemote", "false");
         mavenResolverConfig.put("useFallbackRepositories", "false");
+        // HTTP connections pool, shared by the repositories and upstreams with the same resolver configuration
+        mavenResolverConfig.put("maven.wagon.http.pool", "true");
+        mavenResolverConfig.put("maven.wagon.httpconnectionManager.maxPerRoute", Integer.toString(httpMaxPerRoute));
+        mavenResolverConfig.put("maven.wagon.httpconnectionManager.maxTotal", Integer.toString(httpMaxTotal));
+        mavenResolverConfig.put("socket.keepAlive", Boolean.toString(httpKeepAlive));
         if (repository.getProxy() == null || repository.getProxy().isEmpty() || repository.isMirror()) {
             if (repository.getLocation() != null && !repository.getLocation().isEmpty()) {
                 mavenResolverConfig.put("localRepository", repository.getLocation());
@@ -919,11 +1925,179 @@ public class RepositoryServiceImpl implements RepositoryService {
         } else {
             mavenResolverConfig.put("repositories", "file:" + repository.getLocation() + "@id=" + repository.getName() + "@snapshots");
         }
-        MavenResolver mavenResolver = MavenResolvers.createMavenResolver(mavenResolverConfig, null);
-        MavenServlet mavenServlet = new MavenServlet(mavenResolver, repository.getName(), repository.getLocation(), repository.getPoolSize(), repository.getRealm(), repository.getDownloadRole(), repository.getUploadRole());
+        MavenResolverProvider resolverProvider = resolverProvider(repository.getName(), mavenResolverConfig);
+        MavenServlet mavenServlet = new MavenServlet(resolverProvider, listing, blobStore, metrics(repository), accessTracker(repository),
+                (repository.getProxy() != null && !repository.getProxy().isEmpty()) ? metadataCache(repository) : null, upstreamLookup(repository, mavenResolverConfig), pathIndex(repository), repository.getName(), repository.getLocation(), repository.getPoolSize(), repository.getRealm(), repository.getDownloadRole(), repository.getUploadRole(),
+                (repository.getProxy() != null && !repository.getProxy().isEmpty()) ? prefetchConcurrency : 0);
+        mavenServlet.setRateLimiter(rateLimiter);
+        servlets.put(repository.getName(), mavenServlet);
         httpService.registerServlet(repository.getUrl(), mavenServlet, null, null);
     }
 
+    /**
+     * Create the index of a hosted repository storage, built in background.
+     *
+     * @param repository the repository.
+     * @return the {@link PathIndex}, or {@code null} if the index is disabled or the repository is a proxy (the proxied
+     * artifacts are stored by the resolver).
+     */
+    private PathIndex pathIndex(Repository repository) {
+        if (!indexEnabled || repository.getLocation() == null || repository.getLocation().isEmpty()
+                || (repository.getProxy() != null && !repository.getProxy().isEmpty())) {
+            pathIndexes.remove(repository.getName());
+            return null;
+        }
+        PathIndex index = new PathIndex(Paths.get(repository.getLocation()), indexFpp, executor);
+        pathIndexes.put(repository.getName(), index);
+        index.rebuild();
+        return index;
+    }
+
+    /**
+     * Create the lookup of the artifacts on the upstreams of a proxy repository, with a Maven resolver per upstream.
+     *
+     * @param repository the repository.
+     * @param config the repository Maven resolver configuration.
+     * @return the {@link UpstreamLookup}, or {@code null} if the upstreams are looked up sequentially by the repository
+     * resolver (without circuit breaker).
+     */
+    private UpstreamLookup upstreamLookup(Repository repository, Hashtable<String, String> config) throws IOException {
+        List<String> specs = UpstreamLookup.specs(repository.getProxy());
+        if (specs.isEmpty() || (breakerThreshold <= 0 && (lookupMode == UpstreamLookup.Mode.SEQUENTIAL || specs.size() < 2))) {
+            upstreamLookups.remove(repository.getName());
+            releaseUpstreamResolverProviders(repository.getName(), Collections.<String>emptySet());
+            return null;
+        }
+        Map<String, UpstreamHealth> healths = upstreamHealths.get(repository.getName());
+        if (healths == null) {
+            upstreamHealths.putIfAbsent(repository.getName(), new ConcurrentHashMap<String, UpstreamHealth>());
+            healths = upstreamHealths.get(repository.getName());
+        }
+        List<UpstreamLookup.Upstream> upstreams = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < specs.size(); i++) {
+            String id = UpstreamLookup.id(specs.get(i), i);
+            ids.add(id);
+            Hashtable<String, String> upstreamConfig = new Hashtable<>(config);
+            upstreamConfig.put("repositories", specs.get(i));
+            // the stored artifacts are served by the servlet, without the repository storage the configuration is the same for all the repositories
+            upstreamConfig.remove("defaultRepositories");
+            // the health is kept when the servlet is registered again
+            UpstreamHealth health = healths.get(id);
+            if (health == null) {
+                healths.putIfAbsent(id, new UpstreamHealth(breakerThreshold, breakerMinRequests, breakerOpenDuration));
+                health = healths.get(id);
+            }
+            // the upstream resolver is shared by the repositories proxying the same upstream
+            upstreams.add(new UpstreamLookup.Upstream(id, specs.get(i), resolverProvider(repository.getName() + UPSTREAM_SEPARATOR + id, upstreamConfig), health));
+        }
+        releaseUpstreamResolverProviders(repository.getName(), ids);
+        UpstreamLookup lookup = new UpstreamLookup(upstreams, config, metrics(repository), lookupMode, hedgeDelay, repository.getPoolSize());
+        upstreamLookups.put(repository.getName(), lookup);
+        return lookup;
+    }
+
+    /**
+     * Get the Maven resolver provider for a repository, sharing the provider between repositories using the same resolver configuration.
+     *
+     * @param name the repository name.
+     * @param config the repository Maven resolver configuration.
+     * @return the {@link MavenResolverProvider}.
+     */
+    private MavenResolverProvider resolverProvider(String name, Hashtable<String, String> config) throws IOException {
+        synchronized (resolverProviders) {
+            MavenResolverProvider resolverProvider = resolverProviders.get(config);
+            if (resolverProvider == null) {
+                resolverProvider = new MavenResolverProvider(config);
+                resolverProviders.put(config, resolverProvider);
+            }
+            MavenResolverProvider previous = repositoryResolverProviders.put(name, resolverProvider);
+            if (previous != null && previous != resolverProvider && !repositoryResolverProviders.containsValue(previous)) {
+                resolverProviders.remove(previous.getConfig());
+                previous.close();
+            }
+            return resolverProvider;
+        }
+    }
+
+    /**
+     * Release the Maven resolver provider used by a repository, closing it if not used by another repository.
+     *
+     * @param name the repository name.
+     */
+    private void releaseResolverProvider(String name) throws IOException {
+        synchronized (resolverProviders) {
+            MavenResolverProvider resolverProvider = repositoryResolverProviders.remove(name);
+            if (resolverProvider != null && !repositoryResolverProviders.containsValue(resolverProvider)) {
+                resolverProviders.remove(resolverProvider.getConfig());
+                resolverProvider.close();
+            }
+            releaseUpstreamResolverProviders(name, Collections.<String>emptySet());
+        }
+    }
+
+    /**
+     * Release the Maven resolver providers used by the upstreams of a repository, closing them if not used anymore.
+     *
+     * @param name the repository name.
+     * @param keep the ids of the upstreams still used.
+     */
+    private void releaseUpstreamResolverProviders(String name, Set<String> keep) {
+        synchronized (resolverProviders) {
+            for (String owner : new ArrayList<>(repositoryResolverProviders.keySet())) {
+                if (owner.startsWith(name + UPSTREAM_SEPARATOR) && !keep.contains(owner.substring(name.length() + UPSTREAM_SEPARATOR.length()))) {
+                    try {
+                        releaseResolverProvider(owner);
+                    } catch (IOException e) {
+                        LOGGER.warn("Can't close Maven resolver of {}", owner, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the Maven resolvers (and their HTTP connections) not used for the idle timeout. They are created again on
+     * the next request.
+     */
+    private void evictIdleResolvers() {
+        List<MavenResolverProvider> providers;
+        synchronized (resolverProviders) {
+            providers = new ArrayList<>(resolverProviders.values());
+        }
+        for (MavenResolverProvider resolverProvider : providers) {
+            try {
+                if (resolverProvider.evict(httpIdleTimeout)) {
+                    resolverEvictions.incrementAndGet();
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Can't evict Maven resolver", e);
+            }
+        }
+    }
+
+    /**
+     * Create the Maven resolvers in parallel in background, so they are ready for the first requests.
+     */
+    private void warmupResolvers() {
+        List<MavenResolverProvider> providers;
+        synchronized (resolverProviders) {
+            providers = new ArrayList<>(resolverProviders.values());
+        }
+        for (final MavenResolverProvider resolverProvider : providers) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resolverProvider.get();
+                    } catch (Exception e) {
+                        LOGGER.warn("Can't create Maven resolver", e);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Register repository scheduling in the scheduler service.
      *
@@ -963,6 +2137,9 @@ public class RepositoryServiceImpl implements RepositoryService {
      * @param repository the {@link Repository}.
      */
     private void unregisterMavenServlet(Repository repository) {
+        upstreamLookups.remove(repository.getName());
+        pathIndexes.remove(repository.getName());
+        servlets.remove(repository.getName());
         httpService.unregister(repository.getUrl());
     }
 
@@ -25,6 +25,8 @@ import org.apache.karaf.shell.api.action.Completion;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 
+import java.util.List;
+
 @Service
 @Command(scope = "cave", name = "repository-artifact-add", description = "Add an artifact to a repository")
 public class RepositoryAddArtifactCommand implements Action {
@@ -36,8 +38,8 @@ public class RepositoryAddArtifactCommand implements Action {
     @Completion(RepositoryNameCompleter.class)
     String name;
 
-    @Argument(index = 1, name = "artifactUrl", description = "The artifact URL", required = true, multiValued = false)
-    String url;
+    @Argument(index = 1, name = "artifactUrls", description = "The artifact URLs", required = true, multiValued = true)
+    List<String> urls;
 
     @Override
     public Object execute() throws Exception {
@@ -45,7 +47,11 @@ public class RepositoryAddArtifactCommand implements Action {
             System.err.println("Repository " + name + " doesn't exist");
             return null;
         }
-        repositoryService.addArtifact(url, name);
+        if (urls.size() == 1) {
+            repositoryService.addArtifact(urls.get(0), name);
+        } else {
+            repositoryService.addArtifacts(urls, name);
+        }
         return null;
     }
 
@@ -22,6 +22,7 @@ import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.Completion;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 
@@ -40,6 +41,9 @@ public class RepositoryCopyCommand implements Action {
     @Completion(RepositoryNameCompleter.class)
     String destination;
 
+    @Option(name = "-m", aliases = { "--mode" }, description = "The transfer mode: copy (default) or link (hard links when repositories share the same filesystem)", required = false, multiValued = false)
+    String mode = "copy";
+
     @Override
     public Object execute() throws Exception {
         if (repositoryService.repository(source) == null) {
@@ -50,7 +54,7 @@ public class RepositoryCopyCommand implements Action {
             System.err.println("Destination repository " + destination + " doesn't exist");
             return null;
         }
-        repositoryService.copy(source, destination);
+        System.out.println(repositoryService.copy(source, destination, mode));
         return null;
     }
 
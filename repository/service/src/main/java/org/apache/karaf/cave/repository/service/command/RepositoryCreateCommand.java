@@ -64,8 +64,15 @@ public class RepositoryCreateCommand implements Action {
     @Option(name = "-ps", aliases = { "--pool-size" }, description = "The repository pool size for the HTTP service", required = false, multiValued = false)
     int poolSize = 8;
 
+    @Option(name = "-g", aliases = { "--group", "--members" }, description = "The member repositories (comma separated, in lookup order) to create a group repository", required = false, multiValued = false)
+    String members;
+
     @Override
     public Object execute() throws Exception {
+        if (members != null) {
+            repositoryService.createGroup(name, members);
+            return null;
+        }
         repositoryService.create(name, location, url, proxy, mirror, realm, downloadRole, uploadRole, scheduling, schedulingAction, poolSize);
         return null;
     }
@@ -26,6 +26,8 @@ import org.apache.karaf.shell.api.action.Completion;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 
+import java.util.Map;
+
 @Service
 @Command(scope = "cave", name = "repository-info", description = "Provide all details about a repository")
 public class RepositoryInfoCommand implements Action {
@@ -55,6 +57,20 @@ public class RepositoryInfoCommand implements Action {
         System.out.println("Scheduling: " + ((repository.getScheduling() != null) ? repository.getScheduling() : ""));
         System.out.println("Scheduling Actions: " + ((repository.getScheduling() != null) ? repository.getSchedulingAction() : ""));
         System.out.println("Pool size: " + repository.getPoolSize());
+        System.out.println("Quota: " + ((repository.getQuota() > 0) ? repository.getQuota() : ""));
+        System.out.println("Metadata TTL: " + repository.getMetadataTtl());
+        System.out.println("Offline: " + repository.isOffline());
+        System.out.println("Members: " + ((repository.getMembers() != null) ? repository.getMembers() : ""));
+        Map<String, Map<String, String>> upstreams = repositoryService.upstreams(name);
+        if (!upstreams.isEmpty()) {
+            System.out.println("Upstreams:");
+            for (Map.Entry<String, Map<String, String>> upstream : upstreams.entrySet()) {
+                Map<String, String> health = upstream.getValue();
+                System.out.println("  " + upstream.getKey() + ": " + health.get("state")
+                        + " (failure rate " + health.get("failureRate") + "%, latency " + health.get("latency") + " ms, trips " + health.get("trips")
+                        + ((health.get("retryIn") != null) ? ", retry in " + health.get("retryIn") + " s" : "") + ")");
+            }
+        }
         return null;
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.command;
+
+import org.apache.karaf.cave.repository.RepositoryService;
+import org.apache.karaf.cave.repository.service.command.completers.RepositoryNameCompleter;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Completion;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+@Service
+@Command(scope = "cave", name = "repository-quota", description = "Get or set the repository storage quota")
+public class RepositoryQuotaCommand implements Action {
+
+    @Reference
+    private RepositoryService repositoryService;
+
+    @Argument(index = 0, name = "name", description = "The repository name", required = true, multiValued = false)
+    @Completion(RepositoryNameCompleter.class)
+    String name;
+
+    @Argument(index = 1, name = "quota", description = "The new repository quota in bytes, with optional k, m or g unit (0 for unlimited)", required = false, multiValued = false)
+    String quota;
+
+    @Override
+    public Object execute() throws Exception {
+        if (repositoryService.repository(name) == null) {
+            System.err.println("Repository " + name + " doesn't exist");
+            return null;
+        }
+        if (quota != null) {
+            repositoryService.changeQuota(name, parse(quota));
+        }
+        long current = repositoryService.repository(name).getQuota();
+        System.out.println((current > 0) ? Long.toString(current) : "unlimited");
+        return null;
+    }
+
+    static long parse(String quota) {
+        String value = quota.trim().toLowerCase();
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1024L;
+        } else if (value.endsWith("m")) {
+            unit = 1024L * 1024;
+        } else if (value.endsWith("g")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * unit;
+    }
+
+}
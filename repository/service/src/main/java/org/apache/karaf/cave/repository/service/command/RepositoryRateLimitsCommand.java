@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.command;
+
+import org.apache.karaf.cave.repository.RepositoryService;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+import java.util.Map;
+
+@Service
+@Command(scope = "cave", name = "repository-rate-limits", description = "List the rate limiting buckets per user, client address and repository")
+public class RepositoryRateLimitsCommand implements Action {
+
+    @Reference
+    private RepositoryService repositoryService;
+
+    @Override
+    public Object execute() throws Exception {
+        Map<String, Map<String, Long>> levels = repositoryService.rateLimits();
+        if (levels.isEmpty()) {
+            System.out.println("No rate limited requests");
+            return null;
+        }
+        ShellTable table = new ShellTable();
+        table.column("Bucket");
+        table.column("Requests").alignRight();
+        table.column("Bytes").alignRight();
+        for (Map.Entry<String, Map<String, Long>> bucket : levels.entrySet()) {
+            Long requests = bucket.getValue().get("requests");
+            Long bytes = bucket.getValue().get("bytes");
+            table.addRow().addContent(bucket.getKey(), (requests != null) ? requests : "-", (bytes != null) ? bytes : "-");
+        }
+        table.print(System.out);
+        return null;
+    }
+
+}
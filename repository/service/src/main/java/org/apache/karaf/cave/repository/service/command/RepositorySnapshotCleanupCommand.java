@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.command;
+
+import org.apache.karaf.cave.repository.RepositoryService;
+import org.apache.karaf.cave.repository.service.command.completers.RepositoryNameCompleter;
+import org.apache.karaf.cave.repository.service.maven.SnapshotCleaner;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Completion;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@Service
+@Command(scope = "cave", name = "repository-snapshot-cleanup", description = "Remove the old timestamped builds of the SNAPSHOT artifacts of a repository")
+public class RepositorySnapshotCleanupCommand implements Action {
+
+    @Reference
+    private RepositoryService repositoryService;
+
+    @Option(name = "-k", aliases = { "--keep" }, description = "The number of last builds to keep for each SNAPSHOT version (1 by default)", required = false, multiValued = false)
+    int keep = SnapshotCleaner.DEFAULT_KEEP;
+
+    @Option(name = "-a", aliases = { "--age" }, description = "The age under which the builds are kept, in seconds or with m, h, d or w unit (30d by default, 0 to keep only the last builds)", required = false, multiValued = false)
+    String age;
+
+    @Argument(index = 0, name = "name", description = "The repository name", required = true, multiValued = false)
+    @Completion(RepositoryNameCompleter.class)
+    String name;
+
+    @Override
+    public Object execute() throws Exception {
+        if (repositoryService.repository(name) == null) {
+            System.err.println("Repository " + name + " doesn't exist");
+            return null;
+        }
+        long maxAge = (age != null) ? SnapshotCleaner.parseDuration(age) : SnapshotCleaner.DEFAULT_MAX_AGE;
+        Map<String, Long> result = repositoryService.cleanupSnapshots(name, keep, TimeUnit.MILLISECONDS.toSeconds(maxAge));
+        System.out.println("Removed " + result.get("removedBuilds") + " builds (" + result.get("removedFiles") + " files, " + result.get("removedBytes") + " bytes) from "
+                + result.get("snapshots") + " SNAPSHOT versions, " + result.get("keptBuilds") + " builds kept");
+        return null;
+    }
+
+}
@@ -18,6 +18,12 @@ import javax.management.openmbean.TabularData;
 public interface RepositoryMBean {
 
     TabularData getRepositories() throws Exception;
+    long getReclaimPendingEntries();
+    long getReclaimDeletedFiles();
+    long getReclaimedBytes();
+    TabularData getTransport() throws Exception;
+    TabularData getMetrics() throws Exception;
+    TabularData getRateLimits() throws Exception;
 
     void create(String name) throws Exception;
     void create(String name, String location, String url, String proxy, boolean mirror, String realm, String downloadRole, String uploadRole, String scheduling, String schedulingAction, int poolSize) throws Exception;
@@ -28,9 +34,22 @@ public interface RepositoryMBean {
     void changeProxy(String name, String proxy, boolean mirror) throws Exception;
     void changeSecurity(String name, String realm, String downloadRole, String uploadRole) throws Exception;
     void changeScheduling(String name, String scheduling, String actions) throws Exception;
+    void changeQuota(String name, long quota) throws Exception;
+    void changeMetadataTtl(String name, long ttl) throws Exception;
+    void changeOffline(String name, boolean offline) throws Exception;
+    void createGroup(String name, String members) throws Exception;
+    void changeMembers(String name, String members) throws Exception;
+    String evict(String name) throws Exception;
+    String dedup(String name) throws Exception;
+    String index(String name, boolean rebuild) throws Exception;
+    String cleanupSnapshots(String name, int keep, long maxAge) throws Exception;
     void copy(String source, String destination) throws Exception;
+    String copy(String source, String destination, String mode) throws Exception;
     void addArtifact(String name, String artifactUrl) throws Exception;
     void deleteArtifact(String name, String artifactUrl) throws Exception;
+    String warm(String name, String[] sources) throws Exception;
     void updateBundleRepositoryDescriptor(String name) throws Exception;
+    TabularData top(String name, int count) throws Exception;
+    TabularData upstreams(String name) throws Exception;
 
 }
@@ -28,6 +28,8 @@ import javax.management.openmbean.SimpleType;
 import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 import javax.management.openmbean.TabularType;
+import java.util.Arrays;
+import java.util.Map;
 
 @Component(name = "org.apache.karaf.cave.repository.management", property = { "jmx.objectname=org.apache.karaf.cave:type=repository" })
 public class RepositoryMBeanService extends StandardMBean implements RepositoryMBean {
@@ -42,14 +44,14 @@ public class RepositoryMBeanService extends StandardMBean implements RepositoryM
     @Override
     public TabularData getRepositories() throws Exception {
         CompositeType repositoryType = new CompositeType("Repository", "Cave Repository",
-                new String[]{"name", "location", "url", "proxy", "mirror", "realm", "downloadRole", "uploadRole", "poolSize"},
-                new String[]{"Name", "Location", "URL", "Proxy", "Mirror", "Realm", "Download Role", "Upload Role", "Pool Size"},
-                new OpenType[]{SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER});
+                new String[]{"name", "location", "url", "proxy", "mirror", "realm", "downloadRole", "uploadRole", "poolSize", "quota", "metadataTtl", "offline", "members"},
+                new String[]{"Name", "Location", "URL", "Proxy", "Mirror", "Realm", "Download Role", "Upload Role", "Pool Size", "Quota", "Metadata TTL", "Offline", "Members"},
+                new OpenType[]{SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER, SimpleType.LONG, SimpleType.LONG, SimpleType.BOOLEAN, SimpleType.STRING});
         TabularType tableType = new TabularType("Repositories", "Repositories", repositoryType, new String[]{"name"});
         TabularData table = new TabularDataSupport(tableType);
         for (Repository repository : repositoryService.repositories()) {
             CompositeData data = new CompositeDataSupport(repositoryType,
-                    new String[]{"name", "location", "url", "proxy", "mirror", "realm", "downloadRole", "uploadRole", "poolSize"},
+                    new String[]{"name", "location", "url", "proxy", "mirror", "realm", "downloadRole", "uploadRole", "poolSize", "quota", "metadataTtl", "offline", "members"},
                     new Object[]{repository.getName(),
                             repository.getLocation(),
                             repository.getUrl(),
@@ -58,12 +60,83 @@ public class RepositoryMBeanService extends StandardMBean implements RepositoryM
                             repository.getRealm(),
                             repository.getDownloadRole(),
                             repository.getUploadRole(),
-                            repository.getPoolSize()});
+                            repository.getPoolSize(),
+                            repository.getQuota(),
+                            repository.getMetadataTtl(),
+                            repository.isOffline(),
+                            repository.getMembers()});
             table.put(data);
         }
         return table;
     }
 
+    @Override
+    public long getReclaimPendingEntries() {
+        return repositoryService.reclaimStatus().get("pendingEntries");
+    }
+
+    @Override
+    public long getReclaimDeletedFiles() {
+        return repositoryService.reclaimStatus().get("deletedFiles");
+    }
+
+    @Override
+    public long getReclaimedBytes() {
+        return repositoryService.reclaimStatus().get("reclaimedBytes");
+    }
+
+    @Override
+    public TabularData getTransport() throws Exception {
+        CompositeType statusType = new CompositeType("TransportStatus", "Cave Repository HTTP Transport Status",
+                new String[]{"name", "value"},
+                new String[]{"Name", "Value"},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG});
+        TabularType tableType = new TabularType("Transport", "HTTP Transport", statusType, new String[]{"name"});
+        TabularData table = new TabularDataSupport(tableType);
+        for (Map.Entry<String, Long> status : repositoryService.transportStatus().entrySet()) {
+            table.put(new CompositeDataSupport(statusType,
+                    new String[]{"name", "value"},
+                    new Object[]{status.getKey(), status.getValue()}));
+        }
+        return table;
+    }
+
+    @Override
+    public TabularData getMetrics() throws Exception {
+        CompositeType metricType = new CompositeType("Metric", "Cave Repository Metric",
+                new String[]{"repository", "metric", "value"},
+                new String[]{"Repository", "Metric", "Value"},
+                new OpenType[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG});
+        TabularType tableType = new TabularType("Metrics", "Metrics", metricType, new String[]{"repository", "metric"});
+        TabularData table = new TabularDataSupport(tableType);
+        for (Repository repository : repositoryService.repositories()) {
+            for (Map.Entry<String, Long> metric : repositoryService.metrics(repository.getName()).entrySet()) {
+                table.put(new CompositeDataSupport(metricType,
+                        new String[]{"repository", "metric", "value"},
+                        new Object[]{repository.getName(), metric.getKey(), metric.getValue()}));
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public TabularData getRateLimits() throws Exception {
+        CompositeType levelType = new CompositeType("RateLimit", "Cave Repository Rate Limit Bucket",
+                new String[]{"bucket", "limit", "available"},
+                new String[]{"Bucket", "Limit", "Available"},
+                new OpenType[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG});
+        TabularType tableType = new TabularType("RateLimits", "Rate Limits", levelType, new String[]{"bucket", "limit"});
+        TabularData table = new TabularDataSupport(tableType);
+        for (Map.Entry<String, Map<String, Long>> bucket : repositoryService.rateLimits().entrySet()) {
+            for (Map.Entry<String, Long> level : bucket.getValue().entrySet()) {
+                table.put(new CompositeDataSupport(levelType,
+                        new String[]{"bucket", "limit", "available"},
+                        new Object[]{bucket.getKey(), level.getKey(), level.getValue()}));
+            }
+        }
+        return table;
+    }
+
     @Override
     public void create(String name) throws Exception {
         repositoryService.create(name);
@@ -109,16 +182,71 @@ public class RepositoryMBeanService extends StandardMBean implements RepositoryM
         repositoryService.changeScheduling(name, scheduling, actions);
     }
 
+    @Override
+    public void changeQuota(String name, long quota) throws Exception {
+        repositoryService.changeQuota(name, quota);
+    }
+
+    @Override
+    public void changeMetadataTtl(String name, long ttl) throws Exception {
+        repositoryService.changeMetadataTtl(name, ttl);
+    }
+
+    @Override
+    public void changeOffline(String name, boolean offline) throws Exception {
+        repositoryService.changeOffline(name, offline);
+    }
+
+    @Override
+    public void createGroup(String name, String members) throws Exception {
+        repositoryService.createGroup(name, members);
+    }
+
+    @Override
+    public void changeMembers(String name, String members) throws Exception {
+        repositoryService.changeMembers(name, members);
+    }
+
+    @Override
+    public String evict(String name) throws Exception {
+        return repositoryService.evict(name).toString();
+    }
+
+    @Override
+    public String dedup(String name) throws Exception {
+        return repositoryService.dedup(name).toString();
+    }
+
+    @Override
+    public String index(String name, boolean rebuild) throws Exception {
+        return repositoryService.index(name, rebuild).toString();
+    }
+
+    @Override
+    public String cleanupSnapshots(String name, int keep, long maxAge) throws Exception {
+        return repositoryService.cleanupSnapshots(name, keep, maxAge).toString();
+    }
+
     @Override
     public void copy(String source, String destination) throws Exception {
         repositoryService.copy(source, destination);
     }
 
+    @Override
+    public String copy(String source, String destination, String mode) throws Exception {
+        return repositoryService.copy(source, destination, mode).toString();
+    }
+
     @Override
     public void addArtifact(String name, String artifactUrl) throws Exception {
         repositoryService.addArtifact(artifactUrl, name);
     }
 
+    @Override
+    public String warm(String name, String[] sources) throws Exception {
+        return repositoryService.warm(name, Arrays.asList(sources)).toString();
+    }
+
     @Override
     public void deleteArtifact(String name, String artifactUrl) throws Exception {
         repositoryService.deleteArtifact(artifactUrl, name);
@@ -128,4 +256,39 @@ public class RepositoryMBeanService extends StandardMBean implements RepositoryM
     public void updateBundleRepositoryDescriptor(String name) throws Exception {
         repositoryService.updateBundleRepositoryDescriptor(name);
     }
+
+    @Override
+    public TabularData top(String name, int count) throws Exception {
+        CompositeType artifactType = new CompositeType("PopularArtifact", "Cave Repository Popular Artifact",
+                new String[]{"path", "requests"},
+                new String[]{"Path", "Estimated Requests"},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG});
+        TabularType tableType = new TabularType("PopularArtifacts", "Popular Artifacts", artifactType, new String[]{"path"});
+        TabularData table = new TabularDataSupport(tableType);
+        for (Map.Entry<String, Long> artifact : repositoryService.top(name, count).entrySet()) {
+            table.put(new CompositeDataSupport(artifactType,
+                    new String[]{"path", "requests"},
+                    new Object[]{artifact.getKey(), artifact.getValue()}));
+        }
+        return table;
+    }
+
+    @Override
+    public TabularData upstreams(String name) throws Exception {
+        CompositeType upstreamType = new CompositeType("Upstream", "Cave Repository Upstream",
+                new String[]{"upstream", "state", "failureRate", "latency", "trips", "retryIn"},
+                new String[]{"Upstream", "Circuit Breaker State", "Failure Rate (%)", "Latency (ms)", "Breaker Trips", "Retry In (s)"},
+                new OpenType[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+        TabularType tableType = new TabularType("Upstreams", "Upstreams", upstreamType, new String[]{"upstream"});
+        TabularData table = new TabularDataSupport(tableType);
+        for (Map.Entry<String, Map<String, String>> upstream : repositoryService.upstreams(name).entrySet()) {
+            Map<String, String> health = upstream.getValue();
+            table.put(new CompositeDataSupport(upstreamType,
+                    new String[]{"upstream", "state", "failureRate", "latency", "trips", "retryIn"},
+                    new Object[]{upstream.getKey(), health.get("state"), Long.parseLong(health.get("failureRate")), Long.parseLong(health.get("latency")),
+                            Long.parseLong(health.get("trips")), (health.get("retryIn") != null) ? Long.parseLong(health.get("retryIn")) : 0L}));
+        }
+        return table;
+    }
+
 }
@@ -0,0 +1,495 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Ingest a zip or tar (optionally gzipped) archive containing a Maven repository layout.
+ * <p>
+ * The entries are installed like single uploads: streamed with {@link ArtifactUpload} into staging files in the target
+ * directory, atomically renamed with their checksum files, and notified to the {@link Listener} for the post-install
+ * steps. Small entries (POM, checksums, metadata, ...) are buffered and installed in parallel, with a bounded number of
+ * buffers in memory. The entries in hidden folders (Cave internal folders) are rejected.
+ */
+public class ArchiveUpload {
+
+    private static final int BUFFERED_ENTRY_SIZE = 64 * 1024;
+    // buffered entries written in parallel (up to 4 MB in memory)
+    private static final int MAX_BUFFERED_WRITES = 64;
+
+    private final Path root;
+    private final ExecutorService executor;
+    private final Listener listener;
+
+    /**
+     * @param root the repository folder where to install the entries.
+     * @param executor the executor used to write the entries in parallel.
+     * @param listener the listener notified of the installed entries ({@code null} for none).
+     */
+    public ArchiveUpload(Path root, ExecutorService executor, Listener listener) {
+        this.root = root.toAbsolutePath().normalize();
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Listener of the installed entries (possibly called from the executor threads).
+     */
+    public interface Listener {
+
+        /**
+         * Called when an entry has been installed.
+         *
+         * @param path the entry path, relative to the repository root.
+         * @param upload the committed upload (size and checksums).
+         */
+        void installed(String path, ArtifactUpload upload);
+
+    }
+
+    /**
+     * Ingest an archive.
+     *
+     * @param input the archive stream.
+     * @param contentType the archive content type (used to detect the format, sniffed if null or unknown).
+     * @param base the path, relative to the repository root, where the entries are installed.
+     * @return the result for each entry.
+     */
+    public List<Result> ingest(InputStream input, String contentType, String base) throws IOException, InterruptedException {
+        EntryReader reader = reader(new BufferedInputStream(input), contentType);
+        List<Result> results = new ArrayList<>();
+        List<Future<Result>> writes = new ArrayList<>();
+        final Semaphore buffers = new Semaphore(MAX_BUFFERED_WRITES);
+        String name;
+        while ((name = reader.next()) != null) {
+            final Result result = new Result(name);
+            final Path target = root.resolve(base).resolve(name).normalize();
+            if (!target.startsWith(root) || target.equals(root) || isHidden(root.relativize(target))) {
+                result.fail("Invalid entry path");
+                results.add(result);
+                continue;
+            }
+            final ByteArrayOutputStream head = new ByteArrayOutputStream();
+            if (readHead(reader.stream(), head)) {
+                // wait for a buffered write to complete before holding more entries in memory
+                buffers.acquire();
+                try {
+                    writes.add(executor.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() {
+                            try {
+                                result.size = install(new ByteArrayInputStream(head.toByteArray()), target);
+                            } catch (IOException e) {
+                                result.fail(e.getMessage());
+                            } finally {
+                                buffers.release();
+                            }
+                            return result;
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    buffers.release();
+                    throw e;
+                }
+            } else {
+                try {
+                    result.size = install(new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), reader.stream()), target);
+                } catch (IOException e) {
+                    result.fail(e.getMessage());
+                }
+                results.add(result);
+            }
+        }
+        for (Future<Result> write : writes) {
+            try {
+                results.add(write.get());
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Check if a path, relative to the repository root, has a hidden segment (Cave internal folders and staging files).
+     */
+    static boolean isHidden(Path relative) {
+        for (Path segment : relative) {
+            if (segment.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the beginning of the entry in memory, up to the buffered entry size.
+     *
+     * @return true if the whole entry has been read, false if the entry is larger than the buffer.
+     */
+    private static boolean readHead(InputStream stream, ByteArrayOutputStream head) throws IOException {
+        byte[] chunk = new byte[8192];
+        while (head.size() < BUFFERED_ENTRY_SIZE) {
+            int n = stream.read(chunk);
+            if (n == -1) {
+                return true;
+            }
+            head.write(chunk, 0, n);
+        }
+        return false;
+    }
+
+    /**
+     * Stage the content next to the target, and commit it with its checksum files (like a single upload).
+     */
+    private long install(InputStream content, Path target) throws IOException {
+        String path = root.relativize(target).toString().replace(File.separatorChar, '/');
+        ArtifactUpload upload = new ArtifactUpload(target.getParent());
+        upload.stage(content, false);
+        upload.commit(target, !ArtifactUpload.isChecksum(path));
+        if (listener != null) {
+            listener.installed(path, upload);
+        }
+        return upload.getSize();
+    }
+
+    private static EntryReader reader(BufferedInputStream input, String contentType) throws IOException {
+        String type = contentType != null ? contentType.toLowerCase() : "";
+        if (type.contains("zip") && !type.contains("gzip")) {
+            return new ZipEntryReader(input);
+        }
+        if (type.contains("gzip") || type.contains("gtar") || type.contains("tgz")) {
+            return new TarEntryReader(new BufferedInputStream(new GZIPInputStream(input)));
+        }
+        if (type.contains("tar")) {
+            return new TarEntryReader(input);
+        }
+        // sniff the archive format
+        input.mark(4);
+        int b1 = input.read();
+        int b2 = input.read();
+        input.reset();
+        if (b1 == 'P' && b2 == 'K') {
+            return new ZipEntryReader(input);
+        }
+        if (b1 == 0x1f && b2 == 0x8b) {
+            return new TarEntryReader(new BufferedInputStream(new GZIPInputStream(input)));
+        }
+        return new TarEntryReader(input);
+    }
+
+    /**
+     * Result of an archive entry ingestion.
+     */
+    public static class Result {
+
+        private final String path;
+        private long size;
+        private boolean installed = true;
+        private String message;
+
+        Result(String path) {
+            this.path = path;
+        }
+
+        void fail(String message) {
+            this.installed = false;
+            this.message = message;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isInstalled() {
+            return installed;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+    }
+
+    /**
+     * Iterate over the file entries of an archive.
+     */
+    private interface EntryReader {
+
+        /**
+         * Move to the next file entry.
+         *
+         * @return the entry name or {@code null} at the end of the archive.
+         */
+        String next() throws IOException;
+
+        /**
+         * Get the stream of the current entry.
+         */
+        InputStream stream();
+
+    }
+
+    private static class ZipEntryReader implements EntryReader {
+
+        private final ZipInputStream zip;
+        private InputStream current;
+
+        ZipEntryReader(InputStream input) {
+            this.zip = new ZipInputStream(input);
+        }
+
+        @Override
+        public String next() throws IOException {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    current = new EntryInputStream(zip, Long.MAX_VALUE);
+                    return entry.getName();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public InputStream stream() {
+            return current;
+        }
+
+    }
+
+    /**
+     * Minimal ustar/GNU/pax tar reader (regular files only).
+     */
+    private static class TarEntryReader implements EntryReader {
+
+        private static final int BLOCK = 512;
+
+        private final InputStream input;
+        private EntryInputStream entry;
+        private InputStream current;
+        private long padding;
+
+        TarEntryReader(InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public String next() throws IOException {
+            String longName = null;
+            while (true) {
+                // skip the rest of the previous entry and its padding
+                if (entry != null) {
+                    skip(entry.remaining() + padding);
+                    entry = null;
+                }
+                byte[] header = new byte[BLOCK];
+                if (!readBlock(header) || isZero(header)) {
+                    return null;
+                }
+                String name = string(header, 0, 100);
+                long size = number(header, 124, 12);
+                char type = (char) header[156];
+                String prefix = string(header, 345, 155);
+                if (!prefix.isEmpty() && "ustar".equals(string(header, 257, 5))) {
+                    name = prefix + "/" + name;
+                }
+                entry = new EntryInputStream(input, size);
+                padding = (BLOCK - (size % BLOCK)) % BLOCK;
+                if (type == 'L') {
+                    // GNU long name
+                    longName = new String(readFully(entry), StandardCharsets.UTF_8).trim();
+                    continue;
+                }
+                if (type == 'x') {
+                    // pax extended header
+                    String path = paxPath(new String(readFully(entry), StandardCharsets.UTF_8));
+                    if (path != null) {
+                        longName = path;
+                    }
+                    continue;
+                }
+                if (type == '0' || type == '\0' || type == '7') {
+                    if (longName != null) {
+                        name = longName;
+                    }
+                    current = entry;
+                    return name;
+                }
+                longName = null;
+            }
+        }
+
+        @Override
+        public InputStream stream() {
+            return current;
+        }
+
+        private boolean readBlock(byte[] block) throws IOException {
+            int read = 0;
+            while (read < block.length) {
+                int n = input.read(block, read, block.length - read);
+                if (n < 0) {
+                    if (read == 0) {
+                        return false;
+                    }
+                    throw new EOFException("Truncated tar header");
+                }
+                read += n;
+            }
+            return true;
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                long n = input.skip(count);
+                if (n <= 0) {
+                    if (input.read() < 0) {
+                        throw new EOFException("Truncated tar entry");
+                    }
+                    n = 1;
+                }
+                count -= n;
+            }
+        }
+
+        private static boolean isZero(byte[] block) {
+            for (byte b : block) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String string(byte[] header, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && header[end] != 0) {
+                end++;
+            }
+            return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+        }
+
+        private static long number(byte[] header, int offset, int length) {
+            if ((header[offset] & 0x80) != 0) {
+                // base-256 encoding
+                long value = 0;
+                for (int i = offset + 1; i < offset + length; i++) {
+                    value = (value << 8) | (header[i] & 0xff);
+                }
+                return value;
+            }
+            String value = string(header, offset, length).trim();
+            return value.isEmpty() ? 0 : Long.parseLong(value, 8);
+        }
+
+        private static byte[] readFully(InputStream stream) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[BLOCK];
+            int n;
+            while ((n = stream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+            return buffer.toByteArray();
+        }
+
+        private static String paxPath(String headers) {
+            for (String line : headers.split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0 && line.startsWith("path=", space + 1)) {
+                    return line.substring(space + 6);
+                }
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * Stream limited to the current archive entry, never closing the archive stream.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        EntryInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        long remaining() {
+            return remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // the archive stream is closed by the caller
+        }
+
+    }
+
+}
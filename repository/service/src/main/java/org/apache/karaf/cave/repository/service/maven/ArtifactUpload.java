@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Single pass artifact upload.
+ * <p>
+ * The content is streamed once into a staging file located in the target directory, while the checksums are computed
+ * and, optionally, the {@code pom.properties} of a jar is detected. The staging file is then atomically renamed into
+ * place and the checksum files are written next to it.
+ */
+public class ArtifactUpload {
+
+    /**
+     * Checksum algorithms and the corresponding file extensions.
+     */
+    static final Map<String, String> CHECKSUMS = new LinkedHashMap<>();
+
+    static {
+        CHECKSUMS.put("sha1", "SHA-1");
+        CHECKSUMS.put("md5", "MD5");
+        CHECKSUMS.put("sha256", "SHA-256");
+        CHECKSUMS.put("sha512", "SHA-512");
+    }
+
+    // folder locks, striped to keep a bounded number of locks
+    private static final Lock[] LOCKS = new Lock[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private final Path staging;
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+    private final Map<String, String> checksums = new LinkedHashMap<>();
+    private String mvnCoordsPath;
+    private long size;
+
+    /**
+     * @param directory the directory where to create the staging file (should be on the same filesystem as the target).
+     */
+    public ArtifactUpload(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.staging = directory.resolve(".cave-upload-" + UUID.randomUUID() + ".tmp");
+        for (Map.Entry<String, String> checksum : CHECKSUMS.entrySet()) {
+            try {
+                digests.put(checksum.getKey(), MessageDigest.getInstance(checksum.getValue()));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Get the lock serializing the writes in a folder: the uploads and installs of artifacts and metadata, and the
+     * SNAPSHOT cleanup rewriting the metadata (read, modify and write).
+     *
+     * @param folder the folder.
+     * @return the folder lock (possibly shared with other folders).
+     */
+    public static Lock lock(Path folder) {
+        return LOCKS[(folder.toAbsolutePath().normalize().hashCode() & Integer.MAX_VALUE) % LOCKS.length];
+    }
+
+    /**
+     * Get the locks of several folders, in a consistent order to lock them without deadlock.
+     *
+     * @param folders the folders.
+     * @return the distinct locks, to lock in order.
+     */
+    public static List<Lock> locks(Collection<Path> folders) {
+        SortedMap<Integer, Lock> locks = new TreeMap<>();
+        for (Path folder : folders) {
+            Lock lock = lock(folder);
+            for (int i = 0; i < LOCKS.length; i++) {
+                if (LOCKS[i] == lock) {
+                    locks.put(i, lock);
+                }
+            }
+        }
+        return new ArrayList<>(locks.values());
+    }
+
+    /**
+     * Check if the given path is a checksum file.
+     *
+     * @param path the file path.
+     * @return true if the path is a checksum file, false else.
+     */
+    public static boolean isChecksum(String path) {
+        int index = path.lastIndexOf('.');
+        return index >= 0 && CHECKSUMS.containsKey(path.substring(index + 1));
+    }
+
+    /**
+     * Stream the content into the staging file.
+     *
+     * @param input the content.
+     * @param detectCoords true to look for {@code META-INF/maven/.../pom.properties} in the content.
+     */
+    public void stage(InputStream input, boolean detectCoords) throws IOException {
+        try (OutputStream output = Files.newOutputStream(staging)) {
+            InputStream stream = new TeeInputStream(input, output);
+            if (detectCoords) {
+                detectCoords(stream);
+            }
+            byte[] buffer = new byte[8192];
+            while (stream.read(buffer) != -1) {
+                // drain
+            }
+        } catch (IOException | RuntimeException e) {
+            discard();
+            throw e;
+        }
+        for (Map.Entry<String, MessageDigest> digest : digests.entrySet()) {
+            checksums.put(digest.getKey(), hex(digest.getValue().digest()));
+        }
+    }
+
+    /**
+     * Atomically move the staging file to the target and write the checksum files.
+     *
+     * @param target the target file.
+     * @param writeChecksums true to write the checksum files next to the target.
+     */
+    public void commit(Path target, boolean writeChecksums) throws IOException {
+        Files.createDirectories(target.getParent());
+        Lock lock = lock(target.getParent());
+        lock.lock();
+        try {
+            move(staging, target);
+            if (writeChecksums) {
+                for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+                    Path sidecar = target.resolveSibling(target.getFileName() + "." + checksum.getKey());
+                    Path stagingSidecar = sidecar.resolveSibling("." + sidecar.getFileName() + "." + UUID.randomUUID() + ".tmp");
+                    Files.write(stagingSidecar, checksum.getValue().getBytes(StandardCharsets.US_ASCII));
+                    move(stagingSidecar, sidecar);
+                }
+            }
+        } finally {
+            lock.unlock();
+            discard();
+        }
+    }
+
+    /**
+     * Delete the staging file if it's still there.
+     */
+    public void discard() throws IOException {
+        Files.deleteIfExists(staging);
+    }
+
+    /**
+     * Get the Maven layout path detected from the {@code pom.properties}.
+     *
+     * @param extension the artifact extension.
+     * @return the path or {@code null} if no {@code pom.properties} has been found.
+     */
+    public String getMvnCoordsPath(String extension) {
+        if (mvnCoordsPath == null) {
+            return null;
+        }
+        return mvnCoordsPath + "." + (extension != null ? extension : "jar");
+    }
+
+    public Map<String, String> getChecksums() {
+        return checksums;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    private void detectCoords(InputStream stream) throws IOException {
+        ZipInputStream zip = new ZipInputStream(new FilterInputStream(stream) {
+            @Override
+            public void close() {
+                // don't close the upload stream
+            }
+        });
+        String previous = null;
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.startsWith("META-INF/maven/") && name.endsWith("pom.properties")) {
+                    if (previous != null) {
+                        throw new IllegalStateException(String.format("Duplicate pom.properties found: %s != %s", name, previous));
+                    }
+                    previous = name; // check for dups
+                    Properties props = new Properties();
+                    props.load(zip);
+                    String groupId = props.getProperty("groupId");
+                    String artifactId = props.getProperty("artifactId");
+                    String version = props.getProperty("version");
+                    if (groupId != null && artifactId != null && version != null) {
+                        mvnCoordsPath = String.format("%s/%s/%s/%s-%s", groupId.replace('.', '/'), artifactId, version, artifactId, version);
+                    }
+                }
+            }
+        } catch (ZipException e) {
+            // not a (streamable) jar, the rest of the content is simply stored
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // target on another filesystem
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Stream writing everything read into the staging file and updating the digests.
+     */
+    private class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream output;
+        // the skipped bytes are read (to be written and digested), allocated on first skip
+        private byte[] skipBuffer;
+
+        TeeInputStream(InputStream in, OutputStream output) {
+            super(in);
+            this.output = output;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                output.write(b);
+                for (MessageDigest digest : digests.values()) {
+                    digest.update((byte) b);
+                }
+                size++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                output.write(b, off, n);
+                for (MessageDigest digest : digests.values()) {
+                    digest.update(b, off, n);
+                }
+                size += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            if (skipBuffer == null) {
+                skipBuffer = new byte[8192];
+            }
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+    }
+
+}
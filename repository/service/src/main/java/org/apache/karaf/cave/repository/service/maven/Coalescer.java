@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesce the concurrent requests for the same path on a single computation, without locks.
+ * <p>
+ * The first participant joining a path is the leader: it computes the value and completes the shared
+ * {@link CompletableFuture}, the other participants wait for its completion. Each participant holds a reference on the
+ * computation, released once the value has been used (or when the participant gives up, for instance on timeout). When
+ * the last reference is released, the path is free for a new computation and the value is cleaned (for instance a
+ * temporary file deleted). If the computation is not completed yet, it's cancelled and its value is cleaned when
+ * the leader completes it.
+ *
+ * @param <V> the computed value type.
+ */
+public class Coalescer<V> {
+
+    /**
+     * Clean a computed value once not used anymore.
+     */
+    public interface Cleaner<V> {
+
+        void clean(V value);
+
+    }
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final Cleaner<V> cleaner;
+
+    /**
+     * @param cleaner the cleaner of the values ({@code null} if the values don't need to be cleaned).
+     */
+    public Coalescer(Cleaner<V> cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Join the computation of a path, starting a new one if there is no computation in progress.
+     *
+     * @param path the path.
+     * @return the participant, leader of the computation if it has been started.
+     */
+    public Participant join(String path) {
+        while (true) {
+            Flight flight = flights.get(path);
+            if (flight == null) {
+                flight = new Flight(path);
+                if (flights.putIfAbsent(path, flight) == null) {
+                    return new Participant(flight, true);
+                }
+            } else if (flight.acquire()) {
+                return new Participant(flight, false);
+            } else {
+                // released by all its participants, about to be removed
+                flights.remove(path, flight);
+            }
+        }
+    }
+
+    /**
+     * @return the number of paths with participants.
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    private void clean(V value) {
+        if (cleaner != null && value != null) {
+            cleaner.clean(value);
+        }
+    }
+
+    private final class Flight {
+
+        private final String path;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Flight(String path) {
+            this.path = path;
+        }
+
+        private boolean acquire() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if the computation has been cancelled.
+         */
+        private boolean release() {
+            if (references.decrementAndGet() > 0) {
+                return false;
+            }
+            flights.remove(path, this);
+            if (future.cancel(false)) {
+                return true;
+            }
+            if (!future.isCompletedExceptionally()) {
+                clean(future.join());
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * A participant of a computation. The participant is claimed by the first of the value consumer (once the
+     * computation is completed) or of the timeout, which then releases it.
+     */
+    public final class Participant {
+
+        private final Flight flight;
+        private final boolean leader;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Participant(Flight flight, boolean leader) {
+            this.flight = flight;
+            this.leader = leader;
+        }
+
+        /**
+         * @return true if the participant has to compute the value.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * @return the future completed with the computed value.
+         */
+        public CompletableFuture<V> future() {
+            return flight.future;
+        }
+
+        /**
+         * @return true if all the participants gave up before the completion.
+         */
+        public boolean isCancelled() {
+            return flight.future.isCancelled();
+        }
+
+        /**
+         * Complete the computation (leader). The value is cleaned if the computation has been cancelled.
+         */
+        public void complete(V value) {
+            if (!flight.future.complete(value)) {
+                clean(value);
+            }
+        }
+
+        public void completeExceptionally(Throwable throwable) {
+            flight.future.completeExceptionally(throwable);
+        }
+
+        /**
+         * Claim the participant, to use the value or to give up.
+         *
+         * @return true if the participant has been claimed, false if it has already been claimed.
+         */
+        public boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Release the reference of the participant on the computation (once claimed).
+         *
+         * @return true if the computation has been cancelled, as all the participants gave up before its completion.
+         */
+        public boolean release() {
+            return flight.release();
+        }
+
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted and paginated repository directory listings.
+ * <p>
+ * The listings are read with a {@link DirectoryStream} and kept in a small LRU cache, invalidated when the content
+ * changes (upload or delete), or when the directory modification time changes.
+ */
+public class DirectoryListing {
+
+    private final Map<Path, Listing> cache;
+
+    /**
+     * @param capacity the maximum number of directory listings kept in cache (0 to disable the cache).
+     */
+    public DirectoryListing(final int capacity) {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<Path, Listing>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Listing> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * Get a page of a directory listing.
+     *
+     * @param directory the directory to list.
+     * @param cursor the name of the last entry of the previous page ({@code null} for the first page).
+     * @param limit the maximum number of entries in the page.
+     * @return the listing {@link Page}.
+     */
+    public Page list(Path directory, String cursor, int limit) throws IOException {
+        Entry[] entries = entries(directory.toAbsolutePath().normalize());
+        int from = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            from = Arrays.binarySearch(entries, new Entry(cursor, false, 0, 0), ORDER);
+            from = from >= 0 ? from + 1 : -from - 1;
+        }
+        int to = (int) Math.min(entries.length, (long) from + Math.max(limit, 1));
+        String next = to < entries.length ? entries[to - 1].getName() : null;
+        return new Page(Arrays.asList(entries).subList(from, to), next);
+    }
+
+    /**
+     * Invalidate the cached listings affected by a change on the given path (the path itself, its ancestors and its descendants).
+     *
+     * @param path the changed file or directory.
+     */
+    public void invalidate(Path path) {
+        Path changed = path.toAbsolutePath().normalize();
+        synchronized (cache) {
+            Iterator<Path> iterator = cache.keySet().iterator();
+            while (iterator.hasNext()) {
+                Path directory = iterator.next();
+                if (changed.startsWith(directory) || directory.startsWith(changed)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private Entry[] entries(Path directory) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(directory);
+        Listing listing = cache.get(directory);
+        if (listing != null && listing.modified.equals(modified)) {
+            return listing.entries;
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path child : stream) {
+                String name = child.getFileName().toString();
+                if (name.startsWith(".")) {
+                    // staging files and trash
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                    entries.add(new Entry(name, attributes.isDirectory(), attributes.size(), attributes.lastModifiedTime().toMillis()));
+                } catch (NoSuchFileException e) {
+                    // deleted in the meantime
+                }
+            }
+        }
+        Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(sorted, ORDER);
+        cache.put(directory, new Listing(modified, directory, sorted));
+        return sorted;
+    }
+
+    static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.name.compareTo(e2.name);
+        }
+    };
+
+    private static class Listing {
+
+        private final FileTime modified;
+        private final Entry[] entries;
+
+        Listing(FileTime modified, Path directory, Entry[] entries) {
+            this.modified = modified;
+            this.entries = entries;
+            for (Entry entry : entries) {
+                entry.directory = directory;
+            }
+        }
+
+    }
+
+    /**
+     * A page of a directory listing.
+     */
+    public static class Page {
+
+        private final List<Entry> entries;
+        private final String next;
+
+        Page(List<Entry> entries, String next) {
+            this.entries = entries;
+            this.next = next;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Get the cursor of the next page.
+         *
+         * @return the cursor or {@code null} if it's the last page.
+         */
+        public String getNext() {
+            return next;
+        }
+
+    }
+
+    /**
+     * A directory listing entry.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final boolean folder;
+        private final long size;
+        private final long lastModified;
+        private Path directory;
+        private volatile String checksum;
+
+        Entry(String name, boolean folder, long size, long lastModified) {
+            this.name = name;
+            this.folder = folder;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        Entry(String name, boolean folder, long size, long lastModified, Path directory) {
+            this(name, folder, size, lastModified);
+            this.directory = directory;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return folder;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Get the SHA-1 checksum of the file, read from the {@code .sha1} file next to it.
+         *
+         * @return the checksum or {@code null} if not available.
+         */
+        public String getChecksum() {
+            if (folder || ArtifactUpload.isChecksum(name)) {
+                return null;
+            }
+            String result = checksum;
+            if (result == null) {
+                try {
+                    byte[] content = Files.readAllBytes(directory.resolve(name + ".sha1"));
+                    String value = new String(content, StandardCharsets.US_ASCII).trim();
+                    int space = value.indexOf(' ');
+                    result = space > 0 ? value.substring(0, space) : value;
+                } catch (IOException e) {
+                    result = "";
+                }
+                checksum = result;
+            }
+            return result.isEmpty() ? null : result;
+        }
+
+    }
+
+}
@@ -0,0 +1,492 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.apache.karaf.cave.repository.service.storage.AccessTracker;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+/**
+ * Servlet of a group repository, exposing the member repositories behind a single URL.
+ * <p>
+ * The artifacts are looked up in the members in order, in process (without HTTP), and the first one found is served.
+ * The {@code maven-metadata.xml} of all the members are merged, the merge result is cached (and served directly for
+ * the metadata TTL). The concurrent requests for the same path are coalesced in the group, and then in each member.
+ * The members protected by a download role are only looked up if the request credentials have this role.
+ * A group repository is read only and can't be browsed.
+ */
+public class GroupServlet extends MavenServlet {
+
+    private static final String METADATA = "maven-metadata.xml";
+
+    private static final int MERGED_CAPACITY = 1024;
+
+    private final Coalescer<Result> lookups = new Coalescer<>(new Coalescer.Cleaner<Result>() {
+        @Override
+        public void clean(Result result) {
+            if (result.value instanceof Fetched) {
+                ((Fetched) result.value).close();
+            }
+        }
+    });
+    private final Map<String, Merged> merged;
+    private final Map<String, MavenServlet> servlets;
+    private final List<String> members;
+    private volatile long ttl;
+
+    /**
+     * @param servlets the servlets of the repositories, by repository name (looked up on each request).
+     * @param members the names of the member repositories, in lookup order.
+     * @param ttl the time to live of the merged metadata, in milliseconds.
+     */
+    public GroupServlet(Map<String, MavenServlet> servlets, List<String> members, long ttl, RepositoryMetrics metrics, AccessTracker accessTracker, String name, int threadMaximumPoolSize, String realm, String downloadRole) {
+        super(null, null, null, metrics, accessTracker, null, null, null, name, null, threadMaximumPoolSize, realm, downloadRole, null, 0);
+        this.servlets = servlets;
+        this.members = new ArrayList<>(members);
+        this.ttl = ttl;
+        this.merged = Collections.synchronizedMap(new LinkedHashMap<String, Merged>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Merged> eldest) {
+                return size() > MERGED_CAPACITY;
+            }
+        });
+    }
+
+    public List<String> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * @param ttl the time to live of the merged metadata, in milliseconds.
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        if (!authorize(req, resp, downloadRole)) {
+            return;
+        }
+        final RateLimiter.Permit permit = admit(req, resp);
+        if (permit == null) {
+            return;
+        }
+        String tpath = req.getPathInfo();
+        if (tpath == null) {
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        if (tpath.startsWith("/")) {
+            tpath = tpath.substring(1);
+        }
+        final String path = tpath;
+        if (path.isEmpty() || path.endsWith("/")) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Group repositories can't be browsed");
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final boolean metadata = isMetadataPath(path);
+        final List<String> readable = readable(req);
+        metrics.requestStarted();
+        final AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(TimeUnit.MINUTES.toMillis(5));
+        // the requests are only coalesced with the requests allowed to read the same members
+        final Coalescer<Result>.Participant participant = lookups.join(key(path, readable));
+        final boolean coalesced = !participant.isLeader();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (abandon(participant, coalesced, metadata, start)) {
+                    LOGGER.warn("Request timeout for {} in group {}", path, name);
+                    if (!resp.isCommitted()) {
+                        resp.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                    }
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                abandon(participant, coalesced, metadata, start);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+        if (participant.isLeader()) {
+            try {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (participant.isCancelled()) {
+                            return;
+                        }
+                        try {
+                            Result result = new Result();
+                            result.value = metadata ? metadata(path, readable, result) : artifact(path, readable, result);
+                            participant.complete(result);
+                        } catch (Throwable t) {
+                            participant.completeExceptionally(t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                participant.completeExceptionally(e);
+            }
+        } else {
+            metrics.coalesced();
+        }
+        participant.future().whenComplete(new BiConsumer<Result, Throwable>() {
+            @Override
+            public void accept(Result result, Throwable failure) {
+                if (!participant.claim()) {
+                    // the request has been abandoned
+                    return;
+                }
+                if (coalesced) {
+                    metrics.coalescedDone();
+                }
+                final boolean local = result != null && result.local;
+                Object value = (result != null) ? result.value : null;
+                InputStream body = null;
+                long length = 0;
+                if (failure != null) {
+                    if (failure instanceof CompletionException && failure.getCause() != null) {
+                        failure = failure.getCause();
+                    }
+                    LOGGER.warn("Error while looking up {} in group {}: {}", path, name, failure.getMessage(), failure);
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } else if (value instanceof byte[]) {
+                    body = new ByteArrayInputStream((byte[]) value);
+                    length = ((byte[]) value).length;
+                } else if (value instanceof Fetched) {
+                    File file = ((Fetched) value).getFile();
+                    try {
+                        body = new FileInputStream(file);
+                        length = file.length();
+                    } catch (IOException e) {
+                        LOGGER.warn("Error while sending {}: {}", path, e.getMessage(), e);
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+                } else {
+                    resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                }
+                if (body != null) {
+                    try {
+                        resp.setStatus(HttpServletResponse.SC_OK);
+                        resp.setContentType("application/octet-stream");
+                        resp.setContentLengthLong(length);
+                        ServletOutputStream output = resp.getOutputStream();
+                        // the body is written by the container when the client can accept it, the thread is released now
+                        ResponseWriter.write(body, output, new ResponseWriter.Completion() {
+                            @Override
+                            public void completed(long bytes, Throwable failure) {
+                                if (failure != null) {
+                                    LOGGER.warn("Error while sending {}: {}", path, failure.getMessage());
+                                    LOGGER.debug("Error while sending {}", path, failure);
+                                }
+                                finish(participant, permit, asyncContext, path, metadata, local, failure == null, bytes, start);
+                            }
+                        });
+                        return;
+                    } catch (Exception e) {
+                        // not given to the writer yet
+                        try {
+                            body.close();
+                        } catch (IOException ex) {
+                            // ignore
+                        }
+                        LOGGER.warn("Error while sending {}: {}", path, e.getMessage(), e);
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+                }
+                finish(participant, permit, asyncContext, path, metadata, local, false, 0, start);
+            }
+        });
+    }
+
+    /**
+     * Complete a request once its response has been sent, releasing its lookup.
+     */
+    private void finish(Coalescer<Result>.Participant participant, RateLimiter.Permit permit, AsyncContext asyncContext, String path, boolean metadata, boolean local, boolean found, long bytes, long start) {
+        participant.release();
+        permit.transferred(bytes);
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            // Ignore, the response must have already been sent with an error
+        }
+        metrics.bytesOut(bytes);
+        if (found && bytes > 0 && !ArtifactUpload.isChecksum(path)) {
+            metrics.served(path);
+            accessTracker.record(path);
+        }
+        metrics.requestCompleted(RepositoryMetrics.Request.get(metadata, local, found), System.nanoTime() - start);
+    }
+
+    /**
+     * Give up a request not served yet (timeout or client error). The lookup is cancelled if no other request waits
+     * for it.
+     *
+     * @return true if the request has been abandoned, false if it's already served.
+     */
+    private boolean abandon(Coalescer<Result>.Participant participant, boolean coalesced, boolean metadata, long start) {
+        if (!participant.claim()) {
+            return false;
+        }
+        if (coalesced) {
+            metrics.coalescedDone();
+        }
+        if (participant.release()) {
+            metrics.downloadCancelled();
+        }
+        metrics.requestCompleted(RepositoryMetrics.Request.get(metadata, false, false), System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Group repositories are read only");
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Group repositories are read only");
+    }
+
+    /**
+     * Get the members a request is allowed to download from, in lookup order. The members with the group realm and
+     * download role are already authorized, the other members with a download role are checked with the request
+     * credentials.
+     */
+    List<String> readable(HttpServletRequest request) {
+        List<String> readable = new ArrayList<>(members.size());
+        for (String member : members) {
+            MavenServlet servlet = servlets.get(member);
+            if (servlet == null) {
+                continue;
+            }
+            if (servlet.downloadRole == null
+                    || (servlet.downloadRole.equals(downloadRole) && Objects.equals(servlet.realm, realm))
+                    || servlet.canDownload(request)) {
+                readable.add(member);
+            }
+        }
+        return readable;
+    }
+
+    private static String key(String path, List<String> members) {
+        return String.join(",", members) + ":" + path;
+    }
+
+    /**
+     * Look up an artifact in the members, in order.
+     *
+     * @param members the members to look up.
+     * @return the file fetched from the first member containing the artifact, or {@code null} if not found.
+     */
+    Fetched artifact(String path, List<String> members, Result result) throws IOException {
+        for (String member : members) {
+            MavenServlet servlet = servlets.get(member);
+            if (servlet == null) {
+                continue;
+            }
+            Fetched fetched = servlet.fetch(path);
+            if (fetched != null) {
+                result.local = fetched.isLocal();
+                return fetched;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the metadata merged from all the members (or the checksum of the merged metadata).
+     *
+     * @param members the members to merge the metadata from.
+     * @return the metadata content, or {@code null} if no member contains the metadata.
+     */
+    byte[] metadata(String path, List<String> members, Result result) throws Exception {
+        MavenCoord coord = convertMetadataPathToCoord(path);
+        String type = coord.getType();
+        if (type.equals(METADATA)) {
+            return merged(path, members, result);
+        }
+        String algorithm = type.substring(METADATA.length() + 1);
+        if (!ArtifactUpload.CHECKSUMS.containsKey(algorithm)) {
+            return null;
+        }
+        byte[] content = merged(path.substring(0, path.length() - algorithm.length() - 1), members, result);
+        if (content == null) {
+            return null;
+        }
+        MessageDigest digest = MessageDigest.getInstance(ArtifactUpload.CHECKSUMS.get(algorithm));
+        return ArtifactUpload.hex(digest.digest(content)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the merged metadata from the cache if not older than the TTL, or merge the metadata of the members. The
+     * previous merge result is reused if the members metadata didn't change.
+     */
+    private byte[] merged(String path, List<String> members, Result result) throws Exception {
+        String key = key(path, members);
+        Merged cached = merged.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.time < ttl) {
+            result.local = true;
+            metrics.metadataCached(now - cached.time, false);
+            return cached.content;
+        }
+        List<byte[]> contents = new ArrayList<>();
+        boolean local = true;
+        MessageDigest digest = digest();
+        for (String member : members) {
+            MavenServlet servlet = servlets.get(member);
+            if (servlet == null) {
+                continue;
+            }
+            try (Fetched fetched = servlet.fetch(path)) {
+                if (fetched == null) {
+                    continue;
+                }
+                byte[] content = Files.readAllBytes(fetched.getFile().toPath());
+                contents.add(content);
+                local &= fetched.isLocal();
+                digest.update(member.getBytes(StandardCharsets.UTF_8));
+                digest.update(content);
+            }
+        }
+        result.local = local;
+        if (contents.isEmpty()) {
+            merged.remove(key);
+            return null;
+        }
+        String signature = ArtifactUpload.hex(digest.digest());
+        byte[] content = (cached != null && cached.signature.equals(signature)) ? cached.content : merge(contents);
+        merged.put(key, new Merged(content, signature, now));
+        return content;
+    }
+
+    /**
+     * Merge Maven metadata (versions, snapshot versions and plugins, the latest and release of the most recently
+     * updated metadata). The invalid metadata are ignored.
+     *
+     * @param contents the metadata, in member order.
+     * @return the merged metadata.
+     */
+    static byte[] merge(List<byte[]> contents) throws IOException {
+        if (contents.size() == 1) {
+            return contents.get(0);
+        }
+        Metadata result = null;
+        for (byte[] content : contents) {
+            Metadata metadata;
+            try {
+                metadata = new MetadataXpp3Reader().read(new ByteArrayInputStream(content), false);
+            } catch (XmlPullParserException e) {
+                LOGGER.warn("Ignoring invalid metadata while merging: {}", e.getMessage());
+                continue;
+            }
+            if (result == null) {
+                result = metadata;
+            } else {
+                result.merge(metadata);
+            }
+        }
+        if (result == null) {
+            throw new IOException("No valid metadata to merge");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MetadataXpp3Writer().write(out, result);
+        return out.toByteArray();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Merged {
+
+        private final byte[] content;
+        // digest of the members metadata the content has been merged from
+        private final String signature;
+        private final long time;
+
+        private Merged(byte[] content, String signature, long time) {
+            this.content = content;
+            this.signature = signature;
+            this.time = time;
+        }
+
+    }
+
+    /**
+     * The result of a lookup, shared by the coalesced requests.
+     */
+    static class Result {
+
+        // the merged metadata (byte[]) or the file fetched from a member (Fetched), null if not found
+        Object value;
+        // true if the value has been fetched without resolving from the proxied repositories
+        boolean local = true;
+
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.util.Objects;
+
+/**
+ * Maven coordinates of a repository request path.
+ * <p>
+ * The paths are parsed with a single scan, without regular expression. The parsing is strictly equivalent to
+ * {@link MavenServlet#ARTIFACT_REQUEST_URL_REGEX} and {@link MavenServlet#ARTIFACT_METADATA_URL_REGEX}.
+ */
+public final class MavenCoord {
+
+    private static final String MAVEN_METADATA = "maven-metadata";
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+    private final String type;
+    private final String classifier;
+
+    public MavenCoord(String groupId, String artifactId, String version, String type, String classifier) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.type = type;
+        this.classifier = classifier;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Check if the path is an artifact path: {@code <groupId>/<artifactId>/<version>/<filename>}.
+     *
+     * @param path the request path.
+     * @return true if the path is an artifact path, false else.
+     */
+    public static boolean isArtifactPath(String path) {
+        return path != null && artifactSlashes(path) != null;
+    }
+
+    /**
+     * Parse an artifact path: {@code <groupId>/<artifactId>/<version>/<artifactId>-<version>[-<classifier>].<extension>}.
+     * Timestamped snapshots keep the timestamp as version.
+     *
+     * @param path the request path.
+     * @return the {@link MavenCoord} or {@code null} if the path is not an artifact path.
+     * @throws InvalidMavenArtifactRequest if the path is an artifact path, but the filename doesn't match the coordinates.
+     */
+    public static MavenCoord parseArtifactPath(String path) throws InvalidMavenArtifactRequest {
+        if (path == null) {
+            throw new InvalidMavenArtifactRequest("Cannot match request path to maven url, request path is empty.");
+        }
+        int[] slashes = artifactSlashes(path);
+        if (slashes == null) {
+            return null;
+        }
+        String groupId = path.substring(0, slashes[0]).replace('/', '.');
+        String artifactId = path.substring(slashes[0] + 1, slashes[1]);
+        String version = path.substring(slashes[1] + 1, slashes[2]);
+        int filename = slashes[2] + 1;
+        int length = path.length();
+
+        // the file name without the "<artifactId>-<version>" prefix
+        String striped;
+        if (version.endsWith(SNAPSHOT)) {
+            String baseVersion = version.replace("-" + SNAPSHOT, "");
+            int timestamp = filename + artifactId.length() + baseVersion.length() + 2;
+            if (timestamp > length) {
+                throw invalid(path);
+            }
+            // check if snapshot is timestamped and override the version
+            int timestampEnd = timestamp(path, timestamp);
+            if (timestampEnd >= 0 && lineTerminator(path, timestampEnd) == length) {
+                version = baseVersion + "-" + path.substring(timestamp, timestampEnd);
+            }
+            int prefix = artifactId.length() + 1 + version.length();
+            int headEnd = timestamp(path, filename);
+            if (headEnd >= 0) {
+                // file name starting with a timestamp replaced by SNAPSHOT (up to the end of line)
+                String replaced = SNAPSHOT + path.substring(lineTerminator(path, headEnd));
+                if (prefix > replaced.length()) {
+                    throw invalid(path);
+                }
+                striped = replaced.substring(prefix);
+            } else {
+                if (filename + prefix > length) {
+                    throw invalid(path);
+                }
+                striped = path.substring(filename + prefix);
+            }
+        } else {
+            int prefix = artifactId.length() + 1 + version.length();
+            if (filename + prefix > length) {
+                throw invalid(path);
+            }
+            striped = path.substring(filename + prefix);
+        }
+
+        String classifier = "";
+        int dot = striped.indexOf('.');
+        if (!striped.isEmpty() && striped.charAt(0) == '-' && dot >= 0) {
+            classifier = striped.substring(1, dot);
+        }
+        String extension = striped.substring(dot + 1);
+        return new MavenCoord(groupId, artifactId, version, extension, classifier);
+    }
+
+    /**
+     * Parse a metadata path: {@code <groupId>/<artifactId>/<version>/maven-metadata[-<repository>].xml[.<type>]}.
+     *
+     * @param path the request path.
+     * @return the {@link MavenCoord} or {@code null} if the path is not a metadata path.
+     */
+    public static MavenCoord parseMetadataPath(String path) throws InvalidMavenArtifactRequest {
+        if (path == null) {
+            throw new InvalidMavenArtifactRequest("Cannot match request path to maven url, request path is empty.");
+        }
+        // only the character before "xml" can be a space
+        int space = path.indexOf(' ');
+        if (space >= 0 && path.indexOf(' ', space + 1) >= 0) {
+            return null;
+        }
+        // the groupId is greedy: try the last "maven-metadata" occurrence first
+        int metadata = path.lastIndexOf(MAVEN_METADATA);
+        while (metadata > 0) {
+            int versionSlash = metadata - 1;
+            if (path.charAt(versionSlash) == '/') {
+                int artifactSlash = path.lastIndexOf('/', versionSlash - 1);
+                int groupSlash = artifactSlash > 0 ? path.lastIndexOf('/', artifactSlash - 1) : -1;
+                if (groupSlash > 0 && artifactSlash - groupSlash > 1 && versionSlash - artifactSlash > 1) {
+                    int type = metadataSuffix(path, metadata + MAVEN_METADATA.length(), space);
+                    if (type >= 0) {
+                        return new MavenCoord(path.substring(0, groupSlash).replace('/', '.'),
+                                path.substring(groupSlash + 1, artifactSlash),
+                                path.substring(artifactSlash + 1, versionSlash),
+                                type == path.length() ? "maven-metadata.xml" : "maven-metadata.xml." + path.substring(type + 1),
+                                null);
+                    }
+                }
+            }
+            metadata = path.lastIndexOf(MAVEN_METADATA, metadata - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Find the three last slashes of an artifact path.
+     *
+     * @return the slash indexes, or {@code null} if the path is not an artifact path.
+     */
+    private static int[] artifactSlashes(String path) {
+        int length = path.length();
+        int first = -1;
+        int second = -1;
+        int third = -1;
+        for (int i = 0; i < length; i++) {
+            char c = path.charAt(i);
+            if (c == ' ') {
+                return null;
+            }
+            if (c == '/') {
+                first = second;
+                second = third;
+                third = i;
+            }
+        }
+        if (first < 1 || second - first < 2 || third - second < 2 || third == length - 1) {
+            return null;
+        }
+        return new int[]{ first, second, third };
+    }
+
+    /**
+     * Match {@code [0-9]{8}.[0-9]{6}-[0-9]+} at the given index.
+     *
+     * @return the end of the timestamp or -1 if it doesn't match.
+     */
+    private static int timestamp(String path, int index) {
+        int length = path.length();
+        if (length - index < 17) {
+            return -1;
+        }
+        int i = index;
+        for (int end = i + 8; i < end; i++) {
+            if (!digit(path.charAt(i))) {
+                return -1;
+            }
+        }
+        if (isLineTerminator(path.charAt(i++))) {
+            return -1;
+        }
+        for (int end = i + 6; i < end; i++) {
+            if (!digit(path.charAt(i))) {
+                return -1;
+            }
+        }
+        if (path.charAt(i++) != '-' || !digit(path.charAt(i))) {
+            return -1;
+        }
+        while (i < length && digit(path.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Match {@code ([-]([^ .]+))?.xml([.]([^ ]+))?} up to the end of the path.
+     *
+     * @return the index of the type (the dot before it) or the path length if there's no type, -1 if it doesn't match.
+     */
+    private static int metadataSuffix(String path, int index, int space) {
+        int length = path.length();
+        if (index < length && path.charAt(index) == '-') {
+            int end = index + 1;
+            while (end < length && path.charAt(end) != '.' && path.charAt(end) != ' ') {
+                end++;
+            }
+            for (; end > index + 1; end--) {
+                int type = xml(path, end, space);
+                if (type >= 0) {
+                    return type;
+                }
+            }
+        }
+        return xml(path, index, space);
+    }
+
+    private static int xml(String path, int index, int space) {
+        int length = path.length();
+        if ((space >= 0 && space != index) || index + 4 > length || isLineTerminator(path.charAt(index)) || !path.startsWith("xml", index + 1)) {
+            return -1;
+        }
+        int type = index + 4;
+        if (type == length || (path.charAt(type) == '.' && type + 1 < length)) {
+            return type;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first line terminator from the given index, or the path length.
+     */
+    private static int lineTerminator(String path, int index) {
+        int length = path.length();
+        while (index < length && !isLineTerminator(path.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean digit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static InvalidMavenArtifactRequest invalid(String path) {
+        return new InvalidMavenArtifactRequest("Artifact file name doesn't match the coordinates: " + path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MavenCoord)) {
+            return false;
+        }
+        MavenCoord that = (MavenCoord) o;
+        return Objects.equals(groupId, that.groupId)
+                && Objects.equals(artifactId, that.artifactId)
+                && Objects.equals(version, that.version)
+                && Objects.equals(type, that.type)
+                && Objects.equals(classifier, that.classifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(groupId, artifactId, version, type, classifier);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(groupId).append(":").append(artifactId).append(":");
+        sb.append(type).append(":");
+        if (classifier != null && !classifier.isEmpty()) {
+            sb.append(classifier).append(":");
+        }
+        sb.append(version);
+        return sb.toString();
+    }
+
+}
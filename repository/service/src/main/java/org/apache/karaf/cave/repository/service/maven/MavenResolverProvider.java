@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.ops4j.pax.url.mvn.MavenResolver;
+import org.ops4j.pax.url.mvn.MavenResolvers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Hashtable;
+
+/**
+ * Lazily create a {@link MavenResolver} for a given configuration.
+ * <p>
+ * Creating a resolver builds a complete Aether stack, so it's only done on first use (or when warmed up in background).
+ * The same provider is shared by all repositories (and upstreams) using the same resolver configuration, so they share
+ * the resolver HTTP connections pool. A resolver not used for a while can be evicted (closing its connections), it's
+ * created again on the next use. The resolutions {@link #acquire() acquire} and {@link #release() release} the resolver,
+ * so a resolver is never evicted during a (possibly long) transfer.
+ */
+public class MavenResolverProvider implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MavenResolverProvider.class);
+
+    private final Hashtable<String, String> config;
+    private volatile MavenResolver resolver;
+    private volatile boolean closed;
+    private volatile long lastUsed = System.currentTimeMillis();
+    // the number of resolutions using the resolver (guarded by this)
+    private int inUse;
+
+    public MavenResolverProvider(Hashtable<String, String> config) {
+        this.config = config;
+    }
+
+    /**
+     * Only visible for testing purpose.
+     */
+    public MavenResolverProvider(MavenResolver resolver) {
+        this.config = new Hashtable<>();
+        this.resolver = resolver;
+    }
+
+    /**
+     * Get the resolver, creating it if needed.
+     *
+     * @return the {@link MavenResolver}.
+     */
+    public MavenResolver get() throws IOException {
+        lastUsed = System.currentTimeMillis();
+        MavenResolver result = resolver;
+        if (result == null) {
+            synchronized (this) {
+                result = resolver;
+                if (result == null) {
+                    if (closed) {
+                        throw new IOException("Maven resolver is closed");
+                    }
+                    long start = System.currentTimeMillis();
+                    result = MavenResolvers.createMavenResolver(config, null);
+                    resolver = result;
+                    LOGGER.debug("Maven resolver created in {} ms", System.currentTimeMillis() - start);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the resolver for a resolution, creating it if needed. The resolver is not evicted until {@link #release()}.
+     *
+     * @return the {@link MavenResolver}.
+     */
+    public MavenResolver acquire() throws IOException {
+        // in the same lock as the eviction, so a resolver is never closed once acquired
+        synchronized (this) {
+            inUse++;
+        }
+        try {
+            return get();
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Release the resolver acquired for a resolution.
+     */
+    public synchronized void release() {
+        inUse--;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Check if the resolver has been created.
+     *
+     * @return true if the resolver is created, false else.
+     */
+    public boolean isCreated() {
+        return resolver != null;
+    }
+
+    /**
+     * Close the resolver (and its HTTP connections) if not used for the given time, and not used by any resolution. The
+     * provider is still usable.
+     *
+     * @param idle the idle time in milliseconds.
+     * @return true if the resolver has been evicted, false else.
+     */
+    public synchronized boolean evict(long idle) throws IOException {
+        // a resolver given without configuration can't be created again
+        if (resolver == null || config.isEmpty() || inUse > 0 || System.currentTimeMillis() - lastUsed < idle) {
+            return false;
+        }
+        resolver.close();
+        resolver = null;
+        LOGGER.debug("Maven resolver evicted after {} ms of inactivity", idle);
+        return true;
+    }
+
+    public Hashtable<String, String> getConfig() {
+        return config;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (resolver != null) {
+            resolver.close();
+            resolver = null;
+        }
+    }
+
+}
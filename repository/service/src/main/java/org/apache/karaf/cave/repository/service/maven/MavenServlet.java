@@ -16,32 +16,31 @@
  */
 package org.apache.karaf.cave.repository.service.maven;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.security.Principal;
-import java.util.Enumeration;
-import java.util.Properties;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.regex.Matcher;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
 import javax.security.auth.Subject;
@@ -55,14 +54,18 @@ import javax.security.auth.login.FailedLoginException;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.DatatypeConverter;
 
-import org.apache.karaf.util.StreamUtils;
-import org.ops4j.pax.url.mvn.MavenResolver;
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.apache.karaf.cave.repository.service.storage.AccessTracker;
+import org.apache.karaf.cave.repository.service.storage.BlobStore;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.service.http.HttpContext;
@@ -75,9 +78,7 @@ public class MavenServlet extends HttpServlet {
 
     public static final Pattern REPOSITORY_ID_REGEX = Pattern.compile("[^ ]*(@id=([^@ ]+))+[^ ]*");
 
-    private static final String SNAPSHOT_TIMESTAMP_REGEX = "^([0-9]{8}.[0-9]{6}-[0-9]+).*";
-    private static final Pattern SNAPSHOT_TIMESTAMP_PATTERN = Pattern.compile(SNAPSHOT_TIMESTAMP_REGEX);
-
+    //The request paths are parsed by MavenCoord, the patterns below describe the accepted syntax.
     //The pattern below matches a path to the following:
     //1: groupId
     //2: artifactId
@@ -100,28 +101,69 @@ public class MavenServlet extends HttpServlet {
 
     protected static final String LOCATION_HEADER = "X-Location";
 
-    private final ConcurrentMap<String, ArtifactDownloadFuture> requestMap = new ConcurrentHashMap<>();
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final int DEFAULT_LISTING_LIMIT = 1000;
+    private static final int MAX_LISTING_LIMIT = 10000;
+
+    private final Coalescer<Download> downloads = new Coalescer<>(new Coalescer.Cleaner<Download>() {
+        @Override
+        public void clean(Download download) {
+            if (download.file != null) {
+                download.file.delete();
+            }
+        }
+    });
     private final int threadMaximumPoolSize;
-    private final String realm;
-    private final String downloadRole;
+    final String realm;
+    final String downloadRole;
     private final String uploadRole;
-    private ThreadPoolExecutor executorService;
+    private final int prefetchConcurrency;
+    ThreadPoolExecutor executorService;
+    private ThreadPoolExecutor uploadExecutorService;
+    private Prefetcher prefetcher;
 
     protected File tmpFolder = new File(System.getProperty("karaf.data") + File.separator + "maven" + File.separator + "proxy" + File.separator + "tmp");
 
-    final MavenResolver resolver;
+    final MavenResolverProvider resolverProvider;
+    final DirectoryListing listing;
+    final BlobStore blobStore;
+    final Precompressor precompressor;
+    final RepositoryMetrics metrics;
+    final AccessTracker accessTracker;
+    final MetadataCache metadataCache;
+    final UpstreamLookup lookup;
+    final PathIndex index;
 
     final String name;
     final String location;
 
-    public MavenServlet(MavenResolver resolver, String name, String location, int threadMaximumPoolSize, String realm, String downloadRole, String uploadRole) {
-        this.resolver = resolver;
+    private volatile RateLimiter rateLimiter;
+
+    public MavenServlet(MavenResolverProvider resolverProvider, DirectoryListing listing, BlobStore blobStore, RepositoryMetrics metrics, AccessTracker accessTracker, MetadataCache metadataCache, UpstreamLookup lookup, PathIndex index, String name, String location, int threadMaximumPoolSize, String realm, String downloadRole, String uploadRole, int prefetchConcurrency) {
+        this.resolverProvider = resolverProvider;
+        this.listing = listing;
+        this.blobStore = blobStore;
+        this.metrics = metrics;
+        this.accessTracker = accessTracker;
+        this.metadataCache = metadataCache;
+        this.lookup = lookup;
+        this.index = index;
         this.threadMaximumPoolSize = threadMaximumPoolSize;
         this.realm = realm;
         this.downloadRole = downloadRole;
         this.uploadRole = uploadRole;
+        this.prefetchConcurrency = prefetchConcurrency;
         this.name = name;
         this.location = location;
+        this.precompressor = (location != null) ? new Precompressor(Paths.get(location), metrics) : null;
+    }
+
+    /**
+     * Set the rate limiter of the requests ({@code null} for unlimited).
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
     }
 
     //
@@ -133,15 +175,28 @@ public class MavenServlet extends HttpServlet {
         if (!tmpFolder.exists() && !tmpFolder.mkdirs()) {
             throw new ServletException("Failed to create temporary artifact folder");
         }
+        cleanupTmpFolder();
         // Create a thread pool with the given maxmimum number of threads
         // All threads will time out after 60 seconds
         int nbThreads = threadMaximumPoolSize > 0 ? threadMaximumPoolSize : 8;
-        executorService = new ThreadPoolExecutor(0, nbThreads, 60, TimeUnit.SECONDS,
+        executorService = new ThreadPoolExecutor(nbThreads, nbThreads, 60, TimeUnit.SECONDS,
                 new LinkedBlockingQueue<Runnable>(), new ThreadFactory("MavenDownloadProxyServlet"));
+        executorService.allowCoreThreadTimeOut(true);
+        // the bulk uploads use their own threads, to not compete with the downloads
+        int nbUploadThreads = Math.max(1, nbThreads / 2);
+        uploadExecutorService = new ThreadPoolExecutor(nbUploadThreads, nbUploadThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory("MavenUploadServlet"));
+        uploadExecutorService.allowCoreThreadTimeOut(true);
+        if (prefetchConcurrency > 0) {
+            prefetcher = new Prefetcher(resolverProvider, metrics, prefetchConcurrency);
+        }
     }
 
     @Override
     public void destroy() {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
         if (executorService != null) {
             executorService.shutdown();
             try {
@@ -150,6 +205,21 @@ public class MavenServlet extends HttpServlet {
                 executorService.shutdownNow();
             }
         }
+        if (uploadExecutorService != null) {
+            uploadExecutorService.shutdown();
+            try {
+                uploadExecutorService.awaitTermination(5, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                uploadExecutorService.shutdownNow();
+            }
+        }
+        if (lookup != null) {
+            try {
+                lookup.close();
+            } catch (IOException e) {
+                LOGGER.warn("Can't close the upstream lookup", e);
+            }
+        }
     }
 
     //
@@ -160,39 +230,20 @@ public class MavenServlet extends HttpServlet {
         if (role == null) {
             return true;
         }
-        // Return immediately if the header is missing
-        String authHeader = request.getHeader(HEADER_AUTHORIZATION);
-        if (authHeader != null && authHeader.length() > 0) {
-
-            // Get the authType (Basic, Digest) and authInfo (user/password)
-            // from the header
-            authHeader = authHeader.trim();
-            int blank = authHeader.indexOf(' ');
-            if (blank > 0) {
-                String authType = authHeader.substring(0, blank);
-                String authInfo = authHeader.substring(blank).trim();
-
-                // Check whether authorization type matches
-                if (authType.equalsIgnoreCase(AUTHENTICATION_SCHEME_BASIC)) {
-                    try {
-                        String srcString = base64Decode(authInfo);
-                        int i = srcString.indexOf(':');
-                        String username = srcString.substring(0, i);
-                        String password = srcString.substring(i + 1);
-
-                        // authenticate
-                        Subject subject = doAuthenticate(username, password, role);
-                        if (subject != null) {
-                            // as per the spec, set attributes
-                            request.setAttribute(HttpContext.AUTHENTICATION_TYPE, HttpServletRequest.BASIC_AUTH);
-                            request.setAttribute(HttpContext.REMOTE_USER, username);
-                            // succeed
-                            return true;
-                        }
-                    } catch (Exception e) {
-                        // Ignore
-                    }
+        String[] credentials = credentials(request);
+        if (credentials != null) {
+            try {
+                // authenticate
+                Subject subject = doAuthenticate(credentials[0], credentials[1], role);
+                if (subject != null) {
+                    // as per the spec, set attributes
+                    request.setAttribute(HttpContext.AUTHENTICATION_TYPE, HttpServletRequest.BASIC_AUTH);
+                    request.setAttribute(HttpContext.REMOTE_USER, credentials[0]);
+                    // succeed
+                    return true;
                 }
+            } catch (Exception e) {
+                // Ignore
             }
         }
 
@@ -211,6 +262,69 @@ public class MavenServlet extends HttpServlet {
         return false;
     }
 
+    /**
+     * Check if a path has a hidden (or relative) segment. The hidden folders of the repository location are used by
+     * Cave (metadata cache, compressed variants, staging files...), they can't be uploaded.
+     */
+    static boolean isHiddenPath(String path) {
+        for (String segment : path.split("[/\\\\]")) {
+            if (segment.startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if a request is allowed to download from this repository, with the credentials of the request. It's used by
+     * the group repositories, looking up their members in process (without the members HTTP authorization).
+     */
+    boolean canDownload(HttpServletRequest request) {
+        if (downloadRole == null) {
+            return true;
+        }
+        String[] credentials = credentials(request);
+        if (credentials == null) {
+            return false;
+        }
+        try {
+            return doAuthenticate(credentials[0], credentials[1], downloadRole) != null;
+        } catch (Exception e) {
+            LOGGER.debug("Can't authenticate {} on {}", credentials[0], name, e);
+            return false;
+        }
+    }
+
+    /**
+     * Get the user name and password of the request basic authorization header.
+     *
+     * @return the user name and password, or {@code null} if the request doesn't provide basic credentials.
+     */
+    private static String[] credentials(HttpServletRequest request) {
+        // Return immediately if the header is missing
+        String authHeader = request.getHeader(HEADER_AUTHORIZATION);
+        if (authHeader == null || authHeader.length() == 0) {
+            return null;
+        }
+        // Get the authType (Basic, Digest) and authInfo (user/password)
+        // from the header
+        authHeader = authHeader.trim();
+        int blank = authHeader.indexOf(' ');
+        if (blank <= 0 || !authHeader.substring(0, blank).equalsIgnoreCase(AUTHENTICATION_SCHEME_BASIC)) {
+            return null;
+        }
+        try {
+            String srcString = base64Decode(authHeader.substring(blank).trim());
+            int i = srcString.indexOf(':');
+            if (i < 0) {
+                return null;
+            }
+            return new String[]{srcString.substring(0, i), srcString.substring(i + 1)};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     private static String base64Decode(String srcString) {
         byte[] transformed = DatatypeConverter.parseBase64Binary(srcString);
         return new String(transformed, StandardCharsets.ISO_8859_1);
@@ -263,6 +377,37 @@ public class MavenServlet extends HttpServlet {
         }
     }
 
+    //
+    // Rate limiting
+    //
+
+    /**
+     * Take a request token for the request user, client address and repository. If one of them exceeds its rate, the
+     * request is rejected with a 429 status and a {@code Retry-After} header. The user is the authenticated user, or the
+     * user of the basic credentials on a repository without role (not authenticated then).
+     *
+     * @return the permit to record the bytes transferred, or {@code null} if the request has been rejected.
+     */
+    RateLimiter.Permit admit(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        RateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return RateLimiter.Permit.UNLIMITED;
+        }
+        Object user = request.getAttribute(HttpContext.REMOTE_USER);
+        if (user == null) {
+            String[] credentials = credentials(request);
+            user = (credentials != null) ? credentials[0] : null;
+        }
+        RateLimiter.Permit permit = limiter.acquire(name, (user != null) ? user.toString() : null, request.getRemoteAddr());
+        if (!permit.isGranted()) {
+            metrics.throttled();
+            response.setHeader("Retry-After", Long.toString(permit.getRetryAfter()));
+            response.sendError(SC_TOO_MANY_REQUESTS, "Rate limit exceeded");
+            return null;
+        }
+        return permit;
+    }
+
     //
     // Download
     //
@@ -272,6 +417,10 @@ public class MavenServlet extends HttpServlet {
         if (!authorize(req, resp, downloadRole)) {
             return;
         }
+        final RateLimiter.Permit permit = admit(req, resp);
+        if (permit == null) {
+            return;
+        }
         String tpath = req.getPathInfo();
         if (tpath == null) {
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -282,79 +431,141 @@ public class MavenServlet extends HttpServlet {
         }
         final String path = tpath;
 
+        // directory listing doesn't need the resolver
+        if (location != null && (path.isEmpty() || path.endsWith("/") || isDirectory(path))) {
+            Path root = Paths.get(location).toAbsolutePath().normalize();
+            Path requested = root.resolve(path).normalize();
+            if (!requested.startsWith(root) || !Files.isDirectory(requested)) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            browse(req, resp, path);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final boolean metadata = isMetadataPath(path);
+        metrics.requestStarted();
+        if (isMissing(path, metadata)) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            metrics.requestCompleted(RepositoryMetrics.Request.get(metadata, true, false), System.nanoTime() - start);
+            return;
+        }
+        if (prefetcher != null) {
+            prefetcher.requested(path);
+        }
         final AsyncContext asyncContext = req.startAsync();
         asyncContext.setTimeout(TimeUnit.MINUTES.toMillis(5));
-        final ArtifactDownloadFuture future = new ArtifactDownloadFuture(path);
-        ArtifactDownloadFuture masterFuture = requestMap.putIfAbsent(path, future);
-        if (masterFuture == null) {
-            masterFuture = future;
-            masterFuture.lock();
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        File file = download(path);
-                        future.setValue(file);
-                    } catch (Throwable t) {
-                        future.setValue(t);
+        final Coalescer<Download>.Participant participant = downloads.join(path);
+        final boolean coalesced = !participant.isLeader();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (abandon(participant, coalesced, metadata, start)) {
+                    LOGGER.warn("Request timeout for {}", path);
+                    if (!resp.isCommitted()) {
+                        resp.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
                     }
+                    asyncContext.complete();
                 }
-            });
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                abandon(participant, coalesced, metadata, start);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+        if (participant.isLeader()) {
+            try {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        retrieve(path, participant);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                participant.completeExceptionally(e);
+            }
         } else {
-            masterFuture.lock();
+            metrics.coalesced();
         }
-        masterFuture.addListener(new FutureListener<ArtifactDownloadFuture>() {
+        participant.future().whenComplete(new BiConsumer<Download, Throwable>() {
             @Override
-            public void operationComplete(ArtifactDownloadFuture future) {
-                Object value = future.getValue();
-                if (value instanceof Throwable) {
-                    LOGGER.warn("Error while downloading artifact: {}", ((Throwable) value).getMessage(), value);
+            public void accept(Download download, Throwable failure) {
+                if (!participant.claim()) {
+                    // the request has been abandoned
+                    return;
+                }
+                if (coalesced) {
+                    metrics.coalescedDone();
+                }
+                if (metadataCache != null && metadataCache.isOffline()) {
+                    resp.addHeader("Warning", "112 - \"Disconnected Operation\"");
+                }
+                boolean local = (download != null) && download.local;
+                boolean found = false;
+                long bytes = 0;
+                File sent = null;
+                if (failure != null) {
+                    if (failure instanceof CompletionException && failure.getCause() != null) {
+                        failure = failure.getCause();
+                    }
+                    LOGGER.warn("Error while downloading artifact: {}", failure.getMessage(), failure);
                     resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                } else if (value instanceof File) {
-                    File artifactFile = (File) value;
-                    try (InputStream is = new FileInputStream(artifactFile)) {
-                        LOGGER.info("Writing response for file : {}", path);
-                        resp.setStatus(HttpServletResponse.SC_OK);
-                        resp.setContentType("application/octet-stream");
-                        resp.setDateHeader("Date", System.currentTimeMillis());
-                        resp.setHeader("Connection", "close");
-                        resp.setContentLength(is.available());
-                        Bundle bundle = FrameworkUtil.getBundle(getClass());
-                        if (bundle != null) {
-                            resp.setHeader("Server", bundle.getSymbolicName() + "/" + bundle.getVersion());
-                        } else {
-                            resp.setHeader("Server", "Karaf Maven Proxy");
+                } else if (download.file != null) {
+                    File artifactFile = download.file;
+                    Path variant = compressed(req, path, artifactFile);
+                    sent = (variant != null) ? variant.toFile() : artifactFile;
+                    LOGGER.info("Writing response for file : {}", path);
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                    resp.setContentType("application/octet-stream");
+                    resp.setDateHeader("Date", System.currentTimeMillis());
+                    resp.setHeader("Connection", "close");
+                    if (Precompressor.isCompressible(path)) {
+                        resp.setHeader("Vary", "Accept-Encoding");
+                    }
+                    if (variant != null) {
+                        resp.setHeader("Content-Encoding", "gzip");
+                    }
+                    if (download.age >= 0) {
+                        resp.setHeader("Age", Long.toString(TimeUnit.MILLISECONDS.toSeconds(download.age)));
+                        if (download.stale) {
+                            resp.addHeader("Warning", "110 - \"Response is Stale\"");
                         }
-                        StreamUtils.copy(is, resp.getOutputStream());
-                    } catch (Exception e) {
-                        LOGGER.warn("Error while sending artifact: {}", e.getMessage(), e);
-                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                     }
-                } else {
+                    Bundle bundle = FrameworkUtil.getBundle(getClass());
+                    if (bundle != null) {
+                        resp.setHeader("Server", bundle.getSymbolicName() + "/" + bundle.getVersion());
+                    } else {
+                        resp.setHeader("Server", "Karaf Maven Proxy");
+                    }
+                } else if (location != null) {
                     // browsing
                     try {
                         File requested = new File(location, path);
                         if (requested.exists()) {
                             if (requested.isDirectory()) {
-                                Writer writer = new OutputStreamWriter(resp.getOutputStream());
-                                writer.write("<html>");
-                                writer.write("<head><title>Cave Repository " + name + ": " + path + "</title></head>");
-                                writer.write("<body>");
-                                writer.write("<header><h1>" + path + "</h1></header>");
-                                writer.write("<hr/>");
-                                writer.write("<main><pre id=\"contents\">");
-                                if (!path.isEmpty()) {
-                                    writer.write("<a href=\"" + req.getRequestURI() + "../\">..</a><br/>");
+                                browse(req, resp, path);
+                                found = true;
+                            } else {
+                                Path variant = compressed(req, path, requested);
+                                sent = (variant != null) ? variant.toFile() : requested;
+                                if (Precompressor.isCompressible(path)) {
+                                    resp.setHeader("Vary", "Accept-Encoding");
                                 }
-                                for (File child : requested.listFiles()) {
-                                    writer.write("<a href=\"" + req.getRequestURI() + child.getName() + "/\" title=\"" + child.getName() + "\">" + child.getName() + "</a><br/>");
+                                if (variant != null) {
+                                    resp.setHeader("Content-Encoding", "gzip");
                                 }
-                                writer.write("</pre><hr/></main>");
-                                writer.write("</body></html>");
-                                writer.flush();
-                            } else {
-                                StreamUtils.copy(new FileInputStream(requested), resp.getOutputStream());
                             }
+                            local = true;
                         } else {
                             resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                         }
@@ -362,39 +573,527 @@ public class MavenServlet extends HttpServlet {
                         LOGGER.warn("", e);
                         resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                     }
+                } else {
+                    resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 }
-                future.release();
-                try {
-                    asyncContext.complete();
-                } catch (IllegalStateException e) {
-                    // Ignore, the response must have already been sent with an error
+                if (sent != null) {
+                    final boolean sentLocal = local;
+                    try {
+                        resp.setContentLengthLong(sent.length());
+                        ServletOutputStream output = resp.getOutputStream();
+                        // the body is written by the container when the client can accept it, the thread is released now
+                        // (the file is opened last, closed by the writer)
+                        ResponseWriter.write(new FileInputStream(sent), output, new ResponseWriter.Completion() {
+                            @Override
+                            public void completed(long bytes, Throwable failure) {
+                                if (failure != null) {
+                                    LOGGER.warn("Error while sending artifact {}: {}", path, failure.getMessage());
+                                    LOGGER.debug("Error while sending artifact {}", path, failure);
+                                }
+                                finish(participant, permit, asyncContext, path, metadata, sentLocal, failure == null, bytes, start);
+                            }
+                        });
+                        return;
+                    } catch (Exception e) {
+                        LOGGER.warn("Error while sending artifact: {}", e.getMessage(), e);
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
                 }
+                finish(participant, permit, asyncContext, path, metadata, local, found, bytes, start);
             }
         });
     }
 
+    /**
+     * Complete a request once its response has been sent, releasing its download.
+     */
+    private void finish(Coalescer<Download>.Participant participant, RateLimiter.Permit permit, AsyncContext asyncContext, String path, boolean metadata, boolean local, boolean found, long bytes, long start) {
+        participant.release();
+        permit.transferred(bytes);
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            // Ignore, the response must have already been sent with an error
+        }
+        metrics.bytesOut(bytes);
+        if (found && bytes > 0 && !ArtifactUpload.isChecksum(path)) {
+            metrics.served(path);
+            accessTracker.record(path);
+        }
+        metrics.requestCompleted(RepositoryMetrics.Request.get(metadata, local, found), System.nanoTime() - start);
+    }
+
+    /**
+     * Give up a request not served yet (timeout or client error). The download is cancelled if no other request waits
+     * for it.
+     *
+     * @return true if the request has been abandoned, false if it's already served.
+     */
+    private boolean abandon(Coalescer<Download>.Participant participant, boolean coalesced, boolean metadata, long start) {
+        if (!participant.claim()) {
+            return false;
+        }
+        if (coalesced) {
+            metrics.coalescedDone();
+        }
+        if (participant.release()) {
+            metrics.downloadCancelled();
+        }
+        metrics.requestCompleted(RepositoryMetrics.Request.get(metadata, false, false), System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Retrieve a requested file (leader of the coalesced requests), completing the download with the resolved file
+     * ({@code null} to serve the stored file) or the error.
+     */
+    private void retrieve(String path, Coalescer<Download>.Participant participant) {
+        if (participant.isCancelled()) {
+            return;
+        }
+        try {
+            Download download = new Download();
+            download.local = isStored(path);
+            download.file = resolve(path, download);
+            if (prefetcher != null && download.file != null && !download.local) {
+                prefetch(path, download.file);
+            }
+            participant.complete(download);
+            if (blobStore != null && download.file != null && !download.local) {
+                store(path);
+            }
+        } catch (Throwable t) {
+            participant.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Fetch a file in process, for the group repositories containing this repository. The concurrent requests for the
+     * same path (HTTP or in process) are coalesced. The stored files of a hosted repository are used as is, without
+     * the resolver.
+     *
+     * @param path the requested path.
+     * @return the fetched file, to close once read, or {@code null} if the file is not found.
+     */
+    public Fetched fetch(String path) throws IOException {
+        boolean metadata = isMetadataPath(path);
+        if (isMissing(path, metadata)) {
+            return null;
+        }
+        if (metadataCache == null) {
+            File stored = stored(path);
+            if (stored != null) {
+                served(path);
+            }
+            return (stored != null) ? new Fetched(stored, true, null) : null;
+        }
+        Coalescer<Download>.Participant participant = downloads.join(path);
+        participant.claim();
+        Download download;
+        if (participant.isLeader()) {
+            retrieve(path, participant);
+        } else {
+            metrics.coalesced();
+        }
+        try {
+            download = participant.future().join();
+        } catch (CompletionException e) {
+            participant.release();
+            throw new IOException("Can't fetch " + path + " from repository " + name, e.getCause());
+        } finally {
+            if (!participant.isLeader()) {
+                metrics.coalescedDone();
+            }
+        }
+        File file = (download.file != null) ? download.file : stored(path);
+        if (file == null) {
+            participant.release();
+            return null;
+        }
+        served(path);
+        return new Fetched(file, download.local, participant);
+    }
+
+    /**
+     * Get a file stored in the repository storage.
+     *
+     * @return the file or {@code null} if the file is not stored.
+     */
+    private File stored(String path) {
+        if (location == null || !isStored(path)) {
+            return null;
+        }
+        try {
+            Path root = Paths.get(location).toAbsolutePath().normalize();
+            Path file = root.resolve(path).normalize();
+            return (file.startsWith(root) && Files.isRegularFile(file)) ? file.toFile() : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private void served(String path) {
+        if (!ArtifactUpload.isChecksum(path)) {
+            metrics.served(path);
+            accessTracker.record(path);
+        }
+    }
+
+    /**
+     * A file fetched in process from the repository. The resolved files are deleted once closed by all the coalesced
+     * requests.
+     */
+    public class Fetched implements Closeable {
+
+        private final File file;
+        private final boolean local;
+        private final Coalescer<Download>.Participant participant;
+
+        private Fetched(File file, boolean local, Coalescer<Download>.Participant participant) {
+            this.file = file;
+            this.local = local;
+            this.participant = participant;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return true if the file was stored in the repository (or served from the metadata cache), false if it has
+         * been resolved from the proxied repositories.
+         */
+        public boolean isLocal() {
+            return local;
+        }
+
+        @Override
+        public void close() {
+            if (participant != null) {
+                participant.release();
+            }
+        }
+
+    }
+
+    /**
+     * Resolve a requested file. For the proxy repositories, the metadata are served from the metadata cache (refreshed
+     * in background when stale), and nothing is resolved from the proxied repositories when offline.
+     *
+     * @return the resolved file (deleted once sent) or {@code null} to serve the file stored in the repository, if any.
+     */
+    private File resolve(String path, Download download) throws Exception {
+        if (metadataCache == null) {
+            return download(path);
+        }
+        MavenCoord metadata = convertMetadataPathToCoord(path);
+        if (metadata == null) {
+            if (metadataCache.isOffline()) {
+                if (!download.local) {
+                    metrics.offlineMiss();
+                }
+                return null;
+            }
+            return download(path);
+        }
+        Path cached = metadataCache.get(path);
+        if (metadataCache.isOffline()) {
+            File file = (cached != null) ? cached(cached, download, false) : null;
+            if (file == null && !download.local) {
+                metrics.offlineMiss();
+            }
+            return file;
+        }
+        if (cached != null && metadataCache.getTtl() > 0) {
+            File file = cached(cached, download, false);
+            if (file != null) {
+                if (download.stale) {
+                    refresh(path, metadata);
+                }
+                return file;
+            }
+        }
+        LOGGER.info("Received request for maven metadata : {}", path);
+        File file;
+        try {
+            file = resolveMetadata(metadata);
+        } catch (Exception e) {
+            File fallback = (cached != null) ? cached(cached, download, true) : null;
+            if (fallback == null) {
+                LOGGER.warn(String.format("Could not find metadata : %s due to %s", path, e.getMessage()), e);
+                return null;
+            }
+            LOGGER.warn("Could not resolve metadata {} due to {}, serving the cached metadata", path, e.getMessage());
+            return fallback;
+        }
+        if (file != null) {
+            try {
+                metadataCache.put(path, file);
+            } catch (IOException e) {
+                LOGGER.debug("Can't cache metadata {}", path, e);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Get a copy of cached metadata, recording their age in the download.
+     *
+     * @return the copy or {@code null} if the metadata are not cached anymore.
+     */
+    private File cached(Path cached, Download download, boolean fallback) throws IOException {
+        try {
+            long age = metadataCache.age(cached);
+            Path tmpFile = Files.createTempFile("mvn-", ".tmp");
+            try {
+                Files.copy(cached, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmpFile);
+                throw e;
+            }
+            download.local = true;
+            download.age = age;
+            download.stale = fallback || metadataCache.isStale(age);
+            metrics.metadataCached(age, download.stale);
+            return tmpFile.toFile();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Refresh stale cached metadata in background (once at a time for a path).
+     */
+    private void refresh(final String path, final MavenCoord metadata) {
+        if (!metadataCache.startRefresh(path)) {
+            return;
+        }
+        try {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean refreshed = false;
+                    try {
+                        File file = resolveMetadata(metadata);
+                        if (file != null) {
+                            try {
+                                metadataCache.put(path, file);
+                                refreshed = true;
+                            } finally {
+                                file.delete();
+                            }
+                        }
+                    } catch (Exception e) {
+                        LOGGER.warn("Could not refresh metadata {} due to {}", path, e.getMessage());
+                        LOGGER.debug("Could not refresh metadata {}", path, e);
+                    } finally {
+                        metadataCache.endRefresh(path);
+                        metrics.metadataRefreshed(refreshed);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            metadataCache.endRefresh(path);
+        }
+    }
+
+    /**
+     * Get the precompressed variant to send for a file, if the client accepts gzip. The variant is generated in
+     * background on first request, the file itself being sent meanwhile.
+     *
+     * @return the variant or {@code null} to send the file itself.
+     */
+    private Path compressed(HttpServletRequest request, String path, File file) {
+        if (precompressor == null || !Precompressor.isCompressible(path) || !Precompressor.acceptsGzip(request.getHeader("Accept-Encoding"))) {
+            return null;
+        }
+        try {
+            Path variant = precompressor.lookup(path, file);
+            if (variant == null) {
+                precompressor.generate(path, file, executorService);
+                return null;
+            }
+            if (Files.size(variant) >= file.length()) {
+                return null;
+            }
+            metrics.compressionServed(file.length(), Files.size(variant), true);
+            return variant;
+        } catch (IOException e) {
+            LOGGER.debug("Can't compress {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a file cached in the repository storage (mirror) in the blob store, once the response has been sent.
+     */
+    private void store(String path) {
+        if (location != null && isStored(path)) {
+            try {
+                Path root = Paths.get(location).toAbsolutePath().normalize();
+                Path file = root.resolve(path).normalize();
+                if (file.startsWith(root)) {
+                    blobStore.store(file);
+                }
+            } catch (IOException | InvalidPathException e) {
+                LOGGER.debug("Can't store {} in the blob store", path, e);
+            }
+        }
+    }
+
+    /**
+     * Prefetch the artifacts related to a POM fetched from a proxied repository.
+     */
+    private void prefetch(String path, File file) {
+        if (path.endsWith(".pom")) {
+            try {
+                prefetcher.fetched(path, Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                LOGGER.debug("Can't read POM {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Check if the requested file is already present in the repository storage.
+     */
+    private boolean isStored(String path) {
+        if (index != null) {
+            return index.isFile(path);
+        }
+        try {
+            return location != null && Files.isRegularFile(Paths.get(location, path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private boolean isDirectory(String path) {
+        if (index != null) {
+            return index.isDirectory(path);
+        }
+        try {
+            return Files.isDirectory(Paths.get(location, path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check with the index (hosted repository) if the requested artifact, or the folder of the requested metadata, is
+     * not in the repository storage, without asking the resolver.
+     */
+    private boolean isMissing(String path, boolean metadata) {
+        if (index == null || !index.isReady()) {
+            return false;
+        }
+        if (metadata) {
+            int slash = path.lastIndexOf('/');
+            return slash > 0 && !index.isDirectory(path.substring(0, slash));
+        }
+        return MavenCoord.isArtifactPath(path) && !index.isFile(path);
+    }
+
+    boolean isMetadataPath(String path) {
+        try {
+            return convertMetadataPathToCoord(path) != null;
+        } catch (InvalidMavenArtifactRequest e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a page of a repository directory listing, as HTML or JSON ({@code format=json} parameter or
+     * {@code Accept: application/json} header). The page size is defined by the {@code limit} parameter, and the next
+     * page is requested with the {@code cursor} parameter.
+     */
+    protected void browse(HttpServletRequest req, HttpServletResponse resp, String path) throws IOException {
+        String cursor = req.getParameter("cursor");
+        int limit = DEFAULT_LISTING_LIMIT;
+        if (req.getParameter("limit") != null) {
+            try {
+                limit = Math.min(Math.max(Integer.parseInt(req.getParameter("limit")), 1), MAX_LISTING_LIMIT);
+            } catch (NumberFormatException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit");
+                return;
+            }
+        }
+        DirectoryListing.Page page = (index != null) ? index.list(path, cursor, limit) : null;
+        if (page == null) {
+            page = listing.list(Paths.get(location, path), cursor, limit);
+        }
+        String accept = req.getHeader("Accept");
+        boolean json = "json".equals(req.getParameter("format")) || (accept != null && accept.contains("application/json"));
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setCharacterEncoding("UTF-8");
+        Writer writer = new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8);
+        if (json) {
+            resp.setContentType("application/json");
+            writer.write("{\"path\":" + jsonString(path) + ",\"entries\":[");
+            boolean first = true;
+            for (DirectoryListing.Entry entry : page.getEntries()) {
+                writer.write(first ? "\n" : ",\n");
+                first = false;
+                writer.write("{\"name\":" + jsonString(entry.getName()) + ",\"directory\":" + entry.isDirectory()
+                        + ",\"size\":" + entry.getSize() + ",\"lastModified\":" + entry.getLastModified());
+                String checksum = entry.getChecksum();
+                if (checksum != null) {
+                    writer.write(",\"checksum\":" + jsonString(checksum));
+                }
+                writer.write("}");
+            }
+            writer.write("\n],\"next\":" + (page.getNext() != null ? jsonString(page.getNext()) : "null") + "}\n");
+        } else {
+            resp.setContentType("text/html");
+            String base = req.getRequestURI();
+            if (!base.endsWith("/")) {
+                base = base + "/";
+            }
+            writer.write("<html>");
+            writer.write("<head><title>Cave Repository " + html(name) + ": " + html(path) + "</title></head>");
+            writer.write("<body>");
+            writer.write("<header><h1>" + html(path) + "</h1></header>");
+            writer.write("<hr/>");
+            writer.write("<main><pre id=\"contents\">");
+            if (!path.isEmpty() && cursor == null) {
+                writer.write("<a href=\"" + html(base) + "../\">..</a><br/>");
+            }
+            for (DirectoryListing.Entry entry : page.getEntries()) {
+                String child = html(entry.getName()) + (entry.isDirectory() ? "/" : "");
+                writer.write("<a href=\"" + html(base) + child + "\" title=\"" + html(entry.getName()) + "\">" + child + "</a><br/>");
+            }
+            if (page.getNext() != null) {
+                writer.write("<br/><a href=\"" + html(base) + "?limit=" + limit + "&amp;cursor=" + URLEncoder.encode(page.getNext(), "UTF-8") + "\">Next page</a><br/>");
+            }
+            writer.write("</pre><hr/></main>");
+            writer.write("</body></html>");
+        }
+        writer.flush();
+    }
+
+    private static String html(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
     public File download(String path) throws InvalidMavenArtifactRequest {
         if (path == null) {
             throw new InvalidMavenArtifactRequest();
         }
 
-        Matcher artifactMatcher = ARTIFACT_REQUEST_URL_REGEX.matcher(path);
-        Matcher metadataMatcher = ARTIFACT_METADATA_URL_REGEX.matcher(path);
-
-        if (metadataMatcher.matches()) {
+        MavenCoord metadata = convertMetadataPathToCoord(path);
+        if (metadata != null) {
             LOGGER.info("Received request for maven metadata : {}", path);
             try {
-                MavenCoord coord = convertMetadataPathToCoord(path);
-                return resolver.resolveMetadata(coord.groupId, coord.artifactId, coord.type, coord.version);
+                return resolveMetadata(metadata);
             } catch (Exception e) {
                 LOGGER.warn(String.format("Could not find metadata : %s due to %s", path, e.getMessage()), e);
                 return null;
             }
-        } else if (artifactMatcher.matches()) {
+        } else if (MavenCoord.isArtifactPath(path)) {
             LOGGER.info("Received request for maven artifact : {}", path);
             try {
                 MavenCoord artifact = convertArtifactPathToCoord(path);
-                Path download = resolver.resolve(artifact.groupId, artifact.artifactId, artifact.classifier, artifact.type, artifact.version).toPath();
+                Path download = resolveArtifact(artifact).toPath();
                 Path tmpFile = Files.createTempFile("mvn-", ".tmp");
                 Files.copy(download, tmpFile, StandardCopyOption.REPLACE_EXISTING);
                 return tmpFile.toFile();
@@ -406,28 +1105,38 @@ public class MavenServlet extends HttpServlet {
         return null;
     }
 
-    private class ArtifactDownloadFuture extends DefaultFuture<ArtifactDownloadFuture> {
-
-        private final AtomicInteger participants = new AtomicInteger();
-        private final String path;
-
-        private ArtifactDownloadFuture(String path) {
-            this.path = path;
+    private File resolveArtifact(MavenCoord artifact) throws IOException {
+        if (lookup != null) {
+            return lookup.resolve(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getType(), artifact.getVersion());
         }
-
-        public void lock() {
-            participants.incrementAndGet();
+        try {
+            return resolverProvider.acquire().resolve(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getType(), artifact.getVersion());
+        } finally {
+            resolverProvider.release();
         }
+    }
 
-        public void release() {
-            if (participants.decrementAndGet() == 0) {
-                requestMap.remove(path);
-                Object v = getValue();
-                if (v instanceof File) {
-                    ((File) v).delete();
-                }
-            }
+    private File resolveMetadata(MavenCoord metadata) throws IOException {
+        MavenResolverProvider provider = (lookup != null) ? lookup.metadataResolver(resolverProvider) : resolverProvider;
+        try {
+            return provider.acquire().resolveMetadata(metadata.getGroupId(), metadata.getArtifactId(), metadata.getType(), metadata.getVersion());
+        } finally {
+            provider.release();
         }
+    }
+
+    /**
+     * A download, shared by the coalesced requests.
+     */
+    private static class Download {
+
+        // the resolved file (deleted once sent), null to serve the stored file
+        private File file;
+        // true if the file was present in the storage before the download (or served from the metadata cache)
+        private boolean local;
+        // age (in milliseconds) of the metadata served from the metadata cache, -1 else
+        private long age = -1;
+        private boolean stale;
 
     }
 
@@ -440,32 +1149,39 @@ public class MavenServlet extends HttpServlet {
         if (!authorize(request, response, uploadRole)) {
             return;
         }
+        RateLimiter.Permit permit = admit(request, response);
+        if (permit == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        metrics.requestStarted();
+        String path = null;
+        boolean result = false;
         try {
-            String path = request.getPathInfo();
+            path = request.getPathInfo();
             //Make sure path is valid
             if (path != null) {
                 if (path.startsWith("/")) {
                     path = path.substring(1);
                 }
             }
-            if (path == null || path.isEmpty()) {
+            if (path == null || path.isEmpty() || isHiddenPath(path)) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
-            boolean result;
             // handle move
             String location = request.getHeader(LOCATION_HEADER);
             if (location != null) {
                 result = upload(new File(location), path, response);
             } else {
-                Path dir = tmpFolder.toPath().resolve(UUID.randomUUID().toString());
-                Path temp = dir.resolve(Paths.get(path).getFileName());
-                Files.createDirectories(dir);
-                try (OutputStream os = Files.newOutputStream(temp)) {
-                    StreamUtils.copy(request.getInputStream(), os);
+                CountingInputStream input = new CountingInputStream(request.getInputStream());
+                try {
+                    result = upload(input, path, response);
+                } finally {
+                    metrics.bytesIn(input.getCount());
+                    permit.transferred(input.getCount());
                 }
-                result = upload(temp.toFile(), path, response);
             }
 
             response.setStatus(result ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_NOT_ACCEPTABLE);
@@ -480,102 +1196,215 @@ public class MavenServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             response.setContentLength(0);
             response.flushBuffer();
+        } finally {
+            metrics.requestCompleted(RepositoryMetrics.Request.put(path != null && isMetadataPath(path), result), System.nanoTime() - start);
         }
 
     }
 
-    protected boolean upload(File input, String path, HttpServletResponse response) throws InvalidMavenArtifactRequest, NoSuchFileException {
-        if (!input.isFile()) {
+    //
+    // Bulk upload
+    //
+
+    /**
+     * Ingest a zip or tar (optionally gzipped) archive containing a Maven repository layout.
+     * The archive entries are installed relative to the request path, and a JSON summary is returned for each entry.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (!authorize(request, response, uploadRole)) {
+            return;
+        }
+        RateLimiter.Permit permit = admit(request, response);
+        if (permit == null) {
+            return;
+        }
+        if (location == null) {
+            response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED, "Bulk upload requires a repository location");
+            return;
+        }
+        String path = request.getPathInfo();
+        if (path == null) {
+            path = "";
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (isHiddenPath(path)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid path " + path);
+            return;
+        }
+        long start = System.nanoTime();
+        metrics.requestStarted();
+        boolean installed = false;
+        try {
+            installed = ingest(request, response, path, permit);
+        } finally {
+            metrics.requestCompleted(RepositoryMetrics.Request.put(false, installed), System.nanoTime() - start);
+        }
+    }
+
+    private boolean ingest(HttpServletRequest request, HttpServletResponse response, String path, RateLimiter.Permit permit) throws IOException {
+        List<ArchiveUpload.Result> results;
+        CountingInputStream input = new CountingInputStream(request.getInputStream());
+        try {
+            long start = System.currentTimeMillis();
+            final Path root = Paths.get(location);
+            results = new ArchiveUpload(root, uploadExecutorService, new ArchiveUpload.Listener() {
+                @Override
+                public void installed(String path, ArtifactUpload upload) {
+                    MavenServlet.this.installed(upload, root, path);
+                }
+            }).ingest(input, request.getContentType(), path);
+            LOGGER.info("Bulk upload of {} entries in {} in {} ms", results.size(), name, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            LOGGER.warn(String.format("Failed to ingest archive in %s due to %s", name, e.getMessage()), e);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid archive: " + e.getMessage());
+            return false;
+        } finally {
+            metrics.bytesIn(input.getCount());
+            permit.transferred(input.getCount());
+        }
+        boolean installed = true;
+        StringBuilder json = new StringBuilder("[");
+        for (ArchiveUpload.Result result : results) {
+            installed &= result.isInstalled();
+            if (json.length() > 1) {
+                json.append(",");
+            }
+            json.append("\n{\"path\":").append(jsonString(result.getPath()))
+                    .append(",\"status\":\"").append(result.isInstalled() ? "installed" : "failed").append("\"")
+                    .append(",\"size\":").append(result.getSize());
+            if (result.getMessage() != null) {
+                json.append(",\"message\":").append(jsonString(result.getMessage()));
+            }
+            json.append("}");
+        }
+        json.append("\n]\n");
+        byte[] content = json.toString().getBytes(StandardCharsets.UTF_8);
+        response.setStatus(installed ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_NOT_ACCEPTABLE);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+        return installed;
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Install a file previously uploaded on the repository root path, without Maven coordinates.
+     */
+    protected boolean upload(File input, String path, HttpServletResponse response) throws InvalidMavenArtifactRequest, IOException {
+        Path tmp = tmpFolder.toPath().toAbsolutePath().normalize();
+        Path file = input.toPath().toAbsolutePath().normalize();
+        // only files staged by this servlet can be moved
+        if (!file.startsWith(tmp) || !Files.isRegularFile(file)) {
             throw new NoSuchFileException(input.toString());
         }
+        try (InputStream is = Files.newInputStream(file)) {
+            return upload(is, path, response);
+        } finally {
+            Files.deleteIfExists(file);
+            if (!file.getParent().equals(tmp)) {
+                Files.deleteIfExists(file.getParent());
+            }
+        }
+    }
+
+    /**
+     * Stream an upload in the repository, computing the checksums on the fly.
+     */
+    protected boolean upload(InputStream input, String path, HttpServletResponse response) throws InvalidMavenArtifactRequest, IOException {
         if (path == null) {
             throw new InvalidMavenArtifactRequest();
         }
+        Path root = Paths.get(location).toAbsolutePath().normalize();
         // root path, try reading mvn coords
         if (path.indexOf('/') < 0) {
+            ArtifactUpload upload = new ArtifactUpload(root);
             try {
-                String mvnCoordsPath = readMvnCoordsPath(input);
-                if (mvnCoordsPath != null) {
-                    return install(input, mvnCoordsPath);
-                } else {
-                    response.addHeader(LOCATION_HEADER, input.toString()); // we need manual mvn coords input
-                    return true;
-                }
-            } catch (Exception e) {
+                upload.stage(input, true);
+            } catch (IllegalStateException e) {
                 LOGGER.warn(String.format("Failed to deploy artifact : %s due to %s", path, e.getMessage()), e);
                 return false;
             }
+            String mvnCoordsPath = upload.getMvnCoordsPath(getFileExtension(path));
+            if (mvnCoordsPath != null) {
+                return install(upload, root, mvnCoordsPath);
+            }
+            // we need manual mvn coords input
+            Path temp = tmpFolder.toPath().resolve(UUID.randomUUID().toString()).resolve(path);
+            upload.commit(temp, false);
+            response.addHeader(LOCATION_HEADER, temp.toString());
+            return true;
         }
 
-        return install(input, path);
-
+        if (convertMetadataPathToCoord(path) == null && !MavenCoord.isArtifactPath(path)) {
+            return false;
+        }
+        Path target = root.resolve(path).normalize();
+        if (!target.startsWith(root)) {
+            throw new InvalidMavenArtifactRequest("Invalid upload path " + path);
+        }
+        ArtifactUpload upload = new ArtifactUpload(target.getParent());
+        upload.stage(input, false);
+        return install(upload, root, path);
     }
 
-    private boolean install(File file, String path) {
-        Matcher artifactMatcher = ARTIFACT_REQUEST_URL_REGEX.matcher(path);
-        Matcher metadataMatcher = ARTIFACT_METADATA_URL_REGEX.matcher(path);
+    private boolean install(ArtifactUpload upload, Path root, String path) {
+        LOGGER.info("Received upload request for maven artifact : {}", path);
+        try {
+            upload.commit(root.resolve(path), !ArtifactUpload.isChecksum(path));
+            installed(upload, root, path);
+            LOGGER.info("Artifact installed: {} ({} bytes, sha1 {})", path, upload.getSize(), upload.getChecksums().get("sha1"));
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn(String.format("Failed to upload artifact : %s due to %s", path, e.getMessage()), e);
+            return false;
+        }
+    }
 
-        if (metadataMatcher.matches()) {
-            LOGGER.info("Received upload request for maven metadata : {}", path);
-            try {
-                MavenCoord coord = convertMetadataPathToCoord(path);
-                resolver.uploadMetadata(coord.groupId, coord.artifactId, coord.type, coord.version, file);
-                LOGGER.info("Maven metadata installed: {}", coord.toString());
-                return true;
-            } catch (Exception e) {
-                LOGGER.warn(String.format("Failed to upload metadata: %s due to %s", path, e.getMessage()), e);
-                return false;
-            }
-            //If no matching metadata found return nothing
-        } else if (artifactMatcher.matches()) {
-            LOGGER.info("Received upload request for maven artifact : {}", path);
+    /**
+     * Update the listing, index, metadata cache, compressed variant and blob store after a committed upload.
+     */
+    private void installed(ArtifactUpload upload, Path root, String path) {
+        listing.invalidate(root.resolve(path));
+        if (index != null) {
+            index.refresh(root.resolve(path));
+        }
+        if (metadataCache != null) {
             try {
-                MavenCoord coord = convertArtifactPathToCoord(path);
-                resolver.upload(coord.groupId, coord.artifactId, coord.classifier, coord.type, coord.version, file);
-                LOGGER.info("Artifact installed: {}", coord.toString());
-                return true;
-            } catch (Exception e) {
-                LOGGER.warn(String.format("Failed to upload artifact : %s due to %s", path, e.getMessage()), e);
-                return false;
+                metadataCache.invalidate(path);
+            } catch (IOException e) {
+                LOGGER.debug("Can't invalidate the cached metadata of {}", path, e);
             }
         }
-        return false;
-    }
-
-    protected static String readMvnCoordsPath(File file) throws Exception {
-        try (JarFile jarFile = new JarFile(file)) {
-            String previous = null;
-            String match = null;
-
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                String name = entry.getName();
-                if (name.startsWith("META-INF/maven/") && name.endsWith("pom.properties")) {
-                    if (previous != null) {
-                        throw new IllegalStateException(String.format("Duplicate pom.properties found: %s != %s", name, previous));
-                    }
-
-                    previous = name; // check for dups
-
-                    Properties props = new Properties();
-                    try (InputStream stream = jarFile.getInputStream(entry)) {
-                        props.load(stream);
-                    }
-                    String groupId = props.getProperty("groupId");
-                    String artifactId = props.getProperty("artifactId");
-                    String version = props.getProperty("version");
-                    String type = getFileExtension(file);
-                    match = String.format("%s/%s/%s/%s-%s.%s", groupId, artifactId, version, artifactId, version, type != null ? type : "jar");
-                }
+        if (precompressor != null && Precompressor.isCompressible(path)) {
+            precompressor.generate(path, root.resolve(path).toFile(), executorService);
+        }
+        if (blobStore != null) {
+            try {
+                blobStore.store(root.resolve(path), upload.getChecksums().get("sha256"));
+            } catch (IOException e) {
+                LOGGER.debug("Can't store {} in the blob store", path, e);
             }
-
-            return match;
         }
     }
 
-    private static String getFileExtension(File file) {
-        String fileName = file.getName();
+    private static String getFileExtension(String fileName) {
         int idx = fileName.lastIndexOf('.');
         if (idx > 1) {
             String answer = fileName.substring(idx + 1);
@@ -586,6 +1415,30 @@ public class MavenServlet extends HttpServlet {
         return null;
     }
 
+    /**
+     * Delete the leftovers of uploads without Maven coordinates never completed.
+     */
+    private void cleanupTmpFolder() {
+        File[] entries = tmpFolder.listFiles();
+        if (entries == null) {
+            return;
+        }
+        long expiration = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        for (File entry : entries) {
+            if (entry.lastModified() < expiration) {
+                File[] children = entry.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        child.delete();
+                    }
+                }
+                if (!entry.delete()) {
+                    LOGGER.debug("Can't delete {}", entry);
+                }
+            }
+        }
+    }
+
     /**
      * Converts the path of the request to maven coords.
      *
@@ -594,94 +1447,65 @@ public class MavenServlet extends HttpServlet {
      * @throws InvalidMavenArtifactRequest
      */
     protected MavenCoord convertArtifactPathToCoord(String path) throws InvalidMavenArtifactRequest {
-        if (path == null) {
-            throw new InvalidMavenArtifactRequest("Cannot match request path to maven url, request path is empty.");
-        }
-        Matcher pathMatcher = ARTIFACT_REQUEST_URL_REGEX.matcher(path);
-        if (pathMatcher.matches()) {
-            String groupId = pathMatcher.group(1).replaceAll("/", ".");
-            String artifactId = pathMatcher.group(2);
-            String version = pathMatcher.group(3);
-            String filename = pathMatcher.group(4);
-            String extension;
-            String classifier = "";
-            String filePerfix = artifactId + "-" + version;
-            String stripedFileName;
-
-            if (version.endsWith("SNAPSHOT")) {
-                String baseVersion = version.replaceAll("-SNAPSHOT", "");
-                String timestampedFileName = filename.substring(artifactId.length() + baseVersion.length() + 2);
-                //Check if snapshot is timestamped and override the version. @{link Artifact} will still treat it as a SNAPSHOT.
-                //and also in case of artifact installation the proper filename will be used.
-                Matcher ts = SNAPSHOT_TIMESTAMP_PATTERN.matcher(timestampedFileName);
-                if (ts.matches()) {
-                    version = baseVersion + "-" + ts.group(1);
-                    filePerfix = artifactId + "-" + version;
-                }
-                stripedFileName = filename.replaceAll(SNAPSHOT_TIMESTAMP_REGEX, "SNAPSHOT");
-                stripedFileName = stripedFileName.substring(filePerfix.length());
-            } else {
-                stripedFileName = filename.substring(filePerfix.length());
-            }
-
-            if (stripedFileName.startsWith("-") && stripedFileName.contains(".")) {
-                classifier = stripedFileName.substring(1, stripedFileName.indexOf('.'));
-            }
-            extension = stripedFileName.substring(stripedFileName.indexOf('.') + 1);
-
-            MavenCoord coord = new MavenCoord();
-            coord.groupId = groupId;
-            coord.artifactId = artifactId;
-            coord.type = extension;
-            coord.classifier = classifier;
-            coord.version = version;
-            return coord;
-        }
-        return null;
+        return MavenCoord.parseArtifactPath(path);
     }
 
     /**
      * Converts the path of the request to {@link MavenCoord}.
      *
-     * @param path The request path, following the format: {@code <groupId>/<artifactId>/<version>/<artifactId>-<version>-[<classifier>].extension}
+     * @param path The request path, following the format: {@code <groupId>/<artifactId>/<version>/maven-metadata[-<repository>].xml[.<type>]}
      * @return A {@link MavenCoord}
      * @throws InvalidMavenArtifactRequest
      */
     protected MavenCoord convertMetadataPathToCoord(String path) throws InvalidMavenArtifactRequest {
-        if (path == null) {
-            throw new InvalidMavenArtifactRequest("Cannot match request path to maven url, request path is empty.");
-        }
-        Matcher pathMatcher = ARTIFACT_METADATA_URL_REGEX.matcher(path);
-        if (pathMatcher.matches()) {
-            MavenCoord coord = new MavenCoord();
-            coord.groupId = pathMatcher.group(1).replaceAll("/", ".");
-            coord.artifactId = pathMatcher.group(2);
-            coord.version = pathMatcher.group(3);
-            String type = pathMatcher.group(8);
-            coord.type = type == null ? "maven-metadata.xml" : "maven-metadata.xml." + type;
-            return coord;
-        }
-        return null;
+        return MavenCoord.parseMetadataPath(path);
     }
 
-    static class MavenCoord {
-        String groupId;
-        String artifactId;
-        String type;
-        String classifier;
-        String version;
+    /**
+     * Count the bytes read from the request body.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
         @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append(groupId).append(":").append(artifactId).append(":");
-            sb.append(type).append(":");
-            if (classifier != null && !classifier.isEmpty()) {
-                sb.append(classifier).append(":");
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
             }
-            sb.append(version);
-            return sb.toString();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
         }
+
+        long getCount() {
+            return count;
+        }
+
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the metadata ({@code maven-metadata.xml}) resolved from the proxied repositories of a repository.
+ * <p>
+ * The metadata are stored in a hidden folder, their age being the modification time of the cached file, so the cache
+ * survives restarts (and can be used offline). Cached metadata older than the TTL are stale: they are still served,
+ * while a single refresh per path is done in background. In offline mode, the proxied repositories are never contacted.
+ */
+public class MetadataCache {
+
+    public static final String CACHE_FOLDER = ".cave-metadata";
+
+    private final Path root;
+    private final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private volatile long ttl;
+    private volatile boolean offline;
+
+    /**
+     * @param root the cache folder.
+     */
+    public MetadataCache(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return the metadata time to live, in milliseconds.
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl the metadata time to live, in milliseconds, 0 to always resolve the metadata (the cache is then only
+     *            used offline or when the proxied repositories fail).
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Get the cached metadata.
+     *
+     * @param path the metadata path.
+     * @return the cached file or {@code null} if not cached.
+     */
+    public Path get(String path) {
+        Path file = resolve(path);
+        return (file != null && Files.isRegularFile(file)) ? file : null;
+    }
+
+    /**
+     * Get the age of cached metadata.
+     *
+     * @param file the cached file.
+     * @return the age in milliseconds.
+     */
+    public long age(Path file) throws IOException {
+        return Math.max(0, System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis());
+    }
+
+    /**
+     * @param age the age of cached metadata, in milliseconds.
+     * @return true if the metadata have to be refreshed.
+     */
+    public boolean isStale(long age) {
+        return age >= ttl;
+    }
+
+    /**
+     * Cache resolved metadata, replacing the cached ones atomically.
+     *
+     * @param path the metadata path.
+     * @param file the resolved metadata.
+     */
+    public void put(String path, File file) throws IOException {
+        Path target = resolve(path);
+        if (target == null) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.copy(file.toPath(), tmp);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Start the background refresh of metadata.
+     *
+     * @param path the metadata path.
+     * @return true if the caller has to refresh the metadata, false if a refresh is already in progress.
+     */
+    public boolean startRefresh(String path) {
+        return refreshing.putIfAbsent(path, Boolean.TRUE) == null;
+    }
+
+    public void endRefresh(String path) {
+        refreshing.remove(path);
+    }
+
+    /**
+     * Invalidate the cached metadata related to a file uploaded in the repository (the metadata of its version and artifact
+     * folders).
+     *
+     * @param path the uploaded file path.
+     */
+    public void invalidate(String path) throws IOException {
+        Path file = resolve(path);
+        if (file == null) {
+            return;
+        }
+        Path folder = file.getParent();
+        for (int i = 0; i < 2 && folder != null && folder.startsWith(root) && !folder.equals(root); i++) {
+            if (Files.isDirectory(folder)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "maven-metadata*.xml")) {
+                    for (Path metadata : stream) {
+                        Files.deleteIfExists(metadata);
+                    }
+                }
+            }
+            folder = folder.getParent();
+        }
+    }
+
+    private Path resolve(String path) {
+        Path file = root.resolve(path).normalize();
+        return (file.startsWith(root) && !file.equals(root)) ? file : null;
+    }
+
+}
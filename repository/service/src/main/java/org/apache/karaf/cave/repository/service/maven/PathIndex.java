@@ -0,0 +1,1029 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the files stored in a repository location.
+ * <p>
+ * The paths are kept in a compressed trie (a chain of directories with a single child is stored in one node, and the
+ * path segments are shared), used to check the existence of a path and to serve the directory listings without
+ * reading the filesystem. A Bloom filter of the indexed files and directories is checked first, so most of the
+ * requests for paths not in the repository are rejected without walking the trie.
+ * <p>
+ * The index is built in background, the top level folders being walked in parallel, and updated when the content
+ * changes ({@link #refresh(Path)}). Until it's built, the index is not {@link #isReady() ready} and the existence
+ * checks use the filesystem. The hidden files and folders (staging files, trash) and the empty folders are not indexed.
+ */
+public class PathIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PathIndex.class);
+
+    private static final String[] NO_SEGMENTS = new String[0];
+
+    // estimated sizes in bytes of the index structures (compressed oops)
+    private static final int NODE_BYTES = 40;
+    private static final int ARRAY_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int STRING_BYTES = 56;
+    private static final int DICTIONARY_ENTRY_BYTES = 40;
+
+    private final Path root;
+    private final double fpp;
+    private final ExecutorService executor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock updates = new ReentrantLock();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private volatile long buildTime;
+    // guarded by the lock
+    private Node tree;
+    private BloomFilter bloom;
+    private Map<String, String> dictionary;
+    private Build build;
+
+    /**
+     * @param root the repository location.
+     * @param fpp the expected false positive probability of the Bloom filter.
+     * @param executor the executor used to walk the folders.
+     */
+    public PathIndex(Path root, double fpp, ExecutorService executor) {
+        this.root = root.toAbsolutePath().normalize();
+        this.fpp = fpp;
+        this.executor = executor;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Check if the index is built, and used for the existence checks and listings.
+     */
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return tree != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Build the index again in background. The index is not ready until the build completes.
+     */
+    public void rebuild() {
+        Build started = new Build();
+        lock.writeLock().lock();
+        try {
+            build = started;
+            tree = null;
+            bloom = null;
+            dictionary = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        executor.execute(started);
+    }
+
+    /**
+     * Check if a file is stored in the repository.
+     *
+     * @param path the file path, relative to the repository location.
+     * @return true if the file exists.
+     */
+    public boolean isFile(String path) {
+        return exists(path, true);
+    }
+
+    /**
+     * Check if a directory containing files is stored in the repository.
+     *
+     * @param path the directory path, relative to the repository location.
+     * @return true if the directory exists.
+     */
+    public boolean isDirectory(String path) {
+        return exists(path, false);
+    }
+
+    private boolean exists(String path, boolean file) {
+        String[] segments = segments(path);
+        lock.readLock().lock();
+        try {
+            if (tree != null && segments != null) {
+                lookups.incrementAndGet();
+                if (segments.length > 0 && !bloom.mightContain(join(segments, segments.length))) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                int[] offset = new int[1];
+                Node node = find(segments, offset);
+                boolean found = node != null && (file ? (node.file && offset[0] == node.label.length) : (!node.file || offset[0] < node.label.length));
+                if (!found) {
+                    misses.incrementAndGet();
+                }
+                return found;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            Path resolved = root.resolve(path);
+            return file ? Files.isRegularFile(resolved) : Files.isDirectory(resolved);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get a page of a directory listing from the index.
+     *
+     * @param path the directory path, relative to the repository location.
+     * @param cursor the name of the last entry of the previous page ({@code null} for the first page).
+     * @param limit the maximum number of entries in the page.
+     * @return the listing page, or {@code null} if the index is not ready or the directory is not indexed.
+     */
+    public DirectoryListing.Page list(String path, String cursor, int limit) {
+        String[] segments = segments(path);
+        if (segments == null) {
+            return null;
+        }
+        DirectoryListing.Entry[] entries;
+        Path directory = root.resolve(join(segments, segments.length));
+        lock.readLock().lock();
+        try {
+            if (tree == null) {
+                return null;
+            }
+            int[] offset = new int[1];
+            Node node = find(segments, offset);
+            if (node == null) {
+                return null;
+            }
+            if (offset[0] < node.label.length) {
+                // inside a chain of single child directories
+                boolean file = node.file && offset[0] == node.label.length - 1;
+                entries = new DirectoryListing.Entry[]{ entry(node.label[offset[0]], file ? node : null, directory) };
+            } else if (node.file) {
+                return null;
+            } else {
+                Node[] children = node.children != null ? node.children : new Node[0];
+                entries = new DirectoryListing.Entry[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    Node child = children[i];
+                    entries[i] = entry(child.label[0], (child.file && child.label.length == 1) ? child : null, directory);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int from = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            from = Arrays.binarySearch(entries, new DirectoryListing.Entry(cursor, false, 0, 0), DirectoryListing.ORDER);
+            from = from >= 0 ? from + 1 : -from - 1;
+        }
+        int to = (int) Math.min(entries.length, (long) from + Math.max(limit, 1));
+        String next = to < entries.length ? entries[to - 1].getName() : null;
+        return new DirectoryListing.Page(Arrays.asList(entries).subList(from, to), next);
+    }
+
+    private static DirectoryListing.Entry entry(String name, Node file, Path directory) {
+        if (file != null) {
+            return new DirectoryListing.Entry(name, false, file.size, file.modified, directory);
+        }
+        return new DirectoryListing.Entry(name, true, 0, 0, directory);
+    }
+
+    /**
+     * Update the index after a change in the repository storage.
+     * <p>
+     * For a file, the files of its folder are indexed (the checksums are written next to the artifacts). For a folder,
+     * the folder is indexed again, and for a path not existing anymore, the path is removed from the index. A change on
+     * the repository location itself updates the top level folders one by one. The filesystem is read before locking
+     * the index, so the existence checks are only blocked while the changed subtree is swapped in.
+     *
+     * @param path the changed file or directory.
+     */
+    public void refresh(Path path) {
+        String[] segments = segments(path);
+        if (segments == null) {
+            return;
+        }
+        if (segments.length == 0) {
+            refreshRoot();
+        } else {
+            refresh(path, segments);
+        }
+    }
+
+    private void refresh(Path path, String[] segments) {
+        // the updates are serialized, so a scan never replaces a more recent one
+        updates.lock();
+        try {
+            if (deferred(path)) {
+                return;
+            }
+            Scan scan;
+            try {
+                scan = scan(path, segments);
+            } catch (IOException e) {
+                LOGGER.warn("Can't index {}, rebuilding the index of {}", path, root, e);
+                rebuild();
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (tree == null) {
+                    if (build != null) {
+                        build.changes.add(path);
+                    }
+                    return;
+                }
+                if (scan.segments != null) {
+                    delete(scan.segments);
+                }
+                for (int i = 0; i < scan.files.size(); i++) {
+                    insert(scan.files.get(i), scan.attributes.get(i).size(), scan.attributes.get(i).lastModifiedTime().toMillis());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            updates.unlock();
+        }
+    }
+
+    /**
+     * Record a change done during the build, applied once the build completes.
+     *
+     * @return true if the change is deferred, false if the index is ready.
+     */
+    private boolean deferred(Path path) {
+        lock.writeLock().lock();
+        try {
+            if (tree != null) {
+                return false;
+            }
+            if (build != null) {
+                build.changes.add(path);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Update the top level entries of the repository location, removing the ones not existing anymore.
+     */
+    private void refreshRoot() {
+        Map<String, Path> entries = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                if (!name.startsWith(".")) {
+                    entries.put(name, entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // location removed
+        } catch (IOException e) {
+            LOGGER.warn("Can't index {}", root, e);
+            rebuild();
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (tree == null) {
+                names = null;
+            } else if (tree.children != null) {
+                for (Node child : tree.children) {
+                    names.add(child.label[0]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (names == null) {
+            // the whole repository changed during the build
+            rebuild();
+            return;
+        }
+        for (String name : names) {
+            if (!entries.containsKey(name)) {
+                refresh(root.resolve(name), new String[]{ name });
+            }
+        }
+        for (Map.Entry<String, Path> entry : entries.entrySet()) {
+            refresh(entry.getValue(), new String[]{ entry.getKey() });
+        }
+    }
+
+    /**
+     * Read the filesystem state of a changed path.
+     */
+    private Scan scan(Path path, String[] segments) throws IOException {
+        Path resolved = root.resolve(join(segments, segments.length));
+        final Scan scan;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(resolved, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                scan = new Scan(segments);
+                Files.walkFileTree(resolved, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        return (dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String[] fileSegments = segments(file);
+                        if (fileSegments != null && attrs.isRegularFile()) {
+                            scan.add(fileSegments, attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                scan = new Scan(null);
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(resolved.getParent())) {
+                    for (Path sibling : stream) {
+                        String[] siblingSegments = segments(sibling);
+                        if (siblingSegments == null) {
+                            continue;
+                        }
+                        try {
+                            BasicFileAttributes siblingAttributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+                            if (siblingAttributes.isRegularFile()) {
+                                scan.add(siblingSegments, siblingAttributes);
+                            }
+                        } catch (NoSuchFileException e) {
+                            // deleted in the meantime
+                        }
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new Scan(segments);
+        }
+        return scan;
+    }
+
+    /**
+     * The files of a changed path, read from the filesystem.
+     */
+    private static final class Scan {
+
+        // the subtree replaced by the files, null if the files are only added
+        private final String[] segments;
+        private final List<String[]> files = new ArrayList<>();
+        private final List<BasicFileAttributes> attributes = new ArrayList<>();
+
+        Scan(String[] segments) {
+            this.segments = segments;
+        }
+
+        void add(String[] file, BasicFileAttributes fileAttributes) {
+            files.add(file);
+            attributes.add(fileAttributes);
+        }
+
+    }
+
+    /**
+     * Get the index status.
+     *
+     * @return the index state ({@code ready}), the indexed files ({@code files}) and directories ({@code directories}),
+     * the trie nodes ({@code nodes}) and distinct path segments ({@code segments}), the estimated memory footprint of
+     * the trie ({@code trieBytes}) and of the Bloom filter ({@code bloomBytes}), the estimated false positive
+     * probability of the Bloom filter in parts per million ({@code bloomFppPpm}), the existence checks ({@code lookups}),
+     * the checks rejected by the Bloom filter ({@code bloomRejected}) and by the trie ({@code trieMisses}), the builds
+     * ({@code builds}) and the duration of the last build in milliseconds ({@code buildTime}).
+     */
+    public Map<String, Long> status() {
+        Map<String, Long> status = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            long[] counts = new long[4];
+            if (tree != null) {
+                count(tree, counts);
+            }
+            long segmentBytes = 0;
+            if (dictionary != null) {
+                for (String segment : dictionary.keySet()) {
+                    segmentBytes += STRING_BYTES + 2L * segment.length() + DICTIONARY_ENTRY_BYTES;
+                }
+            }
+            status.put("ready", tree != null ? 1L : 0L);
+            status.put("files", counts[0]);
+            status.put("directories", counts[1]);
+            status.put("nodes", counts[2]);
+            status.put("segments", dictionary != null ? (long) dictionary.size() : 0L);
+            status.put("trieBytes", counts[3] + segmentBytes);
+            status.put("bloomBytes", bloom != null ? bloom.bytes() : 0L);
+            status.put("bloomFppPpm", bloom != null ? Math.round(bloom.fpp() * 1000000) : 0L);
+        } finally {
+            lock.readLock().unlock();
+        }
+        status.put("lookups", lookups.get());
+        status.put("bloomRejected", rejected.get());
+        status.put("trieMisses", misses.get());
+        status.put("builds", builds.get());
+        status.put("buildTime", buildTime);
+        return status;
+    }
+
+    /**
+     * Count the files, directories, nodes and the bytes used by the nodes of a subtree.
+     */
+    private static void count(Node node, long[] counts) {
+        counts[0] += node.file ? 1 : 0;
+        counts[1] += node.file ? node.label.length - 1 : node.label.length;
+        counts[2]++;
+        counts[3] += NODE_BYTES + ARRAY_BYTES + REFERENCE_BYTES * node.label.length;
+        if (node.children != null) {
+            counts[3] += ARRAY_BYTES + REFERENCE_BYTES * node.children.length;
+            for (Node child : node.children) {
+                count(child, counts);
+            }
+        }
+    }
+
+    //
+    // Trie
+    //
+
+    /**
+     * Find the node containing the given path.
+     *
+     * @param offset set to the number of segments of the node label matching the end of the path.
+     * @return the node, or {@code null} if the path is not indexed.
+     */
+    private Node find(String[] segments, int[] offset) {
+        Node node = tree;
+        offset[0] = 0;
+        int i = 0;
+        while (i < segments.length) {
+            int index = search(node.children, segments[i]);
+            if (index < 0) {
+                return null;
+            }
+            node = node.children[index];
+            int matching = matching(node.label, segments, i);
+            if (i + matching == segments.length) {
+                offset[0] = matching;
+                return node;
+            }
+            if (matching < node.label.length) {
+                return null;
+            }
+            i += matching;
+        }
+        return node;
+    }
+
+    private void insert(String[] segments, long size, long modified) {
+        Node node = tree;
+        int i = 0;
+        while (true) {
+            int index = search(node.children, segments[i]);
+            if (index < 0) {
+                Node leaf = new Node(intern(segments, i));
+                leaf.file = true;
+                leaf.size = size;
+                leaf.modified = modified;
+                node.children = insertAt(node.children, -index - 1, leaf);
+                break;
+            }
+            Node child = node.children[index];
+            int matching = matching(child.label, segments, i);
+            if (matching < child.label.length) {
+                // split the chain of directories
+                Node tail = new Node(Arrays.copyOfRange(child.label, matching, child.label.length));
+                tail.children = child.children;
+                tail.file = child.file;
+                tail.size = child.size;
+                tail.modified = child.modified;
+                child.label = Arrays.copyOfRange(child.label, 0, matching);
+                child.children = new Node[]{ tail };
+                child.file = false;
+            }
+            i += matching;
+            if (i == segments.length) {
+                // a file replacing a directory
+                child.children = null;
+                child.file = true;
+                child.size = size;
+                child.modified = modified;
+                break;
+            }
+            // a directory replacing a file
+            child.file = false;
+            node = child;
+        }
+        for (int length = 1; length <= segments.length; length++) {
+            bloom.add(join(segments, length));
+        }
+        if (bloom.isFull()) {
+            bloom = BloomFilter.of(tree, fpp);
+        }
+    }
+
+    private void delete(String[] segments) {
+        if (segments.length == 0) {
+            tree.children = null;
+            return;
+        }
+        List<Node> parents = new ArrayList<>();
+        Node node = tree;
+        int i = 0;
+        while (i < segments.length) {
+            int index = search(node.children, segments[i]);
+            if (index < 0) {
+                return;
+            }
+            Node child = node.children[index];
+            int matching = matching(child.label, segments, i);
+            if (i + matching == segments.length) {
+                node.children = removeAt(node.children, index);
+                break;
+            }
+            if (matching < child.label.length) {
+                return;
+            }
+            parents.add(node);
+            node = child;
+            i += matching;
+        }
+        // remove the empty directories, and merge the chains of single child directories
+        for (int p = parents.size() - 1; p >= 0 && node.children == null; p--) {
+            Node parent = parents.get(p);
+            parent.children = removeAt(parent.children, search(parent.children, node.label[0]));
+            node = parent;
+        }
+        if (node != tree && !node.file && node.children != null && node.children.length == 1) {
+            Node child = node.children[0];
+            String[] label = Arrays.copyOf(node.label, node.label.length + child.label.length);
+            System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+            node.label = label;
+            node.children = child.children;
+            node.file = child.file;
+            node.size = child.size;
+            node.modified = child.modified;
+        }
+    }
+
+    private String[] intern(String[] segments, int from) {
+        String[] label = new String[segments.length - from];
+        for (int i = from; i < segments.length; i++) {
+            label[i - from] = intern(dictionary, segments[i]);
+        }
+        return label;
+    }
+
+    private static String intern(Map<String, String> dictionary, String segment) {
+        String interned = dictionary.get(segment);
+        if (interned == null) {
+            dictionary.put(segment, segment);
+            interned = segment;
+        }
+        return interned;
+    }
+
+    private static int matching(String[] label, String[] segments, int from) {
+        int matching = 0;
+        while (matching < label.length && from + matching < segments.length && label[matching].equals(segments[from + matching])) {
+            matching++;
+        }
+        return matching;
+    }
+
+    private static int search(Node[] children, String segment) {
+        if (children == null) {
+            return -1;
+        }
+        int low = 0;
+        int high = children.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = children[middle].label[0].compareTo(segment);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static Node[] insertAt(Node[] children, int index, Node node) {
+        if (children == null) {
+            return new Node[]{ node };
+        }
+        Node[] result = new Node[children.length + 1];
+        System.arraycopy(children, 0, result, 0, index);
+        result[index] = node;
+        System.arraycopy(children, index, result, index + 1, children.length - index);
+        return result;
+    }
+
+    private static Node[] removeAt(Node[] children, int index) {
+        if (children.length == 1) {
+            return null;
+        }
+        Node[] result = new Node[children.length - 1];
+        System.arraycopy(children, 0, result, 0, index);
+        System.arraycopy(children, index + 1, result, index, children.length - index - 1);
+        return result;
+    }
+
+    //
+    // Paths
+    //
+
+    /**
+     * Split a relative path in segments.
+     *
+     * @return the segments, or {@code null} if the path is not indexed (hidden or relative segments).
+     */
+    static String[] segments(String path) {
+        if (path == null) {
+            return null;
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (segment.startsWith(".") || segment.indexOf('\\') >= 0) {
+                return null;
+            }
+            segments.add(segment);
+        }
+        return segments.isEmpty() ? NO_SEGMENTS : segments.toArray(new String[segments.size()]);
+    }
+
+    private String[] segments(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        if (!absolute.startsWith(root)) {
+            return null;
+        }
+        String[] segments = new String[absolute.getNameCount() - root.getNameCount()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = absolute.getName(root.getNameCount() + i).toString();
+            if (segments[i].startsWith(".")) {
+                return null;
+            }
+        }
+        return segments;
+    }
+
+    private static String join(String[] segments, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                builder.append('/');
+            }
+            builder.append(segments[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A trie node: a file, or a chain of directories (the last segment of the label can be a file).
+     */
+    private static final class Node {
+
+        private String[] label;
+        private Node[] children;
+        private boolean file;
+        private long size;
+        private long modified;
+
+        Node(String[] label) {
+            this.label = label;
+        }
+
+    }
+
+    private static final Comparator<Node> ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node n1, Node n2) {
+            return n1.label[0].compareTo(n2.label[0]);
+        }
+    };
+
+    /**
+     * Background build of the index, walking the top level folders in parallel.
+     */
+    private final class Build implements Runnable {
+
+        private final List<Path> changes = new ArrayList<>();
+        private final List<Node> nodes = new ArrayList<>();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final long start = System.currentTimeMillis();
+        private volatile boolean failed;
+
+        @Override
+        public void run() {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                for (final Path entry : stream) {
+                    final String name = entry.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (attributes.isDirectory()) {
+                        pending.incrementAndGet();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    collect(scan(entry, name));
+                                } catch (Exception e) {
+                                    LOGGER.warn("Can't index {}", entry, e);
+                                    failed = true;
+                                } finally {
+                                    done();
+                                }
+                            }
+                        });
+                    } else if (attributes.isRegularFile()) {
+                        collect(leaf(name, attributes));
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Can't index {}", root, e);
+                failed = true;
+            } finally {
+                done();
+            }
+        }
+
+        private synchronized void collect(Node node) {
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() > 0) {
+                return;
+            }
+            List<Path> applied = null;
+            lock.writeLock().lock();
+            try {
+                if (build != this) {
+                    // rebuilt in the meantime
+                    return;
+                }
+                build = null;
+                if (failed) {
+                    return;
+                }
+                Node[] children;
+                synchronized (this) {
+                    children = nodes.toArray(new Node[nodes.size()]);
+                }
+                Arrays.sort(children, ORDER);
+                Node root = new Node(NO_SEGMENTS);
+                root.children = children.length > 0 ? children : null;
+                dictionary = new HashMap<>();
+                share(root, dictionary);
+                tree = root;
+                bloom = BloomFilter.of(tree, fpp);
+                applied = new ArrayList<>(changes);
+                builds.incrementAndGet();
+                buildTime = System.currentTimeMillis() - start;
+                LOGGER.debug("Index of {} built in {} ms", PathIndex.this.root, buildTime);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (applied != null) {
+                // apply the changes done during the build
+                for (Path change : applied) {
+                    refresh(change);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Share the equal segments of the labels of a subtree.
+     */
+    private static void share(Node node, Map<String, String> dictionary) {
+        for (int i = 0; i < node.label.length; i++) {
+            node.label[i] = intern(dictionary, node.label[i]);
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                share(child, dictionary);
+            }
+        }
+    }
+
+    private static Node leaf(String name, BasicFileAttributes attributes) {
+        Node leaf = new Node(new String[]{ name });
+        leaf.file = true;
+        leaf.size = attributes.size();
+        leaf.modified = attributes.lastModifiedTime().toMillis();
+        return leaf;
+    }
+
+    /**
+     * Index a directory.
+     *
+     * @return the directory node, or {@code null} if the directory doesn't contain any file.
+     */
+    private static Node scan(Path directory, String name) throws IOException {
+        List<Node> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                String child = entry.getFileName().toString();
+                if (child.startsWith(".")) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (attributes.isDirectory()) {
+                        Node node = scan(entry, child);
+                        if (node != null) {
+                            children.add(node);
+                        }
+                    } else if (attributes.isRegularFile()) {
+                        children.add(leaf(child, attributes));
+                    }
+                } catch (NoSuchFileException e) {
+                    // deleted in the meantime
+                }
+            }
+        }
+        if (children.isEmpty()) {
+            return null;
+        }
+        if (children.size() == 1) {
+            // chain of single child directories
+            Node child = children.get(0);
+            String[] label = new String[child.label.length + 1];
+            label[0] = name;
+            System.arraycopy(child.label, 0, label, 1, child.label.length);
+            child.label = label;
+            return child;
+        }
+        Node node = new Node(new String[]{ name });
+        node.children = children.toArray(new Node[children.size()]);
+        Arrays.sort(node.children, ORDER);
+        return node;
+    }
+
+    /**
+     * Bloom filter of the indexed paths, using double hashing of a 64 bits FNV-1a hash.
+     */
+    static final class BloomFilter {
+
+        private final long[] bits;
+        private final long size;
+        private final int hashes;
+        private final long capacity;
+        private long count;
+
+        BloomFilter(long capacity, double fpp) {
+            this.capacity = Math.max(capacity, 1024);
+            long size = (long) Math.ceil(-this.capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.min((size + 63) / 64, Integer.MAX_VALUE - 8)];
+            this.size = bits.length * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) this.size / this.capacity * Math.log(2)));
+        }
+
+        /**
+         * Create a Bloom filter of the paths of a trie, with room for as many paths again.
+         */
+        static BloomFilter of(Node tree, double fpp) {
+            List<String> paths = new ArrayList<>();
+            paths(tree, new ArrayList<String>(), paths);
+            BloomFilter bloom = new BloomFilter(paths.size() * 2L, fpp);
+            for (String path : paths) {
+                bloom.add(path);
+            }
+            return bloom;
+        }
+
+        private static void paths(Node node, List<String> prefix, List<String> paths) {
+            int length = prefix.size();
+            for (String segment : node.label) {
+                prefix.add(segment);
+                paths.add(join(prefix.toArray(new String[prefix.size()]), prefix.size()));
+            }
+            if (node.children != null) {
+                for (Node child : node.children) {
+                    paths(child, prefix, paths);
+                }
+            }
+            prefix.subList(length, prefix.size()).clear();
+        }
+
+        void add(String path) {
+            long hash = hash(path);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long index = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+            count++;
+        }
+
+        boolean mightContain(String path) {
+            long hash = hash(path);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                long index = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isFull() {
+            return count > capacity;
+        }
+
+        long bytes() {
+            return ARRAY_BYTES + 8L * bits.length;
+        }
+
+        /**
+         * Estimate the false positive probability with the current number of paths.
+         */
+        double fpp() {
+            return Math.pow(1 - Math.exp(-(double) hashes * count / size), hashes);
+        }
+
+        private static long hash(String value) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            // final mix, spreading the bits in both halves
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Precompressed (gzip) variants of the text files of a repository (POM, metadata, features XML, OBR descriptor, ...).
+ * <p>
+ * The variants are stored in a hidden folder of the repository location, generated in background at upload time or on
+ * first request. A variant has the modification time of the file it was generated from, and is valid as long as this
+ * time and the size in its gzip trailer match the served file, so the variants never have to be invalidated when the
+ * files change (a stale variant is simply generated again).
+ */
+public class Precompressor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Precompressor.class);
+
+    public static final String VARIANTS_FOLDER = ".cave-compressed";
+
+    // smaller files are not worth it (gzip header and trailer)
+    private static final int MIN_SIZE = 256;
+
+    private static final String[] EXTENSIONS = { ".pom", ".xml", ".json", ".txt", ".properties", ".cfg", ".html" };
+
+    private final Path root;
+    private final RepositoryMetrics metrics;
+    // the variants being generated in background
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param location the repository location.
+     * @param metrics the repository metrics.
+     */
+    public Precompressor(Path location, RepositoryMetrics metrics) {
+        this.root = location.toAbsolutePath().normalize().resolve(VARIANTS_FOLDER);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Check if a path is a text file worth compressing.
+     *
+     * @param path the file path.
+     * @return true if the file is compressible, false else.
+     */
+    public static boolean isCompressible(String path) {
+        String name = path.toLowerCase(Locale.ENGLISH);
+        for (String extension : EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the client accepts gzip encoded responses.
+     *
+     * @param acceptEncoding the {@code Accept-Encoding} request header.
+     * @return true if gzip is accepted, false else.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                // an explicit gzip coding overrides the wildcard
+                return !refused;
+            }
+            if (name.equals("*")) {
+                accepted = !refused;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Get the valid variant of a file (without reading the file).
+     *
+     * @param path the file path in the repository.
+     * @param file the file content.
+     * @return the variant, or {@code null} if there's no variant or the variant is stale.
+     */
+    public Path lookup(String path, File file) throws IOException {
+        Path variant = variant(path);
+        if (variant == null || file.length() < MIN_SIZE || !Files.isRegularFile(variant)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(variant, StandardOpenOption.READ)) {
+            if (channel.size() < 18) {
+                return null;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, channel.size() - 8 + trailer.position()) < 0) {
+                    return null;
+                }
+            }
+            trailer.flip();
+            trailer.getInt();
+            long size = trailer.getInt() & 0xffffffffL;
+            if (size != (file.length() & 0xffffffffL) || Files.getLastModifiedTime(variant).toMillis() != file.lastModified()) {
+                return null;
+            }
+        }
+        return variant;
+    }
+
+    /**
+     * Generate the variant of a file in background, if it's not already being generated.
+     *
+     * @param path the file path in the repository.
+     * @param file the file content.
+     * @param executor the executor generating the variant.
+     */
+    public void generate(final String path, final File file, Executor executor) {
+        if (variant(path) == null || !isCompressible(path) || file.length() < MIN_SIZE || !pending.add(path)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        generate(path, file);
+                    } catch (IOException e) {
+                        LOGGER.debug("Can't compress {}", path, e);
+                    } finally {
+                        pending.remove(path);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(path);
+        }
+    }
+
+    /**
+     * Generate the variant of a file.
+     *
+     * @param path the file path in the repository.
+     * @param file the file content.
+     * @return the variant, or {@code null} if the file is not compressible.
+     */
+    public Path generate(String path, File file) throws IOException {
+        Path variant = variant(path);
+        if (variant == null || !isCompressible(path) || file.length() < MIN_SIZE) {
+            return null;
+        }
+        long start = System.nanoTime();
+        // read before the content, so a variant generated while the file changes is stale
+        long modified = file.lastModified();
+        Files.createDirectories(variant.getParent());
+        Path staging = variant.resolveSibling("." + variant.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (InputStream input = Files.newInputStream(file.toPath());
+                 OutputStream output = new GZIPOutputStream(Files.newOutputStream(staging), 8192) {
+                     {
+                         def.setLevel(Deflater.BEST_COMPRESSION);
+                     }
+                 }) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            Files.setLastModifiedTime(staging, FileTime.fromMillis(modified));
+            Files.move(staging, variant, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+        metrics.compressionGenerated(file.length(), System.nanoTime() - start);
+        return variant;
+    }
+
+    private Path variant(String path) {
+        Path variant = root.resolve(path + ".gz").normalize();
+        return variant.startsWith(root) ? variant : null;
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Predictive prefetching for proxy repositories.
+ * <p>
+ * When a POM is fetched from a proxied repository, the companion artifact (depending on the packaging), the parent POM
+ * and the dependency POMs are resolved in background, so the following requests of the client are served locally.
+ * The prefetching is bounded: a fixed number of threads and a bounded queue (the prefetches are dropped when full).
+ */
+public class Prefetcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Prefetcher.class);
+
+    private static final int QUEUE_SIZE = 256;
+    private static final int MAX_TRACKED = 10000;
+    private static final long TRACKING_EXPIRATION = TimeUnit.HOURS.toMillis(1);
+
+    private final MavenResolverProvider resolverProvider;
+    private final RepositoryMetrics metrics;
+    private final ThreadPoolExecutor executor;
+    // prefetched paths, not yet requested
+    private final ConcurrentMap<String, Long> prefetched = new ConcurrentHashMap<>();
+    // paths being prefetched
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    public Prefetcher(MavenResolverProvider resolverProvider, RepositoryMetrics metrics, int concurrency) {
+        this.resolverProvider = resolverProvider;
+        this.metrics = metrics;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory("MavenPrefetch"), new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                Prefetcher.this.metrics.prefetchDropped();
+                throw new RejectedExecutionException("Prefetch queue is full");
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A path is requested: check if it has been prefetched.
+     *
+     * @param path the request path.
+     */
+    public void requested(String path) {
+        if (prefetched.remove(path) != null) {
+            metrics.prefetchHit();
+        }
+    }
+
+    /**
+     * A POM has been fetched from a proxied repository: prefetch the related artifacts.
+     *
+     * @param path the POM path.
+     * @param pom the POM content.
+     */
+    public void fetched(final String path, final byte[] pom) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (String[] artifact : related(path, pom)) {
+                            prefetch(artifact);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.debug("Can't parse POM {}", path, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Can't prefetch from {}", path, e);
+        }
+    }
+
+    private void prefetch(final String[] artifact) {
+        final String path = artifact[5];
+        if (prefetched.containsKey(path) || pending.putIfAbsent(path, Boolean.TRUE) != null) {
+            return;
+        }
+        metrics.prefetchScheduled();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        try {
+                            resolverProvider.acquire().resolve(artifact[0], artifact[1], artifact[4], artifact[3], artifact[2]);
+                        } finally {
+                            resolverProvider.release();
+                        }
+                        track(path);
+                        metrics.prefetchCompleted();
+                    } catch (Exception e) {
+                        LOGGER.debug("Can't prefetch {}", path, e);
+                        metrics.prefetchFailed();
+                    } finally {
+                        pending.remove(path);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(path);
+        }
+    }
+
+    private void track(String path) {
+        long now = System.currentTimeMillis();
+        if (prefetched.size() >= MAX_TRACKED) {
+            Iterator<Long> iterator = prefetched.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next() > TRACKING_EXPIRATION) {
+                    iterator.remove();
+                }
+            }
+            if (prefetched.size() >= MAX_TRACKED) {
+                return;
+            }
+        }
+        prefetched.put(path, now);
+    }
+
+    /**
+     * Get the artifacts to prefetch for a POM.
+     *
+     * @param path the POM path.
+     * @param pom the POM content.
+     * @return the artifacts coordinates (groupId, artifactId, version, extension and classifier) and path.
+     */
+    static List<String[]> related(String path, byte[] pom) throws Exception {
+        List<String[]> related = new ArrayList<>();
+        MavenCoord coord = MavenCoord.parseArtifactPath(path);
+        if (coord == null || !"pom".equals(coord.getType())) {
+            return related;
+        }
+        Pom model = Pom.parse(pom);
+
+        String extension = extension(model.get("packaging") != null ? model.get("packaging") : "jar");
+        if (extension != null) {
+            // same folder and file name as the POM (timestamped snapshots)
+            related.add(new String[]{ coord.getGroupId(), coord.getArtifactId(), coord.getVersion(), extension, "",
+                    path.substring(0, path.length() - "pom".length()) + extension });
+        }
+        String parentGroupId = model.get("parent.groupId");
+        String parentArtifactId = model.get("parent.artifactId");
+        String parentVersion = model.get("parent.version");
+        if (parentGroupId != null && parentArtifactId != null && parentVersion != null) {
+            related.add(artifact(parentGroupId, parentArtifactId, parentVersion));
+        }
+        for (Map<String, String> dependency : model.dependencies) {
+            String scope = dependency.get("scope");
+            if ("test".equals(scope) || "provided".equals(scope) || "system".equals(scope) || "import".equals(scope)
+                    || "true".equals(dependency.get("optional"))) {
+                continue;
+            }
+            String groupId = model.resolve(dependency.get("groupId"));
+            String artifactId = model.resolve(dependency.get("artifactId"));
+            // managed versions are not resolved
+            String version = model.resolve(dependency.get("version"));
+            if (groupId != null && artifactId != null && version != null && !version.startsWith("[") && !version.startsWith("(")) {
+                related.add(artifact(groupId, artifactId, version));
+            }
+        }
+        return related;
+    }
+
+    /**
+     * @return the extension of the artifact for the given packaging, or {@code null} if there's no artifact to prefetch.
+     */
+    private static String extension(String packaging) {
+        switch (packaging) {
+            case "jar":
+            case "bundle":
+            case "maven-plugin":
+            case "ejb":
+                return "jar";
+            case "war":
+            case "ear":
+            case "rar":
+            case "kar":
+                return packaging;
+            default:
+                return null;
+        }
+    }
+
+    private static String[] artifact(String groupId, String artifactId, String version) {
+        String path = groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom";
+        return new String[]{ groupId, artifactId, version, "pom", "", path };
+    }
+
+    /**
+     * Minimal POM model: project coordinates, parent, properties and dependencies.
+     */
+    private static class Pom {
+
+        private final Map<String, String> values = new HashMap<>();
+        private final List<Map<String, String>> dependencies = new ArrayList<>();
+
+        static Pom parse(byte[] content) throws Exception {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(content));
+            Pom pom = new Pom();
+            Deque<String> elements = new ArrayDeque<>();
+            Map<String, String> dependency = null;
+            StringBuilder text = new StringBuilder();
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        elements.addLast(reader.getLocalName());
+                        text.setLength(0);
+                        if (elements.size() == 3 && "dependency".equals(reader.getLocalName()) && in(elements, "project", "dependencies")) {
+                            dependency = new HashMap<>();
+                        }
+                    } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                        text.append(reader.getText());
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String value = text.toString().trim();
+                        if (elements.size() == 2 && in(elements, "project")) {
+                            pom.values.put(reader.getLocalName(), value);
+                        } else if (elements.size() == 3 && in(elements, "project", "parent")) {
+                            pom.values.put("parent." + reader.getLocalName(), value);
+                        } else if (elements.size() == 3 && in(elements, "project", "properties")) {
+                            pom.values.put("property." + reader.getLocalName(), value);
+                        } else if (elements.size() == 4 && dependency != null) {
+                            dependency.put(reader.getLocalName(), value);
+                        } else if (elements.size() == 3 && dependency != null) {
+                            pom.dependencies.add(dependency);
+                            dependency = null;
+                        }
+                        text.setLength(0);
+                        elements.removeLast();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return pom;
+        }
+
+        private static boolean in(Deque<String> elements, String... parents) {
+            Iterator<String> iterator = elements.iterator();
+            for (String parent : parents) {
+                if (!iterator.hasNext() || !parent.equals(iterator.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String get(String key) {
+            String value = values.get(key);
+            return value == null || value.isEmpty() ? null : value;
+        }
+
+        /**
+         * Resolve the {@code ${...}} expressions (project coordinates and properties).
+         *
+         * @return the resolved value, or {@code null} if it can't be resolved.
+         */
+        String resolve(String value) {
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            String result = value;
+            for (int i = 0; i < 10 && result.contains("${"); i++) {
+                int start = result.indexOf("${");
+                int end = result.indexOf('}', start);
+                if (end < 0) {
+                    return null;
+                }
+                String expression = result.substring(start + 2, end);
+                String resolved = expression(expression);
+                if (resolved == null) {
+                    return null;
+                }
+                result = result.substring(0, start) + resolved + result.substring(end + 1);
+            }
+            return result.contains("${") ? null : result;
+        }
+
+        private String expression(String expression) {
+            switch (expression) {
+                case "project.groupId":
+                case "pom.groupId":
+                case "groupId":
+                    return get("groupId") != null ? get("groupId") : get("parent.groupId");
+                case "project.version":
+                case "pom.version":
+                case "version":
+                    return get("version") != null ? get("version") : get("parent.version");
+                case "project.artifactId":
+                case "pom.artifactId":
+                case "artifactId":
+                    return get("artifactId");
+                case "project.parent.groupId":
+                case "parent.groupId":
+                    return get("parent.groupId");
+                case "project.parent.version":
+                case "parent.version":
+                    return get("parent.version");
+                default:
+                    return get("property." + expression);
+            }
+        }
+
+    }
+
+}
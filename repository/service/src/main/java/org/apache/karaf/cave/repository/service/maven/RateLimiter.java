@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit the requests and bytes rates per authenticated user, per client address and per repository, with token
+ * buckets.
+ * <p>
+ * A request takes a token from the requests bucket of its user, address and repository, and is rejected if one of
+ * them is empty (or if one of the bytes buckets is in debt). The bytes sent or received are taken from the bytes
+ * buckets once transferred, possibly putting them in debt: the next requests are rejected until the debt is paid back.
+ * The buckets are implemented with the generic cell rate algorithm: a bucket is a single atomic theoretical arrival
+ * time, updated without lock.
+ * <p>
+ * The number of buckets of a scope is capped: when a scope is full, its full buckets (idle keys) are removed, at most
+ * once per burst duration, and the requests of new keys are rejected until there is room for their buckets.
+ */
+public class RateLimiter {
+
+    static final String USER = "user";
+    static final String ADDRESS = "ip";
+    static final String REPOSITORY = "repository";
+
+    // idle buckets are removed when a scope has more buckets, new keys are rejected if none is idle
+    static final int MAX_BUCKETS = 10000;
+
+    /**
+     * The rates of a scope, 0 for unlimited.
+     */
+    public static class Limit {
+
+        private final double requests;
+        private final double bytes;
+
+        /**
+         * @param requests the number of requests per second.
+         * @param bytes the number of bytes per second.
+         */
+        public Limit(double requests, double bytes) {
+            this.requests = requests;
+            this.bytes = bytes;
+        }
+
+        boolean isUnlimited() {
+            return requests <= 0 && bytes <= 0;
+        }
+
+    }
+
+    private final Map<String, Limit> limits = new LinkedHashMap<>();
+    private final Map<String, ConcurrentMap<String, Buckets>> scopes = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> sweeps = new LinkedHashMap<>();
+    private final long burst;
+
+    /**
+     * @param user the limit per authenticated user.
+     * @param address the limit per client address.
+     * @param repository the limit per repository.
+     * @param burst the burst duration (in milliseconds): the buckets capacity is the rate during this duration.
+     */
+    public RateLimiter(Limit user, Limit address, Limit repository, long burst) {
+        this.burst = TimeUnit.MILLISECONDS.toNanos(Math.max(burst, 1));
+        limits.put(USER, user);
+        limits.put(ADDRESS, address);
+        limits.put(REPOSITORY, repository);
+        for (String scope : limits.keySet()) {
+            scopes.put(scope, new ConcurrentHashMap<String, Buckets>());
+            sweeps.put(scope, new AtomicLong(System.nanoTime()));
+        }
+    }
+
+    /**
+     * @return true if no rate is limited.
+     */
+    public boolean isUnlimited() {
+        for (Limit limit : limits.values()) {
+            if (!limit.isUnlimited()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take a request token for a request.
+     *
+     * @param repository the repository name.
+     * @param user the authenticated user ({@code null} for anonymous requests).
+     * @param address the client address.
+     * @return the permit, to record the bytes transferred if granted.
+     */
+    public Permit acquire(String repository, String user, String address) {
+        long now = System.nanoTime();
+        List<Buckets> buckets = new ArrayList<>(3);
+        long wait = Math.max(add(buckets, REPOSITORY, repository, now), Math.max(add(buckets, USER, user, now), add(buckets, ADDRESS, address, now)));
+        if (wait > 0) {
+            return new Permit(buckets, wait);
+        }
+        for (Buckets bucket : buckets) {
+            if (bucket.bytes != null) {
+                wait = Math.max(wait, bucket.bytes.debt(now));
+            }
+        }
+        if (wait > 0) {
+            return new Permit(buckets, wait);
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket requests = buckets.get(i).requests;
+            if (requests == null) {
+                continue;
+            }
+            wait = requests.tryTake(1, now);
+            if (wait > 0) {
+                // all or nothing
+                for (int j = 0; j < i; j++) {
+                    if (buckets.get(j).requests != null) {
+                        buckets.get(j).requests.give(1);
+                    }
+                }
+                return new Permit(buckets, wait);
+            }
+        }
+        return new Permit(buckets, 0);
+    }
+
+    /**
+     * Remove the buckets of a repository.
+     */
+    public void remove(String repository) {
+        scopes.get(REPOSITORY).remove(repository);
+    }
+
+    /**
+     * Get the levels of the buckets: the number of requests and bytes which can be taken (negative for a bytes bucket
+     * in debt), by {@code <scope>:<key>} ({@code user:}, {@code ip:} or {@code repository:}).
+     *
+     * @return the buckets levels.
+     */
+    public Map<String, Map<String, Long>> levels() {
+        long now = System.nanoTime();
+        Map<String, Map<String, Long>> levels = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentMap<String, Buckets>> scope : scopes.entrySet()) {
+            for (Map.Entry<String, Buckets> entry : scope.getValue().entrySet()) {
+                Map<String, Long> level = new LinkedHashMap<>();
+                if (entry.getValue().requests != null) {
+                    level.put("requests", entry.getValue().requests.level(now));
+                }
+                if (entry.getValue().bytes != null) {
+                    level.put("bytes", entry.getValue().bytes.level(now));
+                }
+                levels.put(scope.getKey() + ":" + entry.getKey(), level);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Add the buckets of a key, created if needed.
+     *
+     * @return 0 if added, else the time to wait for the scope to have room for a new key, in nanoseconds.
+     */
+    private long add(List<Buckets> buckets, String scope, String key, long now) {
+        Limit limit = limits.get(scope);
+        if (key == null || limit.isUnlimited()) {
+            return 0;
+        }
+        ConcurrentMap<String, Buckets> map = scopes.get(scope);
+        Buckets bucket = map.get(key);
+        if (bucket == null) {
+            if (map.size() >= MAX_BUCKETS) {
+                long wait = sweep(map, sweeps.get(scope), now);
+                if (wait > 0) {
+                    return wait;
+                }
+            }
+            map.putIfAbsent(key, new Buckets(limit, burst, now));
+            bucket = map.get(key);
+        }
+        buckets.add(bucket);
+        return 0;
+    }
+
+    /**
+     * Remove the full buckets (equivalent to new ones), if not already done during the last burst duration: the buckets
+     * taken since then can't be full yet.
+     *
+     * @return 0 if the scope has room for a new key, else the time to wait for the next sweep, in nanoseconds.
+     */
+    private long sweep(ConcurrentMap<String, Buckets> map, AtomicLong next, long now) {
+        long sweep = next.get();
+        if (now - sweep >= 0 && next.compareAndSet(sweep, now + burst)) {
+            for (Iterator<Buckets> iterator = map.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().isFull(now)) {
+                    iterator.remove();
+                }
+            }
+        }
+        return (map.size() < MAX_BUCKETS) ? 0 : Math.max(1, next.get() - now);
+    }
+
+    private static final class Buckets {
+
+        private final Bucket requests;
+        private final Bucket bytes;
+
+        private Buckets(Limit limit, long burst, long now) {
+            this.requests = (limit.requests > 0) ? new Bucket(limit.requests, burst, now) : null;
+            this.bytes = (limit.bytes > 0) ? new Bucket(limit.bytes, burst, now) : null;
+        }
+
+        private boolean isFull(long now) {
+            return (requests == null || requests.isFull(now)) && (bytes == null || bytes.isFull(now));
+        }
+
+    }
+
+    /**
+     * A token bucket (generic cell rate algorithm): a token is emitted every {@code interval}, and the bucket holds
+     * the tokens emitted during {@code window}. The bucket state is the theoretical arrival time of the next token
+     * taken: the bucket is full when it's in the past, empty when it's {@code window} in the future.
+     */
+    static final class Bucket {
+
+        private final double interval;
+        private final long window;
+        private final AtomicLong arrival;
+
+        /**
+         * @param rate the number of tokens per second.
+         * @param window the duration of the emitted tokens held by the bucket, in nanoseconds.
+         */
+        Bucket(double rate, long window, long now) {
+            this.interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            this.window = Math.max(window, (long) Math.ceil(interval));
+            this.arrival = new AtomicLong(now);
+        }
+
+        /**
+         * Take tokens if available.
+         *
+         * @return 0 if taken, else the time to wait for the tokens, in nanoseconds.
+         */
+        long tryTake(long tokens, long now) {
+            long cost = cost(tokens);
+            while (true) {
+                long current = arrival.get();
+                long next = Math.max(current, now) + cost;
+                long over = next - now - window;
+                if (over > 0) {
+                    return over;
+                }
+                if (arrival.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Take tokens, putting the bucket in debt if not available.
+         */
+        void take(long tokens, long now) {
+            long cost = cost(tokens);
+            while (true) {
+                long current = arrival.get();
+                if (arrival.compareAndSet(current, Math.max(current, now) + cost)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Give back tokens taken.
+         */
+        void give(long tokens) {
+            arrival.addAndGet(-cost(tokens));
+        }
+
+        /**
+         * @return the time to wait for the bucket to be out of debt, in nanoseconds (0 if not in debt).
+         */
+        long debt(long now) {
+            return Math.max(0, arrival.get() - now - window);
+        }
+
+        /**
+         * @return the number of tokens in the bucket, negative if in debt.
+         */
+        long level(long now) {
+            return (long) ((window - Math.max(0, arrival.get() - now)) / interval);
+        }
+
+        boolean isFull(long now) {
+            return arrival.get() <= now;
+        }
+
+        private long cost(long tokens) {
+            return (long) Math.ceil(tokens * interval);
+        }
+
+    }
+
+    /**
+     * The result of a request token acquisition.
+     */
+    public static final class Permit {
+
+        /**
+         * The permit of the requests not limited.
+         */
+        public static final Permit UNLIMITED = new Permit(new ArrayList<RateLimiter.Buckets>(), 0);
+
+        private final List<Buckets> buckets;
+        private final long wait;
+
+        private Permit(List<Buckets> buckets, long wait) {
+            this.buckets = buckets;
+            this.wait = wait;
+        }
+
+        public boolean isGranted() {
+            return wait <= 0;
+        }
+
+        /**
+         * @return the number of seconds to wait before retrying a rejected request (at least 1).
+         */
+        public long getRetryAfter() {
+            return Math.max(1, (long) Math.ceil(wait / (double) TimeUnit.SECONDS.toNanos(1)));
+        }
+
+        /**
+         * Take the bytes transferred for the request from the bytes buckets.
+         *
+         * @param bytes the number of bytes sent or received.
+         */
+        public void transferred(long bytes) {
+            if (bytes <= 0 || buckets.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Buckets bucket : buckets) {
+                if (bucket.bytes != null) {
+                    bucket.bytes.take(bytes, now);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Write a response body without blocking. The body is written by the servlet container threads when the client
+ * connection can accept data ({@link WriteListener}), so a slow client doesn't hold a thread for the whole transfer.
+ * The request must be in asynchronous mode, and completed by the {@link Completion} callback.
+ */
+public class ResponseWriter implements WriteListener {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Called once the body has been written, or the transfer failed.
+     */
+    public interface Completion {
+
+        /**
+         * @param bytes the number of bytes written.
+         * @param failure the transfer error, {@code null} if the body has been written.
+         */
+        void completed(long bytes, Throwable failure);
+
+    }
+
+    private final InputStream input;
+    private final ServletOutputStream output;
+    private final Completion completion;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final AtomicBoolean done = new AtomicBoolean();
+    private long bytes;
+
+    private ResponseWriter(InputStream input, ServletOutputStream output, Completion completion) {
+        this.input = input;
+        this.output = output;
+        this.completion = completion;
+    }
+
+    /**
+     * Start writing a body, the calling thread returns immediately.
+     *
+     * @param input the body, closed once written.
+     * @param output the response output stream (of an asynchronous request).
+     * @param completion the callback, called once the body has been written or the transfer failed.
+     */
+    public static void write(InputStream input, ServletOutputStream output, Completion completion) {
+        ResponseWriter writer = new ResponseWriter(input, output, completion);
+        try {
+            output.setWriteListener(writer);
+        } catch (RuntimeException e) {
+            writer.finish(e);
+        }
+    }
+
+    @Override
+    public void onWritePossible() {
+        try {
+            // write while the client connection accepts data, the container calls again once it can accept more
+            while (output.isReady()) {
+                int read = input.read(buffer);
+                if (read < 0) {
+                    finish(null);
+                    return;
+                }
+                output.write(buffer, 0, read);
+                bytes += read;
+            }
+        } catch (IOException | RuntimeException e) {
+            finish(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        finish(failure);
+    }
+
+    private void finish(Throwable failure) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            input.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        completion.completed(bytes, failure);
+    }
+
+}
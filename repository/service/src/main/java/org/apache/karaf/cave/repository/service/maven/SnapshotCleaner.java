@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.storage.StorageReaper;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remove the old timestamped builds of the SNAPSHOT artifacts of a repository.
+ * <p>
+ * For each SNAPSHOT version folder, the last builds and the builds younger than a maximum age are kept, the other ones
+ * are moved to the trash (reclaimed in background by the {@link StorageReaper}) and removed from the version metadata.
+ * The version folders are cleaned up in parallel, the file moves being throttled.
+ */
+public class SnapshotCleaner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotCleaner.class);
+
+    /**
+     * Default number of last builds kept.
+     */
+    public static final int DEFAULT_KEEP = 1;
+
+    /**
+     * Default age (in milliseconds) under which the builds are kept.
+     */
+    public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private static final String SNAPSHOT = "-SNAPSHOT";
+
+    private static final Pattern BUILD = Pattern.compile("(\\d{8}\\.\\d{6})-(\\d+)");
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss");
+
+    private final StorageReaper reaper;
+    private final long interval;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param reaper the storage reaper.
+     * @param rate the maximum number of files moved to the trash per second (0 or negative for unlimited).
+     */
+    public SnapshotCleaner(StorageReaper reaper, int rate) {
+        this.reaper = reaper;
+        this.interval = (rate > 0) ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+    }
+
+    /**
+     * Cleanup the SNAPSHOT builds of a repository.
+     *
+     * @param location the repository location.
+     * @param keep the number of last builds to keep (at least one).
+     * @param maxAge the age (in milliseconds) under which the builds are kept, 0 to keep only the last builds.
+     * @param executor the executor used to cleanup the version folders in parallel.
+     * @param cleaned collect the version folders where builds have been removed (called from the executor threads).
+     * @return the number of SNAPSHOT versions ({@code snapshots}), the number of kept builds ({@code keptBuilds}), the
+     * number of removed builds ({@code removedBuilds}), files ({@code removedFiles}) and bytes ({@code removedBytes}).
+     */
+    public Map<String, Long> cleanup(final Path location, final int keep, final long maxAge, ExecutorService executor, final Collection<Path> cleaned) throws IOException, InterruptedException {
+        if (keep < 1) {
+            throw new IllegalArgumentException("At least one build must be kept");
+        }
+        final long now = System.currentTimeMillis();
+        final AtomicLong kept = new AtomicLong();
+        final AtomicLong builds = new AtomicLong();
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final List<Future<?>> tasks = new ArrayList<>();
+        if (Files.isDirectory(location)) {
+            Files.walkFileTree(location, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, BasicFileAttributes attributes) throws IOException {
+                    if (dir.equals(location)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String name = dir.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (name.endsWith(SNAPSHOT) && name.length() > SNAPSHOT.length() && !dir.getParent().equals(location)) {
+                        tasks.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                long[] result = cleanup(location, dir, keep, maxAge, now);
+                                if (result[1] > 0) {
+                                    cleaned.add(dir);
+                                }
+                                kept.addAndGet(result[0]);
+                                builds.addAndGet(result[1]);
+                                files.addAndGet(result[2]);
+                                bytes.addAndGet(result[3]);
+                                return null;
+                            }
+                        }));
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                LOGGER.warn("Can't cleanup SNAPSHOT builds in {}", location, e.getCause());
+            }
+        }
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("snapshots", (long) tasks.size());
+        result.put("keptBuilds", kept.get());
+        result.put("removedBuilds", builds.get());
+        result.put("removedFiles", files.get());
+        result.put("removedBytes", bytes.get());
+        return result;
+    }
+
+    /**
+     * Cleanup the builds of a SNAPSHOT version folder.
+     *
+     * @return the kept builds, removed builds, removed files and removed bytes.
+     */
+    long[] cleanup(Path location, Path folder, int keep, long maxAge, long now) throws IOException, InterruptedException {
+        String version = folder.getFileName().toString();
+        String baseVersion = version.substring(0, version.length() - SNAPSHOT.length());
+        String prefix = folder.getParent().getFileName() + "-" + baseVersion + "-";
+        // the files of each build, the most recent build first
+        Map<String, List<Path>> builds = new TreeMap<>(Collections.reverseOrder(new Comparator<String>() {
+            @Override
+            public int compare(String build1, String build2) {
+                int result = build1.substring(0, 15).compareTo(build2.substring(0, 15));
+                return (result != 0) ? result : Long.compare(Long.parseLong(build1.substring(16)), Long.parseLong(build2.substring(16)));
+            }
+        }));
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(prefix) || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                Matcher matcher = BUILD.matcher(name);
+                if (matcher.region(prefix.length(), name.length()).lookingAt()) {
+                    String build = matcher.group();
+                    List<Path> buildFiles = builds.get(build);
+                    if (buildFiles == null) {
+                        buildFiles = new ArrayList<>();
+                        builds.put(build, buildFiles);
+                    }
+                    buildFiles.add(file);
+                }
+            }
+        }
+        List<Path> removed = new ArrayList<>();
+        Set<String> removedVersions = new HashSet<>();
+        int index = 0;
+        for (Map.Entry<String, List<Path>> build : builds.entrySet()) {
+            if (index++ < keep || (maxAge > 0 && now - timestamp(build.getKey()) < maxAge)) {
+                continue;
+            }
+            removed.addAll(build.getValue());
+            removedVersions.add(baseVersion + "-" + build.getKey());
+        }
+        if (removed.isEmpty()) {
+            return new long[] { builds.size(), 0, 0, 0 };
+        }
+        // wait for the moves slots before holding the folder lock
+        throttle(removed.size());
+        // the files are gathered in a hidden folder, moved to the trash at once
+        Path staging = folder.resolve(".cave-cleanup-" + UUID.randomUUID());
+        Files.createDirectories(staging);
+        long files = 0;
+        long bytes = 0;
+        // the builds are removed from the metadata before their files are moved, holding the folder lock: the metadata
+        // never reference moved files, and a build uploaded or installed concurrently is not lost
+        Lock lock = ArtifactUpload.lock(folder);
+        lock.lock();
+        try {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "maven-metadata*.xml")) {
+                for (Path metadata : stream) {
+                    rewrite(metadata, removedVersions);
+                }
+            }
+            for (Path file : removed) {
+                try {
+                    long size = Files.size(file);
+                    Files.move(file, staging.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                    files++;
+                    bytes += size;
+                } catch (NoSuchFileException e) {
+                    // removed in the meantime
+                }
+            }
+        } finally {
+            lock.unlock();
+            reaper.delete(staging, location);
+        }
+        LOGGER.debug("Removed {} SNAPSHOT builds ({} files) from {}", removedVersions.size(), files, folder);
+        return new long[] { builds.size() - removedVersions.size(), removedVersions.size(), files, bytes };
+    }
+
+    /**
+     * Remove the snapshot versions of the removed builds from a metadata file, updating its checksums. The rewrite holds
+     * the folder lock, so a build uploaded or installed concurrently is not lost.
+     */
+    static void rewrite(Path metadata, Set<String> removedVersions) throws IOException {
+        Lock lock = ArtifactUpload.lock(metadata.getParent());
+        lock.lock();
+        try {
+            doRewrite(metadata, removedVersions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void doRewrite(Path metadata, Set<String> removedVersions) throws IOException {
+        Metadata model;
+        try (InputStream input = Files.newInputStream(metadata)) {
+            model = new MetadataXpp3Reader().read(input, false);
+        } catch (XmlPullParserException e) {
+            LOGGER.warn("Can't remove the SNAPSHOT builds from invalid metadata {}: {}", metadata, e.getMessage());
+            return;
+        }
+        Versioning versioning = model.getVersioning();
+        if (versioning == null) {
+            return;
+        }
+        boolean changed = false;
+        for (Iterator<SnapshotVersion> iterator = versioning.getSnapshotVersions().iterator(); iterator.hasNext(); ) {
+            if (removedVersions.contains(iterator.next().getVersion())) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        versioning.updateTimestamp();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new MetadataXpp3Writer().write(output, model);
+        byte[] rewritten = output.toByteArray();
+        write(metadata, rewritten);
+        for (Map.Entry<String, String> checksum : ArtifactUpload.CHECKSUMS.entrySet()) {
+            Path sidecar = metadata.resolveSibling(metadata.getFileName() + "." + checksum.getKey());
+            if (Files.exists(sidecar)) {
+                try {
+                    MessageDigest digest = MessageDigest.getInstance(checksum.getValue());
+                    write(sidecar, ArtifactUpload.hex(digest.digest(rewritten)).getBytes(StandardCharsets.US_ASCII));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    private static void write(Path file, byte[] content) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(tmp, content);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long timestamp(String build) {
+        try {
+            return LocalDateTime.parse(build.substring(0, 15), TIMESTAMP).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // invalid timestamps are considered as old
+            return 0;
+        }
+    }
+
+    /**
+     * Take the next file moves slots, waiting for the last one.
+     *
+     * @param count the number of files to move.
+     */
+    private void throttle(int count) throws InterruptedException {
+        if (interval <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long slot;
+        while (true) {
+            long current = next.get();
+            slot = Math.max(current, now);
+            if (next.compareAndSet(current, slot + count * interval)) {
+                break;
+            }
+        }
+        long last = slot + (count - 1) * interval;
+        if (last > now) {
+            TimeUnit.NANOSECONDS.sleep(last - now);
+        }
+    }
+
+    /**
+     * Parse a duration, in seconds or with a {@code m} (minutes), {@code h} (hours), {@code d} (days) or {@code w}
+     * (weeks) unit.
+     *
+     * @param duration the duration.
+     * @return the duration in milliseconds.
+     */
+    public static long parseDuration(String duration) {
+        String value = duration.trim().toLowerCase();
+        TimeUnit unit = TimeUnit.SECONDS;
+        long factor = 1;
+        if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            unit = TimeUnit.MINUTES;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            unit = TimeUnit.HOURS;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("d")) {
+            unit = TimeUnit.DAYS;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("w")) {
+            unit = TimeUnit.DAYS;
+            factor = 7;
+            value = value.substring(0, value.length() - 1);
+        }
+        return unit.toMillis(Long.parseLong(value.trim()) * factor);
+    }
+
+}
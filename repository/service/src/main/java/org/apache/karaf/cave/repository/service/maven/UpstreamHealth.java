@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Health of an upstream (proxied repository), with a circuit breaker.
+ * <p>
+ * The failure rate and the latency of the lookups are tracked as exponentially weighted moving averages. When the
+ * failure rate reaches the threshold, the breaker opens: the upstream is skipped (instead of waiting for the connect and
+ * read timeouts) during the open duration. Then the breaker is half-open: a single lookup probes the upstream, closing
+ * the breaker if it succeeds, or opening it again if it fails. An artifact not found on the upstream is a success, the
+ * upstream being reachable.
+ */
+public class UpstreamHealth {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+        }
+    }
+
+    // weight of the last lookup in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private final double threshold;
+    private final int minRequests;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private double failureRate;
+    private double latency;
+    private long samples;
+    private long openedAt;
+    private boolean probing;
+    private long trips;
+
+    /**
+     * @param threshold the failure rate (between 0 and 1) opening the breaker, 0 to never open it.
+     * @param minRequests the number of lookups required before opening the breaker.
+     * @param openDuration the time (in milliseconds) the upstream is skipped once the breaker is open.
+     */
+    public UpstreamHealth(double threshold, int minRequests, long openDuration) {
+        this.threshold = threshold;
+        this.minRequests = minRequests;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Check if a lookup can be sent to the upstream. When the open duration is elapsed, the breaker goes half-open and
+     * the caller is the probe: it must report the lookup outcome with {@link #success(long)}, {@link #failure(long)} or
+     * {@link #released()}.
+     *
+     * @return true if the lookup can be sent, false if the upstream must be skipped.
+     */
+    public synchronized boolean allow() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openDuration) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * The upstream answered (artifact found or not).
+     *
+     * @param nanos the lookup duration.
+     */
+    public synchronized void success(long nanos) {
+        record(0, nanos);
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            probing = false;
+            failureRate = 0;
+        }
+    }
+
+    /**
+     * The lookup on the upstream failed (connection refused, timeout, server error, ...).
+     *
+     * @param nanos the lookup duration.
+     */
+    public synchronized void failure(long nanos) {
+        record(1, nanos);
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED && threshold > 0 && samples >= minRequests && failureRate >= threshold) {
+            open();
+        }
+    }
+
+    /**
+     * The lookup has been cancelled before the upstream answered.
+     */
+    public synchronized void released() {
+        probing = false;
+    }
+
+    private void record(int failure, long nanos) {
+        double millis = nanos / 1000000.0;
+        if (samples++ == 0) {
+            failureRate = failure;
+            latency = millis;
+        } else {
+            failureRate += ALPHA * (failure - failureRate);
+            latency += ALPHA * (millis - latency);
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probing = false;
+        trips++;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Get the upstream health.
+     *
+     * @return the breaker state ({@code state}), the failure rate in percent ({@code failureRate}), the latency moving
+     * average in milliseconds ({@code latency}), the number of times the breaker opened ({@code trips}) and the remaining
+     * time in seconds before probing the upstream ({@code retryIn}, when open).
+     */
+    public synchronized Map<String, String> status() {
+        Map<String, String> status = new LinkedHashMap<>();
+        State current = getState();
+        status.put("state", current.toString());
+        status.put("failureRate", Long.toString(Math.round(failureRate * 100)));
+        status.put("latency", Long.toString(Math.round(latency)));
+        status.put("trips", Long.toString(trips));
+        if (current == State.OPEN) {
+            status.put("retryIn", Long.toString(TimeUnit.MILLISECONDS.toSeconds(openedAt + openDuration - System.currentTimeMillis()) + 1));
+        }
+        return status;
+    }
+
+}
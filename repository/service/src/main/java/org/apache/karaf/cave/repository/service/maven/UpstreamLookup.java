@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+
+import org.apache.karaf.cave.repository.service.metrics.LatencyHistogram;
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.apache.karaf.cave.repository.service.metrics.UpstreamMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Look up an artifact on several upstreams (proxied repositories) concurrently.
+ * <p>
+ * Each upstream has its own Maven resolver. The upstream which served the last artifact of a group is tried first, then
+ * the other upstreams in the configured order. Depending on the {@link Mode}, the next upstream is queried when the
+ * previous one answered (sequential), at the same time (parallel), or when the previous one is slower than its usual
+ * latency (hedged, the 90th percentile of its lookups). The first upstream finding the artifact wins, the other lookups
+ * are cancelled. The upstreams with an open circuit breaker (see {@link UpstreamHealth}) are skipped.
+ */
+public class UpstreamLookup implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamLookup.class);
+
+    // lookups required before using the upstream latency as hedge delay
+    private static final long MIN_SAMPLES = 20;
+    private static final int MAX_PREFERENCES = 10000;
+
+    public enum Mode {
+        SEQUENTIAL, PARALLEL, HEDGED;
+
+        public static Mode parse(String value) {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    private final List<Upstream> upstreams;
+    private final Hashtable<String, String> config;
+    private final RepositoryMetrics metrics;
+    private final Mode mode;
+    private final long hedgeDelay;
+    final ThreadPoolExecutor executor;
+    // upstream id serving the last artifact of a group
+    private final ConcurrentMap<String, String> preferences = new ConcurrentHashMap<>();
+    // resolvers of the metadata on the available upstreams, by repositories definition
+    private final Map<String, MavenResolverProvider> metadataResolvers = new HashMap<>();
+
+    /**
+     * @param upstreams the upstreams, in the configured order.
+     * @param config the Maven resolver configuration of the repository (used to resolve the metadata when some upstreams
+     *               are not available).
+     * @param metrics the repository metrics.
+     * @param mode the lookup mode.
+     * @param hedgeDelay the hedge delay (in milliseconds) used until enough latency samples are recorded for an upstream.
+     * @param poolSize the number of concurrent lookups per upstream.
+     */
+    public UpstreamLookup(List<Upstream> upstreams, Hashtable<String, String> config, RepositoryMetrics metrics, Mode mode, long hedgeDelay, int poolSize) {
+        this.upstreams = upstreams;
+        this.config = config;
+        this.metrics = metrics;
+        this.mode = mode;
+        this.hedgeDelay = hedgeDelay;
+        int nbThreads = Math.max(1, poolSize) * upstreams.size();
+        this.executor = new ThreadPoolExecutor(nbThreads, nbThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory("CaveUpstreamLookup"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Split a proxy definition (comma separated Maven repository URLs) in upstream specifications.
+     *
+     * @param proxy the proxy definition.
+     * @return the upstream specifications, in order.
+     */
+    public static List<String> specs(String proxy) {
+        List<String> specs = new ArrayList<>();
+        if (proxy != null) {
+            for (String spec : proxy.split(",")) {
+                if (!spec.trim().isEmpty()) {
+                    specs.add(spec.trim());
+                }
+            }
+        }
+        return specs;
+    }
+
+    /**
+     * Get the id of an upstream, as defined by the {@code @id=} option of its specification.
+     *
+     * @param spec the upstream specification.
+     * @param index the upstream index, used when the specification doesn't define an id.
+     * @return the upstream id.
+     */
+    public static String id(String spec, int index) {
+        Matcher matcher = MavenServlet.REPOSITORY_ID_REGEX.matcher(spec);
+        return matcher.matches() ? matcher.group(2) : "upstream" + index;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public List<Upstream> getUpstreams() {
+        return Collections.unmodifiableList(upstreams);
+    }
+
+    /**
+     * Resolve an artifact on the upstreams.
+     *
+     * @return the artifact file, resolved by the first upstream finding it.
+     * @throws IOException if no upstream found the artifact.
+     */
+    public File resolve(final String groupId, final String artifactId, final String classifier, final String extension, final String version) throws IOException {
+        List<Upstream> order = new ArrayList<>();
+        for (Upstream upstream : order(groupId)) {
+            if (upstream.getHealth().allow()) {
+                order.add(upstream);
+            } else {
+                metrics.upstream(upstream.getId()).skipped();
+            }
+        }
+        if (order.isEmpty()) {
+            throw new IOException("No upstream available to resolve " + groupId + ":" + artifactId + ":" + version);
+        }
+        CompletionService<Attempt> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Attempt>> futures = new ArrayList<>();
+        // set when an attempt starts, or when it's cancelled before starting
+        List<AtomicBoolean> starts = new ArrayList<>();
+        int next = 0;
+        int pending = 0;
+        IOException failure = null;
+        // set when the lookup is over, the remaining attempts are cancelled
+        AtomicBoolean settled = new AtomicBoolean();
+        try {
+            if (mode == Mode.PARALLEL) {
+                for (; next < order.size(); next++) {
+                    futures.add(completion.submit(attempt(order.get(next), settled, started(starts), groupId, artifactId, classifier, extension, version)));
+                    pending++;
+                }
+            }
+            while (true) {
+                if (pending == 0) {
+                    if (next == order.size()) {
+                        break;
+                    }
+                    futures.add(completion.submit(attempt(order.get(next++), settled, started(starts), groupId, artifactId, classifier, extension, version)));
+                    pending++;
+                }
+                Future<Attempt> done;
+                if (mode == Mode.HEDGED && next < order.size()) {
+                    done = completion.poll(delay(order.get(next - 1)), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        LOGGER.debug("Hedging lookup of {}:{}:{} on {}", groupId, artifactId, version, order.get(next).getId());
+                        futures.add(completion.submit(attempt(order.get(next++), settled, started(starts), groupId, artifactId, classifier, extension, version)));
+                        pending++;
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+                pending--;
+                Attempt attempt = done.get();
+                if (attempt.file != null) {
+                    if (order.size() > 1 && mode != Mode.SEQUENTIAL) {
+                        metrics.upstream(attempt.upstream.getId()).won();
+                    }
+                    if (preferences.size() > MAX_PREFERENCES) {
+                        preferences.clear();
+                    }
+                    preferences.put(groupId, attempt.upstream.getId());
+                    return attempt.file;
+                }
+                if (attempt.failure != null && (failure == null || !attempt.missed)) {
+                    failure = attempt.failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Lookup of " + groupId + ":" + artifactId + ":" + version + " interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            settled.set(true);
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).isDone() && futures.get(i).cancel(true)) {
+                    metrics.upstream(order.get(i).getId()).cancelled();
+                    // an attempt cancelled while queued never runs, its upstream health is released here
+                    if (starts.get(i).compareAndSet(false, true)) {
+                        order.get(i).getHealth().released();
+                    }
+                }
+            }
+            for (int i = futures.size(); i < order.size(); i++) {
+                order.get(i).getHealth().released();
+            }
+        }
+        throw (failure != null) ? failure : new IOException("Could not find artifact " + groupId + ":" + artifactId + ":" + version);
+    }
+
+    /**
+     * Get the resolver of the metadata, merged from the upstreams without an open circuit breaker.
+     *
+     * @param resolverProvider the resolver of the repository (on all the upstreams).
+     * @return the resolver to use.
+     * @throws IOException if no upstream is available.
+     */
+    public MavenResolverProvider metadataResolver(MavenResolverProvider resolverProvider) throws IOException {
+        List<String> available = new ArrayList<>();
+        for (Upstream upstream : upstreams) {
+            if (upstream.getHealth().getState() != UpstreamHealth.State.OPEN) {
+                available.add(upstream.getSpec());
+            }
+        }
+        if (available.size() == upstreams.size() || config == null) {
+            return resolverProvider;
+        }
+        if (available.isEmpty()) {
+            throw new IOException("No upstream available");
+        }
+        // keep the other repositories of the configuration (the repository storage)
+        List<String> repositories = new ArrayList<>(available);
+        for (String repository : specs(config.get("repositories"))) {
+            boolean upstream = false;
+            for (Upstream candidate : upstreams) {
+                upstream |= candidate.getSpec().equals(repository);
+            }
+            if (!upstream) {
+                repositories.add(repository);
+            }
+        }
+        String key = String.join(",", repositories);
+        synchronized (metadataResolvers) {
+            MavenResolverProvider provider = metadataResolvers.get(key);
+            if (provider == null) {
+                Hashtable<String, String> metadataConfig = new Hashtable<>(config);
+                metadataConfig.put("repositories", key);
+                provider = new MavenResolverProvider(metadataConfig);
+                metadataResolvers.put(key, provider);
+            }
+            return provider;
+        }
+    }
+
+    /**
+     * Get the upstreams in lookup order: the upstream which served the group last first, then the configured order.
+     */
+    List<Upstream> order(String groupId) {
+        List<Upstream> order = new ArrayList<>(upstreams);
+        String preferred = preferences.get(groupId);
+        if (preferred != null) {
+            for (int i = 0; i < order.size(); i++) {
+                if (order.get(i).getId().equals(preferred)) {
+                    order.add(0, order.remove(i));
+                    break;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Get the time to wait for an upstream before querying the next one.
+     */
+    long delay(Upstream upstream) {
+        LatencyHistogram latency = metrics.upstream(upstream.getId()).getLatency();
+        if (latency.getCount() < MIN_SAMPLES) {
+            return hedgeDelay;
+        }
+        return Math.max(1, TimeUnit.MICROSECONDS.toMillis(latency.getPercentile(0.9)));
+    }
+
+    private static AtomicBoolean started(List<AtomicBoolean> starts) {
+        AtomicBoolean started = new AtomicBoolean();
+        starts.add(started);
+        return started;
+    }
+
+    private Callable<Attempt> attempt(final Upstream upstream, final AtomicBoolean settled, final AtomicBoolean started, final String groupId, final String artifactId, final String classifier, final String extension, final String version) {
+        return new Callable<Attempt>() {
+            @Override
+            public Attempt call() {
+                if (!started.compareAndSet(false, true)) {
+                    // cancelled before starting, already released
+                    return new Attempt(upstream);
+                }
+                UpstreamMetrics upstreamMetrics = metrics.upstream(upstream.getId());
+                upstreamMetrics.requested();
+                long start = System.nanoTime();
+                Attempt attempt = new Attempt(upstream);
+                MavenResolverProvider resolverProvider = upstream.getResolverProvider();
+                try {
+                    try {
+                        attempt.file = resolverProvider.acquire().resolve(groupId, artifactId, classifier, extension, version);
+                    } finally {
+                        resolverProvider.release();
+                    }
+                    long duration = System.nanoTime() - start;
+                    upstreamMetrics.completed(duration, true);
+                    upstream.getHealth().success(duration);
+                } catch (Exception e) {
+                    attempt.failure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+                    if (!settled.get()) {
+                        long duration = System.nanoTime() - start;
+                        attempt.missed = isNotFound(e);
+                        upstreamMetrics.completed(duration, attempt.missed ? Boolean.FALSE : null);
+                        if (attempt.missed) {
+                            upstream.getHealth().success(duration);
+                        } else {
+                            LOGGER.debug("Lookup of {}:{}:{} on {} failed", groupId, artifactId, version, upstream.getId(), e);
+                            upstream.getHealth().failure(duration);
+                        }
+                    } else {
+                        upstream.getHealth().released();
+                    }
+                }
+                return attempt;
+            }
+        };
+    }
+
+    /**
+     * Check if a resolution failure means the artifact doesn't exist on the upstream (versus a transport failure).
+     */
+    static boolean isNotFound(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause.getClass().getSimpleName().contains("NotFound")) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the upstream resolvers are shared, they are closed by their owner
+        executor.shutdownNow();
+        synchronized (metadataResolvers) {
+            for (MavenResolverProvider provider : metadataResolvers.values()) {
+                try {
+                    provider.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Can't close Maven resolver", e);
+                }
+            }
+            metadataResolvers.clear();
+        }
+    }
+
+    /**
+     * An upstream, with its own Maven resolver and health.
+     */
+    public static class Upstream {
+
+        private final String id;
+        private final String spec;
+        private final MavenResolverProvider resolverProvider;
+        private final UpstreamHealth health;
+
+        public Upstream(String id, String spec, MavenResolverProvider resolverProvider, UpstreamHealth health) {
+            this.id = id;
+            this.spec = spec;
+            this.resolverProvider = resolverProvider;
+            this.health = health;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSpec() {
+            return spec;
+        }
+
+        public UpstreamHealth getHealth() {
+            return health;
+        }
+
+        public MavenResolverProvider getResolverProvider() {
+            return resolverProvider;
+        }
+
+    }
+
+    private static class Attempt {
+
+        private final Upstream upstream;
+        private File file;
+        private IOException failure;
+        private boolean missed;
+
+        private Attempt(Upstream upstream) {
+            this.upstream = upstream;
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.karaf.cave.repository.WarmResult;
+import org.ops4j.pax.url.mvn.MavenResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-populate a repository: resolve artifacts through the repository resolver (and so the proxied repositories).
+ * <p>
+ * The sources can be Maven coordinates ({@code mvn:groupId/artifactId/version[/type[/classifier]]} or
+ * {@code groupId:artifactId:version[:type[:classifier]]}), features XML (all bundles, config files, libraries and features
+ * repositories referenced are resolved), or KAR (all artifacts contained in the KAR are resolved). The artifacts are
+ * resolved in parallel using the given executor.
+ */
+public class Warmer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Warmer.class);
+
+    private static final int MAX_DEPTH = 8;
+
+    private final MavenResolver resolver;
+    private final ExecutorService executor;
+
+    public Warmer(MavenResolver resolver, ExecutorService executor) {
+        this.resolver = resolver;
+        this.executor = executor;
+    }
+
+    /**
+     * Resolve the artifacts of the sources.
+     *
+     * @param sources the sources (artifacts, features repositories, ...).
+     * @param resolvedFiles collect the resolved files.
+     * @return the warm up result.
+     */
+    public WarmResult warm(List<String> sources, Collection<Path> resolvedFiles) throws Exception {
+        long start = System.currentTimeMillis();
+        WarmResult result = new WarmResult();
+        // collect the artifacts
+        Set<String> artifacts = new LinkedHashSet<>();
+        for (String source : sources) {
+            try {
+                collect(source.trim(), artifacts, 0);
+            } catch (Exception e) {
+                LOGGER.warn("Can't read warm up source {}", source, e);
+                result.getFailures().add(source);
+            }
+        }
+        // resolve all artifacts in parallel
+        Map<String, Future<File>> resolutions = new LinkedHashMap<>();
+        for (final String artifact : artifacts) {
+            resolutions.put(artifact, executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return resolver.resolve(artifact);
+                }
+            }));
+        }
+        long resolved = 0;
+        long bytes = 0;
+        for (Map.Entry<String, Future<File>> resolution : resolutions.entrySet()) {
+            try {
+                File file = resolution.getValue().get();
+                resolvedFiles.add(file.toPath());
+                resolved++;
+                bytes += file.length();
+            } catch (ExecutionException e) {
+                LOGGER.warn("Can't resolve artifact {}", resolution.getKey(), e.getCause());
+                result.getFailures().add(resolution.getKey());
+            }
+        }
+        result.setArtifactsResolved(resolved);
+        result.setBytesResolved(bytes);
+        result.setDuration(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private void collect(String source, Set<String> artifacts, int depth) throws Exception {
+        if (source.isEmpty()) {
+            return;
+        }
+        String url = toMvnUrl(source);
+        if (url != null) {
+            if (!artifacts.add(url)) {
+                return;
+            }
+            String[] parts = url.substring("mvn:".length()).split("/");
+            String type = parts.length > 3 ? parts[3] : "jar";
+            if ("xml".equals(type)) {
+                try (InputStream is = Files.newInputStream(resolver.resolve(url).toPath())) {
+                    collectFeatures(is, artifacts, depth);
+                }
+            } else if ("kar".equals(type)) {
+                try (InputStream is = Files.newInputStream(resolver.resolve(url).toPath())) {
+                    collectKar(is, artifacts, depth);
+                }
+            }
+        } else if (source.endsWith(".kar")) {
+            try (InputStream is = new URL(source).openStream()) {
+                collectKar(is, artifacts, depth);
+            }
+        } else {
+            try (InputStream is = new URL(source).openStream()) {
+                collectFeatures(is, artifacts, depth);
+            }
+        }
+    }
+
+    /**
+     * Collect the artifacts referenced by a features XML: bundles, config files, libraries and features repositories.
+     */
+    private void collectFeatures(InputStream is, Set<String> artifacts, int depth) throws Exception {
+        if (depth >= MAX_DEPTH) {
+            return;
+        }
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(is);
+        List<String> repositories = new ArrayList<>();
+        try {
+            String element = null;
+            StringBuilder text = new StringBuilder();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    element = reader.getLocalName();
+                    text.setLength(0);
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (name.equals(element)) {
+                        String value = text.toString().trim();
+                        if ("repository".equals(name)) {
+                            repositories.add(value);
+                        } else if ("bundle".equals(name) || "configfile".equals(name) || "library".equals(name)) {
+                            String url = toMvnUrl(value);
+                            if (url != null) {
+                                artifacts.add(url);
+                            }
+                        }
+                    }
+                    element = null;
+                    text.setLength(0);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        for (String repository : repositories) {
+            collect(repository, artifacts, depth + 1);
+        }
+    }
+
+    /**
+     * Collect the artifacts contained in a KAR (and the artifacts referenced by its features XML).
+     */
+    private void collectKar(InputStream is, Set<String> artifacts, int depth) throws Exception {
+        ZipInputStream zip = new ZipInputStream(is);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory() || !entry.getName().startsWith("repository/")) {
+                continue;
+            }
+            MavenCoord coord;
+            try {
+                coord = MavenCoord.parseArtifactPath(entry.getName().substring("repository/".length()));
+            } catch (InvalidMavenArtifactRequest e) {
+                continue;
+            }
+            if (coord == null) {
+                continue;
+            }
+            StringBuilder url = new StringBuilder("mvn:").append(coord.getGroupId()).append('/').append(coord.getArtifactId())
+                    .append('/').append(coord.getVersion()).append('/').append(coord.getType());
+            if (coord.getClassifier() != null && !coord.getClassifier().isEmpty()) {
+                url.append('/').append(coord.getClassifier());
+            }
+            artifacts.add(url.toString());
+            if ("xml".equals(coord.getType())) {
+                // the features XML is read from the KAR
+                collectFeatures(new FilterInputStream(zip) {
+                    @Override
+                    public void close() throws IOException {
+                        // the zip stream is closed by the caller
+                    }
+                }, artifacts, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Convert Maven coordinates or a (possibly wrapped) mvn URL to a plain mvn URL.
+     *
+     * @return the mvn URL or {@code null} if the source is not a Maven artifact.
+     */
+    static String toMvnUrl(String source) {
+        int index = source.indexOf("mvn:");
+        if (index >= 0) {
+            String url = source.substring(index + "mvn:".length());
+            // remove the bundle instructions (wrap) and the repository URL
+            int options = url.indexOf('$');
+            if (options >= 0) {
+                url = url.substring(0, options);
+            }
+            int repository = url.indexOf('!');
+            if (repository >= 0) {
+                url = url.substring(repository + 1);
+            }
+            return url.split("/").length >= 3 ? "mvn:" + url : null;
+        }
+        if (source.contains("/") || source.contains("\\")) {
+            return null;
+        }
+        String[] coordinates = source.split(":");
+        if (coordinates.length < 3 || coordinates.length > 5) {
+            return null;
+        }
+        return "mvn:" + String.join("/", coordinates);
+    }
+
+}
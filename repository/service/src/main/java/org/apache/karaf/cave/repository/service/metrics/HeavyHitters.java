@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded memory tracking of the most requested paths (heavy hitters).
+ * <p>
+ * The request counts are estimated with a count-min sketch, and the top paths are kept in a min-heap. Only the paths
+ * with an estimated count above the smallest count of the heap take a lock, so recording is lock-free for most requests.
+ * The counts are halved every decay period, to follow the traffic changes.
+ */
+public class HeavyHitters {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+    private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Long.compare(e1.count, e2.count);
+        }
+    };
+
+    private final int capacity;
+    private final long decayPeriod;
+    private final AtomicLongArray sketch = new AtomicLongArray(DEPTH * WIDTH);
+    private final Map<String, Entry> top = new HashMap<>();
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(16, ORDER);
+    private final AtomicLong lastDecay = new AtomicLong(System.currentTimeMillis());
+    private volatile long threshold;
+
+    /**
+     * @param capacity the number of top paths tracked.
+     * @param decayPeriod the period (in milliseconds) after which the counts are halved (0 to disable the decay).
+     */
+    public HeavyHitters(int capacity, long decayPeriod) {
+        this.capacity = capacity;
+        this.decayPeriod = decayPeriod;
+    }
+
+    /**
+     * Record a request on a path.
+     *
+     * @param path the request path.
+     */
+    public void record(String path) {
+        record(path, 1);
+    }
+
+    /**
+     * Record several requests on a path.
+     *
+     * @param path the request path.
+     * @param count the number of requests.
+     */
+    public void record(String path, long count) {
+        if (capacity <= 0) {
+            return;
+        }
+        decay();
+        long hash = hash(path);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, sketch.addAndGet(index(hash, i), count));
+        }
+        if (estimate <= threshold) {
+            return;
+        }
+        synchronized (top) {
+            Entry entry = top.get(path);
+            if (entry != null) {
+                heap.remove(entry);
+                entry.count = estimate;
+                heap.add(entry);
+            } else if (top.size() < capacity) {
+                entry = new Entry(path, estimate);
+                top.put(path, entry);
+                heap.add(entry);
+            } else if (estimate > heap.peek().count) {
+                top.remove(heap.poll().path);
+                entry = new Entry(path, estimate);
+                top.put(path, entry);
+                heap.add(entry);
+            }
+            threshold = top.size() < capacity ? 0 : heap.peek().count;
+        }
+    }
+
+    /**
+     * Get the estimated request count of a path.
+     *
+     * @param path the request path.
+     * @return the estimated count (never lower than the actual count, since the last decay).
+     */
+    public long estimate(String path) {
+        decay();
+        long hash = hash(path);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, sketch.get(index(hash, i)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Get the most requested paths.
+     *
+     * @param count the maximum number of paths.
+     * @return the estimated request counts by path, the most requested first.
+     */
+    public Map<String, Long> top(int count) {
+        decay();
+        List<Entry> entries;
+        synchronized (top) {
+            entries = new ArrayList<>(top.size());
+            for (Entry entry : top.values()) {
+                entries.add(new Entry(entry.path, entry.count));
+            }
+        }
+        Collections.sort(entries, Collections.reverseOrder(ORDER));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (result.size() >= count) {
+                break;
+            }
+            result.put(entry.path, entry.count);
+        }
+        return result;
+    }
+
+    /**
+     * Halve the counts for each decay period elapsed since the last decay.
+     */
+    void decay() {
+        if (decayPeriod <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long last = lastDecay.get();
+        long periods = (now - last) / decayPeriod;
+        if (periods <= 0 || !lastDecay.compareAndSet(last, last + periods * decayPeriod)) {
+            return;
+        }
+        int shift = (int) Math.min(periods, 63);
+        for (int i = 0; i < sketch.length(); i++) {
+            long value;
+            do {
+                value = sketch.get(i);
+            } while (value != 0 && !sketch.compareAndSet(i, value, value >>> shift));
+        }
+        synchronized (top) {
+            heap.clear();
+            for (Entry entry : new ArrayList<>(top.values())) {
+                entry.count = entry.count >>> shift;
+                if (entry.count == 0) {
+                    top.remove(entry.path);
+                } else {
+                    heap.add(entry);
+                }
+            }
+            threshold = top.size() < capacity ? 0 : heap.peek().count;
+        }
+    }
+
+    private static long hash(String path) {
+        // 64-bit FNV-1a
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static int index(long hash, int row) {
+        long h = (hash ^ SEEDS[row]) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return row * WIDTH + (int) ((h >>> 33) & (WIDTH - 1));
+    }
+
+    private static class Entry {
+
+        private final String path;
+        private long count;
+
+        Entry(String path, long count) {
+            this.path = path;
+            this.count = count;
+        }
+
+    }
+
+}
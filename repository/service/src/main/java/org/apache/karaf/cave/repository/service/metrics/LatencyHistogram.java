@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock-free latency histogram, in microseconds.
+ * <p>
+ * The values are recorded in log-linear buckets (8 sub-buckets per power of two, so at most 12.5% error), each bucket
+ * being a {@link LongAdder} to avoid contention between the recording threads.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param micros the latency in microseconds.
+     */
+    public void record(long micros) {
+        long value = Math.max(micros, 0);
+        buckets[index(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of the recorded values, in microseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the maximum recorded value, in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get an estimation of a percentile (the upper bound of the bucket containing it).
+     *
+     * @param percentile the percentile, between 0 and 1.
+     * @return the value, in microseconds.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && (value >> MAX_EXPONENT) > 1) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        long lower = ((long) (SUB_BUCKETS + sub)) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write the repository metrics in the Prometheus text exposition format (version 0.0.4).
+ */
+public class PrometheusFormat {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[] QUANTILES = { "0.5", "p50", "0.9", "p90", "0.99", "p99", "0.999", "p999" };
+    private static final String UPSTREAM = "upstream.";
+    private static final String UPSTREAM_REQUESTS = ".requests";
+
+    /**
+     * @param snapshots the metrics snapshots (see {@link RepositoryMetrics#snapshot()}) by repository name.
+     * @return the Prometheus text.
+     */
+    public static String format(Map<String, Map<String, Long>> snapshots) {
+        StringBuilder builder = new StringBuilder();
+        counter(builder, snapshots, "cave_repository_received_bytes_total", "Bytes uploaded in the repository.", "bytes.in");
+        counter(builder, snapshots, "cave_repository_sent_bytes_total", "Bytes downloaded from the repository.", "bytes.out");
+        gauge(builder, snapshots, "cave_repository_requests_in_flight", "Requests currently processed.", "requests.inflight");
+        counter(builder, snapshots, "cave_repository_coalesced_requests_total", "Requests waiting for a download already in progress.", "requests.coalesced");
+        gauge(builder, snapshots, "cave_repository_coalesced_waiters", "Requests currently waiting for a download already in progress.", "requests.waiting");
+        counter(builder, snapshots, "cave_repository_cancelled_downloads_total", "Downloads cancelled, all the requests waiting for them having given up.", "requests.cancelled");
+        counter(builder, snapshots, "cave_repository_throttled_requests_total", "Requests rejected by the rate limiter.", "requests.throttled");
+        counter(builder, snapshots, "cave_repository_prefetch_scheduled_total", "Artifacts scheduled for prefetching.", "prefetch.scheduled");
+        counter(builder, snapshots, "cave_repository_prefetch_completed_total", "Artifacts prefetched.", "prefetch.completed");
+        counter(builder, snapshots, "cave_repository_prefetch_failed_total", "Artifacts failed to prefetch.", "prefetch.failed");
+        counter(builder, snapshots, "cave_repository_prefetch_dropped_total", "Prefetches dropped (queue full).", "prefetch.dropped");
+        counter(builder, snapshots, "cave_repository_prefetch_hits_total", "Prefetched artifacts requested afterwards.", "prefetch.hits");
+        counter(builder, snapshots, "cave_repository_compressed_responses_total", "Responses served with a compressed variant.", "compression.served");
+        counter(builder, snapshots, "cave_repository_compressed_variants_total", "Compressed variants generated.", "compression.generated");
+        counter(builder, snapshots, "cave_repository_compression_saved_bytes_total", "Bytes saved by serving compressed variants.", "compression.bytes.saved");
+        secondsCounter(builder, snapshots, "cave_repository_compression_seconds_total", "Time spent generating compressed variants.", "compression.time");
+        secondsCounter(builder, snapshots, "cave_repository_compression_saved_seconds_total", "Estimated compression time saved by serving precompressed variants.", "compression.time.saved");
+        counter(builder, snapshots, "cave_repository_metadata_fresh_total", "Metadata served from the cache within their TTL.", "metadata.cache.fresh");
+        counter(builder, snapshots, "cave_repository_metadata_stale_total", "Stale metadata served from the cache.", "metadata.cache.stale");
+        counter(builder, snapshots, "cave_repository_metadata_staleness_seconds_total", "Sum of the ages of the stale metadata served.", "metadata.cache.staleness");
+        counter(builder, snapshots, "cave_repository_metadata_refreshed_total", "Cached metadata refreshed in background.", "metadata.refresh.completed");
+        counter(builder, snapshots, "cave_repository_metadata_refresh_failed_total", "Background refreshes of cached metadata failed.", "metadata.refresh.failed");
+        counter(builder, snapshots, "cave_repository_offline_misses_total", "Requests not found because the repository is offline.", "offline.misses");
+
+        header(builder, "cave_repository_request_duration_seconds", "Request latency.", "summary");
+        for (Map.Entry<String, Map<String, Long>> repository : snapshots.entrySet()) {
+            for (RepositoryMetrics.Request request : RepositoryMetrics.Request.values()) {
+                Map<String, Long> snapshot = repository.getValue();
+                String labels = labels(repository.getKey(), request);
+                for (int i = 0; i < QUANTILES.length; i += 2) {
+                    sample(builder, "cave_repository_request_duration_seconds", labels + ",quantile=\"" + QUANTILES[i] + "\"",
+                            seconds(snapshot.get(request.getKey() + "." + QUANTILES[i + 1])));
+                }
+                sample(builder, "cave_repository_request_duration_seconds_sum", labels, seconds(snapshot.get(request.getKey() + ".sum")));
+                sample(builder, "cave_repository_request_duration_seconds_count", labels, String.valueOf(snapshot.get(request.getKey() + ".count")));
+            }
+        }
+        header(builder, "cave_repository_request_duration_max_seconds", "Maximum request latency.", "gauge");
+        for (Map.Entry<String, Map<String, Long>> repository : snapshots.entrySet()) {
+            for (RepositoryMetrics.Request request : RepositoryMetrics.Request.values()) {
+                sample(builder, "cave_repository_request_duration_max_seconds", labels(repository.getKey(), request),
+                        seconds(repository.getValue().get(request.getKey() + ".max")));
+            }
+        }
+        upstreams(builder, snapshots);
+        return builder.toString();
+    }
+
+    /**
+     * Write the upstream lookups metrics ({@code upstream.<id>.*} keys).
+     */
+    private static void upstreams(StringBuilder builder, Map<String, Map<String, Long>> snapshots) {
+        Map<String, List<String>> upstreams = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Long>> repository : snapshots.entrySet()) {
+            List<String> ids = new ArrayList<>();
+            for (String key : repository.getValue().keySet()) {
+                if (key.startsWith(UPSTREAM) && key.endsWith(UPSTREAM_REQUESTS)) {
+                    ids.add(key.substring(UPSTREAM.length(), key.length() - UPSTREAM_REQUESTS.length()));
+                }
+            }
+            upstreams.put(repository.getKey(), ids);
+        }
+        header(builder, "cave_repository_upstream_requests_total", "Lookups sent to the upstream.", "counter");
+        upstreamValues(builder, snapshots, upstreams, "cave_repository_upstream_requests_total", "requests", null);
+        header(builder, "cave_repository_upstream_lookups_total", "Lookups completed by the upstream, by outcome.", "counter");
+        for (String outcome : new String[]{ "found", "missed", "failed", "cancelled" }) {
+            upstreamValues(builder, snapshots, upstreams, "cave_repository_upstream_lookups_total", outcome, outcome);
+        }
+        header(builder, "cave_repository_upstream_skipped_total", "Lookups skipped, the upstream circuit breaker being open.", "counter");
+        upstreamValues(builder, snapshots, upstreams, "cave_repository_upstream_skipped_total", "skipped", null);
+        header(builder, "cave_repository_upstream_wins_total", "Artifacts served by the upstream in parallel lookups.", "counter");
+        upstreamValues(builder, snapshots, upstreams, "cave_repository_upstream_wins_total", "won", null);
+        header(builder, "cave_repository_upstream_duration_seconds", "Upstream lookup latency.", "summary");
+        for (Map.Entry<String, List<String>> repository : upstreams.entrySet()) {
+            Map<String, Long> snapshot = snapshots.get(repository.getKey());
+            for (String id : repository.getValue()) {
+                String labels = "repository=\"" + escape(repository.getKey()) + "\",upstream=\"" + escape(id) + "\"";
+                String prefix = UPSTREAM + id + ".latency.";
+                for (int i = 0; i < 6; i += 2) {
+                    sample(builder, "cave_repository_upstream_duration_seconds", labels + ",quantile=\"" + QUANTILES[i] + "\"", seconds(snapshot.get(prefix + QUANTILES[i + 1])));
+                }
+                sample(builder, "cave_repository_upstream_duration_seconds_sum", labels, seconds(snapshot.get(prefix + "sum")));
+                sample(builder, "cave_repository_upstream_duration_seconds_count", labels, String.valueOf(snapshot.get(prefix + "count")));
+            }
+        }
+    }
+
+    private static void upstreamValues(StringBuilder builder, Map<String, Map<String, Long>> snapshots, Map<String, List<String>> upstreams, String name, String key, String outcome) {
+        for (Map.Entry<String, List<String>> repository : upstreams.entrySet()) {
+            for (String id : repository.getValue()) {
+                String labels = "repository=\"" + escape(repository.getKey()) + "\",upstream=\"" + escape(id) + "\"" + ((outcome != null) ? ",outcome=\"" + outcome + "\"" : "");
+                sample(builder, name, labels, String.valueOf(snapshots.get(repository.getKey()).get(UPSTREAM + id + "." + key)));
+            }
+        }
+    }
+
+    private static void counter(StringBuilder builder, Map<String, Map<String, Long>> snapshots, String name, String help, String key) {
+        header(builder, name, help, "counter");
+        values(builder, snapshots, name, key);
+    }
+
+    private static void secondsCounter(StringBuilder builder, Map<String, Map<String, Long>> snapshots, String name, String help, String key) {
+        header(builder, name, help, "counter");
+        for (Map.Entry<String, Map<String, Long>> repository : snapshots.entrySet()) {
+            sample(builder, name, "repository=\"" + escape(repository.getKey()) + "\"", seconds(repository.getValue().get(key)));
+        }
+    }
+
+    private static void gauge(StringBuilder builder, Map<String, Map<String, Long>> snapshots, String name, String help, String key) {
+        header(builder, name, help, "gauge");
+        values(builder, snapshots, name, key);
+    }
+
+    private static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void values(StringBuilder builder, Map<String, Map<String, Long>> snapshots, String name, String key) {
+        for (Map.Entry<String, Map<String, Long>> repository : snapshots.entrySet()) {
+            sample(builder, name, "repository=\"" + escape(repository.getKey()) + "\"", String.valueOf(repository.getValue().get(key)));
+        }
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, String value) {
+        builder.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String labels(String repository, RepositoryMetrics.Request request) {
+        String[] parts = request.getKey().split("\\.");
+        return "repository=\"" + escape(repository) + "\",method=\"" + parts[0] + "\",kind=\"" + parts[1] + "\",outcome=\"" + parts[2] + "\"";
+    }
+
+    private static String seconds(Long micros) {
+        return micros == null ? "NaN" : String.valueOf(micros / 1000000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a repository.
+ * <p>
+ * All the recording methods are lock-free ({@link LongAdder} based), they are called on each request.
+ */
+public class RepositoryMetrics {
+
+    /**
+     * Request kind: method, artifact or metadata, and outcome.
+     */
+    public enum Request {
+
+        GET_ARTIFACT_HIT("get.artifact.hit"),
+        GET_ARTIFACT_PROXIED("get.artifact.proxied"),
+        GET_ARTIFACT_MISS("get.artifact.miss"),
+        GET_METADATA_HIT("get.metadata.hit"),
+        GET_METADATA_PROXIED("get.metadata.proxied"),
+        GET_METADATA_MISS("get.metadata.miss"),
+        PUT_ARTIFACT_STORED("put.artifact.stored"),
+        PUT_ARTIFACT_FAILED("put.artifact.failed"),
+        PUT_METADATA_STORED("put.metadata.stored"),
+        PUT_METADATA_FAILED("put.metadata.failed");
+
+        private final String key;
+
+        Request(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @param metadata true for a maven-metadata.xml request.
+         * @param local true if the file was already present in the repository storage.
+         * @param found true if the file has been served.
+         */
+        public static Request get(boolean metadata, boolean local, boolean found) {
+            if (!found) {
+                return metadata ? GET_METADATA_MISS : GET_ARTIFACT_MISS;
+            }
+            if (local) {
+                return metadata ? GET_METADATA_HIT : GET_ARTIFACT_HIT;
+            }
+            return metadata ? GET_METADATA_PROXIED : GET_ARTIFACT_PROXIED;
+        }
+
+        /**
+         * @param metadata true for a maven-metadata.xml request.
+         * @param stored true if the upload has been stored.
+         */
+        public static Request put(boolean metadata, boolean stored) {
+            if (metadata) {
+                return stored ? PUT_METADATA_STORED : PUT_METADATA_FAILED;
+            }
+            return stored ? PUT_ARTIFACT_STORED : PUT_ARTIFACT_FAILED;
+        }
+
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Request.values().length];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder waiting = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder prefetchScheduled = new LongAdder();
+    private final LongAdder prefetchCompleted = new LongAdder();
+    private final LongAdder prefetchFailed = new LongAdder();
+    private final LongAdder prefetchDropped = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder compressionServed = new LongAdder();
+    private final LongAdder compressionGenerated = new LongAdder();
+    private final LongAdder compressionInput = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder compressionSavedBytes = new LongAdder();
+    private final LongAdder compressionSavedNanos = new LongAdder();
+    private final LongAdder metadataFresh = new LongAdder();
+    private final LongAdder metadataStale = new LongAdder();
+    private final LongAdder metadataStaleness = new LongAdder();
+    private final LongAdder metadataRefreshed = new LongAdder();
+    private final LongAdder metadataRefreshFailed = new LongAdder();
+    private final LongAdder offlineMisses = new LongAdder();
+    private final ConcurrentMap<String, UpstreamMetrics> upstreams = new ConcurrentHashMap<>();
+    private final HeavyHitters popular;
+
+    public RepositoryMetrics() {
+        this(100, TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * @param popularSize the number of most requested paths tracked.
+     * @param decayPeriod the period (in milliseconds) after which the request counts of the paths are halved.
+     */
+    public RepositoryMetrics(int popularSize, long decayPeriod) {
+        this.popular = new HeavyHitters(popularSize, decayPeriod);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public void requestStarted() {
+        inFlight.increment();
+    }
+
+    /**
+     * Record a completed request.
+     *
+     * @param request the request kind.
+     * @param nanos the request duration, in nanoseconds.
+     */
+    public void requestCompleted(Request request, long nanos) {
+        inFlight.decrement();
+        latencies[request.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * A request is waiting for a download already in progress (on the same path).
+     */
+    public void coalesced() {
+        coalesced.increment();
+        waiting.increment();
+    }
+
+    /**
+     * A coalesced request has been served.
+     */
+    public void coalescedDone() {
+        waiting.decrement();
+    }
+
+    /**
+     * A download has been cancelled, as all the requests waiting for it gave up (timeout or client error).
+     */
+    public void downloadCancelled() {
+        cancelled.increment();
+    }
+
+    /**
+     * Record a request rejected by the rate limiter.
+     */
+    public void throttled() {
+        throttled.increment();
+    }
+
+    public void bytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void prefetchScheduled() {
+        prefetchScheduled.increment();
+    }
+
+    public void prefetchCompleted() {
+        prefetchCompleted.increment();
+    }
+
+    public void prefetchFailed() {
+        prefetchFailed.increment();
+    }
+
+    public void prefetchDropped() {
+        prefetchDropped.increment();
+    }
+
+    /**
+     * A prefetched file has been requested.
+     */
+    public void prefetchHit() {
+        prefetchHits.increment();
+    }
+
+    /**
+     * A compressed variant has been generated.
+     *
+     * @param bytes the uncompressed size.
+     * @param nanos the compression time.
+     */
+    public void compressionGenerated(long bytes, long nanos) {
+        compressionGenerated.increment();
+        compressionInput.add(bytes);
+        compressionNanos.add(nanos);
+    }
+
+    /**
+     * A compressed variant has been served.
+     *
+     * @param bytes the uncompressed size.
+     * @param sent the compressed size.
+     * @param precompressed true if the variant was already generated (the compression time is saved), false else.
+     */
+    public void compressionServed(long bytes, long sent, boolean precompressed) {
+        compressionServed.increment();
+        compressionSavedBytes.add(bytes - sent);
+        if (precompressed) {
+            long input = compressionInput.sum();
+            if (input > 0) {
+                compressionSavedNanos.add((long) (bytes * ((double) compressionNanos.sum() / input)));
+            }
+        }
+    }
+
+    /**
+     * Metadata have been served from the metadata cache.
+     *
+     * @param age the age of the cached metadata, in milliseconds.
+     * @param stale true if the metadata were older than the TTL (or served because the proxied repositories failed).
+     */
+    public void metadataCached(long age, boolean stale) {
+        if (stale) {
+            metadataStale.increment();
+            metadataStaleness.add(age);
+        } else {
+            metadataFresh.increment();
+        }
+    }
+
+    /**
+     * A background refresh of cached metadata is done.
+     *
+     * @param succeeded true if the metadata have been resolved, false else.
+     */
+    public void metadataRefreshed(boolean succeeded) {
+        if (succeeded) {
+            metadataRefreshed.increment();
+        } else {
+            metadataRefreshFailed.increment();
+        }
+    }
+
+    /**
+     * A file has not been found because the repository is offline (it would have been resolved from the proxied repositories).
+     */
+    public void offlineMiss() {
+        offlineMisses.increment();
+    }
+
+    /**
+     * A file has been served.
+     *
+     * @param path the file path in the repository.
+     */
+    public void served(String path) {
+        popular.record(path);
+    }
+
+    /**
+     * @return the most requested paths tracker.
+     */
+    public HeavyHitters getPopular() {
+        return popular;
+    }
+
+    /**
+     * Get the metrics of an upstream, created on first use.
+     *
+     * @param id the upstream id.
+     * @return the upstream metrics.
+     */
+    public UpstreamMetrics upstream(String id) {
+        UpstreamMetrics upstream = upstreams.get(id);
+        if (upstream == null) {
+            upstreams.putIfAbsent(id, new UpstreamMetrics());
+            upstream = upstreams.get(id);
+        }
+        return upstream;
+    }
+
+    public LatencyHistogram getLatency(Request request) {
+        return latencies[request.ordinal()];
+    }
+
+    /**
+     * Get a snapshot of the metrics.
+     * <p>
+     * The latencies are in microseconds, with the {@code count}, {@code sum}, {@code max}, {@code p50}, {@code p90},
+     * {@code p99} and {@code p999} values for each request kind (for instance {@code get.artifact.hit.p99}), as the
+     * compression times ({@code compression.time} and {@code compression.time.saved}). The staleness of the stale cached
+     * metadata served ({@code metadata.cache.staleness}) is the sum of their ages, in seconds. The upstream lookups
+     * metrics are prefixed by {@code upstream.<id>.}.
+     *
+     * @return the metric values by name.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("bytes.in", bytesIn.sum());
+        snapshot.put("bytes.out", bytesOut.sum());
+        snapshot.put("requests.inflight", inFlight.sum());
+        snapshot.put("requests.coalesced", coalesced.sum());
+        snapshot.put("requests.waiting", waiting.sum());
+        snapshot.put("requests.cancelled", cancelled.sum());
+        snapshot.put("requests.throttled", throttled.sum());
+        snapshot.put("prefetch.scheduled", prefetchScheduled.sum());
+        snapshot.put("prefetch.completed", prefetchCompleted.sum());
+        snapshot.put("prefetch.failed", prefetchFailed.sum());
+        snapshot.put("prefetch.dropped", prefetchDropped.sum());
+        snapshot.put("prefetch.hits", prefetchHits.sum());
+        snapshot.put("compression.served", compressionServed.sum());
+        snapshot.put("compression.generated", compressionGenerated.sum());
+        snapshot.put("compression.bytes.saved", compressionSavedBytes.sum());
+        snapshot.put("compression.time", compressionNanos.sum() / 1000);
+        snapshot.put("compression.time.saved", compressionSavedNanos.sum() / 1000);
+        snapshot.put("metadata.cache.fresh", metadataFresh.sum());
+        snapshot.put("metadata.cache.stale", metadataStale.sum());
+        snapshot.put("metadata.cache.staleness", metadataStaleness.sum() / 1000);
+        snapshot.put("metadata.refresh.completed", metadataRefreshed.sum());
+        snapshot.put("metadata.refresh.failed", metadataRefreshFailed.sum());
+        snapshot.put("offline.misses", offlineMisses.sum());
+        for (Request request : Request.values()) {
+            LatencyHistogram latency = latencies[request.ordinal()];
+            snapshot.put(request.getKey() + ".count", latency.getCount());
+            snapshot.put(request.getKey() + ".sum", latency.getSum());
+            snapshot.put(request.getKey() + ".max", latency.getMax());
+            snapshot.put(request.getKey() + ".p50", latency.getPercentile(0.5));
+            snapshot.put(request.getKey() + ".p90", latency.getPercentile(0.9));
+            snapshot.put(request.getKey() + ".p99", latency.getPercentile(0.99));
+            snapshot.put(request.getKey() + ".p999", latency.getPercentile(0.999));
+        }
+        for (Map.Entry<String, UpstreamMetrics> upstream : new TreeMap<>(upstreams).entrySet()) {
+            upstream.getValue().snapshot(upstream.getKey(), snapshot);
+        }
+        return snapshot;
+    }
+
+}
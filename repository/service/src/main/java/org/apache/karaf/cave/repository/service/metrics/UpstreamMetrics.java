@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookup metrics of an upstream (proxied repository) of a repository.
+ */
+public class UpstreamMetrics {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder found = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder won = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    public void requested() {
+        requests.increment();
+    }
+
+    /**
+     * A lookup is completed.
+     *
+     * @param nanos the lookup duration.
+     * @param result true if the artifact has been found, false if not found, {@code null} if the lookup failed.
+     */
+    public void completed(long nanos, Boolean result) {
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (result == null) {
+            failed.increment();
+        } else if (result) {
+            found.increment();
+        } else {
+            missed.increment();
+        }
+    }
+
+    /**
+     * The artifact of a parallel lookup has been served by this upstream.
+     */
+    public void won() {
+        won.increment();
+    }
+
+    /**
+     * A lookup has been cancelled, another upstream being faster.
+     */
+    public void cancelled() {
+        cancelled.increment();
+    }
+
+    /**
+     * The upstream has been skipped, its circuit breaker being open.
+     */
+    public void skipped() {
+        skipped.increment();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Add the upstream metrics to a snapshot, with the {@code upstream.<id>.} prefix.
+     */
+    void snapshot(String id, Map<String, Long> snapshot) {
+        String prefix = "upstream." + id + ".";
+        snapshot.put(prefix + "requests", requests.sum());
+        snapshot.put(prefix + "found", found.sum());
+        snapshot.put(prefix + "missed", missed.sum());
+        snapshot.put(prefix + "failed", failed.sum());
+        snapshot.put(prefix + "won", won.sum());
+        snapshot.put(prefix + "cancelled", cancelled.sum());
+        snapshot.put(prefix + "skipped", skipped.sum());
+        snapshot.put(prefix + "latency.count", latency.getCount());
+        snapshot.put(prefix + "latency.sum", latency.getSum());
+        snapshot.put(prefix + "latency.p50", latency.getPercentile(0.5));
+        snapshot.put(prefix + "latency.p90", latency.getPercentile(0.9));
+        snapshot.put(prefix + "latency.p99", latency.getPercentile(0.99));
+    }
+
+}
@@ -18,6 +18,9 @@ package org.apache.karaf.cave.repository.service.rest;
 
 import org.apache.karaf.cave.repository.Repository;
 import org.apache.karaf.cave.repository.RepositoryService;
+import org.apache.karaf.cave.repository.WarmResult;
+import org.apache.karaf.cave.repository.service.maven.SnapshotCleaner;
+import org.apache.karaf.cave.repository.service.metrics.PrometheusFormat;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -27,7 +30,12 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Path("/")
 public class RepositoryRestApi {
@@ -42,6 +50,10 @@ public class RepositoryRestApi {
     @Path("/repositories")
     @Consumes("application/json")
     public void create(Repository repository) throws Exception {
+        if (repository.getMembers() != null && !repository.getMembers().isEmpty()) {
+            repositoryService.createGroup(repository.getName(), repository.getMembers());
+            return;
+        }
         repositoryService.create(
                 repository.getName(),
                 repository.getLocation(),
@@ -89,18 +101,115 @@ public class RepositoryRestApi {
         repositoryService.purge(name);
     }
 
+    @POST
+    @Path("/repositories/{name}/evict")
+    @Produces("application/json")
+    public Map<String, Long> evict(@PathParam(value = "name") String name) throws Exception {
+        return repositoryService.evict(name);
+    }
+
+    @POST
+    @Path("/repositories/{name}/dedup")
+    @Produces("application/json")
+    public Map<String, Long> dedup(@PathParam(value = "name") String name) throws Exception {
+        return repositoryService.dedup(name);
+    }
+
+    @POST
+    @Path("/repositories/{name}/snapshot-cleanup")
+    @Produces("application/json")
+    public Map<String, Long> cleanupSnapshots(@PathParam(value = "name") String name, @QueryParam(value = "keep") Integer keep, @QueryParam(value = "age") String age) throws Exception {
+        long maxAge = (age != null) ? SnapshotCleaner.parseDuration(age) : SnapshotCleaner.DEFAULT_MAX_AGE;
+        return repositoryService.cleanupSnapshots(name, (keep != null) ? keep : SnapshotCleaner.DEFAULT_KEEP, TimeUnit.MILLISECONDS.toSeconds(maxAge));
+    }
+
     @POST
     @Path("/repositories/{name}/artifact")
     public void addArtifact(@PathParam(value = "name") String name, @HeaderParam(value = "artifactUrl") String artifactUrl) throws Exception {
         repositoryService.addArtifact(artifactUrl, name);
     }
 
+    @POST
+    @Path("/repositories/{name}/artifacts")
+    @Consumes("application/json")
+    public void addArtifacts(@PathParam(value = "name") String name, List<String> artifactUrls) throws Exception {
+        repositoryService.addArtifacts(artifactUrls, name);
+    }
+
+    @POST
+    @Path("/repositories/{name}/members")
+    @Consumes("application/json")
+    public void changeMembers(@PathParam(value = "name") String name, List<String> members) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (String member : members) {
+            if (builder.length() > 0) {
+                builder.append(",");
+            }
+            builder.append(member);
+        }
+        repositoryService.changeMembers(name, builder.toString());
+    }
+
+    @POST
+    @Path("/repositories/{name}/warm")
+    @Consumes("application/json")
+    @Produces("application/json")
+    public WarmResult warm(@PathParam(value = "name") String name, List<String> sources) throws Exception {
+        return repositoryService.warm(name, sources);
+    }
+
     @DELETE
     @Path("/repositories/{name}/artifact")
     public void deleteArtifact(@PathParam(value = "name") String name, @HeaderParam(value = "artifactUrl") String artifactUrl) throws Exception {
         repositoryService.deleteArtifact(artifactUrl, name);
     }
 
+    @GET
+    @Path("/repositories/{name}/metrics")
+    @Produces("application/json")
+    public Map<String, Long> getMetrics(@PathParam(value = "name") String name) throws Exception {
+        return repositoryService.metrics(name);
+    }
+
+    @GET
+    @Path("/repositories/{name}/top")
+    @Produces("application/json")
+    public Map<String, Long> getTop(@PathParam(value = "name") String name, @QueryParam(value = "count") Integer count) throws Exception {
+        return repositoryService.top(name, (count != null) ? count : 20);
+    }
+
+    @GET
+    @Path("/repositories/{name}/index")
+    @Produces("application/json")
+    public Map<String, Long> getIndex(@PathParam(value = "name") String name) throws Exception {
+        return repositoryService.index(name, false);
+    }
+
+    @POST
+    @Path("/repositories/{name}/index")
+    @Produces("application/json")
+    public Map<String, Long> rebuildIndex(@PathParam(value = "name") String name) throws Exception {
+        return repositoryService.index(name, true);
+    }
+
+    @GET
+    @Path("/rate-limits")
+    @Produces("application/json")
+    public Map<String, Map<String, Long>> getRateLimits() throws Exception {
+        return repositoryService.rateLimits();
+    }
+
+    @GET
+    @Path("/metrics")
+    @Produces(PrometheusFormat.CONTENT_TYPE)
+    public String getPrometheusMetrics() throws Exception {
+        Map<String, Map<String, Long>> snapshots = new LinkedHashMap<>();
+        for (Repository repository : repositoryService.repositories()) {
+            snapshots.put(repository.getName(), repositoryService.metrics(repository.getName()));
+        }
+        return PrometheusFormat.format(snapshots);
+    }
+
     @POST
     @Path("/repositories/{name}/bundle")
     public void updateBundleRepositoryDescription(@PathParam(value = "name") String name) throws Exception {
@@ -18,11 +18,15 @@ package org.apache.karaf.cave.repository.service.scheduler;
 
 import org.apache.karaf.cave.repository.Repository;
 import org.apache.karaf.cave.repository.RepositoryService;
+import org.apache.karaf.cave.repository.service.maven.SnapshotCleaner;
 import org.apache.karaf.scheduler.Job;
 import org.apache.karaf.scheduler.JobContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 public class RepositoryJob implements Job {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryJob.class);
@@ -52,13 +56,43 @@ public class RepositoryJob implements Job {
                 } catch (Exception e) {
                     LOGGER.error("Can't delete repository {}", repository.getName(), e);
                 }
+            } else if (action.trim().equalsIgnoreCase("evict")) {
+                try {
+                    repositoryService.evict(repository.getName());
+                } catch (Exception e) {
+                    LOGGER.error("Can't evict artifacts from repository {}", repository.getName(), e);
+                }
+            } else if (action.trim().equalsIgnoreCase("dedup")) {
+                try {
+                    repositoryService.dedup(repository.getName());
+                } catch (Exception e) {
+                    LOGGER.error("Can't deduplicate repository {}", repository.getName(), e);
+                }
+            } else if (action.trim().toLowerCase().startsWith("snapshot-cleanup")) {
+                // snapshot-cleanup [keep] [age]
+                String[] parameters = action.trim().split("\\s+");
+                try {
+                    int keep = (parameters.length > 1) ? Integer.parseInt(parameters[1]) : SnapshotCleaner.DEFAULT_KEEP;
+                    long maxAge = (parameters.length > 2) ? SnapshotCleaner.parseDuration(parameters[2]) : SnapshotCleaner.DEFAULT_MAX_AGE;
+                    repositoryService.cleanupSnapshots(repository.getName(), keep, TimeUnit.MILLISECONDS.toSeconds(maxAge));
+                } catch (Exception e) {
+                    LOGGER.error("Can't cleanup SNAPSHOT builds of repository {}", repository.getName(), e);
+                }
+            } else if (action.trim().toLowerCase().startsWith("warm ")) {
+                String[] sources = action.trim().split("\\s+");
+                try {
+                    repositoryService.warm(repository.getName(), Arrays.asList(sources).subList(1, sources.length));
+                } catch (Exception e) {
+                    LOGGER.error("Can't warm up repository {}", repository.getName(), e);
+                }
             } else if (action.contains("copy")) {
-                String[] destinationRepository = action.split(" ");
-                if (destinationRepository.length != 2) {
+                String[] destinationRepository = action.trim().split(" ");
+                if (destinationRepository.length != 2 && destinationRepository.length != 3) {
                     LOGGER.error("Ambiguous destination repository in action {} for repository {}", action, repository.getName());
                 } else {
                     try {
-                        repositoryService.copy(repository.getName(), destinationRepository[1]);
+                        String mode = (destinationRepository.length == 3) ? destinationRepository[2] : null;
+                        repositoryService.copy(repository.getName(), destinationRepository[1], mode);
                     } catch (Exception e) {
                         LOGGER.error("Can't copy repository {} to repository {}", repository.getName(), destinationRepository[1], e);
                     }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Track the accesses to the artifacts of a repository, by artifact folder (groupId/artifactId/version).
+ * <p>
+ * The tracking is in memory and cheap: no file system access (the file access time is not used, as it's often
+ * disabled), and the last access time is only updated once per second per folder.
+ */
+public class AccessTracker {
+
+    private static final long RESOLUTION = 1000;
+
+    private final ConcurrentMap<String, Access> accesses = new ConcurrentHashMap<>();
+
+    /**
+     * Record an access to a path of the repository.
+     *
+     * @param path the path, relative to the repository location.
+     */
+    public void record(String path) {
+        int index = path.lastIndexOf('/');
+        if (index <= 0) {
+            return;
+        }
+        String folder = path.substring(0, index);
+        Access access = accesses.get(folder);
+        if (access == null) {
+            Access created = new Access();
+            access = accesses.putIfAbsent(folder, created);
+            if (access == null) {
+                access = created;
+            }
+        }
+        access.touch(System.currentTimeMillis());
+    }
+
+    /**
+     * Get the tracked access of a folder.
+     *
+     * @param folder the folder, relative to the repository location (using {@code /} as separator).
+     * @return the access or {@code null} if the folder has not been accessed since the start.
+     */
+    public Access get(String folder) {
+        return accesses.get(folder);
+    }
+
+    public void remove(String folder) {
+        accesses.remove(folder);
+    }
+
+    public void clear() {
+        accesses.clear();
+    }
+
+    public int size() {
+        return accesses.size();
+    }
+
+    public static class Access {
+
+        private volatile long lastAccess;
+        private final AtomicInteger hits = new AtomicInteger();
+
+        void touch(long now) {
+            if (now - lastAccess >= RESOLUTION) {
+                lastAccess = now;
+            }
+            if (hits.get() < Integer.MAX_VALUE) {
+                hits.incrementAndGet();
+            }
+        }
+
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        public int getHits() {
+            return hits.get();
+        }
+
+    }
+
+}
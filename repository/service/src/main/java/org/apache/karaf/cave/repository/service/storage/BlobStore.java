@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressable store of the artifacts, shared by the repositories.
+ * <p>
+ * Each artifact content is stored once, in a blob named by its SHA-256 digest, and the repository paths are hard links
+ * to the blob. The reference count of a blob is given by the file system (the number of links to the blob, minus the
+ * blob itself): deleting a repository path only removes a link, and the blobs not referenced anymore are reclaimed by
+ * {@link #collect()}.
+ * <p>
+ * The repository paths are replaced by links with an atomic rename, so the files must never be written in place
+ * (use {@link #unshare(Path)} before).
+ */
+public class BlobStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+
+    public static final String BLOBS_FOLDER = ".cave-blobs";
+
+    public enum Result {
+        /** The file is not stored (not an artifact, modified during the store or on another file system). */
+        SKIPPED,
+        /** The file is now (or was already) the blob. */
+        STORED,
+        /** The file has been replaced by a link to an existing blob with the same content. */
+        DEDUPLICATED
+    }
+
+    private final Path root;
+    private final AtomicLong blobs = new AtomicLong();
+    private final AtomicLong blobBytes = new AtomicLong();
+    private final AtomicLong sharedBytes = new AtomicLong();
+    private final AtomicLong reclaimedBlobs = new AtomicLong();
+    private final AtomicLong reclaimedBlobBytes = new AtomicLong();
+
+    public BlobStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Check if the file system supports the blob store (hard links with link count).
+     *
+     * @return true if the blob store is supported, false else.
+     */
+    public static boolean isSupported() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    }
+
+    /**
+     * Check if a file can be stored as blob: the metadata, checksums and resolver tracking files are updated in place
+     * or too small to be worth it.
+     *
+     * @param file the file.
+     * @return true if the file content is immutable, false else.
+     */
+    public static boolean isStorable(Path file) {
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && !name.startsWith("_") && !name.startsWith("maven-metadata")
+                && !name.endsWith(".lastUpdated") && !name.endsWith(".sha1") && !name.endsWith(".md5")
+                && !name.endsWith(".sha256") && !name.endsWith(".sha512") && !name.endsWith(".asc");
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Store a file, computing its digest.
+     *
+     * @param file the repository file.
+     * @return the store result.
+     */
+    public Result store(Path file) throws IOException {
+        if (!isStorable(file) || !Files.isRegularFile(file)) {
+            return Result.SKIPPED;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return store(file, digest(file), attributes);
+    }
+
+    /**
+     * Store a file with a known digest (for instance computed during the upload).
+     *
+     * @param file the repository file.
+     * @param sha256 the file SHA-256 digest (hex).
+     * @return the store result.
+     */
+    public Result store(Path file, String sha256) throws IOException {
+        if (!isStorable(file) || !Files.isRegularFile(file)) {
+            return Result.SKIPPED;
+        }
+        return store(file, sha256, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    private Result store(Path file, String sha256, BasicFileAttributes attributes) throws IOException {
+        Path blob = root.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+        for (int attempt = 0; attempt < 3; attempt++) {
+            if (Files.exists(blob)) {
+                if (Files.isSameFile(blob, file)) {
+                    return Result.STORED;
+                }
+                if (Files.size(blob) != attributes.size()) {
+                    LOGGER.warn("Blob {} size doesn't match {}", blob, file);
+                    return Result.SKIPPED;
+                }
+                Path link = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+                try {
+                    Files.createLink(link, blob);
+                } catch (NoSuchFileException e) {
+                    // blob reclaimed meanwhile
+                    continue;
+                }
+                if (!unchanged(file, attributes)) {
+                    Files.delete(link);
+                    return Result.SKIPPED;
+                }
+                Files.move(link, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return Result.DEDUPLICATED;
+            }
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, file);
+            } catch (FileAlreadyExistsException e) {
+                // stored meanwhile
+                continue;
+            }
+            if (!unchanged(file, attributes) && Files.isSameFile(blob, file)) {
+                Files.delete(blob);
+                return Result.SKIPPED;
+            }
+            return Result.STORED;
+        }
+        return Result.SKIPPED;
+    }
+
+    private static boolean unchanged(Path file, BasicFileAttributes attributes) throws IOException {
+        BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+        return current.size() == attributes.size()
+                && current.lastModifiedTime().equals(attributes.lastModifiedTime())
+                && (current.fileKey() == null || current.fileKey().equals(attributes.fileKey()));
+    }
+
+    /**
+     * Break the link between a repository file and its blob, before writing the file in place. The file is replaced
+     * by a copy with an atomic rename, so it's never missing (for the readers, or if the write fails).
+     *
+     * @param file the repository file.
+     */
+    public static void unshare(Path file) throws IOException {
+        if (Files.isRegularFile(file) && links(file) > 1) {
+            Path copy = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(copy, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(copy);
+            }
+        }
+    }
+
+    /**
+     * Get the number of repository paths referencing a blob.
+     *
+     * @param blob the blob.
+     * @return the reference count.
+     */
+    public static int references(Path blob) throws IOException {
+        return links(blob) - 1;
+    }
+
+    private static int links(Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+    }
+
+    /**
+     * Delete the blobs not referenced by any repository.
+     *
+     * @return the number of deleted blobs.
+     */
+    public long collect() throws IOException {
+        final long[] count = new long[4];
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    int references = references(file);
+                    if (references <= 0) {
+                        Files.deleteIfExists(file);
+                        reclaimedBlobs.incrementAndGet();
+                        reclaimedBlobBytes.addAndGet(attributes.size());
+                        count[0]++;
+                    } else {
+                        count[1]++;
+                        count[2] += attributes.size();
+                        count[3] += attributes.size() * (references - 1);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    if (exc instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw exc;
+                }
+            });
+        }
+        blobs.set(count[1]);
+        blobBytes.set(count[2]);
+        sharedBytes.set(count[3]);
+        return count[0];
+    }
+
+    /**
+     * Get the blob store status, as computed by the last {@link #collect()}.
+     *
+     * @return the number of blobs ({@code blobs}) and their size ({@code blobBytes}), the bytes saved by sharing the
+     * blobs ({@code sharedBytes}), the number of reclaimed blobs ({@code reclaimedBlobs}) and their size ({@code reclaimedBlobBytes}).
+     */
+    public Map<String, Long> status() {
+        Map<String, Long> status = new LinkedHashMap<>();
+        status.put("blobs", blobs.get());
+        status.put("blobBytes", blobBytes.get());
+        status.put("sharedBytes", sharedBytes.get());
+        status.put("reclaimedBlobs", reclaimedBlobs.get());
+        status.put("reclaimedBlobBytes", reclaimedBlobBytes.get());
+        return status;
+    }
+
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.storage;
+
+import org.apache.karaf.cave.repository.service.maven.Precompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforce a storage quota on a repository, evicting the least recently/frequently used artifact folders
+ * (groupId/artifactId/version) until the repository size is under the quota.
+ * <p>
+ * The folders are ranked by idle time (since the last access tracked by the {@link AccessTracker}, or the last
+ * modification if the folder has not been accessed since the start), the frequently requested folders aging slower.
+ * The evicted folders are moved to the trash and reclaimed in background by the {@link StorageReaper}.
+ */
+public class StorageEvictor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageEvictor.class);
+
+    // folders accessed recently are never evicted (download in progress)
+    private static final long MIN_IDLE = TimeUnit.MINUTES.toMillis(1);
+
+    private final StorageReaper reaper;
+
+    public StorageEvictor(StorageReaper reaper) {
+        this.reaper = reaper;
+    }
+
+    /**
+     * Evict artifact folders until the repository size is under the quota.
+     *
+     * @param location the repository location.
+     * @param quota the repository quota in bytes (0 or negative for unlimited).
+     * @param tracker the repository access tracker.
+     * @param evicted collect the evicted folders.
+     * @return the repository size, the number of evicted folders and the evicted bytes.
+     */
+    public Map<String, Long> evict(final Path location, long quota, AccessTracker tracker, Collection<Path> evicted) throws IOException {
+        final Map<Path, Folder> folders = new HashMap<>();
+        final long[] size = new long[1];
+        if (Files.isDirectory(location)) {
+            Files.walkFileTree(location, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                    return dir.getFileName().toString().startsWith(".") && !dir.equals(location) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Folder folder = folders.get(file.getParent());
+                    if (folder == null) {
+                        folder = new Folder(file.getParent());
+                        folders.put(file.getParent(), folder);
+                    }
+                    folder.size += attributes.size();
+                    folder.lastModified = Math.max(folder.lastModified, attributes.lastModifiedTime().toMillis());
+                    if (!file.getFileName().toString().startsWith("maven-metadata")) {
+                        folder.artifacts = true;
+                    }
+                    size[0] += attributes.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    if (exc instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw exc;
+                }
+            });
+        }
+        long evictedFolders = 0;
+        long evictedBytes = 0;
+        if (quota > 0 && size[0] > quota) {
+            final long now = System.currentTimeMillis();
+            List<Folder> candidates = new ArrayList<>();
+            for (Folder folder : folders.values()) {
+                if (!folder.artifacts || folder.path.equals(location)) {
+                    continue;
+                }
+                folder.key = location.relativize(folder.path).toString().replace('\\', '/');
+                AccessTracker.Access access = tracker.get(folder.key);
+                long lastAccess = (access != null) ? Math.max(access.getLastAccess(), folder.lastModified) : folder.lastModified;
+                if (now - lastAccess < MIN_IDLE) {
+                    continue;
+                }
+                folder.score = score(now - lastAccess, (access != null) ? access.getHits() : 0);
+                candidates.add(folder);
+            }
+            Collections.sort(candidates, new Comparator<Folder>() {
+                @Override
+                public int compare(Folder folder1, Folder folder2) {
+                    return Double.compare(folder2.score, folder1.score);
+                }
+            });
+            for (Folder folder : candidates) {
+                if (size[0] <= quota) {
+                    break;
+                }
+                LOGGER.debug("Evicting {} ({} bytes)", folder.path, folder.size);
+                reaper.delete(folder.path, location);
+                reaper.delete(location.resolve(Precompressor.VARIANTS_FOLDER).resolve(folder.key), location);
+                tracker.remove(folder.key);
+                evicted.add(folder.path);
+                size[0] -= folder.size;
+                evictedFolders++;
+                evictedBytes += folder.size;
+            }
+        }
+        Map<String, Long> status = new LinkedHashMap<>();
+        status.put("quota", Math.max(quota, 0));
+        status.put("size", size[0]);
+        status.put("evictedFolders", evictedFolders);
+        status.put("evictedBytes", evictedBytes);
+        return status;
+    }
+
+    /**
+     * Eviction score: the idle time, divided by the (logarithmic) number of hits.
+     *
+     * @param idle the time since the last access in milliseconds.
+     * @param hits the number of hits since the start.
+     * @return the score, the highest is evicted first.
+     */
+    static double score(long idle, int hits) {
+        return idle / (1.0 + Math.log1p(hits) / Math.log(2));
+    }
+
+    private static class Folder {
+
+        private final Path path;
+        private String key;
+        private long size;
+        private long lastModified;
+        private boolean artifacts;
+        private double score;
+
+        Folder(Path path) {
+            this.path = path;
+        }
+
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.storage;
+
+import org.apache.karaf.cave.repository.service.maven.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delete repository storage in the background.
+ * <p>
+ * The paths to delete are first atomically renamed into a trash folder (sibling of the repository location), so they
+ * disappear immediately for the clients. A single reaper thread then deletes the trash content, limiting the number of
+ * files deleted per second to not hammer the disk while serving artifacts. When the trash is empty, the blobs not
+ * referenced anymore are reclaimed from the {@link BlobStore} (if any).
+ */
+public class StorageReaper implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageReaper.class);
+
+    public static final String TRASH_FOLDER = ".cave-trash";
+
+    private final BlockingQueue<Path> queue = new LinkedBlockingQueue<>();
+    private final int rate;
+    private final AtomicLong pendingEntries = new AtomicLong();
+    private final AtomicLong deletedFiles = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private volatile Path current;
+    private volatile BlobStore blobStore;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param rate the maximum number of files deleted per second (0 or negative for unlimited).
+     */
+    public StorageReaper(int rate) {
+        this.rate = rate;
+    }
+
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new ThreadFactory("CaveStorageReaper").newThread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (thread != null) {
+            running = false;
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            thread = null;
+        }
+    }
+
+    /**
+     * Get the trash folder used for the given path.
+     *
+     * @param location the repository location.
+     * @return the trash folder path.
+     */
+    public static Path trash(Path location) {
+        Path parent = location.toAbsolutePath().normalize().getParent();
+        return parent.resolve(TRASH_FOLDER);
+    }
+
+    /**
+     * Move the path into the trash and schedule its deletion.
+     * If the path can't be atomically moved (trash on another filesystem, parent folder not writable, path busy...), it's
+     * deleted synchronously.
+     *
+     * @param path the file or directory to delete.
+     * @param location the location of the repository containing the path (used to find the trash folder).
+     */
+    public void delete(Path path, Path location) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Path trash = trash(location);
+        Path target = trash.resolve(UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(trash);
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            LOGGER.warn("Can't move {} to trash {} ({}), deleting synchronously", path, trash, e.getMessage());
+            deleteTree(path, false);
+            return;
+        }
+        pendingEntries.incrementAndGet();
+        queue.add(target);
+    }
+
+    /**
+     * Schedule the deletion of leftovers in the trash folder (for instance after a restart).
+     *
+     * @param location a repository location.
+     */
+    public void recover(Path location) throws IOException {
+        Path trash = trash(location);
+        if (!Files.isDirectory(trash)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(trash)) {
+            for (Path entry : stream) {
+                if (!queue.contains(entry) && !entry.equals(current)) {
+                    pendingEntries.incrementAndGet();
+                    queue.add(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                current = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                LOGGER.debug("Reclaiming {}", current);
+                deleteTree(current, true);
+            } catch (Exception e) {
+                LOGGER.warn("Can't reclaim {}", current, e);
+            } finally {
+                current = null;
+                pendingEntries.decrementAndGet();
+            }
+            BlobStore blobs = blobStore;
+            if (blobs != null && queue.isEmpty()) {
+                try {
+                    blobs.collect();
+                } catch (Exception e) {
+                    LOGGER.warn("Can't reclaim blobs from {}", blobs.getRoot(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the reaper status.
+     *
+     * @return the pending entries, deleted files and reclaimed bytes.
+     */
+    public Map<String, Long> status() {
+        Map<String, Long> status = new LinkedHashMap<>();
+        status.put("pendingEntries", pendingEntries.get());
+        status.put("deletedFiles", deletedFiles.get());
+        status.put("reclaimedBytes", reclaimedBytes.get());
+        return status;
+    }
+
+    private void deleteTree(Path root, final boolean throttle) throws IOException {
+        final long start = System.nanoTime();
+        final long[] count = new long[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                try {
+                    Files.delete(file);
+                } catch (NoSuchFileException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+                deletedFiles.incrementAndGet();
+                reclaimedBytes.addAndGet(attributes.size());
+                if (throttle && rate > 0 && ++count[0] % Math.max(1, rate / 10) == 0) {
+                    long expected = TimeUnit.SECONDS.toNanos(count[0]) / rate;
+                    long elapsed = System.nanoTime() - start;
+                    if (expected > elapsed) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ioe) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
@@ -16,28 +16,51 @@
  */
 package org.apache.karaf.cave.repository.service;
 
+import org.apache.karaf.cave.repository.CopyResult;
 import org.apache.karaf.cave.repository.Repository;
+import org.apache.karaf.cave.repository.WarmResult;
+import org.apache.karaf.cave.repository.service.storage.BlobStore;
 import org.apache.karaf.scheduler.Scheduler;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.osgi.service.http.HttpService;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.apache.karaf.cave.repository.service.RepositoryServiceImpl.convertMvnUrlToPath;
 import static org.apache.karaf.cave.repository.service.RepositoryServiceImpl.parseMvnUrl;
@@ -48,19 +71,39 @@ public class RepositoryServiceImplTest {
 
     @Before
     public void setup() throws Exception {
-        HttpService httpService = EasyMock.createMock(HttpService.class);
-        Scheduler scheduler = EasyMock.createMock(Scheduler.class);
-        repositoryService = new RepositoryServiceImpl();
-        repositoryService.setHttpService(httpService);
-        repositoryService.setScheduler(scheduler);
-        Dictionary<String, Object> properties = new Hashtable<>();
-        properties.put("storage.location", "target/repositories");
-        repositoryService.activate(properties);
+        repositoryService = activate();
         System.setProperty("java.protocol.handler.pkgs", "org.ops4j.pax.url");
     }
 
+    /**
+     * Activate a repository service storing in target/repositories.
+     *
+     * @param properties additional configuration, as key/value pairs.
+     */
+    private static RepositoryServiceImpl activate(String... properties) throws Exception {
+        RepositoryServiceImpl service = new RepositoryServiceImpl();
+        service.setHttpService(EasyMock.createMock(HttpService.class));
+        service.setScheduler(EasyMock.createMock(Scheduler.class));
+        Dictionary<String, Object> configuration = new Hashtable<>();
+        configuration.put("storage.location", "target/repositories");
+        for (int i = 0; i < properties.length; i += 2) {
+            configuration.put(properties[i], properties[i + 1]);
+        }
+        service.activate(configuration);
+        return service;
+    }
+
+    /**
+     * Restart the repository service with the given configuration.
+     */
+    private void restart(String... properties) throws Exception {
+        repositoryService.deactivate();
+        repositoryService = activate(properties);
+    }
+
     @After
     public void teardown() throws Exception {
+        repositoryService.deactivate();
         // cleanup repositories
         if (Files.exists(Paths.get("target/repositories"))) {
             Files.walkFileTree(Paths.get("target/repositories"), new SimpleFileVisitor<Path>() {
@@ -159,6 +202,13 @@ public class RepositoryServiceImplTest {
         repositoryService.purge("test");
         Assert.assertFalse(Files.exists(Paths.get("target/repositories/test/testfile")));
         Assert.assertFalse(Files.exists(Paths.get("target/repositories/test/inner")));
+        Assert.assertTrue(Files.isDirectory(Paths.get("target/repositories/test")));
+        long timeout = System.currentTimeMillis() + 10000;
+        while (repositoryService.reclaimStatus().get("pendingEntries") > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0L, (long) repositoryService.reclaimStatus().get("pendingEntries"));
+        Assert.assertEquals(2L, (long) repositoryService.reclaimStatus().get("deletedFiles"));
     }
 
     @Test
@@ -171,6 +221,56 @@ public class RepositoryServiceImplTest {
         Assert.assertTrue(Files.exists(Paths.get("target/repositories/copy/inner/folder/test/testfile")));
     }
 
+    @Test
+    public void testIncrementalCopyRepository() throws Exception {
+        repositoryService.create("test");
+        populateRepository("test");
+        repositoryService.create("copy");
+        CopyResult result = repositoryService.copy("test", "copy", "copy");
+        Assert.assertEquals(2, result.getFilesCopied());
+        Assert.assertEquals(0, result.getFilesSkipped());
+        Assert.assertTrue(result.getBytesTransferred() > 0);
+        result = repositoryService.copy("test", "copy", "copy");
+        Assert.assertEquals(0, result.getFilesCopied());
+        Assert.assertEquals(2, result.getFilesSkipped());
+        Assert.assertEquals(0, result.getBytesTransferred());
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/copy/inner/folder/test/testfile")));
+    }
+
+    @Test
+    public void testLinkCopyRepository() throws Exception {
+        repositoryService.create("test");
+        populateRepository("test");
+        repositoryService.create("copy");
+        Path folder = Paths.get("target/repositories/test/org/foo/bar");
+        Files.createDirectories(folder.resolve(".cave-metadata"));
+        Files.write(folder.resolve("maven-metadata.xml"), "<metadata/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve("maven-metadata.xml.sha1"), "sha1".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve(".cave-metadata/maven-metadata.xml"), "<metadata/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve(".bar-1.0.jar.staging.tmp"), new byte[10]);
+        Files.createDirectories(folder.resolve("1.0"));
+        Files.write(folder.resolve("1.0/bar-1.0.jar"), "jar".getBytes(StandardCharsets.UTF_8));
+        CopyResult result = repositoryService.copy("test", "copy", "link");
+        Assert.assertEquals(3, result.getFilesLinked());
+        Assert.assertEquals(2, result.getFilesCopied());
+        Assert.assertTrue(Files.isSameFile(Paths.get("target/repositories/test/testfile"), Paths.get("target/repositories/copy/testfile")));
+        // the metadata and checksums are copied, as they are rewritten in place
+        Path copied = Paths.get("target/repositories/copy/org/foo/bar");
+        Assert.assertFalse(Files.isSameFile(folder.resolve("maven-metadata.xml"), copied.resolve("maven-metadata.xml")));
+        Assert.assertFalse(Files.isSameFile(folder.resolve("maven-metadata.xml.sha1"), copied.resolve("maven-metadata.xml.sha1")));
+        // the Cave folders and staging files are not copied
+        Assert.assertFalse(Files.exists(copied.resolve(".cave-metadata")));
+        Assert.assertFalse(Files.exists(copied.resolve(".bar-1.0.jar.staging.tmp")));
+
+        // an install over a linked artifact doesn't change the other repository
+        Assert.assertTrue(Files.isSameFile(folder.resolve("1.0/bar-1.0.jar"), copied.resolve("1.0/bar-1.0.jar")));
+        Path update = Paths.get("target/repositories/update.jar");
+        Files.write(update, "updated".getBytes(StandardCharsets.UTF_8));
+        repositoryService.addArtifact(update.toUri().toString(), "org.foo", "bar", "1.0", "jar", null, "copy");
+        Assert.assertArrayEquals("updated".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(copied.resolve("1.0/bar-1.0.jar")));
+        Assert.assertArrayEquals("jar".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(folder.resolve("1.0/bar-1.0.jar")));
+    }
+
     @Test
     public void testChangeRepositoryLocation() throws Exception {
         repositoryService.create("test");
@@ -198,6 +298,381 @@ public class RepositoryServiceImplTest {
         Assert.assertTrue(Files.exists(Paths.get("target/repositories/test/commons-lang-2.6/commons-lang-2.6-.jar")));
     }
 
+    @Test
+    public void testAddArtifacts() throws Exception {
+        repositoryService.create("test");
+        repositoryService.addArtifacts(Arrays.asList("mvn:commons-lang/commons-lang/2.6", "mvn:commons-lang/commons-lang/2.6/pom"), "test");
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/test/commons-lang/commons-lang/2.6/commons-lang-2.6.jar")));
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/test/commons-lang/commons-lang/2.6/commons-lang-2.6.pom")));
+    }
+
+    @Test
+    public void testPopularArtifacts() throws Exception {
+        // the popular artifacts are loaded at activation time, and saved at deactivation time
+        repositoryService.create("test");
+        Properties storage = new Properties();
+        storage.setProperty("test.count", "2");
+        storage.setProperty("test.item.0.path", "foo/bar/1.0/bar-1.0.jar");
+        storage.setProperty("test.item.0.count", "42");
+        storage.setProperty("test.item.1.path", "foo/bar/1.0/bar-1.0.pom");
+        storage.setProperty("test.item.1.count", "12");
+        try (OutputStream os = new FileOutputStream("target/repositories/popular.db")) {
+            storage.store(os, null);
+        }
+        RepositoryServiceImpl restarted = activate();
+        Map<String, Long> top = restarted.top("test", 10);
+        Assert.assertEquals(Arrays.asList("foo/bar/1.0/bar-1.0.jar", "foo/bar/1.0/bar-1.0.pom"), new ArrayList<>(top.keySet()));
+        Assert.assertEquals(42L, (long) top.get("foo/bar/1.0/bar-1.0.jar"));
+        Files.delete(Paths.get("target/repositories/popular.db"));
+        restarted.deactivate();
+        storage = new Properties();
+        try (InputStream is = new FileInputStream("target/repositories/popular.db")) {
+            storage.load(is);
+        }
+        Assert.assertEquals("foo/bar/1.0/bar-1.0.jar", storage.getProperty("test.item.0.path"));
+    }
+
+    @Test
+    public void testWarm() throws Exception {
+        Path upstream = Paths.get("target/repositories/upstream").toAbsolutePath();
+        Files.createDirectories(upstream.resolve("org/foo/bar/1.0"));
+        Files.write(upstream.resolve("org/foo/bar/1.0/bar-1.0.jar"), "jar".getBytes(StandardCharsets.UTF_8));
+        Files.write(upstream.resolve("org/foo/bar/1.0/bar-1.0.pom"), "pom".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(upstream.resolve("org/foo/baz/2.0"));
+        Files.write(upstream.resolve("org/foo/baz/2.0/baz-2.0.jar"), "baz".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(upstream.resolve("org/foo/features/1.0"));
+        Files.write(upstream.resolve("org/foo/features/1.0/features-1.0-features.xml"), ("<features xmlns=\"http://karaf.apache.org/xmlns/features/v1.4.0\">"
+                + "<feature name=\"foo\"><bundle>mvn:org.foo/bar/1.0</bundle><bundle>wrap:mvn:org.foo/bar/1.0/pom$Bundle-SymbolicName=bar</bundle>"
+                + "<bundle>mvn:org.foo/missing/1.0</bundle></feature></features>").getBytes(StandardCharsets.UTF_8));
+        repositoryService.create("mirror", "target/repositories/mirror", "/cave/repository/mirror", upstream.toUri() + "@id=upstream", true, "karaf", null, null, null, null, 8);
+
+        WarmResult result = repositoryService.warm("mirror", Arrays.asList("mvn:org.foo/features/1.0/xml/features", "org.foo:baz:2.0"));
+        Assert.assertEquals(4, result.getArtifactsResolved());
+        Assert.assertEquals(Collections.singletonList("mvn:org.foo/missing/1.0"), result.getFailures());
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/mirror/org/foo/bar/1.0/bar-1.0.jar")));
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/mirror/org/foo/bar/1.0/bar-1.0.pom")));
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/mirror/org/foo/baz/2.0/baz-2.0.jar")));
+
+        // KAR
+        Path kar = Paths.get("target/repositories/test.kar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(kar))) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.putNextEntry(new ZipEntry("repository/org/foo/baz/2.0/baz-2.0.jar"));
+            zip.write("baz".getBytes(StandardCharsets.UTF_8));
+        }
+        result = repositoryService.warm("mirror", Collections.singletonList(kar.toUri().toString()));
+        Assert.assertEquals(1, result.getArtifactsResolved());
+        Assert.assertTrue(result.getFailures().isEmpty());
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        repositoryService.create("mirror", "target/repositories/mirror", "/cave/repository/mirror", "http://localhost:1/none@id=none", true, "karaf", null, null, null, null, 8);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 3; i++) {
+            Path folder = Paths.get("target/repositories/mirror/org/foo/bar/" + i + ".0");
+            Files.createDirectories(folder);
+            Path jar = folder.resolve("bar-" + i + ".0.jar");
+            Files.write(jar, new byte[1000]);
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(now - TimeUnit.DAYS.toMillis(4 - i)));
+        }
+        Files.write(Paths.get("target/repositories/mirror/org/foo/bar/maven-metadata.xml"), new byte[50]);
+
+        // no quota
+        Map<String, Long> status = repositoryService.evict("mirror");
+        Assert.assertEquals(3050L, (long) status.get("size"));
+        Assert.assertEquals(0L, (long) status.get("evictedFolders"));
+
+        repositoryService.changeQuota("mirror", 2100);
+        status = repositoryService.evict("mirror");
+        Assert.assertEquals(1L, (long) status.get("evictedFolders"));
+        Assert.assertEquals(1000L, (long) status.get("evictedBytes"));
+        Assert.assertEquals(2050L, (long) status.get("size"));
+        Assert.assertFalse(Files.exists(Paths.get("target/repositories/mirror/org/foo/bar/1.0")));
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/mirror/org/foo/bar/2.0/bar-2.0.jar")));
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/mirror/org/foo/bar/3.0/bar-3.0.jar")));
+        Assert.assertTrue(Files.exists(Paths.get("target/repositories/mirror/org/foo/bar/maven-metadata.xml")));
+
+        // the quota is stored in the repositories DB
+        repositoryService.clear();
+        repositoryService.load();
+        Assert.assertEquals(2100L, repositoryService.repository("mirror").getQuota());
+
+        // hosted repositories are not evicted
+        repositoryService.create("test");
+        try {
+            repositoryService.evict("test");
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOffline() throws Exception {
+        repositoryService.create("mirror", "target/repositories/mirror", "/cave/repository/mirror", "http://localhost:1/none@id=none", true, "karaf", null, null, null, null, 8);
+        Assert.assertEquals(60L, repositoryService.repository("mirror").getMetadataTtl());
+        Assert.assertFalse(repositoryService.repository("mirror").isOffline());
+
+        repositoryService.changeMetadataTtl("mirror", 600);
+        repositoryService.changeOffline("mirror", true);
+        Assert.assertTrue(repositoryService.repository("mirror").isOffline());
+
+        // the metadata TTL and offline mode are stored in the repositories DB
+        repositoryService.clear();
+        repositoryService.load();
+        Assert.assertEquals(600L, repositoryService.repository("mirror").getMetadataTtl());
+        Assert.assertTrue(repositoryService.repository("mirror").isOffline());
+
+        try {
+            repositoryService.changeMetadataTtl("mirror", -1);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // hosted repositories can't be offline
+        repositoryService.create("test");
+        try {
+            repositoryService.changeOffline("test", true);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUpstreams() throws Exception {
+        repositoryService.create("proxy", null, "/cave/repository/proxy", "http://localhost:1/none@id=none,http://localhost:1/other", false, "karaf", null, null, null, null, 8);
+        Map<String, Map<String, String>> upstreams = repositoryService.upstreams("proxy");
+        Assert.assertEquals(2, upstreams.size());
+        Assert.assertEquals("closed", upstreams.get("none").get("state"));
+        Assert.assertEquals("0", upstreams.get("upstream1").get("trips"));
+
+        // no upstream for the hosted repositories
+        repositoryService.create("test");
+        Assert.assertTrue(repositoryService.upstreams("test").isEmpty());
+    }
+
+    @Test
+    public void testTransport() throws Exception {
+        Map<String, Long> before = repositoryService.transportStatus();
+        Assert.assertEquals(20L, (long) before.get("maxPerRoute"));
+        repositoryService.create("first", null, "/cave/repository/first", "http://localhost:1/none@id=none", false, "karaf", null, null, null, null, 8);
+        repositoryService.create("second", null, "/cave/repository/second", "http://localhost:1/none@id=none", false, "karaf", null, null, null, null, 8);
+        // the upstream resolver (and its connections pool) is shared by both repositories
+        Map<String, Long> status = repositoryService.transportStatus();
+        Assert.assertEquals(before.get("pools") + 3, (long) status.get("pools"));
+        Assert.assertEquals(before.get("poolUsers") + 4, (long) status.get("poolUsers"));
+
+        // the shared upstream resolver is kept for the other repository
+        repositoryService.remove("first");
+        status = repositoryService.transportStatus();
+        Assert.assertEquals(before.get("pools") + 2, (long) status.get("pools"));
+        Assert.assertEquals(before.get("poolUsers") + 2, (long) status.get("poolUsers"));
+    }
+
+    @Test
+    public void testSnapshotCleanup() throws Exception {
+        repositoryService.create("test");
+        Path folder = Paths.get("target/repositories/test/org/foo/bar/1.0-SNAPSHOT");
+        Files.createDirectories(folder);
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd.HHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String recent = format.format(new Date());
+        String[] builds = { "20200101.100000-1", "20200102.100000-2", "20200103.100000-3", "20200104.100000-4", recent + "-5" };
+        StringBuilder metadata = new StringBuilder("<metadata>\n  <groupId>org.foo</groupId>\n  <artifactId>bar</artifactId>\n  <version>1.0-SNAPSHOT</version>\n"
+                + "  <versioning>\n    <snapshot><timestamp>" + recent + "</timestamp><buildNumber>5</buildNumber></snapshot>\n"
+                + "    <lastUpdated>20200104100000</lastUpdated>\n    <snapshotVersions>");
+        for (String build : builds) {
+            Files.write(folder.resolve("bar-1.0-" + build + ".jar"), new byte[100]);
+            Files.write(folder.resolve("bar-1.0-" + build + ".jar.sha1"), new byte[40]);
+            Files.write(folder.resolve("bar-1.0-" + build + ".pom"), new byte[10]);
+            metadata.append("\n      <snapshotVersion>\n        <extension>jar</extension>\n        <value>1.0-").append(build)
+                    .append("</value>\n        <updated>20200101100000</updated>\n      </snapshotVersion>");
+        }
+        metadata.append("\n    </snapshotVersions>\n  </versioning>\n</metadata>\n");
+        Files.write(folder.resolve("maven-metadata.xml"), metadata.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve("maven-metadata.xml.sha1"), new byte[40]);
+        Files.write(folder.resolve("bar-1.0-SNAPSHOT.jar"), new byte[100]);
+
+        // the last two builds are kept
+        Map<String, Long> result = repositoryService.cleanupSnapshots("test", 2, 0);
+        Assert.assertEquals(1L, (long) result.get("snapshots"));
+        Assert.assertEquals(2L, (long) result.get("keptBuilds"));
+        Assert.assertEquals(3L, (long) result.get("removedBuilds"));
+        Assert.assertEquals(9L, (long) result.get("removedFiles"));
+        Assert.assertEquals(450L, (long) result.get("removedBytes"));
+        Assert.assertFalse(Files.exists(folder.resolve("bar-1.0-20200103.100000-3.jar")));
+        Assert.assertTrue(Files.exists(folder.resolve("bar-1.0-20200104.100000-4.jar")));
+        Assert.assertTrue(Files.exists(folder.resolve("bar-1.0-" + builds[4] + ".pom")));
+        Assert.assertTrue(Files.exists(folder.resolve("bar-1.0-SNAPSHOT.jar")));
+        String rewritten = new String(Files.readAllBytes(folder.resolve("maven-metadata.xml")), StandardCharsets.UTF_8);
+        Assert.assertFalse(rewritten.contains("1.0-20200103.100000-3"));
+        Assert.assertTrue(rewritten.contains("<value>1.0-20200104.100000-4</value>"));
+        Assert.assertTrue(rewritten.contains("<value>1.0-" + builds[4] + "</value>"));
+        Assert.assertFalse(rewritten.contains("<lastUpdated>20200104100000</lastUpdated>"));
+        byte[] sha1 = MessageDigest.getInstance("SHA-1").digest(rewritten.getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(String.format("%040x", new BigInteger(1, sha1)), new String(Files.readAllBytes(folder.resolve("maven-metadata.xml.sha1")), StandardCharsets.US_ASCII));
+
+        // the recent builds are kept
+        result = repositoryService.cleanupSnapshots("test", 1, TimeUnit.DAYS.toSeconds(1));
+        Assert.assertEquals(1L, (long) result.get("removedBuilds"));
+        Assert.assertFalse(Files.exists(folder.resolve("bar-1.0-20200104.100000-4.jar")));
+        Assert.assertTrue(Files.exists(folder.resolve("bar-1.0-" + builds[4] + ".jar")));
+
+        try {
+            repositoryService.cleanupSnapshots("test", 0, 0);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        restart("storage.index", "true");
+
+        repositoryService.create("test");
+        Path folder = Paths.get("target/repositories/test/org/foo/bar/1.0");
+        Files.createDirectories(folder);
+        Files.write(folder.resolve("bar-1.0.jar"), new byte[100]);
+        Files.write(folder.resolve("bar-1.0.pom"), new byte[10]);
+        Map<String, Long> status = repositoryService.index("test", true);
+        for (int i = 0; i < 500 && status.get("ready") == 0; i++) {
+            Thread.sleep(10);
+            status = repositoryService.index("test", false);
+        }
+        Assert.assertEquals(1L, (long) status.get("ready"));
+        Assert.assertEquals(2L, (long) status.get("files"));
+        Assert.assertEquals(4L, (long) status.get("directories"));
+        Assert.assertTrue(status.get("trieBytes") > 0);
+        Assert.assertTrue(status.get("bloomBytes") > 0);
+
+        // the index is updated when an artifact is deleted
+        repositoryService.deleteArtifact("mvn:org.foo/bar/1.0", "test");
+        Assert.assertEquals(1L, (long) repositoryService.index("test", false).get("files"));
+
+        // the proxies are not indexed
+        repositoryService.create("proxy", null, "/cave/repository/proxy", "http://localhost:1/none@id=none", false, "karaf", null, null, null, null, 8);
+        try {
+            repositoryService.index("proxy", false);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGroup() throws Exception {
+        repositoryService.create("releases");
+        repositoryService.create("snapshots");
+        Repository group = repositoryService.createGroup("public", "releases, snapshots");
+        Assert.assertEquals("releases,snapshots", group.getMembers());
+        Assert.assertNull(group.getLocation());
+        Assert.assertEquals("/cave/repository/public", group.getUrl());
+
+        // the members must be existing repositories, and not groups
+        try {
+            repositoryService.createGroup("invalid", "releases,unknown");
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            repositoryService.changeMembers("public", "public,public");
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            repositoryService.changeMembers("releases", "snapshots");
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        repositoryService.changeMembers("public", "snapshots,releases");
+        Assert.assertEquals("snapshots,releases", repositoryService.repository("public").getMembers());
+
+        // a member can't be removed while in a group
+        try {
+            repositoryService.remove("releases");
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the members are stored in the repositories DB
+        repositoryService.save();
+        repositoryService.clear();
+        repositoryService.load();
+        Assert.assertEquals("snapshots,releases", repositoryService.repository("public").getMembers());
+        Assert.assertNull(repositoryService.repository("releases").getMembers());
+    }
+
+    @Test
+    public void testDedup() throws Exception {
+        Assume.assumeTrue(BlobStore.isSupported());
+        restart("storage.dedup", "true");
+
+        byte[] content = new byte[4096];
+        new Random(42).nextBytes(content);
+        for (String name : Arrays.asList("staging", "release")) {
+            repositoryService.create(name);
+            Path folder = Paths.get("target/repositories/" + name + "/org/foo/bar/1.0");
+            Files.createDirectories(folder);
+            Files.write(folder.resolve("bar-1.0.jar"), content);
+            Files.write(folder.resolve("bar-1.0.jar.sha1"), "sha1".getBytes(StandardCharsets.UTF_8));
+            Files.write(folder.getParent().resolve("maven-metadata.xml"), "metadata".getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, Long> result = repositoryService.dedup("staging");
+        Assert.assertEquals(1L, (long) result.get("files"));
+        Assert.assertEquals(1L, (long) result.get("storedFiles"));
+        Assert.assertEquals(0L, (long) result.get("deduplicatedFiles"));
+        result = repositoryService.dedup("release");
+        Assert.assertEquals(1L, (long) result.get("deduplicatedFiles"));
+        Assert.assertEquals(4096L, (long) result.get("deduplicatedBytes"));
+        Path staging = Paths.get("target/repositories/staging/org/foo/bar/1.0/bar-1.0.jar");
+        Path release = Paths.get("target/repositories/release/org/foo/bar/1.0/bar-1.0.jar");
+        Assert.assertTrue(Files.isSameFile(staging, release));
+        Assert.assertArrayEquals(content, Files.readAllBytes(release));
+        Assert.assertEquals(1L, (long) repositoryService.reclaimStatus().get("blobs"));
+        Assert.assertEquals(4096L, (long) repositoryService.reclaimStatus().get("sharedBytes"));
+
+        // an install over a shared path replaces it, without changing the other repository
+        Path update = Paths.get("target/repositories/update.jar");
+        Files.write(update, "updated".getBytes(StandardCharsets.UTF_8));
+        repositoryService.addArtifact(update.toUri().toString(), "org.foo", "bar", "1.0", "jar", null, "release");
+        Assert.assertArrayEquals("updated".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(release));
+        Assert.assertArrayEquals(content, Files.readAllBytes(staging));
+        Assert.assertFalse(Files.isSameFile(staging, release));
+
+        // the copy shares the blob
+        repositoryService.create("copy");
+        repositoryService.copy("staging", "copy", "copy");
+        Path copy = Paths.get("target/repositories/copy/org/foo/bar/1.0/bar-1.0.jar");
+        Assert.assertTrue(Files.isSameFile(staging, copy));
+        Assert.assertFalse(Files.isSameFile(Paths.get("target/repositories/staging/org/foo/bar/maven-metadata.xml"),
+                Paths.get("target/repositories/copy/org/foo/bar/maven-metadata.xml")));
+
+        // the blob is reclaimed only when no repository references it anymore
+        repositoryService.deleteArtifact("mvn:org.foo/bar/1.0", "staging");
+        repositoryService.purge("release");
+        long timeout = System.currentTimeMillis() + 10000;
+        while (repositoryService.reclaimStatus().get("pendingEntries") > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+        }
+        Assert.assertArrayEquals(content, Files.readAllBytes(copy));
+        repositoryService.purge("copy");
+        timeout = System.currentTimeMillis() + 10000;
+        while (repositoryService.reclaimStatus().get("reclaimedBlobs") < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+        }
+        // the blob of the updated release artifact, and the initial blob
+        Assert.assertEquals(2L, (long) repositoryService.reclaimStatus().get("reclaimedBlobs"));
+        Assert.assertEquals(0L, (long) repositoryService.reclaimStatus().get("blobs"));
+    }
+
     @Test
     public void testDeleteArtifactByPath() throws Exception {
         repositoryService.create("test");
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveUploadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIngest() throws Exception {
+        Path root = folder.newFolder("repository").toPath();
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        byte[] jar = new byte[200 * 1024];
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("foo/bar/1.0/"));
+            zip.putNextEntry(new ZipEntry("foo/bar/1.0/bar-1.0.pom"));
+            zip.write("<project/>".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("foo/bar/1.0/bar-1.0.jar"));
+            zip.write(jar);
+            zip.putNextEntry(new ZipEntry("../escape.txt"));
+            zip.write("escape".getBytes(StandardCharsets.UTF_8));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<String> notified = Collections.synchronizedList(new ArrayList<String>());
+            List<ArchiveUpload.Result> results = new ArchiveUpload(root, executor, new ArchiveUpload.Listener() {
+                @Override
+                public void installed(String path, ArtifactUpload upload) {
+                    notified.add(path);
+                }
+            }).ingest(new ByteArrayInputStream(archive.toByteArray()), "application/zip", "");
+            Assert.assertEquals(3, results.size());
+            Assert.assertEquals(new HashSet<>(Arrays.asList("foo/bar/1.0/bar-1.0.pom", "foo/bar/1.0/bar-1.0.jar")), new HashSet<>(notified));
+            int installed = 0;
+            for (ArchiveUpload.Result result : results) {
+                if (result.isInstalled()) {
+                    installed++;
+                } else {
+                    Assert.assertEquals("../escape.txt", result.getPath());
+                }
+            }
+            Assert.assertEquals(2, installed);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals("<project/>", new String(Files.readAllBytes(root.resolve("foo/bar/1.0/bar-1.0.pom")), StandardCharsets.UTF_8));
+        Assert.assertEquals(jar.length, Files.size(root.resolve("foo/bar/1.0/bar-1.0.jar")));
+        Assert.assertFalse(Files.exists(root.resolveSibling("escape.txt")));
+        // the checksum files are written like for a single upload
+        StringBuilder sha1 = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(jar)) {
+            sha1.append(String.format("%02x", b));
+        }
+        Assert.assertEquals(sha1.toString(), new String(Files.readAllBytes(root.resolve("foo/bar/1.0/bar-1.0.jar.sha1")), StandardCharsets.US_ASCII));
+        Assert.assertTrue(Files.exists(root.resolve("foo/bar/1.0/bar-1.0.pom.md5")));
+    }
+
+    @Test
+    public void testHiddenEntries() throws Exception {
+        Path root = folder.newFolder("repository").toPath();
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry(".cave-metadata/foo/bar/maven-metadata.xml"));
+            zip.write("<metadata/>".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("foo/bar/.cave-compressed/maven-metadata.xml.gz"));
+            zip.write("gzip".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("foo/bar/maven-metadata.xml"));
+            zip.write("<metadata/>".getBytes(StandardCharsets.UTF_8));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<ArchiveUpload.Result> results = new ArchiveUpload(root, executor, null)
+                    .ingest(new ByteArrayInputStream(archive.toByteArray()), "application/zip", "");
+            Assert.assertEquals(3, results.size());
+            for (ArchiveUpload.Result result : results) {
+                Assert.assertEquals(result.getPath(), result.getPath().equals("foo/bar/maven-metadata.xml"), result.isInstalled());
+            }
+            // the base path is checked as well
+            results = new ArchiveUpload(root, executor, null)
+                    .ingest(new ByteArrayInputStream(archive.toByteArray()), "application/zip", ".cave-cleanup-1");
+            for (ArchiveUpload.Result result : results) {
+                Assert.assertFalse(result.isInstalled());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertFalse(Files.exists(root.resolve(".cave-metadata")));
+        Assert.assertFalse(Files.exists(root.resolve("foo/bar/.cave-compressed")));
+        Assert.assertFalse(Files.exists(root.resolve(".cave-cleanup-1")));
+    }
+
+    @Test
+    public void testBoundedBuffers() throws Exception {
+        Path root = folder.newFolder("repository").toPath();
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (int i = 0; i < 200; i++) {
+                zip.putNextEntry(new ZipEntry("foo/bar/1." + i + "/bar-1." + i + ".pom"));
+                zip.write(new byte[1024]);
+            }
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // block the writes
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            final ArchiveUpload upload = new ArchiveUpload(root, executor, null);
+            final AtomicReference<List<ArchiveUpload.Result>> results = new AtomicReference<>();
+            Thread ingest = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.set(upload.ingest(new ByteArrayInputStream(archive.toByteArray()), "application/zip", ""));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            ingest.start();
+            for (int i = 0; i < 500 && executor.getQueue().size() < 64; i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            // the archive reading waits for the pending writes
+            Assert.assertEquals(64, executor.getQueue().size());
+            Assert.assertTrue(ingest.isAlive());
+
+            release.countDown();
+            ingest.join(10000);
+            Assert.assertEquals(200, results.get().size());
+            for (ArchiveUpload.Result result : results.get()) {
+                Assert.assertTrue(result.isInstalled());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+}
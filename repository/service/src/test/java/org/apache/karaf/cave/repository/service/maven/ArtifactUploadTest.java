@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArtifactUploadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUpload() throws Exception {
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(jar)) {
+            zip.putNextEntry(new ZipEntry("META-INF/maven/foo.bar/test/pom.properties"));
+            zip.write("groupId=foo.bar\nartifactId=test\nversion=1.0\n".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("foo/Bar.class"));
+            zip.write(new byte[1024]);
+        }
+        Path root = folder.newFolder("test").toPath();
+        ArtifactUpload upload = new ArtifactUpload(root);
+        upload.stage(new ByteArrayInputStream(jar.toByteArray()), true);
+        Assert.assertEquals(jar.size(), upload.getSize());
+        Assert.assertEquals("foo/bar/test/1.0/test-1.0.jar", upload.getMvnCoordsPath("jar"));
+        upload.commit(root.resolve(upload.getMvnCoordsPath("jar")), true);
+        Path artifact = root.resolve("foo/bar/test/1.0/test-1.0.jar");
+        Assert.assertArrayEquals(jar.toByteArray(), Files.readAllBytes(artifact));
+        StringBuilder sha1 = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(jar.toByteArray())) {
+            sha1.append(String.format("%02x", b));
+        }
+        Assert.assertEquals(sha1.toString(), new String(Files.readAllBytes(root.resolve("foo/bar/test/1.0/test-1.0.jar.sha1")), StandardCharsets.US_ASCII));
+        Assert.assertTrue(Files.exists(root.resolve("foo/bar/test/1.0/test-1.0.jar.md5")));
+        Assert.assertTrue(Files.exists(root.resolve("foo/bar/test/1.0/test-1.0.jar.sha256")));
+        Assert.assertTrue(Files.exists(root.resolve("foo/bar/test/1.0/test-1.0.jar.sha512")));
+        // no staging leftover
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, ".cave-upload-*")) {
+            Assert.assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoalescerTest {
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final AtomicInteger cleaned = new AtomicInteger();
+        Coalescer<String> coalescer = new Coalescer<>(new Coalescer.Cleaner<String>() {
+            @Override
+            public void clean(String value) {
+                cleaned.incrementAndGet();
+            }
+        });
+        Coalescer<String>.Participant leader = coalescer.join("a");
+        Coalescer<String>.Participant follower = coalescer.join("a");
+        Assert.assertTrue(leader.isLeader());
+        Assert.assertFalse(follower.isLeader());
+        Assert.assertTrue(coalescer.join("b").isLeader());
+        Assert.assertEquals(2, coalescer.size());
+
+        leader.complete("value");
+        Assert.assertEquals("value", follower.future().get());
+        Assert.assertTrue(leader.claim());
+        Assert.assertFalse(leader.claim());
+        Assert.assertFalse(leader.release());
+        Assert.assertEquals(0, cleaned.get());
+        // a new participant joins the completed computation while the value is still used
+        Coalescer<String>.Participant late = coalescer.join("a");
+        Assert.assertFalse(late.isLeader());
+        Assert.assertEquals("value", late.future().getNow(null));
+        follower.claim();
+        follower.release();
+        late.claim();
+        late.release();
+        Assert.assertEquals(1, cleaned.get());
+        Assert.assertEquals(1, coalescer.size());
+
+        // a new computation once the value is released
+        Assert.assertTrue(coalescer.join("a").isLeader());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final AtomicInteger cleaned = new AtomicInteger();
+        Coalescer<String> coalescer = new Coalescer<>(new Coalescer.Cleaner<String>() {
+            @Override
+            public void clean(String value) {
+                cleaned.incrementAndGet();
+            }
+        });
+        Coalescer<String>.Participant leader = coalescer.join("a");
+        Coalescer<String>.Participant follower = coalescer.join("a");
+        // all the participants give up before the completion
+        Assert.assertTrue(leader.claim());
+        Assert.assertFalse(leader.release());
+        Assert.assertTrue(follower.claim());
+        Assert.assertTrue(follower.release());
+        Assert.assertTrue(leader.isCancelled());
+        Assert.assertEquals(0, coalescer.size());
+        // the value computed after the cancellation is cleaned
+        leader.complete("value");
+        Assert.assertEquals(1, cleaned.get());
+
+        // the failures are not cleaned
+        Coalescer<String>.Participant failing = coalescer.join("a");
+        Assert.assertTrue(failing.isLeader());
+        failing.completeExceptionally(new IllegalStateException());
+        Assert.assertTrue(failing.future().isCompletedExceptionally());
+        failing.claim();
+        Assert.assertFalse(failing.release());
+        Assert.assertEquals(1, cleaned.get());
+    }
+
+    @Test
+    public void testStress() throws Exception {
+        final int requests = 10000;
+        final int paths = 8;
+        final AtomicInteger computed = new AtomicInteger();
+        final AtomicInteger cleaned = new AtomicInteger();
+        final AtomicInteger abandoned = new AtomicInteger();
+        final Coalescer<Integer> coalescer = new Coalescer<>(new Coalescer.Cleaner<Integer>() {
+            @Override
+            public void clean(Integer value) {
+                cleaned.incrementAndGet();
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(200);
+        final CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            final String path = "path-" + (i % paths);
+            final boolean giveUp = i % 10 == 0;
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    startGate.await();
+                    Coalescer<Integer>.Participant participant = coalescer.join(path);
+                    if (participant.isLeader()) {
+                        Thread.sleep(5);
+                        participant.complete(computed.incrementAndGet());
+                    }
+                    if (giveUp && participant.claim()) {
+                        // timeout before the completion
+                        abandoned.incrementAndGet();
+                        participant.release();
+                        return true;
+                    }
+                    Integer value = participant.future().get(30, TimeUnit.SECONDS);
+                    if (!participant.claim()) {
+                        return false;
+                    }
+                    participant.release();
+                    return value != null;
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get(60, TimeUnit.SECONDS));
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdown();
+
+        Assert.assertEquals(requests / 10, abandoned.get());
+        // the concurrent requests are coalesced: far less computations than requests
+        Assert.assertTrue("Computed " + computed.get() + " values for " + requests + " requests in " + elapsed + " ms",
+                computed.get() < requests / 5);
+        // all the values are cleaned once, and nothing is left in flight
+        Assert.assertEquals(computed.get(), cleaned.get());
+        Assert.assertEquals(0, coalescer.size());
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DirectoryListingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testList() throws Exception {
+        Path root = folder.newFolder("test", "foo", "bar").toPath();
+        Files.createDirectories(root.resolve("2.0"));
+        Files.write(root.resolve("bar.jar"), "content".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("bar.jar.sha1"), "040f06fd774092478d450774f5ba30c5da78acc8".getBytes(StandardCharsets.US_ASCII));
+        Files.createDirectories(root.resolve("1.0"));
+        Files.write(root.resolve(".staging.tmp"), new byte[0]);
+
+        DirectoryListing listing = new DirectoryListing(16);
+        DirectoryListing.Page page = listing.list(root, null, 2);
+        Assert.assertEquals(2, page.getEntries().size());
+        Assert.assertEquals("1.0", page.getEntries().get(0).getName());
+        Assert.assertTrue(page.getEntries().get(0).isDirectory());
+        Assert.assertEquals("2.0", page.getEntries().get(1).getName());
+        Assert.assertEquals("2.0", page.getNext());
+
+        page = listing.list(root, page.getNext(), 2);
+        Assert.assertEquals(2, page.getEntries().size());
+        Assert.assertEquals("bar.jar", page.getEntries().get(0).getName());
+        Assert.assertEquals(7, page.getEntries().get(0).getSize());
+        Assert.assertEquals("040f06fd774092478d450774f5ba30c5da78acc8", page.getEntries().get(0).getChecksum());
+        Assert.assertNull(page.getEntries().get(1).getChecksum());
+        Assert.assertNull(page.getNext());
+
+        // cached listing is refreshed after invalidation
+        Files.write(root.resolve("bar.jar"), "new content".getBytes(StandardCharsets.UTF_8));
+        listing.invalidate(root.resolve("bar.jar"));
+        page = listing.list(root, "2.0", 1);
+        Assert.assertEquals(11, page.getEntries().get(0).getSize());
+    }
+
+}
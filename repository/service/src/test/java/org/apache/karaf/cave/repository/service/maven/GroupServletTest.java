@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.apache.karaf.cave.repository.service.storage.AccessTracker;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class GroupServletTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String METADATA_PATH = "org/foo/bar/maven-metadata.xml";
+
+    @Test
+    public void testGroup() throws Exception {
+        Path releases = folder.newFolder("releases").toPath();
+        Path staging = folder.newFolder("staging").toPath();
+        write(releases, "org/foo/bar/1.0/bar-1.0.jar", "releases");
+        write(releases, METADATA_PATH, metadata("1.0", "20200101000000"));
+        write(staging, "org/foo/bar/1.0/bar-1.0.jar", "staging");
+        write(staging, "org/foo/bar/2.0/bar-2.0.jar", "staging");
+        write(staging, METADATA_PATH, metadata("2.0", "20200201000000"));
+
+        Map<String, MavenServlet> servlets = new HashMap<>();
+        servlets.put("releases", member("releases", releases));
+        servlets.put("staging", member("staging", staging));
+        GroupServlet group = new GroupServlet(servlets, Arrays.asList("releases", "staging", "unknown"), TimeUnit.MINUTES.toMillis(1),
+                new RepositoryMetrics(), new AccessTracker(), "group", 1, "karaf", null);
+
+        // the artifacts are looked up in the members order
+        try (MavenServlet.Fetched fetched = group.artifact("org/foo/bar/1.0/bar-1.0.jar", group.getMembers(), new GroupServlet.Result())) {
+            Assert.assertEquals("releases", read(fetched));
+            Assert.assertTrue(fetched.isLocal());
+        }
+        try (MavenServlet.Fetched fetched = group.artifact("org/foo/bar/2.0/bar-2.0.jar", group.getMembers(), new GroupServlet.Result())) {
+            Assert.assertEquals("staging", read(fetched));
+        }
+        Assert.assertNull(group.artifact("org/foo/bar/3.0/bar-3.0.jar", group.getMembers(), new GroupServlet.Result()));
+
+        // the metadata of the members are merged
+        byte[] merged = group.metadata(METADATA_PATH, group.getMembers(), new GroupServlet.Result());
+        String content = new String(merged, StandardCharsets.UTF_8);
+        Assert.assertTrue(content.contains("<version>1.0</version>"));
+        Assert.assertTrue(content.contains("<version>2.0</version>"));
+        Assert.assertTrue(content.contains("<release>2.0</release>"));
+        byte[] sha1 = group.metadata(METADATA_PATH + ".sha1", group.getMembers(), new GroupServlet.Result());
+        Assert.assertEquals(ArtifactUpload.hex(MessageDigest.getInstance("SHA-1").digest(merged)), new String(sha1, StandardCharsets.UTF_8));
+        Assert.assertNull(group.metadata("org/foo/baz/maven-metadata.xml", group.getMembers(), new GroupServlet.Result()));
+
+        // the merge result is served from the cache for the TTL
+        write(staging, METADATA_PATH, metadata("3.0", "20200301000000"));
+        Assert.assertSame(merged, group.metadata(METADATA_PATH, group.getMembers(), new GroupServlet.Result()));
+
+        // and then merged again if the members metadata changed
+        group.setTtl(0);
+        merged = group.metadata(METADATA_PATH, group.getMembers(), new GroupServlet.Result());
+        Assert.assertTrue(new String(merged, StandardCharsets.UTF_8).contains("<version>3.0</version>"));
+        Assert.assertSame(merged, group.metadata(METADATA_PATH, group.getMembers(), new GroupServlet.Result()));
+    }
+
+    @Test
+    public void testProtectedMember() throws Exception {
+        Path releases = folder.newFolder("releases").toPath();
+        Path internal = folder.newFolder("internal").toPath();
+        write(releases, METADATA_PATH, metadata("1.0", "20200101000000"));
+        write(internal, "org/foo/bar/2.0/bar-2.0.jar", "internal");
+        write(internal, METADATA_PATH, metadata("2.0", "20200201000000"));
+
+        Map<String, MavenServlet> servlets = new HashMap<>();
+        servlets.put("releases", member("releases", releases, null));
+        servlets.put("internal", member("internal", internal, "internal"));
+        GroupServlet group = new GroupServlet(servlets, Arrays.asList("releases", "internal"), TimeUnit.MINUTES.toMillis(1),
+                new RepositoryMetrics(), new AccessTracker(), "group", 1, "karaf", null);
+
+        // the anonymous requests can't read the protected member
+        HttpServletRequest anonymous = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(anonymous.getHeader("Authorization")).andReturn(null).anyTimes();
+        EasyMock.replay(anonymous);
+        List<String> readable = group.readable(anonymous);
+        Assert.assertEquals(Arrays.asList("releases"), readable);
+        Assert.assertNull(group.artifact("org/foo/bar/2.0/bar-2.0.jar", readable, new GroupServlet.Result()));
+        byte[] merged = group.metadata(METADATA_PATH, readable, new GroupServlet.Result());
+        Assert.assertFalse(new String(merged, StandardCharsets.UTF_8).contains("<version>2.0</version>"));
+
+        // the merged metadata are cached per readable members
+        merged = group.metadata(METADATA_PATH, group.getMembers(), new GroupServlet.Result());
+        Assert.assertTrue(new String(merged, StandardCharsets.UTF_8).contains("<version>2.0</version>"));
+        merged = group.metadata(METADATA_PATH, readable, new GroupServlet.Result());
+        Assert.assertFalse(new String(merged, StandardCharsets.UTF_8).contains("<version>2.0</version>"));
+
+        // a member with the group realm and download role is authorized by the group
+        GroupServlet protectedGroup = new GroupServlet(servlets, Arrays.asList("releases", "internal"), TimeUnit.MINUTES.toMillis(1),
+                new RepositoryMetrics(), new AccessTracker(), "protected", 1, "karaf", "internal");
+        Assert.assertEquals(Arrays.asList("releases", "internal"), protectedGroup.readable(anonymous));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        byte[] first = metadata("1.0", "20200101000000").getBytes(StandardCharsets.UTF_8);
+        Assert.assertSame(first, GroupServlet.merge(Arrays.asList(first)));
+        byte[] merged = GroupServlet.merge(Arrays.asList(first, "invalid".getBytes(StandardCharsets.UTF_8),
+                metadata("1.1", "20200102000000").getBytes(StandardCharsets.UTF_8)));
+        String content = new String(merged, StandardCharsets.UTF_8);
+        Assert.assertTrue(content.contains("<version>1.0</version>"));
+        Assert.assertTrue(content.contains("<version>1.1</version>"));
+        Assert.assertTrue(content.contains("<lastUpdated>20200102000000</lastUpdated>"));
+    }
+
+    private static MavenServlet member(String name, Path location) {
+        return member(name, location, null);
+    }
+
+    private static MavenServlet member(String name, Path location, String downloadRole) {
+        return new MavenServlet(null, new DirectoryListing(0), null, new RepositoryMetrics(), new AccessTracker(), null, null, null,
+                name, location.toString(), 1, "karaf", downloadRole, null, 0);
+    }
+
+    private static String metadata(String version, String lastUpdated) {
+        return "<metadata><groupId>org.foo</groupId><artifactId>bar</artifactId><versioning>"
+                + "<latest>" + version + "</latest><release>" + version + "</release>"
+                + "<versions><version>" + version + "</version></versions>"
+                + "<lastUpdated>" + lastUpdated + "</lastUpdated></versioning></metadata>";
+    }
+
+    private static void write(Path root, String path, String content) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(MavenServlet.Fetched fetched) throws Exception {
+        return new String(Files.readAllBytes(fetched.getFile().toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MavenCoordTest {
+
+    private static final String SNAPSHOT_TIMESTAMP_REGEX = "^([0-9]{8}.[0-9]{6}-[0-9]+).*";
+    private static final Pattern SNAPSHOT_TIMESTAMP_PATTERN = Pattern.compile(SNAPSHOT_TIMESTAMP_REGEX);
+
+    private static final String[] TOKENS = { "/", "/", "/", "-", ".", " ", "a", "b", "1", "2.0", "foo", "SNAPSHOT", "-SNAPSHOT",
+            "20200101.123456-1", "20200101.123456-42", "maven-metadata", "xml", ".xml", ".sha1", "-sources", "jar", "\n", "-central" };
+
+    @Test
+    public void testArtifactPath() throws Exception {
+        MavenCoord coord = MavenCoord.parseArtifactPath("org/apache/karaf/cave/foo/1.0/foo-1.0-features.xml");
+        Assert.assertEquals("org.apache.karaf.cave", coord.getGroupId());
+        Assert.assertEquals("foo", coord.getArtifactId());
+        Assert.assertEquals("1.0", coord.getVersion());
+        Assert.assertEquals("xml", coord.getType());
+        Assert.assertEquals("features", coord.getClassifier());
+
+        coord = MavenCoord.parseArtifactPath("foo/bar/1.0-SNAPSHOT/bar-1.0-20200101.123456-3.jar");
+        Assert.assertEquals("1.0-20200101.123456-3", coord.getVersion());
+        Assert.assertEquals("jar", coord.getType());
+        Assert.assertEquals("", coord.getClassifier());
+
+        coord = MavenCoord.parseArtifactPath("foo/bar/1.0-SNAPSHOT/bar-1.0-SNAPSHOT.pom.sha1");
+        Assert.assertEquals("1.0-SNAPSHOT", coord.getVersion());
+        Assert.assertEquals("pom.sha1", coord.getType());
+
+        Assert.assertNull(MavenCoord.parseArtifactPath("foo/bar/1.0"));
+        Assert.assertNull(MavenCoord.parseArtifactPath("foo/bar/1.0/"));
+        Assert.assertNull(MavenCoord.parseArtifactPath("foo/bar/1.0/bar 1.0.jar"));
+    }
+
+    @Test
+    public void testMetadataPath() throws Exception {
+        MavenCoord coord = MavenCoord.parseMetadataPath("org/apache/karaf/cave/foo/1.0-SNAPSHOT/maven-metadata.xml");
+        Assert.assertEquals("org.apache.karaf.cave", coord.getGroupId());
+        Assert.assertEquals("foo", coord.getArtifactId());
+        Assert.assertEquals("1.0-SNAPSHOT", coord.getVersion());
+        Assert.assertEquals("maven-metadata.xml", coord.getType());
+
+        coord = MavenCoord.parseMetadataPath("org/apache/foo/1.0/maven-metadata-central.xml.sha1");
+        Assert.assertEquals("maven-metadata.xml.sha1", coord.getType());
+
+        Assert.assertNull(MavenCoord.parseMetadataPath("org/apache/foo/1.0/foo-1.0.jar"));
+    }
+
+    /**
+     * Property based test: random paths built from Maven-like tokens must be parsed exactly as the regular expressions
+     * previously used by the servlet.
+     */
+    @Test
+    public void testEquivalenceWithRegex() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            String path = randomPath(random);
+            assertSameMetadata(path);
+            assertSameArtifact(path);
+        }
+    }
+
+    private static String randomPath(Random random) {
+        StringBuilder builder = new StringBuilder();
+        // most paths look like a real Maven path, others are random token sequences
+        if (random.nextInt(3) > 0) {
+            String artifactId = random.nextBoolean() ? "foo" : "a";
+            String baseVersion = random.nextBoolean() ? "1" : "2.0";
+            String version = random.nextBoolean() ? baseVersion + "-SNAPSHOT" : baseVersion;
+            builder.append("org/").append(random.nextBoolean() ? "apache/" : "").append(artifactId).append('/').append(version).append('/');
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.append("maven-metadata");
+                    break;
+                case 1:
+                    builder.append(artifactId).append('-').append(baseVersion).append("-20200101.123456-").append(random.nextInt(20));
+                    break;
+                default:
+                    builder.append(artifactId).append('-').append(version);
+            }
+        }
+        int count = random.nextInt(6);
+        for (int i = 0; i < count; i++) {
+            builder.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static void assertSameArtifact(String path) {
+        MavenCoord expected;
+        Exception expectedFailure = null;
+        try {
+            expected = regexArtifact(path);
+        } catch (Exception e) {
+            expected = null;
+            expectedFailure = e;
+        }
+        MavenCoord actual;
+        Exception actualFailure = null;
+        try {
+            actual = MavenCoord.parseArtifactPath(path);
+        } catch (Exception e) {
+            actual = null;
+            actualFailure = e;
+        }
+        Assert.assertEquals("Failure for [" + path + "]", expectedFailure != null, actualFailure != null);
+        Assert.assertEquals("Coordinates for [" + path + "]", expected, actual);
+        Assert.assertEquals("Match for [" + path + "]", MavenServlet.ARTIFACT_REQUEST_URL_REGEX.matcher(path).matches(), MavenCoord.isArtifactPath(path));
+    }
+
+    private static void assertSameMetadata(String path) throws Exception {
+        Assert.assertEquals("Metadata for [" + path + "]", regexMetadata(path), MavenCoord.parseMetadataPath(path));
+    }
+
+    /**
+     * Previous regex based implementation.
+     */
+    private static MavenCoord regexArtifact(String path) {
+        Matcher pathMatcher = MavenServlet.ARTIFACT_REQUEST_URL_REGEX.matcher(path);
+        if (pathMatcher.matches()) {
+            String groupId = pathMatcher.group(1).replaceAll("/", ".");
+            String artifactId = pathMatcher.group(2);
+            String version = pathMatcher.group(3);
+            String filename = pathMatcher.group(4);
+            String extension;
+            String classifier = "";
+            String filePerfix = artifactId + "-" + version;
+            String stripedFileName;
+
+            if (version.endsWith("SNAPSHOT")) {
+                String baseVersion = version.replaceAll("-SNAPSHOT", "");
+                String timestampedFileName = filename.substring(artifactId.length() + baseVersion.length() + 2);
+                Matcher ts = SNAPSHOT_TIMESTAMP_PATTERN.matcher(timestampedFileName);
+                if (ts.matches()) {
+                    version = baseVersion + "-" + ts.group(1);
+                    filePerfix = artifactId + "-" + version;
+                }
+                stripedFileName = filename.replaceAll(SNAPSHOT_TIMESTAMP_REGEX, "SNAPSHOT");
+                stripedFileName = stripedFileName.substring(filePerfix.length());
+            } else {
+                stripedFileName = filename.substring(filePerfix.length());
+            }
+
+            if (stripedFileName.startsWith("-") && stripedFileName.contains(".")) {
+                classifier = stripedFileName.substring(1, stripedFileName.indexOf('.'));
+            }
+            extension = stripedFileName.substring(stripedFileName.indexOf('.') + 1);
+            return new MavenCoord(groupId, artifactId, version, extension, classifier);
+        }
+        return null;
+    }
+
+    /**
+     * Previous regex based implementation.
+     */
+    private static MavenCoord regexMetadata(String path) {
+        Matcher pathMatcher = MavenServlet.ARTIFACT_METADATA_URL_REGEX.matcher(path);
+        if (pathMatcher.matches()) {
+            String type = pathMatcher.group(8);
+            return new MavenCoord(pathMatcher.group(1).replaceAll("/", "."), pathMatcher.group(2), pathMatcher.group(3),
+                    type == null ? "maven-metadata.xml" : "maven-metadata.xml." + type, null);
+        }
+        return null;
+    }
+
+}
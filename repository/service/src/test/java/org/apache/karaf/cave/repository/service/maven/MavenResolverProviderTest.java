@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ops4j.pax.url.mvn.MavenResolver;
+
+import java.util.Hashtable;
+
+public class MavenResolverProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvict() throws Exception {
+        Hashtable<String, String> config = new Hashtable<>();
+        config.put("org.ops4j.pax.url.mvn.localRepository", folder.newFolder("local").getAbsolutePath());
+        config.put("org.ops4j.pax.url.mvn.repositories", "");
+        try (MavenResolverProvider provider = new MavenResolverProvider(config)) {
+            Assert.assertFalse(provider.isCreated());
+            MavenResolver resolver = provider.acquire();
+            Assert.assertTrue(provider.isCreated());
+
+            // not evicted while in use, whatever the idle time
+            Assert.assertFalse(provider.evict(0));
+            Assert.assertSame(resolver, provider.get());
+            provider.release();
+
+            // evicted once released and idle
+            Assert.assertFalse(provider.evict(60000));
+            Assert.assertTrue(provider.evict(0));
+            Assert.assertFalse(provider.isCreated());
+
+            // created again on the next use
+            Assert.assertNotSame(resolver, provider.acquire());
+            provider.release();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.apache.karaf.cave.repository.service.storage.AccessTracker;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class MetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCache() throws Exception {
+        Path root = folder.newFolder("metadata-cache").toPath().toAbsolutePath();
+        MetadataCache cache = new MetadataCache(root);
+        cache.setTtl(TimeUnit.MINUTES.toMillis(1));
+        String path = "org/foo/bar/maven-metadata.xml";
+        Assert.assertNull(cache.get(path));
+
+        File resolved = folder.newFile("metadata.xml");
+        Files.write(resolved.toPath(), "<metadata/>".getBytes(StandardCharsets.UTF_8));
+        cache.put(path, resolved);
+        Path cached = cache.get(path);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals("<metadata/>", new String(Files.readAllBytes(cached), StandardCharsets.UTF_8));
+        Assert.assertFalse(cache.isStale(cache.age(cached)));
+
+        // stale after the TTL
+        Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2)));
+        Assert.assertTrue(cache.isStale(cache.age(cached)));
+
+        // no TTL: always stale
+        cache.setTtl(0);
+        cache.put(path, resolved);
+        Assert.assertTrue(cache.isStale(cache.age(cache.get(path))));
+
+        // a single refresh at a time
+        Assert.assertTrue(cache.startRefresh(path));
+        Assert.assertFalse(cache.startRefresh(path));
+        cache.endRefresh(path);
+        Assert.assertTrue(cache.startRefresh(path));
+        cache.endRefresh(path);
+
+        // outside of the cache
+        Assert.assertNull(cache.get("../../pom.xml"));
+        cache.put("../outside.xml", resolved);
+        Assert.assertFalse(Files.exists(root.resolve("../outside.xml")));
+
+        // the metadata of the artifact and version folders are invalidated by an upload
+        cache.put("org/foo/bar/1.0-SNAPSHOT/maven-metadata.xml", resolved);
+        cache.put("org/foo/baz/maven-metadata.xml", resolved);
+        cache.invalidate("org/foo/bar/1.0-SNAPSHOT/bar-1.0-20200101.123456-1.jar");
+        Assert.assertNull(cache.get("org/foo/bar/1.0-SNAPSHOT/maven-metadata.xml"));
+        Assert.assertNull(cache.get(path));
+        Assert.assertNotNull(cache.get("org/foo/baz/maven-metadata.xml"));
+    }
+
+    @Test
+    public void testUploadRejected() throws Exception {
+        Path location = folder.newFolder("repository").toPath().toAbsolutePath();
+        MavenServlet servlet = new MavenServlet(null, new DirectoryListing(0), null, new RepositoryMetrics(), new AccessTracker(), null, null, null,
+                "proxy", location.toString(), 1, "karaf", null, null, 0);
+
+        // the metadata cache of a proxy can't be uploaded
+        HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+        EasyMock.expect(request.getPathInfo()).andReturn("/" + MetadataCache.CACHE_FOLDER + "/org/foo/bar/maven-metadata.xml").anyTimes();
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        EasyMock.replay(request, response);
+        servlet.doPut(request, response);
+        EasyMock.verify(response);
+
+        request = EasyMock.createNiceMock(HttpServletRequest.class);
+        EasyMock.expect(request.getPathInfo()).andReturn("/org/foo/" + MetadataCache.CACHE_FOLDER).anyTimes();
+        response = EasyMock.createMock(HttpServletResponse.class);
+        response.sendError(EasyMock.eq(HttpServletResponse.SC_BAD_REQUEST), EasyMock.anyString());
+        EasyMock.replay(request, response);
+        servlet.doPost(request, response);
+        EasyMock.verify(response);
+
+        Assert.assertFalse(Files.exists(location.resolve(MetadataCache.CACHE_FOLDER)));
+        Assert.assertTrue(MavenServlet.isHiddenPath("org/foo/.cave-compressed/bar.jar.gz"));
+        Assert.assertTrue(MavenServlet.isHiddenPath("org\\..\\..\\bar.jar"));
+        Assert.assertFalse(MavenServlet.isHiddenPath("org/foo/bar/1.0/bar-1.0.jar"));
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class PathIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIndex() throws Exception {
+        Path location = folder.newFolder("index").toPath();
+        write(location, "org/foo/bar/1.0/bar-1.0.jar");
+        write(location, "org/foo/bar/1.0/bar-1.0.jar.sha1");
+        write(location, "org/foo/bar/1.0/bar-1.0.pom");
+        write(location, "org/foo/baz/2.0/baz-2.0.jar");
+        write(location, "com/acme/widget/1.0/widget-1.0.jar");
+        write(location, "repository.xml");
+        write(location, ".cave-trash/ignored.jar");
+        Files.createDirectories(location.resolve("empty"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            PathIndex index = new PathIndex(location, 0.01, executor);
+            // the filesystem is used until the index is built
+            Assert.assertTrue(index.isFile("org/foo/bar/1.0/bar-1.0.jar"));
+            index.rebuild();
+            await(index);
+
+            Assert.assertTrue(index.isFile("org/foo/bar/1.0/bar-1.0.jar"));
+            Assert.assertTrue(index.isFile("org/foo/bar/1.0/bar-1.0.jar.sha1"));
+            Assert.assertTrue(index.isFile("repository.xml"));
+            Assert.assertFalse(index.isFile("org/foo/bar/1.0/bar-1.0-sources.jar"));
+            Assert.assertFalse(index.isFile("org/foo/bar/1.0"));
+            Assert.assertFalse(index.isFile("net/other/1.0/other-1.0.jar"));
+            Assert.assertTrue(index.isDirectory(""));
+            Assert.assertTrue(index.isDirectory("org/foo"));
+            Assert.assertTrue(index.isDirectory("com/acme/widget/"));
+            Assert.assertFalse(index.isDirectory("com/acme/widget/1.0/widget-1.0.jar"));
+            Assert.assertFalse(index.isDirectory("empty"));
+
+            Map<String, Long> status = index.status();
+            Assert.assertEquals(1L, (long) status.get("ready"));
+            Assert.assertEquals(6L, (long) status.get("files"));
+            Assert.assertEquals(10L, (long) status.get("directories"));
+            // com/acme/widget/1.0/widget-1.0.jar is a single node
+            Assert.assertTrue(status.get("nodes") < status.get("files") + status.get("directories"));
+            Assert.assertTrue(status.get("trieBytes") > 0);
+            Assert.assertTrue(status.get("bloomBytes") > 0);
+            Assert.assertTrue(status.get("bloomRejected") + status.get("trieMisses") >= 4);
+
+            // listings, including inside a chain of single child directories
+            DirectoryListing.Page page = index.list("", null, 10);
+            Assert.assertEquals(3, page.getEntries().size());
+            Assert.assertEquals("com", page.getEntries().get(0).getName());
+            Assert.assertTrue(page.getEntries().get(0).isDirectory());
+            Assert.assertEquals("repository.xml", page.getEntries().get(2).getName());
+            Assert.assertFalse(page.getEntries().get(2).isDirectory());
+            page = index.list("com/acme", null, 10);
+            Assert.assertEquals(1, page.getEntries().size());
+            Assert.assertEquals("widget", page.getEntries().get(0).getName());
+            page = index.list("com/acme/widget/1.0", null, 10);
+            Assert.assertEquals("widget-1.0.jar", page.getEntries().get(0).getName());
+            Assert.assertEquals(Files.size(location.resolve("com/acme/widget/1.0/widget-1.0.jar")), page.getEntries().get(0).getSize());
+            page = index.list("org/foo/bar/1.0", null, 2);
+            Assert.assertEquals(2, page.getEntries().size());
+            Assert.assertEquals("bar-1.0.jar.sha1", page.getNext());
+            page = index.list("org/foo/bar/1.0", page.getNext(), 2);
+            Assert.assertEquals(1, page.getEntries().size());
+            Assert.assertEquals("bar-1.0.pom", page.getEntries().get(0).getName());
+            Assert.assertNull(page.getNext());
+            Assert.assertNull(index.list("net", null, 10));
+
+            // upload in a chain of single child directories, with its checksum
+            write(location, "com/acme/widget/2.0/widget-2.0.jar");
+            write(location, "com/acme/widget/2.0/widget-2.0.jar.sha1");
+            index.refresh(location.resolve("com/acme/widget/2.0/widget-2.0.jar"));
+            Assert.assertTrue(index.isFile("com/acme/widget/2.0/widget-2.0.jar"));
+            Assert.assertTrue(index.isFile("com/acme/widget/2.0/widget-2.0.jar.sha1"));
+            Assert.assertTrue(index.isFile("com/acme/widget/1.0/widget-1.0.jar"));
+            Assert.assertEquals(2, index.list("com/acme/widget", null, 10).getEntries().size());
+
+            // delete
+            delete(location, "com/acme/widget/2.0");
+            index.refresh(location.resolve("com/acme/widget/2.0"));
+            Assert.assertFalse(index.isFile("com/acme/widget/2.0/widget-2.0.jar"));
+            Assert.assertFalse(index.isDirectory("com/acme/widget/2.0"));
+            Assert.assertTrue(index.isFile("com/acme/widget/1.0/widget-1.0.jar"));
+            delete(location, "org/foo/baz");
+            index.refresh(location.resolve("org/foo/baz"));
+            Assert.assertFalse(index.isDirectory("org/foo/baz"));
+            Assert.assertTrue(index.isFile("org/foo/bar/1.0/bar-1.0.pom"));
+            Assert.assertEquals(1, index.list("org/foo", null, 10).getEntries().size());
+
+            // folder copied in the repository
+            write(location, "net/other/1.0/other-1.0.jar");
+            write(location, "net/other/1.1/other-1.1.jar");
+            index.refresh(location.resolve("net"));
+            Assert.assertTrue(index.isFile("net/other/1.0/other-1.0.jar"));
+            Assert.assertTrue(index.isFile("net/other/1.1/other-1.1.jar"));
+
+            // the whole repository changed: the top level folders are updated, without rebuild
+            delete(location, "org");
+            index.refresh(location);
+            Assert.assertTrue(index.isReady());
+            Assert.assertFalse(index.isDirectory("org"));
+            Assert.assertTrue(index.isFile("net/other/1.1/other-1.1.jar"));
+            Assert.assertEquals(1L, (long) index.status().get("builds"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSegments() {
+        Assert.assertArrayEquals(new String[0], PathIndex.segments(""));
+        Assert.assertArrayEquals(new String[]{ "org", "foo" }, PathIndex.segments("org//foo/"));
+        Assert.assertNull(PathIndex.segments("org/../foo"));
+        Assert.assertNull(PathIndex.segments(".cave-trash/foo"));
+    }
+
+    @Test
+    public void testBloomFilter() {
+        PathIndex.BloomFilter bloom = new PathIndex.BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bloom.add("org/foo/artifact" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(bloom.mightContain("org/foo/artifact" + i));
+            if (bloom.mightContain("org/bar/artifact" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("False positives: " + falsePositives, falsePositives < 300);
+        Assert.assertTrue(bloom.fpp() < 0.02);
+    }
+
+    private static void write(Path location, String path) throws Exception {
+        Path file = location.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path location, String path) throws Exception {
+        Files.walkFileTree(location.resolve(path), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void await(PathIndex index) throws InterruptedException {
+        for (int i = 0; i < 500 && !index.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(index.isReady());
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+public class PrecompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAcceptsGzip() {
+        Assert.assertFalse(Precompressor.acceptsGzip(null));
+        Assert.assertFalse(Precompressor.acceptsGzip("identity"));
+        Assert.assertTrue(Precompressor.acceptsGzip("gzip"));
+        Assert.assertTrue(Precompressor.acceptsGzip("deflate, gzip;q=0.8"));
+        Assert.assertTrue(Precompressor.acceptsGzip("*"));
+        Assert.assertFalse(Precompressor.acceptsGzip("gzip;q=0"));
+        Assert.assertFalse(Precompressor.acceptsGzip("*, gzip;q=0.0"));
+    }
+
+    @Test
+    public void testCompressible() {
+        Assert.assertTrue(Precompressor.isCompressible("org/foo/bar/1.0/bar-1.0.pom"));
+        Assert.assertTrue(Precompressor.isCompressible("org/foo/bar/maven-metadata.xml"));
+        Assert.assertTrue(Precompressor.isCompressible("repository.xml"));
+        Assert.assertFalse(Precompressor.isCompressible("org/foo/bar/1.0/bar-1.0.jar"));
+        Assert.assertFalse(Precompressor.isCompressible("org/foo/bar/1.0/bar-1.0.pom.sha1"));
+    }
+
+    @Test
+    public void testVariants() throws Exception {
+        Path location = folder.newFolder("precompressed").toPath();
+        Path pom = location.resolve("org/foo/bar/1.0/bar-1.0.pom");
+        Files.createDirectories(pom.getParent());
+        StringBuilder content = new StringBuilder("<project>");
+        for (int i = 0; i < 100; i++) {
+            content.append("<dependency><groupId>org.foo</groupId><artifactId>dep").append(i).append("</artifactId></dependency>");
+        }
+        content.append("</project>");
+        Files.write(pom, content.toString().getBytes(StandardCharsets.UTF_8));
+        File file = pom.toFile();
+
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        Precompressor precompressor = new Precompressor(location, metrics);
+        Assert.assertNull(precompressor.lookup("org/foo/bar/1.0/bar-1.0.pom", file));
+        Path variant = precompressor.generate("org/foo/bar/1.0/bar-1.0.pom", file);
+        Assert.assertTrue(variant.startsWith(location.resolve(Precompressor.VARIANTS_FOLDER)));
+        Assert.assertTrue(Files.size(variant) < file.length() / 4);
+        Assert.assertEquals(variant, precompressor.lookup("org/foo/bar/1.0/bar-1.0.pom", file));
+        Assert.assertEquals(1L, (long) metrics.snapshot().get("compression.generated"));
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(variant))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            Assert.assertEquals(content.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        // the variant is stale when the file changes (same size, other modification time)
+        long modified = file.lastModified();
+        Files.write(pom, content.toString().replace("dep1", "dep_").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(pom, FileTime.fromMillis(modified + 1000));
+        Assert.assertNull(precompressor.lookup("org/foo/bar/1.0/bar-1.0.pom", file));
+
+        // generated again in background
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            precompressor.generate("org/foo/bar/1.0/bar-1.0.pom", file, executor);
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(variant, precompressor.lookup("org/foo/bar/1.0/bar-1.0.pom", file));
+        Assert.assertEquals(2L, (long) metrics.snapshot().get("compression.generated"));
+
+        // outside of the repository
+        Assert.assertNull(precompressor.generate("../../outside.pom", file));
+    }
+
+}
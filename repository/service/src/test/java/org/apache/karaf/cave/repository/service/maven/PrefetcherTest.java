@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.MavenResolver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PrefetcherTest {
+
+    private static final String POM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+            + "  <parent><groupId>org.foo</groupId><artifactId>parent</artifactId><version>3</version></parent>\n"
+            + "  <artifactId>bar</artifactId>\n"
+            + "  <version>1.0</version>\n"
+            + "  <packaging>bundle</packaging>\n"
+            + "  <properties><baz.version>2.1</baz.version></properties>\n"
+            + "  <dependencyManagement><dependencies><dependency>\n"
+            + "    <groupId>org.managed</groupId><artifactId>managed</artifactId><version>1</version>\n"
+            + "  </dependency></dependencies></dependencyManagement>\n"
+            + "  <dependencies>\n"
+            + "    <dependency><groupId>org.baz</groupId><artifactId>baz</artifactId><version>${baz.version}</version>\n"
+            + "      <exclusions><exclusion><groupId>x</groupId><artifactId>y</artifactId></exclusion></exclusions>\n"
+            + "    </dependency>\n"
+            + "    <dependency><groupId>${project.groupId}</groupId><artifactId>core</artifactId><version>${project.version}</version></dependency>\n"
+            + "    <dependency><groupId>junit</groupId><artifactId>junit</artifactId><version>4.12</version><scope>test</scope></dependency>\n"
+            + "    <dependency><groupId>org.opt</groupId><artifactId>opt</artifactId><version>1</version><optional>true</optional></dependency>\n"
+            + "    <dependency><groupId>org.managed</groupId><artifactId>managed</artifactId></dependency>\n"
+            + "  </dependencies>\n"
+            + "</project>\n";
+
+    @Test
+    public void testRelated() throws Exception {
+        List<String> paths = new ArrayList<>();
+        for (String[] artifact : Prefetcher.related("org/foo/bar/1.0/bar-1.0.pom", POM.getBytes(StandardCharsets.UTF_8))) {
+            paths.add(artifact[5]);
+        }
+        Assert.assertEquals(4, paths.size());
+        Assert.assertEquals("org/foo/bar/1.0/bar-1.0.jar", paths.get(0));
+        Assert.assertEquals("org/foo/parent/3/parent-3.pom", paths.get(1));
+        Assert.assertEquals("org/baz/baz/2.1/baz-2.1.pom", paths.get(2));
+        Assert.assertEquals("org/foo/core/1.0/core-1.0.pom", paths.get(3));
+
+        // not a POM
+        Assert.assertTrue(Prefetcher.related("org/foo/bar/1.0/bar-1.0.jar", POM.getBytes(StandardCharsets.UTF_8)).isEmpty());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        MavenResolver resolver = EasyMock.createNiceMock(MavenResolver.class);
+        EasyMock.expect(resolver.resolve(EasyMock.<String>anyObject(), EasyMock.<String>anyObject(), EasyMock.<String>anyObject(),
+                EasyMock.<String>anyObject(), EasyMock.<String>anyObject())).andReturn(new File("target")).anyTimes();
+        EasyMock.replay(resolver);
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        Prefetcher prefetcher = new Prefetcher(new MavenResolverProvider(resolver), metrics, 2);
+        try {
+            prefetcher.fetched("org/foo/bar/1.0/bar-1.0.pom", POM.getBytes(StandardCharsets.UTF_8));
+            long timeout = System.currentTimeMillis() + 10000;
+            while (metrics.snapshot().get("prefetch.completed") < 4 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(4L, (long) metrics.snapshot().get("prefetch.scheduled"));
+            Assert.assertEquals(4L, (long) metrics.snapshot().get("prefetch.completed"));
+
+            prefetcher.requested("org/foo/bar/1.0/bar-1.0.jar");
+            prefetcher.requested("org/foo/bar/1.0/bar-1.0.jar");
+            prefetcher.requested("org/other/other/1.0/other-1.0.jar");
+            Assert.assertEquals(1L, (long) metrics.snapshot().get("prefetch.hits"));
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+}
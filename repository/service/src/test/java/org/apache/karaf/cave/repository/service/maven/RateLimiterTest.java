@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.service.http.HttpContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.DatatypeConverter;
+
+public class RateLimiterTest {
+
+    private static final RateLimiter.Limit UNLIMITED = new RateLimiter.Limit(0, 0);
+
+    @Test
+    public void testBucket() throws Exception {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        // 10 tokens per second, holding 2 seconds of tokens
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(10, 2 * second, 0);
+        Assert.assertEquals(20, bucket.level(0));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(0, bucket.tryTake(1, 0));
+        }
+        Assert.assertEquals(0, bucket.level(0));
+        Assert.assertEquals(second / 10, bucket.tryTake(1, 0));
+        // refilled with the time
+        Assert.assertEquals(5, bucket.level(second / 2));
+        Assert.assertEquals(0, bucket.tryTake(5, second / 2));
+        Assert.assertTrue(bucket.tryTake(1, second / 2) > 0);
+        bucket.give(5);
+        Assert.assertEquals(5, bucket.level(second / 2));
+
+        // debt
+        bucket.take(25, second / 2);
+        Assert.assertEquals(-20, bucket.level(second / 2));
+        Assert.assertEquals(2 * second, bucket.debt(second / 2));
+        Assert.assertEquals(0, bucket.debt(3 * second));
+        Assert.assertTrue(bucket.isFull(5 * second));
+    }
+
+    @Test
+    public void testRequests() throws Exception {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(5, 0), UNLIMITED, UNLIMITED, 1000);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.acquire("repo", "alice", "10.0.0.1").isGranted());
+        }
+        RateLimiter.Permit rejected = limiter.acquire("repo", "alice", "10.0.0.1");
+        Assert.assertFalse(rejected.isGranted());
+        Assert.assertEquals(1, rejected.getRetryAfter());
+        // the other users, and the anonymous requests, are not limited by alice
+        Assert.assertTrue(limiter.acquire("repo", "bob", "10.0.0.1").isGranted());
+        Assert.assertTrue(limiter.acquire("repo", null, "10.0.0.1").isGranted());
+
+        Map<String, Map<String, Long>> levels = limiter.levels();
+        Assert.assertEquals(2, levels.size());
+        Assert.assertEquals(0L, (long) levels.get("user:alice").get("requests"));
+        Assert.assertEquals(4L, (long) levels.get("user:bob").get("requests"));
+        Assert.assertNull(levels.get("user:bob").get("bytes"));
+    }
+
+    @Test
+    public void testAllOrNothing() throws Exception {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(100, 0), new RateLimiter.Limit(2, 0), UNLIMITED, 1000);
+        Assert.assertTrue(limiter.acquire("repo", "alice", "10.0.0.1").isGranted());
+        Assert.assertTrue(limiter.acquire("repo", "alice", "10.0.0.1").isGranted());
+        Assert.assertFalse(limiter.acquire("repo", "alice", "10.0.0.1").isGranted());
+        Assert.assertFalse(limiter.acquire("repo", "alice", "10.0.0.1").isGranted());
+        // the user tokens are given back when the address rejects the request
+        Assert.assertEquals(98L, (long) limiter.levels().get("user:alice").get("requests"));
+        Assert.assertTrue(limiter.acquire("repo", "alice", "10.0.0.2").isGranted());
+    }
+
+    @Test
+    public void testBytes() throws Exception {
+        RateLimiter limiter = new RateLimiter(UNLIMITED, UNLIMITED, new RateLimiter.Limit(0, 1000), 1000);
+        RateLimiter.Permit permit = limiter.acquire("repo", null, "10.0.0.1");
+        Assert.assertTrue(permit.isGranted());
+        // the transfer is never interrupted, the next requests wait for the debt to be paid back
+        permit.transferred(5000);
+        RateLimiter.Permit rejected = limiter.acquire("repo", null, "10.0.0.2");
+        Assert.assertFalse(rejected.isGranted());
+        Assert.assertTrue(rejected.getRetryAfter() >= 3 && rejected.getRetryAfter() <= 4);
+        Assert.assertTrue(limiter.levels().get("repository:repo").get("bytes") < -3000);
+        Assert.assertTrue(limiter.acquire("other", null, "10.0.0.2").isGranted());
+
+        limiter.remove("repo");
+        Assert.assertTrue(limiter.acquire("repo", null, "10.0.0.2").isGranted());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        RateLimiter limiter = new RateLimiter(UNLIMITED, new RateLimiter.Limit(10, 0), UNLIMITED, 100);
+        for (int i = 0; i < RateLimiter.MAX_BUCKETS; i++) {
+            Assert.assertTrue(limiter.acquire("repo", null, "10.0." + (i / 256) + "." + (i % 256)).isGranted());
+        }
+        // no idle address to forget, the new addresses are rejected (and not kept)
+        Assert.assertFalse(limiter.acquire("repo", null, "10.1.0.1").isGranted());
+        Assert.assertFalse(limiter.acquire("repo", null, "10.1.0.2").isGranted());
+        Assert.assertEquals(RateLimiter.MAX_BUCKETS, limiter.levels().size());
+        // the known addresses are still served
+        Assert.assertTrue(limiter.acquire("repo", null, "10.0.0.1").isGranted());
+
+        // the idle addresses are forgotten once their buckets are full again
+        Thread.sleep(250);
+        Assert.assertTrue(limiter.acquire("repo", null, "10.1.0.1").isGranted());
+        Assert.assertEquals(1, limiter.levels().size());
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        RateLimiter limiter = new RateLimiter(UNLIMITED, UNLIMITED, UNLIMITED, 1000);
+        Assert.assertTrue(limiter.isUnlimited());
+        RateLimiter.Permit permit = limiter.acquire("repo", "alice", "10.0.0.1");
+        Assert.assertTrue(permit.isGranted());
+        permit.transferred(1000);
+        Assert.assertTrue(limiter.levels().isEmpty());
+    }
+
+    @Test
+    public void testServlet() throws Exception {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        MavenServlet servlet = new MavenServlet(null, null, null, metrics, null, null, null, null, "repo", null, 1, null, null, null, 0);
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limit(1, 0), UNLIMITED, UNLIMITED, 1000);
+        servlet.setRateLimiter(limiter);
+
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getAttribute(HttpContext.REMOTE_USER)).andReturn("alice").anyTimes();
+        EasyMock.expect(request.getRemoteAddr()).andReturn("10.0.0.1").anyTimes();
+        HttpServletResponse response = EasyMock.createStrictMock(HttpServletResponse.class);
+        response.setHeader("Retry-After", "1");
+        response.sendError(EasyMock.eq(429), EasyMock.anyString());
+        EasyMock.replay(request, response);
+
+        Assert.assertNotNull(servlet.admit(request, response));
+        Assert.assertNull(servlet.admit(request, response));
+        EasyMock.verify(response);
+        Assert.assertEquals(1L, (long) metrics.snapshot().get("requests.throttled"));
+
+        // the user of the basic credentials when not authenticated (repository without role)
+        request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getAttribute(HttpContext.REMOTE_USER)).andReturn(null).anyTimes();
+        EasyMock.expect(request.getHeader("Authorization")).andReturn("Basic " + DatatypeConverter.printBase64Binary("bob:secret".getBytes(StandardCharsets.ISO_8859_1))).anyTimes();
+        EasyMock.expect(request.getRemoteAddr()).andReturn("10.0.0.1").anyTimes();
+        EasyMock.replay(request);
+        Assert.assertNotNull(servlet.admit(request, response));
+        Assert.assertEquals(0L, (long) limiter.levels().get("user:bob").get("requests"));
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ResponseWriterTest {
+
+    @Test
+    public void testThrottledClients() throws Exception {
+        int clients = 50;
+        byte[] body = new byte[1024 * 1024];
+        new Random().nextBytes(body);
+        // a single container thread drives all the transfers
+        ScheduledExecutorService container = Executors.newSingleThreadScheduledExecutor();
+        final CountDownLatch completed = new CountDownLatch(clients);
+        final AtomicLong written = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<ThrottledOutputStream> outputs = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            // 64 KB every 10 ms per client
+            ThrottledOutputStream output = new ThrottledOutputStream(container, 64 * 1024, 10);
+            outputs.add(output);
+            ResponseWriter.write(new ByteArrayInputStream(body), output, new ResponseWriter.Completion() {
+                @Override
+                public void completed(long bytes, Throwable error) {
+                    written.addAndGet(bytes);
+                    if (error != null) {
+                        failure.set(error);
+                    }
+                    completed.countDown();
+                }
+            });
+        }
+        // the writers don't block the calling thread while the clients receive the bodies (at least 160 ms each)
+        Assert.assertEquals(clients, completed.getCount());
+
+        Assert.assertTrue(completed.await(30, TimeUnit.SECONDS));
+        container.shutdown();
+        Assert.assertNull(failure.get());
+        Assert.assertEquals((long) clients * body.length, written.get());
+        for (ThrottledOutputStream output : outputs) {
+            Assert.assertArrayEquals(body, output.received.toByteArray());
+            // the client connection was throttled: the writer waited for the container
+            Assert.assertTrue(output.stalls > 1);
+        }
+    }
+
+    @Test
+    public void testClientError() throws Exception {
+        ScheduledExecutorService container = Executors.newSingleThreadScheduledExecutor();
+        ThrottledOutputStream output = new ThrottledOutputStream(container, 1024, 10);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final boolean[] closed = new boolean[1];
+        ByteArrayInputStream input = new ByteArrayInputStream(new byte[1024 * 1024]) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        ResponseWriter.write(input, output, new ResponseWriter.Completion() {
+            @Override
+            public void completed(long bytes, Throwable error) {
+                failure.set(error);
+                completed.countDown();
+            }
+        });
+        // the client disconnects
+        output.fail(new IOException("Connection reset"));
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        container.shutdown();
+        Assert.assertEquals("Connection reset", failure.get().getMessage());
+        Assert.assertTrue(closed[0]);
+    }
+
+    /**
+     * A client connection accepting a number of bytes per period, the write listener being called by the container
+     * once the client can accept data again.
+     */
+    private static class ThrottledOutputStream extends ServletOutputStream {
+
+        private final ScheduledExecutorService container;
+        private final int rate;
+        private final long period;
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private WriteListener listener;
+        private int available;
+        private int stalls;
+
+        ThrottledOutputStream(ScheduledExecutorService container, int rate, long period) {
+            this.container = container;
+            this.rate = rate;
+            this.period = period;
+        }
+
+        @Override
+        public boolean isReady() {
+            if (available > 0) {
+                return true;
+            }
+            stalls++;
+            container.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    resume();
+                }
+            }, period, TimeUnit.MILLISECONDS);
+            return false;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            listener = writeListener;
+            container.execute(new Runnable() {
+                @Override
+                public void run() {
+                    resume();
+                }
+            });
+        }
+
+        private void resume() {
+            available = rate;
+            try {
+                listener.onWritePossible();
+            } catch (IOException e) {
+                listener.onError(e);
+            }
+        }
+
+        void fail(final Throwable error) {
+            container.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onError(error);
+                }
+            });
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // the data are buffered by the container even if above the rate, the connection is then not ready
+            received.write(b, off, len);
+            available -= len;
+        }
+
+    }
+
+}
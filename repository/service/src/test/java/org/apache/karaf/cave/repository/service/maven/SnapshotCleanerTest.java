@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.storage.StorageReaper;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+public class SnapshotCleanerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseDuration() {
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(90), SnapshotCleaner.parseDuration("90"));
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(90), SnapshotCleaner.parseDuration("90s"));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(15), SnapshotCleaner.parseDuration("15m"));
+        Assert.assertEquals(TimeUnit.HOURS.toMillis(12), SnapshotCleaner.parseDuration("12H"));
+        Assert.assertEquals(TimeUnit.DAYS.toMillis(30), SnapshotCleaner.parseDuration("30d"));
+        Assert.assertEquals(TimeUnit.DAYS.toMillis(14), SnapshotCleaner.parseDuration("2w"));
+        Assert.assertEquals(0, SnapshotCleaner.parseDuration("0"));
+        try {
+            SnapshotCleaner.parseDuration("ten days");
+            Assert.fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentUpload() throws Exception {
+        Path version = folder.newFolder("foo", "bar", "1.0-SNAPSHOT").toPath();
+        final Path metadata = version.resolve("maven-metadata.xml");
+        Files.write(metadata, metadata("bar-1.0-20200101.000000-1", "bar-1.0-20200102.000000-2").getBytes(StandardCharsets.UTF_8));
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread cleaner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    SnapshotCleaner.rewrite(metadata, Collections.singleton("1.0-20200101.000000-1"));
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        // an upload of a new build holds the folder lock while updating the metadata
+        Lock lock = ArtifactUpload.lock(version);
+        lock.lock();
+        try {
+            cleaner.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cleaner.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Thread.State.WAITING, cleaner.getState());
+            Files.write(metadata, metadata("bar-1.0-20200101.000000-1", "bar-1.0-20200102.000000-2", "bar-1.0-20200103.000000-3").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            lock.unlock();
+        }
+        cleaner.join(5000);
+        Assert.assertNull(failure.get());
+        String content = new String(Files.readAllBytes(metadata), StandardCharsets.UTF_8);
+        Assert.assertFalse(content.contains("1.0-20200101.000000-1"));
+        Assert.assertTrue(content.contains("1.0-20200102.000000-2"));
+        Assert.assertTrue(content.contains("1.0-20200103.000000-3"));
+        Assert.assertFalse(content.contains("<lastUpdated>20200101000000</lastUpdated>"));
+    }
+
+    @Test
+    public void testCleanupHoldsFolderLock() throws Exception {
+        final Path location = folder.newFolder("repository").toPath();
+        final Path version = Files.createDirectories(location.resolve("foo/bar/1.0-SNAPSHOT"));
+        Path metadata = version.resolve("maven-metadata.xml");
+        Files.write(metadata, metadata("bar-1.0-20200101.000000-1", "bar-1.0-20200102.000000-2").getBytes(StandardCharsets.UTF_8));
+        Path removed = version.resolve("bar-1.0-20200101.000000-1.jar");
+        Path kept = version.resolve("bar-1.0-20200102.000000-2.jar");
+        Files.write(removed, new byte[10]);
+        Files.write(kept, new byte[10]);
+        final SnapshotCleaner cleaner = new SnapshotCleaner(new StorageReaper(0), 0);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cleaner.cleanup(location, version, 1, 0, System.currentTimeMillis());
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        // neither the files nor the metadata are changed while an upload holds the folder lock
+        Lock lock = ArtifactUpload.lock(version);
+        lock.lock();
+        try {
+            thread.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Thread.State.WAITING, thread.getState());
+            Assert.assertTrue(Files.exists(removed));
+            Assert.assertTrue(new String(Files.readAllBytes(metadata), StandardCharsets.UTF_8).contains("1.0-20200101.000000-1"));
+        } finally {
+            lock.unlock();
+        }
+        thread.join(5000);
+        Assert.assertNull(failure.get());
+        Assert.assertFalse(Files.exists(removed));
+        Assert.assertTrue(Files.exists(kept));
+        String content = new String(Files.readAllBytes(metadata), StandardCharsets.UTF_8);
+        Assert.assertFalse(content.contains("1.0-20200101.000000-1"));
+        Assert.assertTrue(content.contains("1.0-20200102.000000-2"));
+    }
+
+    private static String metadata(String... builds) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<metadata>\n  <groupId>foo</groupId>\n  <artifactId>bar</artifactId>\n  <version>1.0-SNAPSHOT</version>\n");
+        builder.append("  <versioning>\n    <lastUpdated>20200101000000</lastUpdated>\n    <snapshotVersions>");
+        for (String build : builds) {
+            builder.append("\n      <snapshotVersion>\n        <extension>jar</extension>\n        <value>")
+                    .append(build.substring("bar-".length())).append("</value>\n      </snapshotVersion>");
+        }
+        builder.append("\n    </snapshotVersions>\n  </versioning>\n</metadata>\n");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class UpstreamHealthTest {
+
+    @Test
+    public void testBreaker() throws Exception {
+        UpstreamHealth health = new UpstreamHealth(0.5, 3, 100);
+        // not enough lookups to open the breaker
+        Assert.assertTrue(health.allow());
+        health.failure(TimeUnit.MILLISECONDS.toNanos(10));
+        health.failure(TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(UpstreamHealth.State.CLOSED, health.getState());
+        health.failure(TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(UpstreamHealth.State.OPEN, health.getState());
+        Assert.assertFalse(health.allow());
+        Assert.assertEquals("open", health.status().get("state"));
+        Assert.assertEquals("100", health.status().get("failureRate"));
+        Assert.assertEquals("1", health.status().get("trips"));
+
+        // half-open: a single probe, opening the breaker again when failing
+        Thread.sleep(150);
+        Assert.assertTrue(health.allow());
+        Assert.assertFalse(health.allow());
+        health.failure(TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(UpstreamHealth.State.OPEN, health.getState());
+        Assert.assertEquals("2", health.status().get("trips"));
+
+        // a cancelled probe lets another lookup probe
+        Thread.sleep(150);
+        Assert.assertTrue(health.allow());
+        health.released();
+        Assert.assertTrue(health.allow());
+
+        // a successful probe closes the breaker
+        health.success(TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(UpstreamHealth.State.CLOSED, health.getState());
+        Assert.assertEquals("0", health.status().get("failureRate"));
+        Assert.assertTrue(health.allow());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        UpstreamHealth health = new UpstreamHealth(0, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            health.failure(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        Assert.assertEquals(UpstreamHealth.State.CLOSED, health.getState());
+        Assert.assertEquals("20", health.status().get("latency"));
+    }
+
+}
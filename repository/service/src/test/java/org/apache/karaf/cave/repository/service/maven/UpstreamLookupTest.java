@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.maven;
+
+import org.apache.karaf.cave.repository.service.metrics.RepositoryMetrics;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.MavenResolver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class UpstreamLookupTest {
+
+    @Test
+    public void testSpecs() throws Exception {
+        List<String> specs = UpstreamLookup.specs("http://foo/maven2@id=foo, http://bar/maven2,");
+        Assert.assertEquals(2, specs.size());
+        Assert.assertEquals("foo", UpstreamLookup.id(specs.get(0), 0));
+        Assert.assertEquals("upstream1", UpstreamLookup.id(specs.get(1), 1));
+        Assert.assertTrue(UpstreamLookup.isNotFound(new IOException("Error resolving artifact", new ArtifactNotFoundException())));
+        Assert.assertFalse(UpstreamLookup.isNotFound(new IOException("Connection refused")));
+    }
+
+    @Test
+    public void testHedged() throws Exception {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        UpstreamLookup lookup = new UpstreamLookup(Arrays.asList(upstream("slow", 5000, new File("slow")), upstream("fast", 0, new File("fast"))),
+                null, metrics, UpstreamLookup.Mode.HEDGED, 50, 2);
+        try {
+            long start = System.currentTimeMillis();
+            Assert.assertEquals(new File("fast"), lookup.resolve("org.foo", "bar", null, "jar", "1.0"));
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+            Map<String, Long> snapshot = metrics.snapshot();
+            Assert.assertEquals(1L, (long) snapshot.get("upstream.slow.requests"));
+            Assert.assertEquals(1L, (long) snapshot.get("upstream.slow.cancelled"));
+            Assert.assertEquals(0L, (long) snapshot.get("upstream.slow.failed"));
+            Assert.assertEquals(1L, (long) snapshot.get("upstream.fast.found"));
+            Assert.assertEquals(1L, (long) snapshot.get("upstream.fast.won"));
+
+            // the upstream which served the group is tried first
+            Assert.assertEquals("fast", lookup.order("org.foo").get(0).getId());
+            Assert.assertEquals(new File("fast"), lookup.resolve("org.foo", "baz", null, "jar", "1.0"));
+            Assert.assertEquals(1L, (long) metrics.snapshot().get("upstream.slow.requests"));
+        } finally {
+            lookup.close();
+        }
+    }
+
+    @Test
+    public void testMissed() throws Exception {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        UpstreamLookup lookup = new UpstreamLookup(Arrays.asList(upstream("first", 0, null), upstream("second", 0, new File("second"))),
+                null, metrics, UpstreamLookup.Mode.HEDGED, 5000, 2);
+        try {
+            long start = System.currentTimeMillis();
+            // the next upstream is queried as soon as the artifact is not found, without waiting for the hedge delay
+            Assert.assertEquals(new File("second"), lookup.resolve("org.foo", "bar", null, "jar", "1.0"));
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+            Assert.assertEquals(1L, (long) metrics.snapshot().get("upstream.first.missed"));
+        } finally {
+            lookup.close();
+        }
+
+        lookup = new UpstreamLookup(Arrays.asList(upstream("first", 0, null), upstream("second", 0, null)),
+                null, metrics, UpstreamLookup.Mode.PARALLEL, 100, 2);
+        try {
+            lookup.resolve("org.foo", "bar", null, "jar", "2.0");
+            Assert.fail("Artifact should not be found");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            lookup.close();
+        }
+    }
+
+    @Test
+    public void testBreaker() throws Exception {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        UpstreamLookup.Upstream down = upstream("down", 0, new IOException("Connection refused"));
+        UpstreamLookup lookup = new UpstreamLookup(Arrays.asList(down, upstream("up", 0, new File("up"))),
+                null, metrics, UpstreamLookup.Mode.SEQUENTIAL, 100, 2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(new File("up"), lookup.resolve("org.foo" + i, "bar", null, "jar", "1.0"));
+            }
+            Assert.assertEquals(UpstreamHealth.State.OPEN, down.getHealth().getState());
+            // the upstream is skipped while the breaker is open
+            Assert.assertEquals(new File("up"), lookup.resolve("org.bar", "bar", null, "jar", "1.0"));
+            Map<String, Long> snapshot = metrics.snapshot();
+            Assert.assertEquals(5L, (long) snapshot.get("upstream.down.failed"));
+            Assert.assertEquals(1L, (long) snapshot.get("upstream.down.skipped"));
+        } finally {
+            lookup.close();
+        }
+    }
+
+    @Test
+    public void testCancelledProbe() throws Exception {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        final UpstreamLookup.Upstream probe = upstream("probe", 0, new File("probe"), new UpstreamHealth(0.5, 1, 1));
+        // open the breaker, the next lookup is the half-open probe
+        probe.getHealth().failure(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertNotEquals(UpstreamHealth.State.CLOSED, probe.getHealth().getState());
+        final UpstreamLookup lookup = new UpstreamLookup(Arrays.asList(upstream("other", 0, new File("other")), probe),
+                null, metrics, UpstreamLookup.Mode.PARALLEL, 100, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            Thread.sleep(10);
+            // saturate the executor, the attempts stay queued
+            for (int i = 0; i < lookup.executor.getMaximumPoolSize(); i++) {
+                lookup.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread resolver = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        lookup.resolve("org.foo", "bar", null, "jar", "1.0");
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            resolver.start();
+            for (int i = 0; i < 500 && lookup.executor.getQueue().size() < 2; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(2, lookup.executor.getQueue().size());
+            Assert.assertFalse(probe.getHealth().allow());
+            // the lookup is over before the queued attempts start
+            resolver.interrupt();
+            resolver.join(10000);
+            Assert.assertTrue(failure.get() instanceof InterruptedIOException);
+            Assert.assertEquals(1L, (long) metrics.snapshot().get("upstream.probe.cancelled"));
+
+            // the probe has been released, the upstream can be probed again
+            Assert.assertEquals(UpstreamHealth.State.HALF_OPEN, probe.getHealth().getState());
+            Assert.assertTrue(probe.getHealth().allow());
+        } finally {
+            release.countDown();
+            lookup.close();
+        }
+    }
+
+    private static UpstreamLookup.Upstream upstream(String id, final long latency, final File file) throws Exception {
+        return upstream(id, latency, (file != null) ? file : new IOException("Error resolving artifact", new ArtifactNotFoundException()));
+    }
+
+    private static UpstreamLookup.Upstream upstream(String id, final long latency, final Object result) throws Exception {
+        return upstream(id, latency, result, new UpstreamHealth(0.5, 5, 60000));
+    }
+
+    private static UpstreamLookup.Upstream upstream(String id, final long latency, final Object result, UpstreamHealth health) throws Exception {
+        MavenResolver resolver = EasyMock.createNiceMock(MavenResolver.class);
+        EasyMock.expect(resolver.resolve(EasyMock.<String>anyObject(), EasyMock.<String>anyObject(), EasyMock.<String>anyObject(),
+                EasyMock.<String>anyObject(), EasyMock.<String>anyObject())).andAnswer(new IAnswer<File>() {
+            @Override
+            public File answer() throws Throwable {
+                Thread.sleep(latency);
+                if (result instanceof IOException) {
+                    throw (IOException) result;
+                }
+                return (File) result;
+            }
+        }).anyTimes();
+        EasyMock.replay(resolver);
+        return new UpstreamLookup.Upstream(id, "http://" + id + "/maven2@id=" + id, new MavenResolverProvider(resolver), health);
+    }
+
+    private static class ArtifactNotFoundException extends FileNotFoundException {
+    }
+
+}
@@ -14,22 +14,29 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.apache.karaf.cave.repository.service.maven;
+package org.apache.karaf.cave.repository.service.metrics;
 
-/**
- * Something interested in being notified when the completion
- * of an asynchronous download operation : {@link DefaultFuture}.
- *
- */
-public interface FutureListener<T extends DefaultFuture> {
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class HeavyHittersTest {
 
-    /**
-     * Invoked when the operation associated with the {@link DefaultFuture}
-     * has been completed even if you add the listener after the completion.
-     *
-     * @param future The source {@link DefaultFuture} which called this
-     *               callback.
-     */
-    void operationComplete(T future);
+    @Test
+    public void testTop() {
+        HeavyHitters popular = new HeavyHitters(10, 0);
+        for (int i = 0; i < 5000; i++) {
+            popular.record("cold/artifact/" + i);
+            popular.record("hot/artifact/" + (i % 10));
+        }
+        Map<String, Long> top = popular.top(10);
+        Assert.assertEquals(10, top.size());
+        for (String path : top.keySet()) {
+            Assert.assertTrue(path.startsWith("hot/"));
+            Assert.assertTrue(popular.estimate(path) >= 500);
+        }
+        Assert.assertEquals(3, popular.top(3).size());
+    }
 
-}
\ No newline at end of file
+}
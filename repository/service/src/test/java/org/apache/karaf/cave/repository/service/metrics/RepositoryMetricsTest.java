@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class RepositoryMetricsTest {
+
+    @Test
+    public void testSnapshot() throws Exception {
+        RepositoryMetrics metrics = new RepositoryMetrics();
+        Map<String, Long> snapshot = metrics.snapshot();
+        Assert.assertEquals(0L, (long) snapshot.get("get.artifact.hit.count"));
+        Assert.assertEquals(0L, (long) snapshot.get("bytes.out"));
+
+        for (int i = 1; i <= 1000; i++) {
+            metrics.requestStarted();
+            metrics.bytesOut(10);
+            metrics.requestCompleted(RepositoryMetrics.Request.get(false, true, true), TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        metrics.requestStarted();
+        metrics.coalesced();
+        snapshot = metrics.snapshot();
+        Assert.assertEquals(1000L, (long) snapshot.get("get.artifact.hit.count"));
+        Assert.assertEquals(500500L, (long) snapshot.get("get.artifact.hit.sum"));
+        Assert.assertEquals(1000L, (long) snapshot.get("get.artifact.hit.max"));
+        // log-linear buckets, at most 12.5% error
+        Assert.assertEquals(500, snapshot.get("get.artifact.hit.p50"), 63);
+        Assert.assertEquals(990, snapshot.get("get.artifact.hit.p99"), 124);
+        Assert.assertEquals(0L, (long) snapshot.get("get.artifact.proxied.count"));
+        Assert.assertEquals(10000L, (long) snapshot.get("bytes.out"));
+        Assert.assertEquals(1L, (long) snapshot.get("requests.inflight"));
+        Assert.assertEquals(1L, (long) snapshot.get("requests.waiting"));
+
+        String prometheus = PrometheusFormat.format(Collections.singletonMap("test", snapshot));
+        Assert.assertTrue(prometheus.contains("# TYPE cave_repository_request_duration_seconds summary"));
+        Assert.assertTrue(prometheus.contains("cave_repository_request_duration_seconds_count{repository=\"test\",method=\"get\",kind=\"artifact\",outcome=\"hit\"} 1000"));
+        Assert.assertTrue(prometheus.contains("cave_repository_sent_bytes_total{repository=\"test\"} 10000"));
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.karaf.cave.repository.service.storage;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class StorageReaperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDelete() throws Exception {
+        Path location = folder.newFolder("repository").toPath();
+        Path artifact = Files.createDirectories(location.resolve("org/foo/bar/1.0"));
+        Files.write(artifact.resolve("bar-1.0.jar"), new byte[10]);
+        StorageReaper reaper = new StorageReaper(0);
+        reaper.start();
+        try {
+            reaper.delete(location.resolve("org"), location);
+            Assert.assertFalse(Files.exists(location.resolve("org")));
+            for (int i = 0; i < 500 && reaper.status().get("pendingEntries") > 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1L, (long) reaper.status().get("deletedFiles"));
+        } finally {
+            reaper.stop();
+        }
+    }
+
+    @Test
+    public void testTrashNotAvailable() throws Exception {
+        Path location = folder.newFolder("repository").toPath();
+        Path artifact = Files.createDirectories(location.resolve("org/foo/bar/1.0"));
+        Files.write(artifact.resolve("bar-1.0.jar"), new byte[10]);
+        // the trash can't be created
+        Files.write(StorageReaper.trash(location), new byte[0]);
+        StorageReaper reaper = new StorageReaper(0);
+        reaper.delete(location.resolve("org"), location);
+        // deleted synchronously
+        Assert.assertFalse(Files.exists(location.resolve("org")));
+        Assert.assertEquals(0L, (long) reaper.status().get("pendingEntries"));
+    }
+
+}